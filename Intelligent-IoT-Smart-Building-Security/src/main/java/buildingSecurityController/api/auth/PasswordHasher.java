@@ -0,0 +1,56 @@
+package buildingSecurityController.api.auth;
+
+import buildingSecurityController.api.model.UserDescriptor;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/*hash PBKDF2 con salt casuale delle password degli utenti. L'inventory sostituisce la password in
+chiaro con salt e hash appena riceve un utente, quindi journal, snapshot e file degli utenti
+contengono solo salt, hash e ruolo*/
+
+public final class PasswordHasher {
+
+    private static final String HASH_ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int HASH_ITERATIONS = 10000;
+    private static final int HASH_BITS = 256;
+    private static final int SALT_BYTES = 16;
+
+    private static final SecureRandom secureRandom = new SecureRandom();
+
+    private PasswordHasher() {
+    }
+
+    //se l'utente porta una password in chiaro la sostituisce con salt e hash
+    public static UserDescriptor protect(UserDescriptor userDescriptor) {
+        if(userDescriptor == null || userDescriptor.getPassword() == null)
+            return userDescriptor;
+
+        byte[] salt = new byte[SALT_BYTES];
+        secureRandom.nextBytes(salt);
+        userDescriptor.setPasswordSalt(Base64.getEncoder().encodeToString(salt));
+        userDescriptor.setPasswordHash(Base64.getEncoder().encodeToString(hash(userDescriptor.getPassword().toCharArray(), salt)));
+        userDescriptor.setPassword(null);
+        return userDescriptor;
+    }
+
+    public static boolean verify(String password, byte[] salt, byte[] expectedHash) {
+        return password != null && MessageDigest.isEqual(hash(password.toCharArray(), salt), expectedHash);
+    }
+
+    public static byte[] hash(char[] password, byte[] salt) {
+        PBEKeySpec keySpec = new PBEKeySpec(password, salt, HASH_ITERATIONS, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(HASH_ALGORITHM).generateSecret(keySpec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            keySpec.clearPassword();
+        }
+    }
+
+}
@@ -0,0 +1,111 @@
+package buildingSecurityController.api.auth;
+
+import buildingSecurityController.api.model.UserDescriptor;
+import buildingSecurityController.api.persistance.IInventoryChangeListener;
+import buildingSecurityController.api.persistance.IInventoryDataManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/*credenziali degli utenti tenute in memoria e allineate all'inventory tramite gli eventi USER,
+al posto di rileggere users-file ad ogni richiesta.
+Le password non vengono tenute in chiaro: l'inventory salva per ogni utente solo salt e hash PBKDF2
+(PasswordHasher) e qui si tengono gli stessi byte gia' decodificati. La verifica e' volutamente costosa, il costo sul percorso caldo e' tolto dalla cache del CachingAuthenticator*/
+
+public class UserCredentialStore implements IInventoryChangeListener {
+
+    private final static Logger logger = LoggerFactory.getLogger(UserCredentialStore.class);
+
+    private final IInventoryDataManager inventoryDataManager;
+
+    private final Map<String, StoredCredential> credentialMap = new ConcurrentHashMap<>();
+
+    //avvisati quando le credenziali di un utente cambiano (es. per invalidare la cache dell'authenticator)
+    private final List<Consumer<String>> invalidationListenerList = new CopyOnWriteArrayList<>();
+
+    public UserCredentialStore(IInventoryDataManager inventoryDataManager) {
+        this.inventoryDataManager = inventoryDataManager;
+        try {
+            for(String username : inventoryDataManager.getUsernameList())
+                reload(username);
+            logger.info("Loaded credentials of {} users", credentialMap.size());
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void onInventoryChanged(Entity entity, String id) {
+        if(entity != Entity.USER || id == null)
+            return;
+        try {
+            reload(id);
+        } catch (Exception e) {
+            logger.error("Error reloading credentials of {}: {}", id, e.getLocalizedMessage());
+            credentialMap.remove(id);
+        }
+        invalidationListenerList.forEach(listener -> listener.accept(id));
+    }
+
+    public void addInvalidationListener(Consumer<String> listener) {
+        if(listener != null)
+            invalidationListenerList.add(listener);
+    }
+
+    //restituisce il ruolo dell'utente se la password e' corretta
+    public Optional<String> verify(String username, String password) {
+        if(username == null || password == null)
+            return Optional.empty();
+
+        StoredCredential credential = credentialMap.get(username);
+        if(credential == null)
+            return Optional.empty();
+
+        return PasswordHasher.verify(password, credential.salt, credential.hash) ? Optional.ofNullable(credential.role) : Optional.empty();
+    }
+
+    public int size() {
+        return credentialMap.size();
+    }
+
+    private void reload(String username) throws Exception {
+        Optional<UserDescriptor> userDescriptor = inventoryDataManager.getUser(username);
+        if(!userDescriptor.isPresent()){
+            credentialMap.remove(username);
+            return;
+        }
+
+        //un inventory che non protegge le password (DefaultInventoryDataManager) le passa ancora in chiaro
+        UserDescriptor user = userDescriptor.get();
+        if(user.getPasswordHash() == null)
+            user = PasswordHasher.protect(user.copy());
+        if(user.getPasswordHash() == null || user.getPasswordSalt() == null){
+            credentialMap.remove(username);
+            return;
+        }
+
+        credentialMap.put(username, new StoredCredential(user.getRole(),
+                Base64.getDecoder().decode(user.getPasswordSalt()),
+                Base64.getDecoder().decode(user.getPasswordHash())));
+    }
+
+    private static final class StoredCredential {
+        private final String role;
+        private final byte[] salt;
+        private final byte[] hash;
+
+        private StoredCredential(String role, byte[] salt, byte[] hash) {
+            this.role = role;
+            this.salt = salt;
+            this.hash = hash;
+        }
+    }
+
+}
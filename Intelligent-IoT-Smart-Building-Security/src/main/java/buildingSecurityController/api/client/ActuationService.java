@@ -0,0 +1,254 @@
+package buildingSecurityController.api.client;
+
+import com.codahale.metrics.Timer;
+import io.dropwizard.lifecycle.Managed;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.coap.CoAP;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*gestisce i comandi verso luci e allarmi di un'area.
+Per ogni attuatore ricorda l'ultimo stato comandato e l'ultimo stato osservato (dalle observe relation
+di luci e allarmi): se l'attuatore e' gia' nello stato richiesto la PUT non viene inviata.
+Trigger concorrenti sulla stessa area e con lo stesso valore vengono accorpati in un solo fan-out,
+le PUT partono in parallelo con timeout e retry per ogni attuatore.
+L'uri di un attuatore e' quello scoperto dal resource directory; per quelli non ancora scoperti si usa
+l'endpoint configurato seguito dall'id del device (il nome della risorsa sullo smart object)*/
+
+public class ActuationService implements Managed {
+
+    private final static Logger logger = LoggerFactory.getLogger(ActuationService.class);
+
+    public static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+    public static final int DEFAULT_MAX_RETRIES = 2;
+    public static final long DEFAULT_RETRY_DELAY_MILLIS = 500;
+
+    private final CoapResourceClient coapResourceClient;
+    private final String smartObjectEndpoint;
+    private final long timeoutMillis;
+    private final int maxRetries;
+    private final long retryDelayMillis;
+    private final PipelineMetrics pipelineMetrics;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final Map<String, ActuatorState> actuatorStateMap = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Void>> inFlightMap = new ConcurrentHashMap<>();
+
+    public ActuationService() {
+        this(new CoapResourceClient(), null, DEFAULT_TIMEOUT_MILLIS, DEFAULT_MAX_RETRIES, DEFAULT_RETRY_DELAY_MILLIS);
+    }
+
+    public ActuationService(CoapResourceClient coapResourceClient, String smartObjectEndpoint, long timeoutMillis, int maxRetries, long retryDelayMillis) {
+        this(coapResourceClient, smartObjectEndpoint, timeoutMillis, maxRetries, retryDelayMillis, new PipelineMetrics());
+    }
+
+    //smartObjectEndpoint puo' essere null: in quel caso si comandano solo gli attuatori scoperti
+    public ActuationService(CoapResourceClient coapResourceClient, String smartObjectEndpoint, long timeoutMillis, int maxRetries, long retryDelayMillis, PipelineMetrics pipelineMetrics) {
+
+        if(timeoutMillis <= 0 || maxRetries < 0 || retryDelayMillis < 0)
+            throw new IllegalArgumentException("Invalid actuation timeout/retry settings");
+
+        this.coapResourceClient = coapResourceClient;
+        this.smartObjectEndpoint = smartObjectEndpoint == null || smartObjectEndpoint.endsWith("/") ? smartObjectEndpoint : smartObjectEndpoint + "/";
+        this.timeoutMillis = timeoutMillis;
+        this.maxRetries = maxRetries;
+        this.retryDelayMillis = retryDelayMillis;
+        this.pipelineMetrics = pipelineMetrics;
+
+        AtomicInteger threadCounter = new AtomicInteger();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "actuation-timer-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /*porta tutti gli attuatori dell'area al valore richiesto. Se per la stessa area e lo stesso valore
+    c'e' gia' un fan-out in corso restituisce quello invece di avviarne un altro*/
+    public CompletableFuture<Void> actuateArea(String areaId, List<String> deviceIdList, boolean value) {
+        return actuateArea(areaId, deviceIdList, value, 0);
+    }
+
+    /*sampleTimeMillis e' l'istante del campione che ha fatto scattare la policy (0 se non noto):
+    quando almeno un attuatore viene acceso si registra la latenza end-to-end dell'area.
+    I trigger accorpati in un fan-out gia' in corso non vengono misurati*/
+    public CompletableFuture<Void> actuateArea(String areaId, List<String> deviceIdList, boolean value, long sampleTimeMillis) {
+
+        String key = String.format("%s=%s", areaId, value);
+
+        CompletableFuture<Void> started = new CompletableFuture<>();
+        CompletableFuture<Void> inFlight = inFlightMap.putIfAbsent(key, started);
+        if(inFlight != null) {
+            logger.debug("Actuation for area {} -> {} already in flight, coalescing", areaId, value);
+            return inFlight;
+        }
+
+        List<CompletableFuture<Boolean>> commandList = new ArrayList<>();
+        try {
+            for(String deviceId : deviceIdList) {
+                if(isRedundant(deviceId, value))
+                    logger.debug("Skipping {}: already {}", deviceId, value);
+                else
+                    commandList.add(command(deviceId, value));
+            }
+        } catch (RuntimeException e) {
+            //senza questo i trigger successivi sulla stessa area resterebbero accorpati a un fan-out mai concluso
+            inFlightMap.remove(key, started);
+            started.completeExceptionally(e);
+            return started;
+        }
+
+        //i trigger ripetuti su un'area gia' attivata non mandano comandi, li conto solo a debug
+        if(commandList.isEmpty())
+            logger.debug("Actuating area {} -> {}: all {} actuators already {}", areaId, value, deviceIdList.size(), value);
+        else
+            logger.info("Actuating area {} -> {}: {} commands, {} skipped", areaId, value, commandList.size(), deviceIdList.size() - commandList.size());
+
+        //un fan-out senza comandi non viene misurato, altrimenti il timer conterebbe anche i trigger ridondanti
+        Timer.Context fanOutContext = commandList.isEmpty() ? null : pipelineMetrics.getFanOutTimer().time();
+
+        CompletableFuture.allOf(commandList.toArray(new CompletableFuture<?>[0]))
+                .whenComplete((ignored, error) -> {
+                    try {
+                        if(value && commandList.stream().anyMatch(command -> command.getNow(false)))
+                            pipelineMetrics.recordEndToEnd(areaId, sampleTimeMillis, System.currentTimeMillis());
+                    } finally {
+                        if(fanOutContext != null)
+                            fanOutContext.stop();
+                        inFlightMap.remove(key, started);
+                        started.complete(null);
+                    }
+                });
+
+        return started;
+    }
+
+    //uri della risorsa dell'attuatore letto dal resource directory
+    public void onActuatorDiscovered(String deviceId, String targetUrl) {
+        if(deviceId == null || targetUrl == null)
+            return;
+        actuatorStateMap.computeIfAbsent(deviceId, key -> new ActuatorState()).uri = targetUrl;
+    }
+
+    //stato notificato dall'observe relation dell'attuatore
+    public void onObservedState(String deviceId, Boolean value) {
+        if(deviceId == null || value == null)
+            return;
+        actuatorStateMap.computeIfAbsent(deviceId, key -> new ActuatorState()).lastObserved = value;
+    }
+
+    public Boolean getLastObservedState(String deviceId) {
+        ActuatorState state = actuatorStateMap.get(deviceId);
+        return state != null ? state.lastObserved : null;
+    }
+
+    public Boolean getLastCommandedState(String deviceId) {
+        ActuatorState state = actuatorStateMap.get(deviceId);
+        return state != null ? state.lastCommanded : null;
+    }
+
+    /*lo stato osservato ha la precedenza (l'attuatore puo' essere stato cambiato da fuori),
+    se non ho ancora osservazioni mi fido dell'ultimo comando andato a buon fine*/
+    private boolean isRedundant(String deviceId, boolean value) {
+        ActuatorState state = actuatorStateMap.get(deviceId);
+        if(state == null)
+            return false;
+        Boolean observed = state.lastObserved;
+        if(observed != null)
+            return observed == value;
+        return state.lastCommanded != null && state.lastCommanded == value;
+    }
+
+    private String actuatorUri(String deviceId) {
+        ActuatorState state = actuatorStateMap.get(deviceId);
+        if(state != null && state.uri != null)
+            return state.uri;
+        return smartObjectEndpoint != null ? smartObjectEndpoint + deviceId : null;
+    }
+
+    private CompletableFuture<Boolean> command(String deviceId, boolean value) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        String uri = actuatorUri(deviceId);
+        if(uri == null) {
+            logger.error("No resource uri for actuator {}: not discovered and no smartObjectEndpoint configured", deviceId);
+            pipelineMetrics.getFailedMeter().mark();
+            result.complete(false);
+            return result;
+        }
+        attempt(deviceId, uri, value, 0, result);
+        return result;
+    }
+
+    private void attempt(String deviceId, String uri, boolean value, int attempt, CompletableFuture<Boolean> result) {
+
+        Timer.Context ackContext = pipelineMetrics.getAckTimer().time();
+
+        withTimeout(coapResourceClient.putRequestAsync(uri, Boolean.toString(value)))
+                .whenComplete((response, error) -> {
+
+                    if(error == null && response != null && response.isSuccess()) {
+                        ackContext.stop();
+                        ActuatorState state = actuatorStateMap.computeIfAbsent(deviceId, key -> new ActuatorState());
+                        state.lastCommanded = value;
+                        state.lastObserved = value;
+                        result.complete(true);
+                        return;
+                    }
+
+                    String reason = error != null ? error.getLocalizedMessage() : response != null ? response.getCode().toString() : "no response";
+
+                    //un errore 4.xx non cambia ripetendo la richiesta, ritento solo timeout ed errori del server
+                    boolean retryable = response == null || !CoAP.ResponseCode.isClientError(response.getCode());
+
+                    if(retryable && attempt < maxRetries && !scheduler.isShutdown()) {
+                        long delay = retryDelayMillis << attempt;
+                        logger.warn("PUT {} -> {} failed ({}), retry {}/{} in {} ms", uri, value, reason, attempt + 1, maxRetries, delay);
+                        scheduler.schedule(() -> attempt(deviceId, uri, value, attempt + 1, result), delay, TimeUnit.MILLISECONDS);
+                    } else {
+                        logger.error("PUT {} -> {} failed after {} attempts ({})", uri, value, attempt + 1, reason);
+                        //non so in che stato sia rimasto: al prossimo trigger il comando verra' ripetuto
+                        ActuatorState state = actuatorStateMap.get(deviceId);
+                        if(state != null)
+                            state.lastCommanded = null;
+                        pipelineMetrics.getFailedMeter().mark();
+                        result.complete(false);
+                    }
+                });
+    }
+
+    private CompletableFuture<CoapResponse> withTimeout(CompletableFuture<CoapResponse> future) {
+        ScheduledFuture<?> timeout = scheduler.schedule(
+                () -> future.completeExceptionally(new IOException(String.format("timeout after %d ms", timeoutMillis))),
+                timeoutMillis, TimeUnit.MILLISECONDS);
+        future.whenComplete((response, error) -> timeout.cancel(false));
+        return future;
+    }
+
+    public PipelineMetrics getPipelineMetrics() {
+        return pipelineMetrics;
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    private static final class ActuatorState {
+        private volatile Boolean lastCommanded;
+        private volatile Boolean lastObserved;
+        private volatile String uri;
+    }
+
+}
@@ -2,64 +2,349 @@ package buildingSecurityController.api.client;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.http.HttpHeaders;
-import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import utils.SenMLPack;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/*uplink verso il cloud collector.
+I pack vengono accodati e spediti da un solo thread in batch (un array json di pack per richiesta),
+quando si raggiungono batchSize pack o dopo lingerMillis dal primo pack del batch.
+Tutte le istanze usano lo stesso client http con pool di connessioni.
+Se il cloud non risponde il batch finisce nello spool su disco (un file per batch, dimensione totale
+limitata, i piu' vecchi vengono scartati): lo spool sopravvive ai riavvii e viene svuotato in ordine
+appena il cloud torna raggiungibile, i nuovi batch lo seguono per non invertire l'ordine dei dati*/
+
 public class CloudPostClient {
 
     private static final Logger logger = LoggerFactory.getLogger(CloudPostClient.class);
-    private String targetCloudUrl = "http://thebuildingsecurity.servehttp.com:8090/cloudCollector/pack";
-    private CloseableHttpClient httpClient;
-    private ObjectMapper objectMapper;
+
+    public static final String DEFAULT_TARGET_URL = "http://thebuildingsecurity.servehttp.com:8090/cloudCollector/pack";
+    public static final int DEFAULT_BATCH_SIZE = 50;
+    public static final long DEFAULT_LINGER_MILLIS = 1000;
+    public static final String DEFAULT_SPOOL_DIRECTORY = "uplink-spool";
+    public static final long DEFAULT_MAX_SPOOL_BYTES = 64L * 1024 * 1024;
+
+    private static final int MAX_QUEUED_PACKS = 10000;
+    private static final long RETRY_MIN_MILLIS = 1000;
+    private static final long RETRY_MAX_MILLIS = 60000;
+    private static final String SPOOL_SUFFIX = ".json";
+
+    private static CloseableHttpClient sharedHttpClient = null;
+
+    private final String targetCloudUrl;
+    private final int batchSize;
+    private final long lingerMillis;
+    private final boolean gzip;
+    private final Path spoolDirectory;
+    private final long maxSpoolBytes;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final BlockingQueue<byte[]> packQueue = new LinkedBlockingQueue<>(MAX_QUEUED_PACKS);
+
+    private final AtomicLong spoolSequence = new AtomicLong();
+    private final AtomicLong droppedPacks = new AtomicLong();
+
+    //evita di listare la directory dello spool quando e' vuoto
+    private boolean spoolPending = false;
+
+    private final Thread senderThread;
+    private volatile boolean running = true;
 
     public CloudPostClient(){
-        this.objectMapper = new ObjectMapper();
-        this.httpClient = HttpClients.custom().build();
+        this(DEFAULT_TARGET_URL, DEFAULT_BATCH_SIZE, DEFAULT_LINGER_MILLIS, true, DEFAULT_SPOOL_DIRECTORY, DEFAULT_MAX_SPOOL_BYTES);
+    }
+
+    public CloudPostClient(String targetCloudUrl, int batchSize, long lingerMillis, boolean gzip, String spoolDirectory, long maxSpoolBytes){
+
+        if(batchSize <= 0 || lingerMillis < 0 || maxSpoolBytes <= 0)
+            throw new IllegalArgumentException("Invalid uplink batch/spool settings");
+
+        this.targetCloudUrl = targetCloudUrl;
+        this.batchSize = batchSize;
+        this.lingerMillis = lingerMillis;
+        this.gzip = gzip;
+        this.spoolDirectory = Paths.get(spoolDirectory);
+        this.maxSpoolBytes = maxSpoolBytes;
+
+        try {
+            Files.createDirectories(this.spoolDirectory);
+            List<Path> spoolList = listSpool();
+            if(!spoolList.isEmpty()){
+                spoolSequence.set(spoolId(spoolList.get(spoolList.size() - 1)) + 1);
+                spoolPending = true;
+                logger.info("{} batches waiting in the uplink spool", spoolList.size());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        this.senderThread = new Thread(this::sendLoop, "cloud-uplink");
+        this.senderThread.setDaemon(true);
+        this.senderThread.start();
     }
 
-    public CloseableHttpResponse postRequestToCloud(SenMLPack senMLPack){
+    private static synchronized CloseableHttpClient getSharedHttpClient(){
+        if(sharedHttpClient == null){
+            PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+            connectionManager.setMaxTotal(20);
+            connectionManager.setDefaultMaxPerRoute(10);
+
+            sharedHttpClient = HttpClients.custom()
+                    .setConnectionManager(connectionManager)
+                    .setDefaultRequestConfig(RequestConfig.custom()
+                            .setConnectTimeout(5000)
+                            .setSocketTimeout(10000)
+                            .setConnectionRequestTimeout(5000)
+                            .build())
+                    .build();
+        }
+        return sharedHttpClient;
+    }
+
+    //non blocca: il pack viene spedito dal thread dell'uplink
+    public boolean enqueue(SenMLPack senMLPack){
+        try {
+            if(packQueue.offer(objectMapper.writeValueAsBytes(senMLPack)))
+                return true;
+            droppedPacks.incrementAndGet();
+            logger.warn("Uplink queue full, pack dropped ({} dropped so far)", droppedPacks.get());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    //invio sincrono di un singolo pack, senza batch ne' spool
+    public boolean postRequestToCloud(SenMLPack senMLPack){
         try{
-            logger.info("Target Url: {}", targetCloudUrl);
+            return post(objectMapper.writeValueAsBytes(senMLPack));
+        }catch (IOException e){
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    public long getDroppedPacks(){
+        return droppedPacks.get();
+    }
+
+    //svuota la coda (verso il cloud o nello spool) e ferma il thread dell'uplink
+    public void close(){
+        running = false;
+        senderThread.interrupt();
+        try {
+            senderThread.join(TimeUnit.SECONDS.toMillis(15));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sendLoop(){
+
+        long retryDelay = RETRY_MIN_MILLIS;
+        long nextRetry = 0;
+
+        while(running || !packQueue.isEmpty()){
 
-            String jsonBody = this.objectMapper.writeValueAsString(senMLPack);
+            List<byte[]> batch = nextBatch();
 
-            //Create the HTTP Post Request
-            HttpPost createPackRequest = new HttpPost(targetCloudUrl);
+            boolean cloudUp = System.currentTimeMillis() >= nextRetry && drainSpool();
 
-            //Add Content Type Header
-            createPackRequest.addHeader(HttpHeaders.CONTENT_TYPE, "application/json");
+            if(!batch.isEmpty()){
+                byte[] body = toJsonArray(batch);
+                if(cloudUp && running && safePost(body))
+                    logger.debug("{} packs delivered to Cloud", batch.size());
+                else {
+                    cloudUp = false;
+                    spool(body);
+                }
+            }
+
+            if(cloudUp){
+                retryDelay = RETRY_MIN_MILLIS;
+            } else if(System.currentTimeMillis() >= nextRetry){
+                nextRetry = System.currentTimeMillis() + retryDelay;
+                logger.warn("Cloud unreachable, next uplink attempt in {} ms", retryDelay);
+                retryDelay = Math.min(retryDelay * 2, RETRY_MAX_MILLIS);
+            }
+        }
+        logger.info("Uplink stopped");
+    }
+
+    //aspetta il primo pack, poi al massimo lingerMillis per riempire il batch
+    private List<byte[]> nextBatch(){
+        List<byte[]> batch = new ArrayList<>(batchSize);
+        try {
+            byte[] first = running ? packQueue.poll(lingerMillis, TimeUnit.MILLISECONDS) : packQueue.poll();
+            if(first == null)
+                return batch;
+            batch.add(first);
+
+            long deadline = System.currentTimeMillis() + lingerMillis;
+            while(running && batch.size() < batchSize){
+                long remaining = deadline - System.currentTimeMillis();
+                if(remaining <= 0)
+                    break;
+                byte[] next = packQueue.poll(remaining, TimeUnit.MILLISECONDS);
+                if(next == null)
+                    break;
+                batch.add(next);
+            }
+        } catch (InterruptedException e) {
+            //close(): si prosegue svuotando la coda senza attese
+        }
+        packQueue.drainTo(batch, batchSize - batch.size());
+        return batch;
+    }
+
+    private static byte[] toJsonArray(List<byte[]> packList){
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        outputStream.write('[');
+        for(int i = 0; i < packList.size(); i++){
+            if(i > 0)
+                outputStream.write(',');
+            outputStream.write(packList.get(i), 0, packList.get(i).length);
+        }
+        outputStream.write(']');
+        return outputStream.toByteArray();
+    }
+
+    private boolean safePost(byte[] body){
+        try {
+            return post(body);
+        } catch (IOException e) {
+            logger.error("Uplink POST failed: {}", e.getLocalizedMessage());
+            return false;
+        }
+    }
+
+    private boolean post(byte[] body) throws IOException {
+
+        HttpPost createPackRequest = new HttpPost(targetCloudUrl);
+        createPackRequest.addHeader(HttpHeaders.CONTENT_TYPE, "application/json");
+
+        if(gzip){
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4 + 64);
+            try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressed)) {
+                gzipOutputStream.write(body);
+            }
+            createPackRequest.addHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+            createPackRequest.setEntity(new ByteArrayEntity(compressed.toByteArray(), ContentType.APPLICATION_JSON));
+        } else {
+            createPackRequest.setEntity(new ByteArrayEntity(body, ContentType.APPLICATION_JSON));
+        }
 
-            //Set Payload
-            createPackRequest.setEntity(new StringEntity(jsonBody));
+        //la risposta va sempre consumata per restituire la connessione al pool
+        try (CloseableHttpResponse response = getSharedHttpClient().execute(createPackRequest)) {
+            int statusCode = response.getStatusLine().getStatusCode();
+            String responseBody = response.getEntity() != null ? EntityUtils.toString(response.getEntity()) : null;
 
-            //Execute the GetRequest
-            CloseableHttpResponse response = httpClient.execute(createPackRequest);
+            if(statusCode >= 200 && statusCode < 300)
+                return true;
 
-            if(response != null && response.getStatusLine().getStatusCode() == HttpStatus.SC_CREATED){
+            logger.error(String.format("Error executing the request ! Status Code: %d -> Response Body: %s", statusCode, responseBody));
 
-                return response;
+            //un 4xx non cambia ritentando: il batch viene scartato invece di bloccare lo spool
+            if(statusCode >= 400 && statusCode < 500){
+                logger.error("Batch rejected by the Cloud, discarding it");
+                return true;
             }
-            else {
-                logger.error(String.format("Error executing the request ! Status Code: %d -> Response Body: %s",
-                        response != null ? response.getStatusLine().getStatusCode() : -1,
-                        response != null ? EntityUtils.toString(response.getEntity()) : null));
+            return false;
+        }
+    }
+
+    ///SPOOL
+
+    //reinvia i batch dello spool in ordine, si ferma al primo errore
+    private boolean drainSpool(){
+        if(!spoolPending)
+            return true;
+        try {
+            for(Path spoolFile : listSpool()){
+                if(!running || !safePost(Files.readAllBytes(spoolFile)))
+                    return false;
+                Files.deleteIfExists(spoolFile);
+                logger.info("Spooled batch {} delivered to Cloud", spoolFile.getFileName());
             }
+            spoolPending = false;
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
 
-        }catch (Exception e){
+    private void spool(byte[] body){
+        try {
+            Path spoolFile = spoolDirectory.resolve(String.format("%020d%s", spoolSequence.getAndIncrement(), SPOOL_SUFFIX));
+            Path tmpFile = spoolDirectory.resolve(spoolFile.getFileName() + ".tmp");
+            Files.write(tmpFile, body);
+            Files.move(tmpFile, spoolFile, StandardCopyOption.ATOMIC_MOVE);
+            spoolPending = true;
+            enforceSpoolLimit();
+        } catch (IOException e) {
             e.printStackTrace();
         }
-        return null;
     }
 
+    //oltre maxSpoolBytes vengono scartati i batch piu' vecchi
+    private void enforceSpoolLimit() throws IOException {
+        List<Path> spoolList = listSpool();
+        long totalBytes = 0;
+        for(Path spoolFile : spoolList)
+            totalBytes += Files.size(spoolFile);
 
+        for(int i = 0; totalBytes > maxSpoolBytes && i < spoolList.size() - 1; i++){
+            totalBytes -= Files.size(spoolList.get(i));
+            Files.deleteIfExists(spoolList.get(i));
+            logger.warn("Uplink spool over {} bytes, oldest batch {} discarded", maxSpoolBytes, spoolList.get(i).getFileName());
+        }
+    }
 
-}
+    //solo i file <sequenza>.json scritti da spool(), gli altri restano nella directory e non vengono inviati
+    private List<Path> listSpool() throws IOException {
+        List<Path> spoolList = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(spoolDirectory, "*" + SPOOL_SUFFIX)) {
+            for(Path path : stream){
+                if(spoolId(path) >= 0)
+                    spoolList.add(path);
+                else
+                    logger.warn("Ignoring unexpected file {} in the uplink spool", path);
+            }
+        }
+        spoolList.sort(Comparator.comparingLong(CloudPostClient::spoolId));
+        return spoolList;
+    }
 
+    //-1 se il nome non e' una sequenza dello spool
+    private static long spoolId(Path spoolFile){
+        String name = spoolFile.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SPOOL_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+}
@@ -1,88 +1,179 @@
 package buildingSecurityController.api.client;
 
 import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapHandler;
 import org.eclipse.californium.core.CoapResponse;
 import org.eclipse.californium.core.Utils;
 import org.eclipse.californium.core.coap.CoAP;
 import org.eclipse.californium.core.coap.MediaTypeRegistry;
 import org.eclipse.californium.core.coap.OptionSet;
 import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.network.CoapEndpoint;
 import org.eclipse.californium.elements.exception.ConnectorException;
+import org.eclipse.californium.elements.util.ExecutorsUtil;
+import org.eclipse.californium.elements.util.NamedThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/*tutte le istanze condividono un solo CoapEndpoint (una socket UDP e un solo pool di thread),
+invece di creare un CoapClient con il proprio endpoint ad ogni richiesta.
+Le varianti *Async non bloccano il chiamante: un fan-out su N attuatori parte tutto insieme
+e termina in circa un round-trip*/
 
 public class CoapResourceClient {
 
     private final static Logger logger = LoggerFactory.getLogger(CoapResourceClient.class);
 
-    private static final String SMARTOBJECT_ENDPOINT = "coap://192.168.1.107:5683/";
+    public static final int DEFAULT_EXECUTOR_THREADS = 4;
+
+    //SenML CBOR: circa un terzo del JSON sui link vincolati, le risposte si decodificano con SenMLContentFormat
+    public static final int DEFAULT_ACCEPT = MediaTypeRegistry.APPLICATION_SENML_CBOR;
+
+    private static int executorThreads = DEFAULT_EXECUTOR_THREADS;
+    private static CoapEndpoint sharedEndpoint = null;
+    private static CoapClient sharedClient = null;
 
     public CoapResourceClient(){
 
     }
 
-    public CoapResponse getRequest(String uriRequest){
-        CoapClient coapClient = new CoapClient(String.format("%s",uriRequest));
-        Request request = new Request(CoAP.Code.GET);
-        request.setConfirmable(true);
-        request.setOptions(new OptionSet().setAccept(MediaTypeRegistry.APPLICATION_SENML_JSON));
-        logger.info("Request Pretty Print:\n{}", Utils.prettyPrint(request));
+    //va chiamato prima della prima richiesta, dopo l'endpoint condiviso e' gia' stato creato
+    public static synchronized void setExecutorThreads(int threads){
+        if(threads <= 0)
+            throw new IllegalArgumentException("threads must be positive");
+        if(sharedEndpoint != null)
+            logger.warn("Shared CoAP endpoint already started with {} threads, ignoring new value {}", executorThreads, threads);
+        else
+            executorThreads = threads;
+    }
 
-        CoapResponse coapResponse = null;
-        try{
+    /*client sull'endpoint condiviso per chi deve fare observe o lookup sul resource directory.
+    Un CoapClient e' solo un oggetto di comodo: socket e thread restano quelli dell'endpoint condiviso*/
+    public static CoapClient newClient() throws IOException {
+        return new CoapClient().setEndpoint(getSharedClient().getEndpoint());
+    }
 
-            coapResponse = coapClient.advanced(request);
-            return coapResponse;
+    private static synchronized CoapClient getSharedClient() throws IOException {
+        if(sharedClient == null){
+            CoapEndpoint endpoint = new CoapEndpoint.Builder().build();
+            endpoint.setExecutors(ExecutorsUtil.newScheduledThreadPool(executorThreads, new NamedThreadFactory("CoapResourceClient#")),
+                    ExecutorsUtil.newDefaultSecondaryScheduler("CoapResourceClient-timer#"));
+            endpoint.start();
+            logger.info("Shared CoAP endpoint started on {} with {} threads", endpoint.getAddress(), executorThreads);
 
-        } catch (ConnectorException | IOException e) {
-            e.printStackTrace();
+            sharedEndpoint = endpoint;
+            sharedClient = new CoapClient().setEndpoint(endpoint);
         }
-        return null;
+        return sharedClient;
     }
 
-    public CoapResponse postRequest(String uriRequest){
-        CoapClient coapClient = new CoapClient(String.format("%s", uriRequest));
+    public static synchronized void shutdown(){
+        if(sharedEndpoint != null){
+            sharedEndpoint.destroy();
+            sharedEndpoint = null;
+            sharedClient = null;
+        }
+    }
+
+    private static Request newGet(String uriRequest){
+        Request request = new Request(CoAP.Code.GET);
+        request.setURI(uriRequest);
+        request.setConfirmable(true);
+        request.setOptions(new OptionSet().setAccept(DEFAULT_ACCEPT));
+        return request;
+    }
+
+    private static Request newPost(String uriRequest){
         Request request = new Request(CoAP.Code.POST);
+        request.setURI(uriRequest);
         request.setConfirmable(true);
-        request.setOptions(new OptionSet().setAccept(MediaTypeRegistry.APPLICATION_SENML_JSON));
-        logger.info("Request Pretty Print:\n{}", Utils.prettyPrint(request));
+        request.setOptions(new OptionSet().setAccept(DEFAULT_ACCEPT));
+        return request;
+    }
 
-        CoapResponse coapResponse = null;
-        try{
-            coapResponse = coapClient.advanced(request);
-            return coapResponse;
+    private static Request newPut(String uriRequest, String payload){
+        Request request = new Request(CoAP.Code.PUT);
+        request.setURI(uriRequest);
+        request.setConfirmable(true);
+        request.setPayload(payload);
+        return request;
+    }
 
+    //il pretty print costa piu' della richiesta stessa: solo a livello debug
+    private CoapResponse send(Request request){
+        if(logger.isDebugEnabled())
+            logger.debug("Request Pretty Print:\n{}", Utils.prettyPrint(request));
+        try{
+            return getSharedClient().advanced(request);
         } catch (ConnectorException | IOException e) {
-            e.printStackTrace();
+            logger.error("CoAP {} {} failed: {}", request.getCode(), request.getURI(), e.getLocalizedMessage());
         }
         return null;
     }
 
-    public CoapResponse putRequest(String uriRequest, String payload){
-        CoapClient coapClient = new CoapClient(uriRequest);
-        Request request = new Request(CoAP.Code.PUT);
-        request.setConfirmable(true);
-        request.setPayload(payload);
-        logger.info(String.format("%s/%s", SMARTOBJECT_ENDPOINT, uriRequest));
-        logger.info("Request Pretty Print:\n{}", Utils.prettyPrint(request));
+    private CompletableFuture<CoapResponse> sendAsync(Request request){
+
+        CompletableFuture<CoapResponse> future = new CompletableFuture<>();
+        String uriRequest = request.getURI();
+        if(logger.isDebugEnabled())
+            logger.debug("Async Request Pretty Print:\n{}", Utils.prettyPrint(request));
 
-        CoapResponse coapResponse = null;
         try{
-            coapResponse = coapClient.advanced(request);
-            logger.info("Response Pretty Print:\n{}", Utils.prettyPrint(coapResponse));
+            getSharedClient().advanced(new CoapHandler() {
+                @Override
+                public void onLoad(CoapResponse response) {
+                    future.complete(response);
+                }
+
+                @Override
+                public void onError() {
+                    future.completeExceptionally(new IOException(String.format("CoAP %s %s failed", request.getCode(), uriRequest)));
+                }
+            }, request);
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        //completato da fuori (timeout del chiamante): lo scambio viene cancellato invece di restare in ritrasmissione
+        future.whenComplete((response, error) -> {
+            if(error != null && !request.isCanceled())
+                request.cancel();
+        });
+        return future;
+    }
 
-            String text = coapResponse.getResponseText();
-            logger.info("Payload: {}", text);
-            logger.info("Message ID: " + coapResponse.advanced().getMID());
-            logger.info("Token: " + coapResponse.advanced().getTokenString());
+    public CoapResponse getRequest(String uriRequest){
+        return send(newGet(uriRequest));
+    }
 
-            return coapResponse;
-        } catch (ConnectorException | IOException e) {
-            e.printStackTrace();
+    public CoapResponse postRequest(String uriRequest){
+        return send(newPost(uriRequest));
+    }
+
+    public CoapResponse putRequest(String uriRequest, String payload){
+        logger.debug("PUT {}", uriRequest);
+
+        CoapResponse coapResponse = send(newPut(uriRequest, payload));
+        if(coapResponse != null && logger.isDebugEnabled()){
+            logger.debug("Response Pretty Print:\n{}", Utils.prettyPrint(coapResponse));
+            logger.debug("Payload: {}, Message ID: {}, Token: {}", coapResponse.getResponseText(),
+                    coapResponse.advanced().getMID(), coapResponse.advanced().getTokenString());
         }
-        return null;
+        return coapResponse;
+    }
+
+    public CompletableFuture<CoapResponse> getRequestAsync(String uriRequest){
+        return sendAsync(newGet(uriRequest));
+    }
+
+    public CompletableFuture<CoapResponse> postRequestAsync(String uriRequest){
+        return sendAsync(newPost(uriRequest));
+    }
+
+    public CompletableFuture<CoapResponse> putRequestAsync(String uriRequest, String payload){
+        return sendAsync(newPut(uriRequest, payload));
     }
 
 }
@@ -1,23 +1,15 @@
 package buildingSecurityController.api.client;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.util.EntityUtils;
 import org.eclipse.californium.core.*;
-import org.eclipse.californium.core.coap.CoAP;
-import org.eclipse.californium.core.coap.LinkFormat;
-import org.eclipse.californium.core.coap.MediaTypeRegistry;
 import org.eclipse.californium.core.coap.Request;
-import org.eclipse.californium.elements.exception.ConnectorException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import utils.SenMLContentFormat;
 import utils.SenMLPack;
 
 import java.io.IOException;
 import java.util.*;
 
-import static org.eclipse.californium.core.coap.LinkFormat.RESOURCE_TYPE;
-
 public class DataFetcher {
     private final static Logger logger = LoggerFactory.getLogger(LookupAndObserveProcess.class);
     private static final String TARGET_RD_IP = "edgeiotgateway.servehttp.com";
@@ -25,93 +17,98 @@ public class DataFetcher {
     private static final String RD_LOOKUP_URI = "/rd-lookup/res";
 
     private static final String OBSERVABLE_CORE_ATTRIBUTE = "obs";
-    private static final String INTERFACE_CORE_ATTRIBUTE = "if";
-    private static final String WELL_KNOWN_CORE_URI = "/.well-known/core";
 
     private static final String SMARTOBJECT_ENDPOINT = "coap://192.168.1.107:5683/";
     //private static final String SMARTOBJECT_ENDPOINT = "coap://192.168.1.59:5683/";
 
-    private static List<String> pirTargetObservableList = null;
-    private static List<String> camTargetObservableList = null;
-    private static List<String> lightTargetObservableList = null;
-    private static List<String> alarmTargetObservableList = null;
+    private static final List<String> TARGET_RESOURCE_TYPE_LIST = Arrays.asList(
+            "iot.actuator.light",
+            "iot.actuator.alarm",
+            "iot.sensor.pir",
+            "iot.sensor.camera");
+
     private static Map<String, CoapObserveRelation> observingRelationMap = null;
 
 
-    private static ObjectMapper objectMapper = new ObjectMapper();
 
-    public static void main(String[] args){
+    //un solo pool e un solo client http per tutte le notifiche, con ordine garantito per risorsa
+    private static NotificationDispatcher notificationDispatcher = null;
+    private static CloudPostClient cloudPostClient = null;
 
-        //init coap client
-        CoapClient coapClient = new CoapClient();
+    public static void main(String[] args) throws IOException {
 
-        //init target resource list array and observing relations
-        observingRelationMap = new HashMap<>();
-        pirTargetObservableList = new ArrayList<>();
-        camTargetObservableList = new ArrayList<>();
-        lightTargetObservableList = new ArrayList<>();
-        alarmTargetObservableList = new ArrayList<>();
+        //observe e lookup sull'endpoint condiviso di CoapResourceClient
+        CoapClient coapClient = CoapResourceClient.newClient();
 
-        while(true){
+        notificationDispatcher = new NotificationDispatcher();
+        cloudPostClient = new CloudPostClient();
+        //i pack ancora in coda finiscono nello spool e vengono reinviati al prossimo avvio
+        Runtime.getRuntime().addShutdownHook(new Thread(cloudPostClient::close));
 
-            lookupTarget(coapClient);
+        //init observing relations, aggiornate solo con le differenze notificate dal resource directory
+        observingRelationMap = new HashMap<>();
 
-            //start observing resources
+        ResourceDirectoryLookup resourceDirectoryLookup = new ResourceDirectoryLookup(coapClient,
+                String.format("coap://%s:%d%s", TARGET_RD_IP, TARGET_RD_PORT, RD_LOOKUP_URI),
+                TARGET_RESOURCE_TYPE_LIST,
+                new ResourceDirectoryLookup.Listener() {
+                    @Override
+                    public void onTargetAdded(String targetResourceUrl, String resourceType) {
+
+                        if (observingRelationMap.containsKey(targetResourceUrl))
+                            return;
+
+                        //start observing resources
+                        switch (resourceType){
+                            case "iot.actuator.light":
+                                startObservingLight(coapClient, targetResourceUrl);
+                                break;
+                            case "iot.actuator.alarm":
+                                startObservingAlarm(coapClient, targetResourceUrl);
+                                break;
+                            case "iot.sensor.pir":
+                                startObservingPir(coapClient, targetResourceUrl);
+                                break;
+                            case "iot.sensor.camera":
+                                startObservingCam(coapClient, targetResourceUrl);
+                                break;
+                        }
+                    }
 
-            lightTargetObservableList.forEach(targetResourceUrl -> {
-                if (!observingRelationMap.containsKey(targetResourceUrl))
-                    startObservingLight(coapClient, targetResourceUrl);
-            });
-            alarmTargetObservableList.forEach(targetResourceUrl -> {
-                if (!observingRelationMap.containsKey(targetResourceUrl))
-                    startObservingAlarm(coapClient, targetResourceUrl);
-            });
+                    @Override
+                    public void onTargetRemoved(String targetResourceUrl, String resourceType) {
+                        CoapObserveRelation relation = observingRelationMap.remove(targetResourceUrl);
+                        if (relation != null)
+                            relation.proactiveCancel();
+                    }
+                },
+                ResourceDirectoryLookup.DEFAULT_FALLBACK_POLL_MILLIS);
 
+        resourceDirectoryLookup.run();
+    }
 
-            pirTargetObservableList.forEach(targetResourceUrl -> {
-                if (!observingRelationMap.containsKey(targetResourceUrl))
-                    startObservingPir(coapClient, targetResourceUrl);
-            });
-            camTargetObservableList.forEach(targetResourceUrl -> {
-                if (!observingRelationMap.containsKey(targetResourceUrl))
-                    startObservingCam(coapClient, targetResourceUrl);
-            });
 
+    private static void forwardToCloud(CoapResponse response){
+        try {
+            SenMLPack newPack = SenMLContentFormat.decode(response.getPayload(), response.getOptions().getContentFormat());
+            cloudPostClient.enqueue(newPack);
 
-            try {
-                Thread.sleep(1000*60);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
-
     private static void startObservingPir (CoapClient coapClient, String targetUrl) {
 
         logger.info("OBSERVING ... {}", targetUrl);
         Request request = Request.newGet().setURI(targetUrl).setObserve();
+        request.getOptions().setAccept(CoapResourceClient.DEFAULT_ACCEPT);
         request.setConfirmable(true);
         CoapObserveRelation relation = coapClient.observe(request, new CoapHandler() {
             @Override
             public void onLoad(CoapResponse response) {
 
-                new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-
-                        CloudPostClient cloudPostClient = new CloudPostClient();
-                        try {
-                            SenMLPack newPack = new ObjectMapper().readValue(response.getPayload(), SenMLPack.class);
-                            cloudPostClient.postRequestToCloud(newPack);
-
-                            logger.info("pack delivered to Cloud");
-
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                }).start();
+                notificationDispatcher.dispatch(targetUrl, () -> forwardToCloud(response));
             }
 
             @Override
@@ -127,26 +124,13 @@ public class DataFetcher {
 
         logger.info("OBSERVING ... {}", targetUrl);
         Request request = Request.newGet().setURI(targetUrl).setObserve();
+        request.getOptions().setAccept(CoapResourceClient.DEFAULT_ACCEPT);
         request.setConfirmable(true);
-        //request.setOptions(new OptionSet().setAccept(MediaTypeRegistry.APPLICATION_SENML_JSON));
         CoapObserveRelation relation = coapClient.observe(request, new CoapHandler() {
             @Override
             public void onLoad(CoapResponse response) {
 
-                new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-                        CloudPostClient cloudPostClient = new CloudPostClient();
-                        try {
-                            SenMLPack newPack = new ObjectMapper().readValue(response.getPayload(), SenMLPack.class);
-                            CloseableHttpResponse httpresponse = cloudPostClient.postRequestToCloud(newPack);
-
-                            logger.info("pack delivered to Cloud");
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                }).start();
+                notificationDispatcher.dispatch(targetUrl, () -> forwardToCloud(response));
 
             }
 
@@ -163,27 +147,13 @@ public class DataFetcher {
 
         logger.info("OBSERVING ... {}", targetUrl);
         Request request = Request.newGet().setURI(targetUrl).setObserve();
+        request.getOptions().setAccept(CoapResourceClient.DEFAULT_ACCEPT);
         request.setConfirmable(true);
-        //request.setOptions(new OptionSet().setAccept(MediaTypeRegistry.APPLICATION_SENML_JSON));
         CoapObserveRelation relation = coapClient.observe(request, new CoapHandler() {
             @Override
             public void onLoad(CoapResponse response) {
 
-                new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-                        CloudPostClient cloudPostClient = new CloudPostClient();
-                        try {
-                            SenMLPack newPack = new ObjectMapper().readValue(response.getPayload(), SenMLPack.class);
-                            CloseableHttpResponse httpresponse = cloudPostClient.postRequestToCloud(newPack);
-
-                            logger.info("pack delivered to Cloud");
-
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                }).start();
+                notificationDispatcher.dispatch(targetUrl, () -> forwardToCloud(response));
             }
 
             @Override
@@ -198,26 +168,12 @@ public class DataFetcher {
 
         logger.info("OBSERVING ... {}", targetUrl);
         Request request = Request.newGet().setURI(targetUrl).setObserve();
+        request.getOptions().setAccept(CoapResourceClient.DEFAULT_ACCEPT);
         request.setConfirmable(true);
-        //request.setOptions(new OptionSet().setAccept(MediaTypeRegistry.APPLICATION_SENML_JSON));
         CoapObserveRelation relation = coapClient.observe(request, new CoapHandler() {
             @Override
             public void onLoad(CoapResponse response) {
-                new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-                        CloudPostClient cloudPostClient = new CloudPostClient();
-                        try {
-                            SenMLPack newPack = new ObjectMapper().readValue(response.getPayload(), SenMLPack.class);
-                            CloseableHttpResponse httpresponse = cloudPostClient.postRequestToCloud(newPack);
-
-                            logger.info("pack delivered to Cloud");
-
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                }).start();
+                notificationDispatcher.dispatch(targetUrl, () -> forwardToCloud(response));
             }
 
             @Override
@@ -228,93 +184,4 @@ public class DataFetcher {
         observingRelationMap.put(targetUrl, relation);
     }
 
-    private static void lookupTarget(CoapClient coapClient){
-
-        //we set the type of request as a "Get"
-        Request request = new Request(CoAP.Code.GET);
-        request.setURI(String.format("coap://%s:%d%s", TARGET_RD_IP, TARGET_RD_PORT, RD_LOOKUP_URI));
-        request.setConfirmable(true);
-
-
-        //the system is synchronous, will wait the response (blocking)
-        CoapResponse coapResponse = null;
-
-        try{
-            coapResponse = coapClient.advanced(request);
-
-
-            //la risposta non deve essere nulla
-            if(coapResponse != null){
-
-                //la risposta non deve essere di un media type che non sia CORE LINK FORMAT
-                if (coapResponse.getOptions().getContentFormat() == MediaTypeRegistry.APPLICATION_LINK_FORMAT){
-
-                    Set<WebLink> links = LinkFormat.parse(coapResponse.getResponseText());
-
-                    links.forEach(webLink -> {
-
-                        //evito di includere wellknowncore alla lista delle risorse che ricevo.
-                        if(webLink.getURI() != null && !webLink.getURI().equals(WELL_KNOWN_CORE_URI) && webLink.getAttributes() != null && webLink.getAttributes().getCount() > 0){
-
-                            //considero solamente le risorse osservabili, che abbiano interface core attribute, e che sia di tipo sensor
-                            if (webLink.getAttributes().containsAttribute(INTERFACE_CORE_ATTRIBUTE)){
-                                if (webLink.getAttributes().getAttributeValues(RESOURCE_TYPE).contains("iot.sensor.pir")){
-
-                                    String targetResourceUrl = String.format("%s", webLink.getURI());
-                                    if (!pirTargetObservableList.contains(targetResourceUrl)) {
-                                        logger.info("Target Resource found! URI: {}", webLink.getURI());
-                                        pirTargetObservableList.add(targetResourceUrl);
-                                        logger.info("Target Resource URL: {} correctly saved!", targetResourceUrl);
-                                    }
-
-
-                                } else if (webLink.getAttributes().getAttributeValues(RESOURCE_TYPE).contains("iot.sensor.camera")){
-
-
-                                    String targetResourceUrl = String.format("%s", webLink.getURI());
-                                    if (!camTargetObservableList.contains(targetResourceUrl)) {
-                                        logger.info("Target Resource found! URI: {}", webLink.getURI());
-                                        camTargetObservableList.add(targetResourceUrl);
-                                        logger.info("Target Resource URL: {} correctly saved!", targetResourceUrl);
-                                    }
-
-                                } else if (webLink.getAttributes().getAttributeValues(RESOURCE_TYPE).contains("iot.actuator.light")){
-
-
-                                    String targetResourceUrl = String.format("%s", webLink.getURI());
-                                    if (!lightTargetObservableList.contains(targetResourceUrl)) {
-                                        logger.info("Target Resource found! URI: {}", webLink.getURI());
-                                        lightTargetObservableList.add(targetResourceUrl);
-                                        logger.info("Target Resource URL: {} correctly saved!", targetResourceUrl);
-                                    }
-
-                                } else if (webLink.getAttributes().getAttributeValues(RESOURCE_TYPE).contains("iot.actuator.alarm")){
-
-
-                                    String targetResourceUrl = String.format("%s", webLink.getURI());
-                                    if (!alarmTargetObservableList.contains(targetResourceUrl)){
-                                        logger.info("Target Resource found! URI: {}", webLink.getURI());
-                                        alarmTargetObservableList.add(targetResourceUrl);
-                                        logger.info("Target Resource URL: {} correctly saved!", targetResourceUrl);
-                                    }
-
-                                }
-                            }
-                        }
-                    });
-                }
-                else{
-                    logger.info("Core Link Format Response not found.");
-                }
-            }
-
-            String text = coapResponse.getResponseText();
-        }catch (ConnectorException | IOException e){
-            e.printStackTrace();
-        }
-    }
-
-
-
-
 }
@@ -1,24 +1,22 @@
 package buildingSecurityController.api.client;
 
 import buildingSecurityController.api.model.GenericDeviceDescriptor;
-import buildingSecurityController.api.model.PolicyDescriptor;
 import buildingSecurityController.api.model.ResourceDescriptor;
+import buildingSecurityController.api.policy.PolicyEngine;
 import buildingSecurityController.api.services.OperatorAppConfig;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.codahale.metrics.Timer;
 import org.eclipse.californium.core.*;
-import org.eclipse.californium.core.coap.CoAP.Code;
-import org.eclipse.californium.core.coap.LinkFormat;
-import org.eclipse.californium.core.coap.MediaTypeRegistry;
 import org.eclipse.californium.core.coap.Request;
-import org.eclipse.californium.elements.exception.ConnectorException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import utils.LogSampler;
+import utils.SenMLContentFormat;
 import utils.SenMLPack;
+import utils.SenMLRecord;
 
 import java.io.IOException;
 import java.util.*;
-
-import static org.eclipse.californium.core.coap.LinkFormat.RESOURCE_TYPE;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /*questo process ha lo scopo di ricevere l'albero delle risorse presenti nel resource directory, e di iniziare
@@ -34,25 +32,28 @@ public class LookupAndObserveProcess implements Runnable{
     private static final int TARGET_RD_PORT = 5683;
     private static final String RD_LOOKUP_URI = "/rd-lookup/res";
 
-    private static final String OBSERVABLE_CORE_ATTRIBUTE = "obs";
-    private static final String INTERFACE_CORE_ATTRIBUTE = "if";
-    private static final String WELL_KNOWN_CORE_URI = "/.well-known/core";
-
-    private static final String SMARTOBJECT_ENDPOINT = "coap://192.168.1.107:5683/";
-    //private static final String SMARTOBJECT_ENDPOINT = "coap://192.168.1.59:5683/";
+    //ordine in cui vengono gestite le nuove risorse: i sensori si agganciano ai device di presence monitoring
+    private static final List<String> TARGET_RESOURCE_TYPE_LIST = Arrays.asList(
+            "iot.sensor.presencemonitoring",
+            "iot.actuator.light",
+            "iot.actuator.alarm",
+            "iot.sensor.pir",
+            "iot.sensor.camera");
 
-    private static List<String> pirTargetObservableList = null;
-    private static List<String> camTargetObservableList = null;
-    private static List<String> lightTargetObservableList = null;
-    private static List<String> alarmTargetObservableList = null;
-    private static List<String> presenceMonitoringTargetList = null;
+    //aggiornate dai callback del thread rd-sync e lette dagli altri thread
     private static Map<String, CoapObserveRelation> observingRelationMap = null;
+    //i device di presence monitoring vengono solo letti, non hanno una observe relation
+    private static Set<String> presenceMonitoringSet = null;
 
     @SuppressWarnings("serial")
     public static class MissingKeyException extends Exception{}
     final OperatorAppConfig conf;
 
-    private static ObjectMapper objectMapper = new ObjectMapper();
+    private final LogSampler notificationLogSampler = new LogSampler();
+
+    //le GET iniziali usano l'endpoint condiviso, come observe e lookup (vedi run)
+    private final CoapResourceClient coapResourceClient = new CoapResourceClient();
+
 
     public LookupAndObserveProcess(OperatorAppConfig operatorAppConfig){
         this.conf = operatorAppConfig;
@@ -60,275 +61,157 @@ public class LookupAndObserveProcess implements Runnable{
 
 
 
-    private void lookupTarget(CoapClient coapClient){
-
-        //we set the type of request as a "Get"
-        Request request = new Request(Code.GET);
-        request.setURI(String.format("coap://%s:%d%s", TARGET_RD_IP, TARGET_RD_PORT, RD_LOOKUP_URI));
-        request.setConfirmable(true);
-
-
-        //the system is synchronous, will wait the response (blocking)
-        CoapResponse coapResponse = null;
-
+    private void handleNotificationPir(CoapResponse response, String targetUrl, long receivedAtMillis){
         try{
-            coapResponse = coapClient.advanced(request);
-
-
-            //la risposta non deve essere nulla
-            if(coapResponse != null){
-
-                //la risposta non deve essere di un media type che non sia CORE LINK FORMAT
-                if (coapResponse.getOptions().getContentFormat() == MediaTypeRegistry.APPLICATION_LINK_FORMAT){
-
-                    Set<WebLink> links = LinkFormat.parse(coapResponse.getResponseText());
-
-                    links.forEach(webLink -> {
-
-                        //evito di includere wellknowncore alla lista delle risorse che ricevo.
-                        if(webLink.getURI() != null && !webLink.getURI().equals(WELL_KNOWN_CORE_URI) && webLink.getAttributes() != null && webLink.getAttributes().getCount() > 0){
-
-                            //considero solamente le risorse osservabili, che abbiano interface core attribute, e che sia di tipo sensor
-                            if (webLink.getAttributes().containsAttribute(INTERFACE_CORE_ATTRIBUTE)){
-                                if (webLink.getAttributes().getAttributeValues(RESOURCE_TYPE).contains("iot.sensor.pir")){
-
-
-                                    String targetResourceUrl = String.format("%s", webLink.getURI());
-                                    if (!pirTargetObservableList.contains(targetResourceUrl)) {
-                                        logger.info("Target Resource found! URI: {}", webLink.getURI());
-                                        pirTargetObservableList.add(targetResourceUrl);
-                                        logger.info("Target Resource URL: {} correctly saved!", targetResourceUrl);
-
-                                    }
-
-
-                                } else if (webLink.getAttributes().getAttributeValues(RESOURCE_TYPE).contains("iot.sensor.camera")){
-
-
-                                    String targetResourceUrl = String.format("%s", webLink.getURI());
-                                    if (!camTargetObservableList.contains(targetResourceUrl)) {
-                                        logger.info("Target Resource found! URI: {}", webLink.getURI());
-                                        camTargetObservableList.add(targetResourceUrl);
-                                        logger.info("Target Resource URL: {} correctly saved!", targetResourceUrl);
-                                    }
-
-                                } else if (webLink.getAttributes().getAttributeValues(RESOURCE_TYPE).contains("iot.actuator.light")){
-
-
-                                    String targetResourceUrl = String.format("%s", webLink.getURI());
-                                    if (!lightTargetObservableList.contains(targetResourceUrl)) {
-                                        logger.info("Target Resource found! URI: {}", webLink.getURI());
-                                        lightTargetObservableList.add(targetResourceUrl);
-                                        logger.info("Target Resource URL: {} correctly saved!", targetResourceUrl);
-                                    }
-
-                                } else if (webLink.getAttributes().getAttributeValues(RESOURCE_TYPE).contains("iot.actuator.alarm")){
-
-
-                                    String targetResourceUrl = String.format("%s", webLink.getURI());
-                                    if (!alarmTargetObservableList.contains(targetResourceUrl)){
-                                        logger.info("Target Resource found! URI: {}", webLink.getURI());
-                                        alarmTargetObservableList.add(targetResourceUrl);
-                                        logger.info("Target Resource URL: {} correctly saved!", targetResourceUrl);
-                                    }
-
-                                } else if (webLink.getAttributes().getAttributeValues(RESOURCE_TYPE).contains("iot.sensor.presencemonitoring")){
-
-                                    String targetResourceUrl = String.format("%s", webLink.getURI());
-                                    if (!presenceMonitoringTargetList.contains(targetResourceUrl)){
-                                        logger.info("Target Resource found! URI: {}", webLink.getURI());
-                                        presenceMonitoringTargetList.add(targetResourceUrl);
-                                        logger.info("Target Resource URL: {} correctly saved!", targetResourceUrl);
-                                    }
-                                }
-
-                            }
-                        }
-                    });
-                }
-                else{
-                    logger.info("Core Link Format Response not found.");
-                }
-            }
-
-        }catch (ConnectorException | IOException e){
+            //this is the method asynchronously invoked when an observed resource is sending data;
+            processPirNotification(response.getPayload(), response.getOptions().getContentFormat(), targetUrl, receivedAtMillis, PolicyEngine.currentMinuteOfDay());
+        }catch (Exception e){
             e.printStackTrace();
         }
     }
 
-
-    private void handleNotificationPir(CoapResponse response, String targetUrl){
+    private void handleNotificationCam(CoapResponse response, String targetUrl, long receivedAtMillis){
         try{
             //this is the method asynchronously invoked when an observed resource is sending data;
-
-            String content = response.getResponseText();
-
-            logger.info("Notification -> Resource Target: {} -> Body: {}", targetUrl, content);
-
-            SenMLPack newPack = new ObjectMapper().readValue(response.getPayload(), SenMLPack.class);
-
-            Boolean pirValue = newPack.get(0).getVb();
-
-            if(pirValue){
-                //accedo alle policy
-
-                List<PolicyDescriptor> policyList = this.conf.getInventoryDataManager().getPolicyList();
-
-                List<GenericDeviceDescriptor> deviceList = this.conf.getInventoryDataManager().getDeviceList();
-
-                //controllo se tutte le policy rispettano i cambiamenti
-
-                //prima ottengo area e floor di questo pir
-
-                List<String> areaId = new ArrayList<>();
-
-                deviceList.forEach(device -> {
-                    if(device.getDeviceId().equals(newPack.get(0).getBn())){
-                        areaId.add(device.getAreaId());
-                    }
-                });
-
-                //ora accedo alle policy che hanno lo stessa area e floor del pir in questione
-
-                policyList.forEach(policy ->{
-                    if (policy.getArea_id().equals(areaId.get(0))){
-                        if(policy.getPresence_mode()){
-
-                            int hourStart = Integer.parseInt(policy.getStart_working_time().split(":")[0]);
-                            int minuteStart = Integer.parseInt(policy.getStart_working_time().split(":")[1]);
-                            int hourFin = Integer.parseInt(policy.getEnd_working_time().split(":")[0]);
-                            int minuteFin = Integer.parseInt(policy.getEnd_working_time().split(":")[1]);
-
-                            int hour = java.time.LocalTime.now().getHour();
-                            int minutes = java.time.LocalTime.now().getMinute();
-
-                            if(hour > hourStart || hour < hourFin || hour == hourStart && minutes > minuteStart || hour == hourFin && minutes < minuteFin){
-
-                                //I MAKE A PUT REQUEST
-                                //se l'ora non è rispettata faccio una put request TRUE a tutti i device di luce e allarme nella stessa area
-
-                                CoapResourceClient coapResourceClient = new CoapResourceClient();
-
-                                List<String> targetUrlsAlarm = new ArrayList<>();
-
-                                deviceList.forEach(device -> {
-                                    logger.info("AREA {} DEVICE", areaId.get(0));
-                                    if(device.getAreaId().equals(areaId.get(0))){
-                                        if(device.getDeviceId().contains("alarm") || device.getDeviceId().contains("light")){
-                                            targetUrlsAlarm.add(String.format("coap://192.168.1.107:5683/%s", device.getDeviceId()));
-                                        }
-                                    }
-
-                                });
-                                targetUrlsAlarm.forEach(url ->{
-                                    CoapResponse coapResponse = coapResourceClient.putRequest(url, "true");
-                                    logger.info("Response pretty print:\n{}", Utils.prettyPrint(coapResponse));
-                                    logger.info("ALARMS AND LIGHTS ACTIVATED FOR AREA {}", areaId.get(0));
-                                });
-
-                            }
-                        }
-                    }
-                });
-            }
-
+            processCameraNotification(response.getPayload(), response.getOptions().getContentFormat(), targetUrl, receivedAtMillis, PolicyEngine.currentMinuteOfDay());
         }catch (Exception e){
             e.printStackTrace();
         }
     }
 
-    private void handleNotificationCam(CoapResponse response, String targetUrl){
-        try{
-            //this is the method asynchronously invoked when an observed resource is sending data;
+    //corpo delle notifiche del pir, pubblico per misurarlo nei benchmark senza passare dalla rete
+    public void processPirNotification(byte[] payload, int contentFormat, String targetUrl, long receivedAtMillis, int minuteOfDay) throws IOException {
 
-            String content = response.getResponseText();
-
-            logger.info("Notification -> Resource Target: {} -> Body: {}", targetUrl, content);
+        PipelineMetrics pipelineMetrics = this.conf.getPipelineMetrics();
+        SenMLPack newPack;
+        Timer.Context decodeContext = pipelineMetrics.getDecodeTimer().time();
+        try{
+            newPack = SenMLContentFormat.decode(payload, contentFormat);
+        }finally{
+            decodeContext.stop();
+        }
+        long sampleTimeMillis = PipelineMetrics.sampleTimeMillis(newPack.get(0));
+        pipelineMetrics.recordReceipt(sampleTimeMillis, receivedAtMillis);
 
-            SenMLPack newPack = new ObjectMapper().readValue(response.getPayload(), SenMLPack.class);
+        logNotification(targetUrl, newPack);
 
-            Number camValue = newPack.get(0).getV();
+        if(newPack.get(0).hasVb() && newPack.get(0).getVbAsBoolean()){
 
+            //l'indice delle policy risolve direttamente area del pir e policy di presenza armate in questo momento
+            Optional<String> alarmedArea;
+            Timer.Context policyContext = pipelineMetrics.getPolicyEvaluationTimer().time();
+            try{
+                alarmedArea = this.conf.getPolicyEngine().evaluatePresence(newPack.get(0).getBn(), minuteOfDay);
+            }finally{
+                policyContext.stop();
+            }
 
-            //accedo alle policy
+            if(alarmedArea.isPresent())
+                activateAreaActuators(alarmedArea.get(), sampleTimeMillis);
+        }
+    }
 
-            List<PolicyDescriptor> policyList = this.conf.getInventoryDataManager().getPolicyList();
+    //corpo delle notifiche della telecamera, come processPirNotification
+    public void processCameraNotification(byte[] payload, int contentFormat, String targetUrl, long receivedAtMillis, int minuteOfDay) throws IOException {
 
-            List<GenericDeviceDescriptor> deviceList = this.conf.getInventoryDataManager().getDeviceList();
+        PipelineMetrics pipelineMetrics = this.conf.getPipelineMetrics();
+        SenMLPack newPack;
+        Timer.Context decodeContext = pipelineMetrics.getDecodeTimer().time();
+        try{
+            newPack = SenMLContentFormat.decode(payload, contentFormat);
+        }finally{
+            decodeContext.stop();
+        }
 
-            //controllo se tutte le policy rispettano i cambiamenti
+        logNotification(targetUrl, newPack);
 
-            //prima ottengo area e floor di questo pir
+        SenMLRecord camRecord = newPack.get(0);
+        long sampleTimeMillis = PipelineMetrics.sampleTimeMillis(camRecord);
+        pipelineMetrics.recordReceipt(sampleTimeMillis, receivedAtMillis);
 
-            List<String> areaId = new ArrayList<>();
+        if(camRecord.hasV()){
 
-            deviceList.forEach(device -> {
-                if(device.getDeviceId().equals(newPack.get(0).getBn())){
-                    areaId.add(device.getAreaId());
-                }
-            });
+            //l'indice delle policy risolve area della telecamera e soglia di persone
+            Optional<String> alarmedArea;
+            Timer.Context policyContext = pipelineMetrics.getPolicyEvaluationTimer().time();
+            try{
+                alarmedArea = this.conf.getPolicyEngine().evaluatePeopleCount(camRecord.getBn(), camRecord.getVAsDouble(), minuteOfDay);
+            }finally{
+                policyContext.stop();
+            }
 
-            //ora accedo alle policy che hanno lo stessa area e floor del pir in questione
+            if(alarmedArea.isPresent())
+                activateAreaActuators(alarmedArea.get(), sampleTimeMillis);
+        }
+    }
 
-            policyList.forEach(policy ->{
-                if (policy.getArea_id().equals(areaId.get(0))){
-                    if(!policy.getPresence_mode() && policy.getMax_persons() < (Integer) camValue){
+    //luci e allarmi notificano il proprio stato: lo passo all'actuation service per evitare comandi ridondanti
+    private void handleNotificationActuator(CoapResponse response, String targetUrl){
+        try{
+            SenMLPack newPack = SenMLContentFormat.decode(response.getPayload(), response.getOptions().getContentFormat());
 
-                        int hourStart = Integer.parseInt(policy.getStart_working_time().split(":")[0]);
-                        int minuteStart = Integer.parseInt(policy.getStart_working_time().split(":")[1]);
-                        int hourFin = Integer.parseInt(policy.getEnd_working_time().split(":")[0]);
-                        int minuteFin = Integer.parseInt(policy.getEnd_working_time().split(":")[1]);
+            logNotification(targetUrl, newPack);
 
-                        int hour = java.time.LocalTime.now().getHour();
-                        int minutes = java.time.LocalTime.now().getMinute();
+            if(!newPack.isEmpty())
+                this.conf.getActuationService().onObservedState(newPack.get(0).getBn(), newPack.get(0).getVb());
 
-                        if(hour > hourStart || hour < hourFin || hour == hourStart && minutes > minuteStart || hour == hourFin && minutes < minuteFin){
+        }catch (Exception e){
+            e.printStackTrace();
+        }
+    }
 
-                            //I MAKE A PUT REQUEST
-                            //se l'ora non è rispettata faccio una put request TRUE a tutti i device di luce e allarme nella stessa area
+    protected void activateAreaActuators(String areaId, long sampleTimeMillis){
 
-                            CoapResourceClient coapResourceClient = new CoapResourceClient();
+        //I MAKE A PUT REQUEST
+        //l'actuation service salta gli attuatori gia' accesi e accorpa i trigger ripetuti sulla stessa area
 
-                            List<String> targetUrls = new ArrayList<>();
+        this.conf.getPipelineMetrics().getAreaTriggerMeter().mark();
+        //non si aspetta il fan-out: con un attuatore irraggiungibile terrebbe fermo il worker per tutti i retry
+        this.conf.getActuationService().actuateArea(areaId, this.conf.getPolicyEngine().getAreaActuators(areaId), true, sampleTimeMillis)
+                .whenComplete((ignored, error) -> {
+                    if(error != null)
+                        logger.error("Activation of area {} failed: {}", areaId, error.getLocalizedMessage());
+                    else
+                        logger.debug("ALARMS AND LIGHTS ACTIVATED FOR AREA {}", areaId);
+                });
+    }
 
-                            deviceList.forEach(device -> {
-                                logger.info("AREA {} DEVICE", areaId.get(0));
-                                if(device.getAreaId().equals(areaId.get(0))){
-                                    if(device.getDeviceId().contains("alarm") || device.getDeviceId().contains("light")){
-                                        targetUrls.add(String.format("coap://192.168.1.107:5683/%s", device.getDeviceId()));
-                                    }
-                                }
-                            });
-                            targetUrls.forEach(url ->{
-                                CoapResponse coapResponse = coapResourceClient.putRequest(url, "true");
-                                logger.info("Response pretty print:\n{}", Utils.prettyPrint(coapResponse));
-                                logger.info("ALARMS AND LIGHTS ACTIVATED FOR AREA {}",  areaId.get(0));
-                            });
-                        }
-                    }
-                }
-            });
+    /*una riga per notifica a info domina la cpu sotto carico: il meter conta tutte le notifiche,
+    il body completo si vede solo a debug, a info passa una notifica campionata per intervallo*/
+    private void logNotification(String targetUrl, SenMLPack newPack){
+        this.conf.getPipelineMetrics().getNotificationMeter().mark();
+        if(logger.isDebugEnabled())
+            logger.debug("Notification -> Resource Target: {} -> Body: {}", targetUrl, newPack);
+        else if(logger.isInfoEnabled() && notificationLogSampler.sample())
+            logger.info("Notification -> Resource Target: {} -> Body: {} ({} notifications not logged)",
+                    targetUrl, newPack, notificationLogSampler.getAndResetSuppressed());
+    }
 
-        }catch (Exception e){
-            e.printStackTrace();
-        }
+    /*la modifica va su una copia e passa da updateDevice: il descriptor in inventory e' condiviso con le
+    richieste GET e con l'undo del journal. synchronized perche' pir e camera dello stesso device arrivano
+    da due observe diversi e altrimenti una delle due risorse andrebbe persa*/
+    private synchronized void addResourceToDevice(String deviceId, String resource) throws Exception {
+        Optional<GenericDeviceDescriptor> device = this.conf.getInventoryDataManager().getDevice(deviceId);
+        if(!device.isPresent() || device.get().getResourceList().contains(resource))
+            return;
+        GenericDeviceDescriptor updated = device.get().copy();
+        updated.addValueToResourceList(resource);
+        this.conf.getInventoryDataManager().updateDevice(updated);
     }
 
     private void startObservingPir (CoapClient coapClient, String targetUrl) {
 
         logger.info("OBSERVING ... {}", targetUrl);
         Request request = Request.newGet().setURI(targetUrl).setObserve();
+        request.getOptions().setAccept(CoapResourceClient.DEFAULT_ACCEPT);
         request.setConfirmable(true);
         CoapObserveRelation relation = coapClient.observe(request, new CoapHandler() {
             @Override
             public void onLoad(CoapResponse response) {
 
-                new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-                        handleNotificationPir(response, targetUrl);
-                    }
-                }).start();
+                //le notifiche dello stesso sensore vengono processate in ordine sul pool condiviso
+                long receivedAtMillis = System.currentTimeMillis();
+                conf.getNotificationDispatcher().dispatch(targetUrl, () -> handleNotificationPir(response, targetUrl, receivedAtMillis));
 
             }
 
@@ -338,11 +221,10 @@ public class LookupAndObserveProcess implements Runnable{
             }
         });
 
-        CoapResourceClient coapResourceClient = new CoapResourceClient();
         CoapResponse response = coapResourceClient.getRequest(targetUrl);
 
         try{
-            SenMLPack newPack = new ObjectMapper().readValue(response.getPayload(), SenMLPack.class);
+            SenMLPack newPack = SenMLContentFormat.decode(response.getPayload(), response.getOptions().getContentFormat());
 
             ResourceDescriptor newResource = new ResourceDescriptor();
             newResource.setDeviceId(newPack.get(0).getBn());
@@ -351,7 +233,7 @@ public class LookupAndObserveProcess implements Runnable{
             newResource.setManufacturer("theBuildingSecurity.servehttp.com");
             newResource.setCoreInterface("core.s");
 
-            this.conf.getInventoryDataManager().getDevice(newPack.get(0).getBn()).get().addValueToResourceList("pir");
+            addResourceToDevice(newPack.get(0).getBn(), "pir");
 
 
             this.conf.getInventoryDataManager().createNewResource(newResource);
@@ -367,16 +249,15 @@ public class LookupAndObserveProcess implements Runnable{
 
         logger.info("OBSERVING ... {}", targetUrl);
         Request request = Request.newGet().setURI(targetUrl).setObserve();
+        request.getOptions().setAccept(CoapResourceClient.DEFAULT_ACCEPT);
         request.setConfirmable(true);
         CoapObserveRelation relation = coapClient.observe(request, new CoapHandler() {
             @Override
             public void onLoad(CoapResponse response) {
 
-                //this is the method asynchronously invoked when an observed resource is sending data;
-
-                String content = response.getResponseText();
-
-                logger.info("Notification -> Resource Target: {} -> Body: {}", targetUrl, content);
+                //come per il pir: le notifiche della stessa telecamera vengono processate in ordine sul pool condiviso
+                long receivedAtMillis = System.currentTimeMillis();
+                conf.getNotificationDispatcher().dispatch(targetUrl, () -> handleNotificationCam(response, targetUrl, receivedAtMillis));
 
             }
 
@@ -386,11 +267,10 @@ public class LookupAndObserveProcess implements Runnable{
             }
         });
 
-        CoapResourceClient coapResourceClient = new CoapResourceClient();
         CoapResponse response = coapResourceClient.getRequest(targetUrl);
 
         try{
-            SenMLPack newPack = new ObjectMapper().readValue(response.getPayload(), SenMLPack.class);
+            SenMLPack newPack = SenMLContentFormat.decode(response.getPayload(), response.getOptions().getContentFormat());
 
             ResourceDescriptor newResource = new ResourceDescriptor();
             newResource.setDeviceId(newPack.get(0).getBn());
@@ -398,7 +278,7 @@ public class LookupAndObserveProcess implements Runnable{
             newResource.setType("iot.sensor.camera");
             newResource.setManufacturer("theBuildingSecurity.servehttp.com");
             newResource.setCoreInterface("core.s");
-            this.conf.getInventoryDataManager().getDevice(newPack.get(0).getBn()).get().addValueToResourceList("camera");
+            addResourceToDevice(newPack.get(0).getBn(), "camera");
 
             conf.getInventoryDataManager().createNewResource(newResource);
 
@@ -413,16 +293,14 @@ public class LookupAndObserveProcess implements Runnable{
 
         logger.info("OBSERVING ... {}", targetUrl);
         Request request = Request.newGet().setURI(targetUrl).setObserve();
+        request.getOptions().setAccept(CoapResourceClient.DEFAULT_ACCEPT);
         request.setConfirmable(true);
         CoapObserveRelation relation = coapClient.observe(request, new CoapHandler() {
             @Override
             public void onLoad(CoapResponse response) {
 
                 //this is the method asynchronously invoked when an observed resource is sending data;
-
-                String content = response.getResponseText();
-
-                logger.info("Notification -> Resource Target: {} -> Body: {}", targetUrl, content);
+                handleNotificationActuator(response, targetUrl);
 
             }
 
@@ -432,11 +310,10 @@ public class LookupAndObserveProcess implements Runnable{
             }
         });
 
-        CoapResourceClient coapResourceClient = new CoapResourceClient();
         CoapResponse response = coapResourceClient.getRequest(targetUrl);
 
         try{
-            SenMLPack newPack = new ObjectMapper().readValue(response.getPayload(), SenMLPack.class);
+            SenMLPack newPack = SenMLContentFormat.decode(response.getPayload(), response.getOptions().getContentFormat());
 
             GenericDeviceDescriptor newDevice = new GenericDeviceDescriptor();
             newDevice.setDeviceId(newPack.get(0).getBn());
@@ -447,6 +324,8 @@ public class LookupAndObserveProcess implements Runnable{
             newResource.setType("iot.actuator.light");
             newResource.setManufacturer("theBuildingSecurity.servehttp.com");
             newResource.setCoreInterface("core.a");
+            //i comandi all'attuatore vanno all'uri letto dal resource directory
+            conf.getActuationService().onActuatorDiscovered(newPack.get(0).getBn(), targetUrl);
 
             conf.getInventoryDataManager().createNewResource(newResource);
             conf.getInventoryDataManager().createNewDevice(newDevice);
@@ -464,15 +343,13 @@ public class LookupAndObserveProcess implements Runnable{
 
         logger.info("OBSERVING ... {}", targetUrl);
         Request request = Request.newGet().setURI(targetUrl).setObserve();
+        request.getOptions().setAccept(CoapResourceClient.DEFAULT_ACCEPT);
         request.setConfirmable(true);
         CoapObserveRelation relation = coapClient.observe(request, new CoapHandler() {
             @Override
             public void onLoad(CoapResponse response) {
                 //this is the method asynchronously invoked when an observed resource is sending data;
-
-                String content = response.getResponseText();
-
-                logger.info("Notification -> Resource Target: {} -> Body: {}", targetUrl, content);
+                handleNotificationActuator(response, targetUrl);
             }
 
             @Override
@@ -481,11 +358,10 @@ public class LookupAndObserveProcess implements Runnable{
             }
         });
 
-        CoapResourceClient coapResourceClient = new CoapResourceClient();
         CoapResponse response = coapResourceClient.getRequest(targetUrl);
 
         try{
-            SenMLPack newPack = new ObjectMapper().readValue(response.getPayload(), SenMLPack.class);
+            SenMLPack newPack = SenMLContentFormat.decode(response.getPayload(), response.getOptions().getContentFormat());
 
             GenericDeviceDescriptor newDevice = new GenericDeviceDescriptor();
             newDevice.setDeviceId(newPack.get(0).getBn());
@@ -496,6 +372,8 @@ public class LookupAndObserveProcess implements Runnable{
             newResource.setType("iot.actuator.alarm");
             newResource.setManufacturer("theBuildingSecurity.servehttp.com");
             newResource.setCoreInterface("core.a");
+            //i comandi all'attuatore vanno all'uri letto dal resource directory
+            conf.getActuationService().onActuatorDiscovered(newPack.get(0).getBn(), targetUrl);
 
 
             conf.getInventoryDataManager().createNewResource(newResource);
@@ -514,11 +392,10 @@ public class LookupAndObserveProcess implements Runnable{
 
         logger.info("COLLECTING ... {}", targetUrl);
 
-        CoapResourceClient coapResourceClient = new CoapResourceClient();
         CoapResponse response = coapResourceClient.getRequest(targetUrl);
 
         try{
-            SenMLPack newPack = new ObjectMapper().readValue(response.getPayload(), SenMLPack.class);
+            SenMLPack newPack = SenMLContentFormat.decode(response.getPayload(), response.getOptions().getContentFormat());
 
             GenericDeviceDescriptor newDevice = new GenericDeviceDescriptor();
             newDevice.setDeviceId(newPack.get(0).getBn());
@@ -530,62 +407,76 @@ public class LookupAndObserveProcess implements Runnable{
         }catch (Exception e){
             e.printStackTrace();
         }
-        observingRelationMap.put(targetUrl, null);
+        presenceMonitoringSet.add(targetUrl);
 
     }
 
 
-    @Override
-    public void run() {
-        //init coap client
-        CoapClient coapClient = new CoapClient();
+    private void stopObserving(String targetUrl){
 
-        //init target resource list array and observing relations
+        CoapObserveRelation relation = observingRelationMap.remove(targetUrl);
+        if(relation != null)
+            relation.proactiveCancel();
+        else if(!presenceMonitoringSet.remove(targetUrl))
+            return;
 
-        observingRelationMap = new HashMap<>();
-
-        pirTargetObservableList = new ArrayList<>();
-        camTargetObservableList = new ArrayList<>();
-        lightTargetObservableList = new ArrayList<>();
-        alarmTargetObservableList = new ArrayList<>();
-        presenceMonitoringTargetList = new ArrayList<>();
-
-        while(true){
-
-            lookupTarget(coapClient);
+        logger.info("STOPPED OBSERVING ... {}", targetUrl);
+    }
 
-            //start observing resources
-            presenceMonitoringTargetList.forEach(targetResourceUrl -> {
-                if (!observingRelationMap.containsKey(targetResourceUrl))
-                    addPresenceMonitoringToDevices(coapClient, targetResourceUrl);
-            });
 
-            lightTargetObservableList.forEach(targetResourceUrl -> {
-                if (!observingRelationMap.containsKey(targetResourceUrl))
-                    startObservingLight(coapClient, targetResourceUrl);
-            });
-            alarmTargetObservableList.forEach(targetResourceUrl -> {
-                if (!observingRelationMap.containsKey(targetResourceUrl))
-                    startObservingAlarm(coapClient, targetResourceUrl);
-            });
+    @Override
+    public void run() {
+        //observe e lookup sull'endpoint condiviso con attuazioni e GET, non su quello di default di californium
+        CoapClient coapClient;
+        try {
+            coapClient = CoapResourceClient.newClient();
+        } catch (IOException e) {
+            logger.error("Unable to start the shared CoAP endpoint: {}", e.getLocalizedMessage());
+            return;
+        }
 
+        //init observing relations, aggiornate solo con le differenze notificate dal resource directory
+        observingRelationMap = new ConcurrentHashMap<>();
+        presenceMonitoringSet = ConcurrentHashMap.newKeySet();
 
-            pirTargetObservableList.forEach(targetResourceUrl -> {
-                if (!observingRelationMap.containsKey(targetResourceUrl))
-                    startObservingPir(coapClient, targetResourceUrl);
-            });
-            camTargetObservableList.forEach(targetResourceUrl -> {
-                if (!observingRelationMap.containsKey(targetResourceUrl))
-                    startObservingCam(coapClient, targetResourceUrl);
-            });
+        ResourceDirectoryLookup resourceDirectoryLookup = new ResourceDirectoryLookup(coapClient,
+                String.format("coap://%s:%d%s", TARGET_RD_IP, TARGET_RD_PORT, RD_LOOKUP_URI),
+                TARGET_RESOURCE_TYPE_LIST,
+                new ResourceDirectoryLookup.Listener() {
+                    @Override
+                    public void onTargetAdded(String targetResourceUrl, String resourceType) {
+
+                        if (observingRelationMap.containsKey(targetResourceUrl) || presenceMonitoringSet.contains(targetResourceUrl))
+                            return;
+
+                        //start observing resources
+                        switch (resourceType){
+                            case "iot.sensor.presencemonitoring":
+                                addPresenceMonitoringToDevices(coapClient, targetResourceUrl);
+                                break;
+                            case "iot.actuator.light":
+                                startObservingLight(coapClient, targetResourceUrl);
+                                break;
+                            case "iot.actuator.alarm":
+                                startObservingAlarm(coapClient, targetResourceUrl);
+                                break;
+                            case "iot.sensor.pir":
+                                startObservingPir(coapClient, targetResourceUrl);
+                                break;
+                            case "iot.sensor.camera":
+                                startObservingCam(coapClient, targetResourceUrl);
+                                break;
+                        }
+                    }
 
+                    @Override
+                    public void onTargetRemoved(String targetResourceUrl, String resourceType) {
+                        stopObserving(targetResourceUrl);
+                    }
+                },
+                ResourceDirectoryLookup.DEFAULT_FALLBACK_POLL_MILLIS);
 
-            try {
-                Thread.sleep(1000*60);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
+        resourceDirectoryLookup.run();
 
     }
 }
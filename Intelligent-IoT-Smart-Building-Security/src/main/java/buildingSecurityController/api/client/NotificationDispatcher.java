@@ -0,0 +1,251 @@
+package buildingSecurityController.api.client;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*smista le notifiche degli observe su un pool di worker limitato al posto di creare un thread per ogni onLoad.
+Ogni device (chiave) ha una propria coda seriale: le notifiche di uno stesso sensore vengono processate
+in ordine e mai in parallelo, mentre device diversi procedono in parallelo sui worker.
+Se la coda di un device e' piena si applica l'overflow policy configurata.
+La coda di un device resta nella mappa solo finche' ha notifiche: quando si svuota viene tolta, cosi' i device
+che spariscono non lasciano code dietro di se'. Inserimento e rimozione passano da compute sulla stessa chiave,
+quindi una notifica non finisce mai in una coda gia' tolta e un device non ha mai due code attive*/
+
+public class NotificationDispatcher implements Managed {
+
+    private final static Logger logger = LoggerFactory.getLogger(NotificationDispatcher.class);
+
+    public static final int DEFAULT_WORKER_THREADS = 4;
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+    //numero massimo di notifiche processate di fila per device prima di cedere il worker agli altri device
+    private static final int MAX_BATCH_PER_TURN = 16;
+
+    public enum OverflowPolicy {
+        DROP_OLDEST,    //scarta la notifica piu' vecchia in coda (per i sensori conta lo stato piu' recente)
+        DROP_NEWEST     //rifiuta la notifica appena arrivata
+    }
+
+    private final ExecutorService executorService;
+    private final int queueCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final boolean virtualThreads;
+
+    private final Map<String, DeviceQueue> deviceQueueMap = new ConcurrentHashMap<>();
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private final AtomicInteger pendingNotifications = new AtomicInteger();
+    private final Timer waitTimer;
+    private final Timer processingTimer;
+    private final Meter droppedMeter;
+    private final Counter failedCounter;
+
+    public NotificationDispatcher() {
+        this(DEFAULT_WORKER_THREADS, DEFAULT_QUEUE_CAPACITY, OverflowPolicy.DROP_OLDEST, false);
+    }
+
+    public NotificationDispatcher(int workerThreads, int queueCapacity, OverflowPolicy overflowPolicy, boolean useVirtualThreads) {
+
+        if(workerThreads <= 0 || queueCapacity <= 0)
+            throw new IllegalArgumentException("workerThreads and queueCapacity must be positive");
+
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = overflowPolicy != null ? overflowPolicy : OverflowPolicy.DROP_OLDEST;
+
+        ExecutorService virtualExecutor = useVirtualThreads ? newVirtualThreadExecutor() : null;
+        this.virtualThreads = virtualExecutor != null;
+        this.executorService = virtualExecutor != null ? virtualExecutor : newWorkerPool(workerThreads);
+
+        this.waitTimer = metricRegistry.timer("wait");
+        this.processingTimer = metricRegistry.timer("processing");
+        this.droppedMeter = metricRegistry.meter("dropped");
+        this.failedCounter = metricRegistry.counter("failed");
+        this.metricRegistry.register("queue-depth", (Gauge<Integer>) pendingNotifications::get);
+        this.metricRegistry.register("max-device-queue-depth", (Gauge<Integer>) this::getMaxDeviceQueueDepth);
+        this.metricRegistry.register("devices", (Gauge<Integer>) deviceQueueMap::size);
+
+        logger.info("Notification dispatcher started: {} ({} workers), queue capacity {} per device, overflow policy {}",
+                this.virtualThreads ? "virtual threads" : "platform threads", this.virtualThreads ? "unbounded" : workerThreads,
+                queueCapacity, this.overflowPolicy);
+    }
+
+    //accoda la notifica sulla coda seriale del device; restituisce false se la notifica e' stata scartata
+    public boolean dispatch(String deviceKey, Runnable task) {
+
+        if(executorService.isShutdown()) {
+            droppedMeter.mark();
+            return false;
+        }
+
+        PendingNotification notification = new PendingNotification(task);
+        boolean[] accepted = {false};
+        DeviceQueue deviceQueue = deviceQueueMap.compute(deviceKey, (key, current) -> {
+            DeviceQueue queue = current != null ? current : new DeviceQueue(key);
+            accepted[0] = queue.offer(notification);
+            return queue;
+        });
+        deviceQueue.schedule();
+        return accepted[0];
+    }
+
+    public MetricRegistry getMetricRegistry() {
+        return metricRegistry;
+    }
+
+    public int getQueueDepth() {
+        return pendingNotifications.get();
+    }
+
+    public boolean isUsingVirtualThreads() {
+        return virtualThreads;
+    }
+
+    private int getMaxDeviceQueueDepth() {
+        int max = 0;
+        for(DeviceQueue deviceQueue : deviceQueueMap.values())
+            max = Math.max(max, deviceQueue.size());
+        return max;
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void stop() throws Exception {
+        executorService.shutdown();
+        if(!executorService.awaitTermination(5, TimeUnit.SECONDS)) {
+            logger.warn("Notification dispatcher stopped with {} pending notifications", pendingNotifications.get());
+            executorService.shutdownNow();
+        }
+    }
+
+    private static ExecutorService newWorkerPool(int workerThreads) {
+        AtomicInteger threadCounter = new AtomicInteger();
+        //la coda del pool contiene al piu' un task per device, la coda limitata e' quella di ogni device
+        return new ThreadPoolExecutor(workerThreads, workerThreads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "notification-worker-" + threadCounter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    //Executors.newVirtualThreadPerTaskExecutor() esiste solo da Java 21: lo cerco via reflection per compilare anche con Java 8
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.warn("Virtual threads not available on this JVM, falling back to a bounded worker pool");
+            return null;
+        }
+    }
+
+    private static final class PendingNotification {
+
+        private final Runnable task;
+        private final long enqueuedAt;
+
+        private PendingNotification(Runnable task) {
+            this.task = task;
+            this.enqueuedAt = System.nanoTime();
+        }
+    }
+
+    private final class DeviceQueue implements Runnable {
+
+        private final String deviceKey;
+        private final ConcurrentLinkedQueue<PendingNotification> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        private DeviceQueue(String deviceKey) {
+            this.deviceKey = deviceKey;
+        }
+
+        private int size() {
+            return size.get();
+        }
+
+        private boolean offer(PendingNotification notification) {
+
+            if(size.incrementAndGet() > queueCapacity) {
+
+                if(overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+                    size.decrementAndGet();
+                    droppedMeter.mark();
+                    logger.warn("Notification queue full for {}, dropping newest notification", deviceKey);
+                    return false;
+                }
+
+                PendingNotification oldest = queue.poll();
+                if(oldest != null) {
+                    size.decrementAndGet();
+                    pendingNotifications.decrementAndGet();
+                    droppedMeter.mark();
+                    logger.warn("Notification queue full for {}, dropping oldest notification", deviceKey);
+                }
+            }
+
+            queue.offer(notification);
+            pendingNotifications.incrementAndGet();
+            return true;
+        }
+
+        private void schedule() {
+            if(scheduled.compareAndSet(false, true)) {
+                try {
+                    executorService.execute(this);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                    logger.error("Notification dispatcher rejected {}: {}", deviceKey, e.getLocalizedMessage());
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                //in fase di stop svuoto tutta la coda senza cedere il worker, il pool non accetta piu' task
+                int processed = 0;
+                PendingNotification notification;
+                while((processed < MAX_BATCH_PER_TURN || executorService.isShutdown()) && (notification = queue.poll()) != null) {
+                    size.decrementAndGet();
+                    pendingNotifications.decrementAndGet();
+                    waitTimer.update(System.nanoTime() - notification.enqueuedAt, TimeUnit.NANOSECONDS);
+
+                    Timer.Context processingContext = processingTimer.time();
+                    try {
+                        notification.task.run();
+                    } catch (Exception e) {
+                        failedCounter.inc();
+                        logger.error("Error handling notification for {}: {}", deviceKey, e.getLocalizedMessage());
+                    } finally {
+                        processingContext.stop();
+                    }
+                    processed++;
+                }
+            } finally {
+                scheduled.set(false);
+                //coda vuota: la tolgo dalla mappa, a meno che dispatch non abbia appena aggiunto una notifica
+                deviceQueueMap.computeIfPresent(deviceKey, (key, current) -> current == this && queue.isEmpty() ? null : current);
+                //se nel frattempo sono arrivate altre notifiche mi rimetto in coda sul pool
+                if(!queue.isEmpty())
+                    schedule();
+            }
+        }
+    }
+
+}
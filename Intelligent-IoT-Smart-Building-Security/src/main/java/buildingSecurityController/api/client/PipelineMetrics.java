@@ -0,0 +1,126 @@
+package buildingSecurityController.api.client;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.Timer;
+import utils.SenMLRecord;
+
+import java.util.concurrent.TimeUnit;
+
+/*metriche del percorso rilevazione -> attuazione, una fase per timer:
+receipt (campione sul sensore -> notifica ricevuta), decode, policy-evaluation, actuation-fan-out (tutte le PUT
+di un'area), actuation-ack (singola PUT andata a buon fine) ed end-to-end (campione -> attuatori accesi),
+anche per area come end-to-end.<areaId>. I meter notifications e area-triggers sostituiscono le righe di log
+per evento. Le fasi che partono dal t del campione sono affidabili solo se gli orologi dei device e del controller
+sono sincronizzati*/
+
+public class PipelineMetrics {
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    private final Timer receiptTimer;
+    private final Timer decodeTimer;
+    private final Timer policyEvaluationTimer;
+    private final Timer fanOutTimer;
+    private final Timer ackTimer;
+    private final Timer endToEndTimer;
+    private final Meter failedMeter;
+    private final Meter notificationMeter;
+    private final Meter areaTriggerMeter;
+
+    public PipelineMetrics() {
+        this.receiptTimer = metricRegistry.timer("receipt");
+        this.decodeTimer = metricRegistry.timer("decode");
+        this.policyEvaluationTimer = metricRegistry.timer("policy-evaluation");
+        this.fanOutTimer = metricRegistry.timer("actuation-fan-out");
+        this.ackTimer = metricRegistry.timer("actuation-ack");
+        this.endToEndTimer = metricRegistry.timer("end-to-end");
+        this.failedMeter = metricRegistry.meter("actuation-failed");
+        this.notificationMeter = metricRegistry.meter("notifications");
+        this.areaTriggerMeter = metricRegistry.meter("area-triggers");
+    }
+
+    /*copia le metriche in un altro registry sotto prefix, comprese quelle create dopo (i timer per area
+    nascono alla prima attuazione dell'area, register di un MetricSet copierebbe solo quelle gia' presenti)*/
+    public void registerTo(MetricRegistry target, String prefix) {
+        metricRegistry.addListener(new MetricRegistryListener.Base() {
+            @Override
+            public void onTimerAdded(String name, Timer timer) {
+                add(name, timer);
+            }
+
+            @Override
+            public void onMeterAdded(String name, Meter meter) {
+                add(name, meter);
+            }
+
+            private void add(String name, Metric metric) {
+                try {
+                    target.register(MetricRegistry.name(prefix, name), metric);
+                } catch (IllegalArgumentException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    //istante del campione in ms (bt + t), 0 se il record non ha un tempo assoluto
+    public static long sampleTimeMillis(SenMLRecord record) {
+        if(record == null || !(record.hasT() || record.hasBt()))
+            return 0;
+        double time = (record.hasBt() ? record.getBtAsDouble() : 0) + (record.hasT() ? record.getTAsDouble() : 0);
+        if(time < SenMLRecord.RELATIVE_TIME_LIMIT)
+            return 0;
+        return (long) (SenMLRecord.toSeconds(time) * 1000);
+    }
+
+    public void recordReceipt(long sampleTimeMillis, long receivedAtMillis) {
+        update(receiptTimer, sampleTimeMillis, receivedAtMillis);
+    }
+
+    public void recordEndToEnd(String areaId, long sampleTimeMillis, long actuatedAtMillis) {
+        update(endToEndTimer, sampleTimeMillis, actuatedAtMillis);
+        if(areaId != null)
+            update(metricRegistry.timer(MetricRegistry.name("end-to-end", areaId)), sampleTimeMillis, actuatedAtMillis);
+    }
+
+    //con orologi non allineati la differenza puo' essere negativa: non la registro
+    private static void update(Timer timer, long fromMillis, long toMillis) {
+        if(fromMillis > 0 && toMillis >= fromMillis)
+            timer.update(toMillis - fromMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public Timer getDecodeTimer() {
+        return decodeTimer;
+    }
+
+    public Timer getPolicyEvaluationTimer() {
+        return policyEvaluationTimer;
+    }
+
+    public Timer getFanOutTimer() {
+        return fanOutTimer;
+    }
+
+    public Timer getAckTimer() {
+        return ackTimer;
+    }
+
+    public Meter getFailedMeter() {
+        return failedMeter;
+    }
+
+    public Meter getNotificationMeter() {
+        return notificationMeter;
+    }
+
+    public Meter getAreaTriggerMeter() {
+        return areaTriggerMeter;
+    }
+
+    public MetricRegistry getMetricRegistry() {
+        return metricRegistry;
+    }
+}
@@ -0,0 +1,305 @@
+package buildingSecurityController.api.client;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapObserveRelation;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.WebLink;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.LinkFormat;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.elements.exception.ConnectorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.eclipse.californium.core.coap.LinkFormat.RESOURCE_TYPE;
+
+/*mantiene allineato l'elenco delle risorse registrate nel resource directory.
+Invece di scaricare /rd-lookup/res ogni minuto si mette in observe sul lookup: ad ogni notifica
+calcola la differenza con le risorse gia' note (hash map uri -> resource type) e segnala al listener
+solo quelle aggiunte o rimosse. Il polling resta come fallback lento, e serve anche a ristabilire
+l'observe se la relation cade.
+Dopo il primo documento completo sia il polling che l'observe chiedono since=<versione>, la versione
+del registry del RD letta dall'ETag dell'ultimo documento applicato: il RD risponde con i soli endpoint
+cambiati (2.03 Valid se non e' cambiato nulla). Dopo ogni documento applicato l'observe viene riaperto con
+since= alla nuova versione, altrimenti ogni notifica ripeterebbe tutte le modifiche dall'inizio dell'observe.
+Le risorse di un delta si aggiungono a quelle note;
+se il delta contiene endpoint rimossi (flag removed) non si puo' sapere quali risorse togliere, perche'
+piu' endpoint possono avere la stessa base, quindi si rifa' il lookup completo e si riapre l'observe
+dalla nuova versione. Lo stesso se il RD non ha piu' il delta richiesto (4.12 Precondition Failed)*/
+
+public class ResourceDirectoryLookup implements Runnable {
+
+    private final static Logger logger = LoggerFactory.getLogger(ResourceDirectoryLookup.class);
+
+    private static final String INTERFACE_CORE_ATTRIBUTE = "if";
+    private static final String WELL_KNOWN_CORE_URI = "/.well-known/core";
+
+    //query e flag dei lookup incrementali del resource directory
+    private static final String SINCE_QUERY = "since";
+    private static final String REMOVED_ATTRIBUTE = "removed";
+    private static final long UNKNOWN_VERSION = Long.MIN_VALUE;
+
+    public static final long DEFAULT_FALLBACK_POLL_MILLIS = 10 * 60 * 1000;
+
+    public interface Listener {
+
+        public void onTargetAdded(String targetUrl, String resourceType);
+
+        public void onTargetRemoved(String targetUrl, String resourceType);
+    }
+
+    private final CoapClient coapClient;
+    private final String lookupUrl;
+    private final List<String> resourceTypeList;
+    private final Listener listener;
+    private final long fallbackPollMillis;
+
+    //le notifiche vengono applicate una alla volta e in ordine, fuori dai thread di californium
+    private final ExecutorService syncExecutor;
+
+    private final Map<String, String> knownTargetMap = new HashMap<>();
+    private volatile CoapObserveRelation lookupRelation = null;
+    private volatile byte[] lastEtag = null;
+    private volatile long lastVersion = UNKNOWN_VERSION;
+    //versione con cui e' stato aperto l'observe corrente
+    private volatile long observedSince = UNKNOWN_VERSION;
+
+    /*resourceTypeList e' anche l'ordine in cui vengono segnalate le nuove risorse
+    (es. prima i device di presence monitoring, poi i sensori che vi si agganciano)*/
+    public ResourceDirectoryLookup(CoapClient coapClient, String lookupUrl, List<String> resourceTypeList, Listener listener, long fallbackPollMillis) {
+        this.coapClient = coapClient;
+        this.lookupUrl = lookupUrl;
+        this.resourceTypeList = new ArrayList<>(resourceTypeList);
+        this.listener = listener;
+        this.fallbackPollMillis = fallbackPollMillis;
+        this.syncExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rd-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void run() {
+        while(!Thread.currentThread().isInterrupted()){
+
+            lookup();
+
+            //in coda dopo il lookup, cosi' l'observe parte dalla versione appena applicata
+            CoapObserveRelation relation = lookupRelation;
+            if(relation == null || relation.isCanceled())
+                syncExecutor.execute(this::observeLookup);
+
+            try {
+                Thread.sleep(fallbackPollMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        CoapObserveRelation relation = lookupRelation;
+        if(relation != null)
+            relation.proactiveCancel();
+        syncExecutor.shutdown();
+    }
+
+    //GET del lookup, completo all'avvio e poi solo delle modifiche dall'ultima versione applicata
+    public void lookup(){
+
+        long since = lastVersion;
+        try{
+            CoapResponse coapResponse = coapClient.advanced(newLookupRequest(since, lastEtag));
+            if(coapResponse != null && coapResponse.getCode() == CoAP.ResponseCode.VALID)
+                logger.debug("Resource Directory lookup {} unchanged", lookupUrl);
+            else if(coapResponse != null)
+                syncExecutor.execute(() -> applyLookup(coapResponse, since));
+            else
+                logger.warn("No response from Resource Directory lookup {}", lookupUrl);
+
+        }catch (ConnectorException | IOException e){
+            logger.error("Resource Directory lookup {} failed: {}", lookupUrl, e.getLocalizedMessage());
+        }
+    }
+
+    private Request newLookupRequest(long since, byte[] etag){
+        Request request = new Request(CoAP.Code.GET);
+        request.setURI(lookupUrl);
+        request.setConfirmable(true);
+        if(etag != null)
+            request.getOptions().addETag(etag);
+        if(since != UNKNOWN_VERSION)
+            request.getOptions().addUriQuery(SINCE_QUERY + "=" + since);
+        return request;
+    }
+
+    //eseguito sul thread rd-sync
+    private void observeLookup(){
+
+        CoapObserveRelation relation = lookupRelation;
+        if(relation != null && !relation.isCanceled())
+            return;
+
+        //le notifiche riportano tutte le modifiche dalla versione con cui parte l'observe
+        long since = lastVersion;
+        observedSince = since;
+        logger.debug("OBSERVING RD LOOKUP ... {} since {}", lookupUrl, since == UNKNOWN_VERSION ? "start" : since);
+        Request request = newLookupRequest(since, null).setObserve();
+
+        this.lookupRelation = coapClient.observe(request, new CoapHandler() {
+            @Override
+            public void onLoad(CoapResponse response) {
+                //la risposta alla cancellazione puo' arrivare dopo la fine di run()
+                if(syncExecutor.isShutdown())
+                    return;
+                syncExecutor.execute(() -> {
+                    //notifica ancora in coda di un observe gia' riaperto da un'altra versione
+                    if(since == observedSince)
+                        applyLookup(response, since);
+                });
+            }
+
+            @Override
+            public void onError() {
+                logger.error("OBSERVE {} FAILED, falling back to polling", lookupUrl);
+            }
+        });
+    }
+
+    private void applyLookup(CoapResponse coapResponse, long since){
+        try{
+            if(coapResponse.getCode() == CoAP.ResponseCode.PRECONDITION_FAILED){
+                logger.info("Resource Directory has no changes since {}, repeating the full lookup", since);
+                resync();
+                return;
+            }
+
+            //la risposta non deve essere di un media type che non sia CORE LINK FORMAT
+            if(!coapResponse.isSuccess() || coapResponse.getOptions().getContentFormat() != MediaTypeRegistry.APPLICATION_LINK_FORMAT){
+                logger.info("Core Link Format Response not found.");
+                return;
+            }
+
+            Set<WebLink> links = LinkFormat.parse(coapResponse.getResponseText());
+            if(since == UNKNOWN_VERSION)
+                applyLinks(links, true);
+            else if(hasRemovedEndpoint(links)){
+                logger.info("Resource Directory removed endpoints since {}, repeating the full lookup", since);
+                resync();
+                return;
+            }
+            else
+                applyLinks(links, false);
+
+            //un delta in ritardo (es. del poll) non riporta indietro la versione
+            byte[] etag = coapResponse.getOptions().getETagCount() > 0 ? coapResponse.getOptions().getETags().get(0) : null;
+            long version = toVersion(etag);
+            if(since == UNKNOWN_VERSION || version > lastVersion){
+                lastEtag = etag;
+                lastVersion = version;
+            }
+
+            followVersion();
+
+        }catch (Exception e){
+            logger.error("Unable to apply the Resource Directory lookup: {}", e.getLocalizedMessage());
+        }
+    }
+
+    //lookup completo applicato subito, poi l'observe riparte dalla nuova versione
+    private void resync() throws ConnectorException, IOException {
+        lastEtag = null;
+        lastVersion = UNKNOWN_VERSION;
+
+        CoapResponse coapResponse = coapClient.advanced(newLookupRequest(UNKNOWN_VERSION, null));
+        if(coapResponse == null){
+            logger.warn("No response from Resource Directory lookup {}", lookupUrl);
+            return;
+        }
+        applyLookup(coapResponse, UNKNOWN_VERSION);
+    }
+
+    //riapre l'observe attivo da lastVersion, se e' stato aperto da una versione precedente
+    private void followVersion(){
+        CoapObserveRelation relation = lookupRelation;
+        if(relation == null || relation.isCanceled() || observedSince == lastVersion)
+            return;
+        relation.proactiveCancel();
+        lookupRelation = null;
+        observeLookup();
+    }
+
+    private static boolean hasRemovedEndpoint(Set<WebLink> links){
+        for(WebLink webLink : links)
+            if(webLink.getAttributes() != null && webLink.getAttributes().containsAttribute(REMOVED_ATTRIBUTE))
+                return true;
+        return false;
+    }
+
+    //la versione del registry e' l'ETag del lookup, un long di 8 byte
+    private static long toVersion(byte[] etag){
+        return etag != null && etag.length == Long.BYTES ? ByteBuffer.wrap(etag).getLong() : UNKNOWN_VERSION;
+    }
+
+    /*confronta il documento ricevuto con le risorse note e segnala solo le differenze.
+    Un delta elenca solo gli endpoint cambiati, quindi le risorse che non contiene non vengono rimosse*/
+    private void applyLinks(Set<WebLink> links, boolean complete){
+
+        Map<String, String> currentTargetMap = new HashMap<>();
+
+        for(WebLink webLink : links){
+            //evito di includere wellknowncore alla lista delle risorse che ricevo.
+            if(webLink.getURI() == null || webLink.getURI().equals(WELL_KNOWN_CORE_URI) || webLink.getAttributes() == null || webLink.getAttributes().getCount() == 0)
+                continue;
+
+            //considero solamente le risorse che abbiano interface core attribute e uno dei resource type richiesti
+            if(!webLink.getAttributes().containsAttribute(INTERFACE_CORE_ATTRIBUTE))
+                continue;
+
+            List<String> linkTypeList = webLink.getAttributes().getAttributeValues(RESOURCE_TYPE);
+            for(String resourceType : resourceTypeList){
+                if(linkTypeList.contains(resourceType)){
+                    currentTargetMap.put(webLink.getURI(), resourceType);
+                    break;
+                }
+            }
+        }
+
+        List<Map.Entry<String, String>> addedList = new ArrayList<>();
+        for(Map.Entry<String, String> target : currentTargetMap.entrySet())
+            if(!target.getValue().equals(knownTargetMap.get(target.getKey())))
+                addedList.add(target);
+
+        List<Map.Entry<String, String>> removedList = new ArrayList<>();
+        for(Map.Entry<String, String> target : knownTargetMap.entrySet())
+            if(complete ? !target.getValue().equals(currentTargetMap.get(target.getKey()))
+                    : currentTargetMap.containsKey(target.getKey()) && !target.getValue().equals(currentTargetMap.get(target.getKey())))
+                removedList.add(target);
+
+        if(addedList.isEmpty() && removedList.isEmpty())
+            return;
+
+        logger.info("Resource Directory changed: {} added, {} removed", addedList.size(), removedList.size());
+
+        for(Map.Entry<String, String> target : removedList){
+            knownTargetMap.remove(target.getKey());
+            logger.info("Target Resource removed! URI: {}", target.getKey());
+            listener.onTargetRemoved(target.getKey(), target.getValue());
+        }
+
+        addedList.sort(Comparator.comparingInt(target -> resourceTypeList.indexOf(target.getValue())));
+        for(Map.Entry<String, String> target : addedList){
+            knownTargetMap.put(target.getKey(), target.getValue());
+            logger.info("Target Resource found! URI: {}", target.getKey());
+            listener.onTargetAdded(target.getKey(), target.getValue());
+        }
+    }
+
+}
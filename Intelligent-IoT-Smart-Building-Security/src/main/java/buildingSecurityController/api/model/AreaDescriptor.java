@@ -1,7 +1,7 @@
 package buildingSecurityController.api.model;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class AreaDescriptor {
     private String areaId;
@@ -9,13 +9,14 @@ public class AreaDescriptor {
     private List<String> deviceIdList;
     private String floorId;
 
+    //l'inventory aggiunge e toglie device mentre le richieste GET serializzano l'area
     public AreaDescriptor(){
-        this.deviceIdList = new ArrayList<>();
+        this.deviceIdList = new CopyOnWriteArrayList<>();
     }
 
     public AreaDescriptor(String areaName, List<String> deviceIdList, String floorId, String areaId) {
         this.areaName = areaName;
-        this.deviceIdList = deviceIdList;
+        this.deviceIdList = new CopyOnWriteArrayList<>(deviceIdList);
         this.floorId = floorId;
         this.areaId = areaId;
 
@@ -53,6 +54,10 @@ public class AreaDescriptor {
         this.areaId = areaId;
     }
 
+    public AreaDescriptor copy() {
+        return new AreaDescriptor(areaName, deviceIdList, floorId, areaId);
+    }
+
     @Override
     public String toString() {
         return super.toString();
@@ -20,6 +20,10 @@ public class FloorDescriptor {
     }
 
 
+    public FloorDescriptor copy() {
+        return new FloorDescriptor(floor_id);
+    }
+
     @Override
     public String toString() {
         return "FloorDescriptor{" +
@@ -44,6 +44,11 @@ public class GenericDeviceDescriptor {
         this.resourceList = resourceList;
     }
 
+    //copia con una lista delle risorse propria, da modificare e poi passare all'update dell'inventory
+    public GenericDeviceDescriptor copy() {
+        return new GenericDeviceDescriptor(areaId, deviceId, new ArrayList<>(resourceList));
+    }
+
     @Override
     public String toString() {
         return "GenericDeviceDescriptor{" +
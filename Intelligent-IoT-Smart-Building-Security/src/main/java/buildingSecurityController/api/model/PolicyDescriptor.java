@@ -81,6 +81,10 @@ public class PolicyDescriptor {
         this.max_persons = max_persons;
     }
 
+    public PolicyDescriptor copy() {
+        return new PolicyDescriptor(policy_id, area_id, is_enabled, presence_mode, start_working_time, end_working_time, max_persons);
+    }
+
     @Override
     public String toString() {
         return "PolicyDescriptor{" +
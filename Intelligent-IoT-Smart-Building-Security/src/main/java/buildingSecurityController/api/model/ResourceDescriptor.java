@@ -56,6 +56,10 @@ public class ResourceDescriptor {
         this.coreInterface = coreInterface;
     }
 
+    public ResourceDescriptor copy() {
+        return new ResourceDescriptor(resourceId, deviceId, manufacturer, type, coreInterface);
+    }
+
     @Override
     public String toString() {
         return "ResourceDescriptor{" +
@@ -1,17 +1,29 @@
 package buildingSecurityController.api.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.io.Serializable;
 
+@SuppressWarnings("serial")
 public class UserDescriptor implements Serializable {
 
 
     @JsonProperty("username")
     private String username;
 
-    @JsonProperty("password")
-    private String password;
+    //solo in ingresso: l'inventory la sostituisce con salt e hash e non viene mai serializzata
+    @JsonProperty(value = "password", access = JsonProperty.Access.WRITE_ONLY)
+    private transient String password;
+
+    //salt e hash PBKDF2 in base64, vedi PasswordHasher
+    @JsonProperty("passwordSalt")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String passwordSalt;
+
+    @JsonProperty("passwordHash")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String passwordHash;
 
     @JsonProperty("role")
     private String role;
@@ -50,6 +62,22 @@ public class UserDescriptor implements Serializable {
         this.password = password;
     }
 
+    public String getPasswordSalt() {
+        return passwordSalt;
+    }
+
+    public void setPasswordSalt(String passwordSalt) {
+        this.passwordSalt = passwordSalt;
+    }
+
+    public String getPasswordHash() {
+        return passwordHash;
+    }
+
+    public void setPasswordHash(String passwordHash) {
+        this.passwordHash = passwordHash;
+    }
+
     public String getRole() {
         return role;
     }
@@ -69,8 +97,21 @@ public class UserDescriptor implements Serializable {
 
 
 
+    public UserDescriptor copy() {
+        UserDescriptor copy = new UserDescriptor(username, password, role, email);
+        copy.setPasswordSalt(passwordSalt);
+        copy.setPasswordHash(passwordHash);
+        return copy;
+    }
+
+    //copia da restituire dall'API, senza salt e hash
+    public UserDescriptor withoutCredentials() {
+        return new UserDescriptor(username, null, role, email);
+    }
+
+
     @Override
     public String toString() {
-        return "[ username : " + username + ", password : " + password + ", role : " + role + ", email : " + email + "]";
+        return "[ username : " + username + ", role : " + role + ", email : " + email + "]";
     }
 }
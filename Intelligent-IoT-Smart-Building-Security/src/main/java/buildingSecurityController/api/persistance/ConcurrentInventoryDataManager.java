@@ -0,0 +1,641 @@
+package buildingSecurityController.api.persistance;
+
+import buildingSecurityController.api.auth.PasswordHasher;
+import buildingSecurityController.api.exception.IInventoryDataManagerConflict;
+import buildingSecurityController.api.exception.IInventoryDataManagerException;
+import buildingSecurityController.api.model.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*inventory thread-safe: le richieste jersey, le callback degli observe e il thread del resource directory
+possono leggere e scrivere in contemporanea.
+Le letture per chiave non prendono lock (ConcurrentHashMap), ogni scrittura aggiorna mappa principale e
+indici secondari sotto lo stesso write lock, e le query sugli indici (device di un'area, aree di un piano,
+policy di un'area, risorse di un device) leggono sotto read lock: costano O(k) nel numero di risultati
+e non vedono mai un indice aggiornato a meta'.
+Gli indici inversi (device -> area, area -> piano, ...) servono perche' l'update riceve un descriptor
+gia' modificato e l'area o il piano di prima si ritrovano solo dall'indice.
+I descriptor restituiti sono quelli in mappa, condivisi con le altre richieste: chi vuole modificarli
+lavora su una copy() e la passa all'update*/
+
+public class ConcurrentInventoryDataManager implements IInventoryDataManager {
+
+    final protected Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final String UNALLOCATED_AREA = "unallocated";
+
+    private final Map<String, PolicyDescriptor> policyMap = new ConcurrentHashMap<>();
+    private final Map<String, UserDescriptor> userMap = new ConcurrentHashMap<>();
+    private final Map<String, FloorDescriptor> floorMap = new ConcurrentHashMap<>();
+    private final Map<String, AreaDescriptor> areaMap = new ConcurrentHashMap<>();
+    private final Map<String, GenericDeviceDescriptor> deviceMap = new ConcurrentHashMap<>();
+    private final Map<String, ResourceDescriptor> resourceDeviceMap = new ConcurrentHashMap<>();
+
+    //indici secondari
+    private final SecondaryIndex areaDeviceIndex = new SecondaryIndex();
+    private final SecondaryIndex floorAreaIndex = new SecondaryIndex();
+    private final SecondaryIndex areaPolicyIndex = new SecondaryIndex();
+    private final SecondaryIndex deviceResourceIndex = new SecondaryIndex();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final List<IInventoryChangeListener> changeListenerList = new CopyOnWriteArrayList<>();
+
+    //file degli utenti, null se gli utenti li salva gia' la sottoclasse
+    private final UserRecordFile userRecordFile;
+
+    public ConcurrentInventoryDataManager() {
+        this.userRecordFile = null;
+    }
+
+    /*inventory solo in memoria, ma gli utenti restano su file: senza di loro dopo un riavvio
+    nessuno potrebbe piu' autenticarsi per ricreare il resto*/
+    public ConcurrentInventoryDataManager(String usersFile) {
+        this.userRecordFile = new UserRecordFile(Paths.get(usersFile));
+        try {
+            this.userMap.putAll(this.userRecordFile.open());
+        } catch (IOException e) {
+            throw new IllegalStateException(String.format("Unable to read users from %s", usersFile), e);
+        }
+    }
+
+    ///POLICY RESOURCE MANAGEMENT
+
+    @Override
+    public List<PolicyDescriptor> getPolicyList() throws IInventoryDataManagerException {
+        return new ArrayList<>(this.policyMap.values());
+    }
+
+    //policy delle aree del piano (piu' eventuali policy registrate direttamente con l'id del piano)
+    @Override
+    public List<PolicyDescriptor> getPolicyListByFloor(String floorId) throws IInventoryDataManagerException {
+        lock.readLock().lock();
+        try {
+            List<PolicyDescriptor> policyList = new ArrayList<>();
+            resolve(areaPolicyIndex.get(floorId), policyMap, policyList);
+            for(String areaId : floorAreaIndex.get(floorId))
+                resolve(areaPolicyIndex.get(areaId), policyMap, policyList);
+            return policyList;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<PolicyDescriptor> getPolicyListByArea(String areaId) throws IInventoryDataManagerException {
+        lock.readLock().lock();
+        try {
+            return resolve(areaPolicyIndex.get(areaId), policyMap, new ArrayList<>());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<PolicyDescriptor> getPolicy(String policy_id) throws IInventoryDataManagerException {
+        return policy_id == null ? Optional.empty() : Optional.ofNullable(this.policyMap.get(policy_id));
+    }
+
+    @Override
+    public PolicyDescriptor createNewPolicy(PolicyDescriptor policyDescriptor) throws IInventoryDataManagerException, IInventoryDataManagerConflict {
+        lock.writeLock().lock();
+        try {
+            if(policyDescriptor.getPolicy_id() != null && this.policyMap.containsKey(policyDescriptor.getPolicy_id()))
+                throw new IInventoryDataManagerConflict("Policy for this zone already exists!");
+
+            if(policyDescriptor.getPolicy_id() == null)
+                policyDescriptor.setPolicy_id(UUID.randomUUID().toString());
+
+            putPolicy(policyDescriptor);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        notifyChange(IInventoryChangeListener.Entity.POLICY, policyDescriptor.getPolicy_id());
+        return policyDescriptor;
+    }
+
+    @Override
+    public PolicyDescriptor updatePolicy(PolicyDescriptor policyDescriptor) throws IInventoryDataManagerException {
+        lock.writeLock().lock();
+        try {
+            putPolicy(policyDescriptor);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        notifyChange(IInventoryChangeListener.Entity.POLICY, policyDescriptor.getPolicy_id());
+        return policyDescriptor;
+    }
+
+    @Override
+    public PolicyDescriptor deletePolicy(String policy_id) throws IInventoryDataManagerException {
+        PolicyDescriptor policyDescriptor;
+        lock.writeLock().lock();
+        try {
+            policyDescriptor = policy_id == null ? null : this.policyMap.remove(policy_id);
+            areaPolicyIndex.remove(policy_id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        notifyChange(IInventoryChangeListener.Entity.POLICY, policy_id);
+        return policyDescriptor;
+    }
+
+    private void putPolicy(PolicyDescriptor policyDescriptor) {
+        this.policyMap.put(policyDescriptor.getPolicy_id(), policyDescriptor);
+        areaPolicyIndex.put(policyDescriptor.getPolicy_id(), policyDescriptor.getArea_id());
+    }
+
+    ///USER RESOURCE MANAGEMENTS
+
+    @Override
+    public List<String> getUsernameList() throws IInventoryDataManagerException {
+        return new ArrayList<>(this.userMap.keySet());
+    }
+
+    @Override
+    public Optional<UserDescriptor> getUser(String username) throws IInventoryDataManagerException {
+        return username == null ? Optional.empty() : Optional.ofNullable(this.userMap.get(username));
+    }
+
+    //la password in chiaro viene sostituita da salt e hash prima di salvare l'utente
+    @Override
+    public UserDescriptor createNewUser(UserDescriptor userDescriptor) throws IInventoryDataManagerException, IInventoryDataManagerConflict, IOException {
+        PasswordHasher.protect(userDescriptor);
+        lock.writeLock().lock();
+        try {
+            if(userDescriptor.getUsername() != null && this.userMap.containsKey(userDescriptor.getUsername()))
+                throw new IInventoryDataManagerConflict("User already exists!");
+
+            if(userDescriptor.getUsername() == null)
+                userDescriptor.setUsername(UUID.randomUUID().toString());
+
+            saveUser(userDescriptor);
+            this.userMap.put(userDescriptor.getUsername(), userDescriptor);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        notifyChange(IInventoryChangeListener.Entity.USER, userDescriptor.getUsername());
+        return userDescriptor;
+    }
+
+    //un update senza password mantiene quella salvata
+    @Override
+    public UserDescriptor updateUser(UserDescriptor userDescriptor) throws IInventoryDataManagerException {
+        PasswordHasher.protect(userDescriptor);
+        lock.writeLock().lock();
+        try {
+            UserDescriptor previous = this.userMap.get(userDescriptor.getUsername());
+            if(userDescriptor.getPasswordHash() == null && previous != null){
+                userDescriptor.setPasswordSalt(previous.getPasswordSalt());
+                userDescriptor.setPasswordHash(previous.getPasswordHash());
+            }
+            saveUser(userDescriptor);
+            this.userMap.put(userDescriptor.getUsername(), userDescriptor);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        notifyChange(IInventoryChangeListener.Entity.USER, userDescriptor.getUsername());
+        return userDescriptor;
+    }
+
+    @Override
+    public UserDescriptor deleteUser(String username) throws IInventoryDataManagerException {
+        UserDescriptor userDescriptor;
+        lock.writeLock().lock();
+        try {
+            userDescriptor = username == null ? null : this.userMap.get(username);
+            if(userDescriptor != null){
+                if(userRecordFile != null){
+                    try {
+                        userRecordFile.delete(username);
+                    } catch (IOException e) {
+                        logger.error("Unable to save the deletion of user {}: {}", username, e.getLocalizedMessage());
+                        throw new IInventoryDataManagerException("Unable to save the users");
+                    }
+                }
+                this.userMap.remove(username);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        notifyChange(IInventoryChangeListener.Entity.USER, username);
+        return userDescriptor;
+    }
+
+    //un record per utente, scritto prima di aggiornare la mappa: se la scrittura fallisce la modifica non avviene
+    private void saveUser(UserDescriptor userDescriptor) throws IInventoryDataManagerException {
+        if(userRecordFile == null)
+            return;
+        try {
+            userRecordFile.put(userDescriptor);
+        } catch (IOException e) {
+            logger.error("Unable to save user {}: {}", userDescriptor.getUsername(), e.getLocalizedMessage());
+            throw new IInventoryDataManagerException("Unable to save the users");
+        }
+    }
+
+    ///BUILDING RESOURCE MANAGEMENT
+
+    @Override
+    public List<FloorDescriptor> getFloorList() throws IInventoryDataManagerException {
+        return new ArrayList<>(this.floorMap.values());
+    }
+
+    @Override
+    public FloorDescriptor createNewFloor(FloorDescriptor floorDescriptor) throws IInventoryDataManagerException, IInventoryDataManagerConflict {
+        if(floorDescriptor.getFloor_id() == null)
+            throw new IInventoryDataManagerException("Missing floor id");
+
+        lock.writeLock().lock();
+        try {
+            if(this.floorMap.putIfAbsent(floorDescriptor.getFloor_id(), floorDescriptor) != null)
+                throw new IInventoryDataManagerConflict("Floor already exists!");
+        } finally {
+            lock.writeLock().unlock();
+        }
+        notifyChange(IInventoryChangeListener.Entity.FLOOR, floorDescriptor.getFloor_id());
+        return floorDescriptor;
+    }
+
+    @Override
+    public Optional<FloorDescriptor> getFloor(String floorId) throws IInventoryDataManagerException {
+        return floorId == null ? Optional.empty() : Optional.ofNullable(this.floorMap.get(floorId));
+    }
+
+    @Override
+    public FloorDescriptor updateFloor(FloorDescriptor floorDescriptor) throws IInventoryDataManagerException {
+        lock.writeLock().lock();
+        try {
+            this.floorMap.put(floorDescriptor.getFloor_id(), floorDescriptor);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        notifyChange(IInventoryChangeListener.Entity.FLOOR, floorDescriptor.getFloor_id());
+        return floorDescriptor;
+    }
+
+    //cancella anche le aree del piano, i loro device restano nell'inventory come "unallocated"
+    @Override
+    public FloorDescriptor deleteFloor(String floorId) throws IInventoryDataManagerException {
+        FloorDescriptor floorDescriptor;
+        List<String> areaIdList;
+        lock.writeLock().lock();
+        try {
+            floorDescriptor = floorId == null ? null : this.floorMap.remove(floorId);
+            areaIdList = new ArrayList<>(floorAreaIndex.get(floorId));
+            for(String areaId : areaIdList)
+                removeArea(areaId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        notifyChange(IInventoryChangeListener.Entity.FLOOR, floorId);
+        for(String areaId : areaIdList)
+            notifyChange(IInventoryChangeListener.Entity.AREA, areaId);
+        return floorDescriptor;
+    }
+
+    @Override
+    public List<AreaDescriptor> getAreaList() throws IInventoryDataManagerException {
+        return new ArrayList<>(this.areaMap.values());
+    }
+
+    @Override
+    public List<AreaDescriptor> getAreaListByFloor(String floorId) throws IInventoryDataManagerException {
+        lock.readLock().lock();
+        try {
+            return resolve(floorAreaIndex.get(floorId), areaMap, new ArrayList<>());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public AreaDescriptor createNewArea(AreaDescriptor areaDescriptor) throws IInventoryDataManagerException, IInventoryDataManagerConflict {
+        lock.writeLock().lock();
+        try {
+            areaDescriptor.setAreaId(String.format("%s:%s", areaDescriptor.getFloorId(), areaDescriptor.getAreaName()));
+
+            if(this.areaMap.containsKey(areaDescriptor.getAreaId()))
+                throw new IInventoryDataManagerConflict("Area already exists!");
+
+            putArea(areaDescriptor);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        notifyChange(IInventoryChangeListener.Entity.AREA, areaDescriptor.getAreaId());
+        return areaDescriptor;
+    }
+
+    @Override
+    public Optional<AreaDescriptor> getArea(String areaId) throws IInventoryDataManagerException {
+        return areaId == null ? Optional.empty() : Optional.ofNullable(this.areaMap.get(areaId));
+    }
+
+    @Override
+    public AreaDescriptor updateArea(AreaDescriptor areaDescriptor) throws IInventoryDataManagerException {
+        lock.writeLock().lock();
+        try {
+            putArea(areaDescriptor);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        notifyChange(IInventoryChangeListener.Entity.AREA, areaDescriptor.getAreaId());
+        return areaDescriptor;
+    }
+
+    @Override
+    public AreaDescriptor deleteArea(String areaId) throws IInventoryDataManagerException {
+        AreaDescriptor areaDescriptor;
+        lock.writeLock().lock();
+        try {
+            areaDescriptor = removeArea(areaId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        notifyChange(IInventoryChangeListener.Entity.AREA, areaId);
+        return areaDescriptor;
+    }
+
+    /*come la DELETE dell'area: i device dell'area passano a "unallocated". Al posto del descriptor
+    in mappa va una copia, chi ha letto il device prima (es. l'undo del journal) vede ancora l'area vecchia*/
+    private AreaDescriptor removeArea(String areaId) {
+        AreaDescriptor areaDescriptor = areaId == null ? null : this.areaMap.remove(areaId);
+        floorAreaIndex.remove(areaId);
+        for(String deviceId : new ArrayList<>(areaDeviceIndex.get(areaId))) {
+            GenericDeviceDescriptor genericDeviceDescriptor = this.deviceMap.get(deviceId);
+            if(genericDeviceDescriptor != null) {
+                GenericDeviceDescriptor unallocated = genericDeviceDescriptor.copy();
+                unallocated.setAreaId(UNALLOCATED_AREA);
+                putDevice(unallocated);
+            }
+        }
+        return areaDescriptor;
+    }
+
+    //la lista dei device dell'area e' mantenuta dall'inventory (indice area -> device), non dal payload della richiesta
+    private void putArea(AreaDescriptor areaDescriptor) {
+        areaDescriptor.getDeviceIdList().clear();
+        areaDescriptor.getDeviceIdList().addAll(areaDeviceIndex.get(areaDescriptor.getAreaId()));
+        this.areaMap.put(areaDescriptor.getAreaId(), areaDescriptor);
+        floorAreaIndex.put(areaDescriptor.getAreaId(), areaDescriptor.getFloorId());
+    }
+
+    @Override
+    public List<GenericDeviceDescriptor> getDeviceList() throws IInventoryDataManagerException {
+        return new ArrayList<>(this.deviceMap.values());
+    }
+
+    @Override
+    public List<GenericDeviceDescriptor> getDeviceListByArea(String areaId) throws IInventoryDataManagerException {
+        lock.readLock().lock();
+        try {
+            return resolve(areaDeviceIndex.get(areaId), deviceMap, new ArrayList<>());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public GenericDeviceDescriptor createNewDevice(GenericDeviceDescriptor genericDeviceDescriptor) throws IInventoryDataManagerException, IInventoryDataManagerConflict {
+        if(genericDeviceDescriptor.getDeviceId() == null)
+            throw new IInventoryDataManagerException("Missing device id");
+
+        lock.writeLock().lock();
+        try {
+            if(this.deviceMap.containsKey(genericDeviceDescriptor.getDeviceId()))
+                throw new IInventoryDataManagerConflict("Device already exists!");
+
+            putDevice(genericDeviceDescriptor);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        notifyChange(IInventoryChangeListener.Entity.DEVICE, genericDeviceDescriptor.getDeviceId());
+        return genericDeviceDescriptor;
+    }
+
+    @Override
+    public Optional<GenericDeviceDescriptor> getDevice(String device_id) throws IInventoryDataManagerException {
+        return device_id == null ? Optional.empty() : Optional.ofNullable(this.deviceMap.get(device_id));
+    }
+
+    @Override
+    public GenericDeviceDescriptor updateDevice(GenericDeviceDescriptor genericDeviceDescriptor) throws IInventoryDataManagerException {
+        lock.writeLock().lock();
+        try {
+            putDevice(genericDeviceDescriptor);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        notifyChange(IInventoryChangeListener.Entity.DEVICE, genericDeviceDescriptor.getDeviceId());
+        return genericDeviceDescriptor;
+    }
+
+    @Override
+    public GenericDeviceDescriptor deleteDevice(String device_id) throws IInventoryDataManagerException {
+        GenericDeviceDescriptor genericDeviceDescriptor;
+        lock.writeLock().lock();
+        try {
+            genericDeviceDescriptor = device_id == null ? null : this.deviceMap.remove(device_id);
+            String previousAreaId = areaDeviceIndex.remove(device_id);
+            removeFromAreaDeviceList(previousAreaId, device_id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        notifyChange(IInventoryChangeListener.Entity.DEVICE, device_id);
+        return genericDeviceDescriptor;
+    }
+
+    //aggiorna anche la lista dei device dell'AreaDescriptor, togliendolo dall'area precedente
+    private void putDevice(GenericDeviceDescriptor genericDeviceDescriptor) {
+        String deviceId = genericDeviceDescriptor.getDeviceId();
+        String areaId = genericDeviceDescriptor.getAreaId();
+
+        this.deviceMap.put(deviceId, genericDeviceDescriptor);
+        String previousAreaId = areaDeviceIndex.put(deviceId, areaId);
+
+        if(Objects.equals(previousAreaId, areaId))
+            return;
+
+        removeFromAreaDeviceList(previousAreaId, deviceId);
+
+        AreaDescriptor areaDescriptor = areaId == null ? null : this.areaMap.get(areaId);
+        if(areaDescriptor != null)
+            areaDescriptor.addDeviceToList(deviceId);
+    }
+
+    private void removeFromAreaDeviceList(String areaId, String deviceId) {
+        AreaDescriptor areaDescriptor = areaId == null ? null : this.areaMap.get(areaId);
+        if(areaDescriptor != null)
+            areaDescriptor.getDeviceIdList().remove(deviceId);
+    }
+
+    @Override
+    public ResourceDescriptor createNewResource(ResourceDescriptor resourceDescriptor) throws IInventoryDataManagerException, IInventoryDataManagerConflict {
+        if(resourceDescriptor.getResourceId() == null)
+            throw new IInventoryDataManagerException("Missing resource id");
+
+        lock.writeLock().lock();
+        try {
+            putResource(resourceDescriptor);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        notifyChange(IInventoryChangeListener.Entity.RESOURCE, resourceDescriptor.getResourceId());
+        return resourceDescriptor;
+    }
+
+    @Override
+    public List<ResourceDescriptor> getResourceList() throws IInventoryDataManagerException {
+        return new ArrayList<>(this.resourceDeviceMap.values());
+    }
+
+    @Override
+    public List<ResourceDescriptor> getResourceListByDevice(String deviceId) throws IInventoryDataManagerException {
+        lock.readLock().lock();
+        try {
+            return resolve(deviceResourceIndex.get(deviceId), resourceDeviceMap, new ArrayList<>());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<ResourceDescriptor> getResource(String resource_id) throws IInventoryDataManagerException {
+        return resource_id == null ? Optional.empty() : Optional.ofNullable(this.resourceDeviceMap.get(resource_id));
+    }
+
+    @Override
+    public ResourceDescriptor updateResource(ResourceDescriptor resourceDescriptor) throws IInventoryDataManagerException {
+        lock.writeLock().lock();
+        try {
+            putResource(resourceDescriptor);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        notifyChange(IInventoryChangeListener.Entity.RESOURCE, resourceDescriptor.getResourceId());
+        return resourceDescriptor;
+    }
+
+    //l'API non cancella le risorse, serve solo a JournaledInventoryDataManager per annullare una creazione
+    protected ResourceDescriptor removeResource(String resource_id) {
+        ResourceDescriptor resourceDescriptor;
+        lock.writeLock().lock();
+        try {
+            resourceDescriptor = resource_id == null ? null : this.resourceDeviceMap.remove(resource_id);
+            deviceResourceIndex.remove(resource_id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        notifyChange(IInventoryChangeListener.Entity.RESOURCE, resource_id);
+        return resourceDescriptor;
+    }
+
+    private void putResource(ResourceDescriptor resourceDescriptor) {
+        this.resourceDeviceMap.put(resourceDescriptor.getResourceId(), resourceDescriptor);
+        deviceResourceIndex.put(resourceDescriptor.getResourceId(), resourceDescriptor.getDeviceId());
+    }
+
+    //svuota l'inventory senza notificare, usato dal recovery prima di ripartire da un altro snapshot
+    protected void clear() {
+        lock.writeLock().lock();
+        try {
+            this.policyMap.clear();
+            this.userMap.clear();
+            this.floorMap.clear();
+            this.areaMap.clear();
+            this.deviceMap.clear();
+            this.resourceDeviceMap.clear();
+            areaDeviceIndex.clear();
+            floorAreaIndex.clear();
+            areaPolicyIndex.clear();
+            deviceResourceIndex.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static <T> List<T> resolve(Set<String> idSet, Map<String, T> map, List<T> result) {
+        for(String id : idSet) {
+            T value = map.get(id);
+            if(value != null)
+                result.add(value);
+        }
+        return result;
+    }
+
+    ///CHANGE LISTENERS
+
+    @Override
+    public void addChangeListener(IInventoryChangeListener changeListener) {
+        if(changeListener != null)
+            this.changeListenerList.add(changeListener);
+    }
+
+    @Override
+    public void removeChangeListener(IInventoryChangeListener changeListener) {
+        this.changeListenerList.remove(changeListener);
+    }
+
+    //invocato fuori dal lock, i listener possono rileggere l'inventory
+    protected void notifyChange(IInventoryChangeListener.Entity entity, String id) {
+        this.changeListenerList.forEach(changeListener -> {
+            try {
+                changeListener.onInventoryChanged(entity, id);
+            } catch (Exception e) {
+                logger.error("Error notifying inventory change {} {}: {}", entity, id, e.getLocalizedMessage());
+            }
+        });
+    }
+
+    /*indice chiave -> insieme di id, con la mappa inversa id -> chiave per sapere da dove togliere
+    un elemento quando cambia chiave. Va modificato solo sotto write lock*/
+    private static final class SecondaryIndex {
+
+        private final Map<String, Set<String>> keyIdMap = new HashMap<>();
+        private final Map<String, String> idKeyMap = new HashMap<>();
+
+        private Set<String> get(String key) {
+            if(key == null)
+                return Collections.emptySet();
+            Set<String> idSet = keyIdMap.get(key);
+            return idSet != null ? idSet : Collections.emptySet();
+        }
+
+        //restituisce la chiave precedente dell'id
+        private String put(String id, String key) {
+            String previousKey = remove(id);
+            if(id != null && key != null) {
+                keyIdMap.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(id);
+                idKeyMap.put(id, key);
+            }
+            return previousKey;
+        }
+
+        private void clear() {
+            keyIdMap.clear();
+            idKeyMap.clear();
+        }
+
+        private String remove(String id) {
+            if(id == null)
+                return null;
+            String previousKey = idKeyMap.remove(id);
+            if(previousKey != null) {
+                Set<String> idSet = keyIdMap.get(previousKey);
+                idSet.remove(id);
+                if(idSet.isEmpty())
+                    keyIdMap.remove(previousKey);
+            }
+            return previousKey;
+        }
+    }
+
+}
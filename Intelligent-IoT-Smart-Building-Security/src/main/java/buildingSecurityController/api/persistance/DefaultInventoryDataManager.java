@@ -8,6 +8,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.Collectors;
 
 public class DefaultInventoryDataManager implements IInventoryDataManager {
@@ -21,6 +22,7 @@ public class DefaultInventoryDataManager implements IInventoryDataManager {
     private HashMap<String, GenericDeviceDescriptor> deviceMap;
     private HashMap<String, ResourceDescriptor> resourceDeviceMap;
 
+    private List<IInventoryChangeListener> changeListenerList;
 
 
     public DefaultInventoryDataManager() {
@@ -30,6 +32,7 @@ public class DefaultInventoryDataManager implements IInventoryDataManager {
         this.deviceMap = new HashMap<>();
         this.resourceDeviceMap = new HashMap<>();
         this.userMap = new HashMap<>();
+        this.changeListenerList = new CopyOnWriteArrayList<>();
     }
 
     public void SerializeOnFile(HashMap<String, UserDescriptor> hmap) throws IOException {
@@ -63,6 +66,13 @@ public class DefaultInventoryDataManager implements IInventoryDataManager {
                 .collect(Collectors.toList());
     }
 
+    @Override
+    public List<PolicyDescriptor> getPolicyListByArea(String areaId) throws IInventoryDataManagerException {
+        return this.policyMap.values().stream()
+                .filter(policyDescriptor -> policyDescriptor != null && Objects.equals(policyDescriptor.getArea_id(), areaId))
+                .collect(Collectors.toList());
+    }
+
     @Override
     public Optional<PolicyDescriptor> getPolicy(String policy_id) throws IInventoryDataManagerException {
         return Optional.ofNullable(this.policyMap.get(policy_id));
@@ -77,18 +87,22 @@ public class DefaultInventoryDataManager implements IInventoryDataManager {
             policyDescriptor.setPolicy_id(UUID.randomUUID().toString());
 
         this.policyMap.put(policyDescriptor.getPolicy_id(), policyDescriptor);
+        notifyChange(IInventoryChangeListener.Entity.POLICY, policyDescriptor.getPolicy_id());
         return policyDescriptor;
     }
 
     @Override
     public PolicyDescriptor updatePolicy(PolicyDescriptor policyDescriptor) throws IInventoryDataManagerException {
         this.policyMap.put(policyDescriptor.getPolicy_id(), policyDescriptor);
+        notifyChange(IInventoryChangeListener.Entity.POLICY, policyDescriptor.getPolicy_id());
         return policyDescriptor;
     }
 
     @Override
     public PolicyDescriptor deletePolicy(String policy_id) throws IInventoryDataManagerException {
-        return this.policyMap.remove(policy_id);
+        PolicyDescriptor policyDescriptor = this.policyMap.remove(policy_id);
+        notifyChange(IInventoryChangeListener.Entity.POLICY, policy_id);
+        return policyDescriptor;
     }
 
     ///USER RESOURCE MANAGEMENTS
@@ -113,18 +127,22 @@ public class DefaultInventoryDataManager implements IInventoryDataManager {
 
         this.userMap.put(userDescriptor.getUsername(), userDescriptor);
         this.SerializeOnFile(this.userMap);
+        notifyChange(IInventoryChangeListener.Entity.USER, userDescriptor.getUsername());
         return userDescriptor;
     }
 
     @Override
     public UserDescriptor updateUser(UserDescriptor userDescriptor) throws IInventoryDataManagerException {
         this.userMap.put(userDescriptor.getUsername(), userDescriptor);
+        notifyChange(IInventoryChangeListener.Entity.USER, userDescriptor.getUsername());
         return userDescriptor;
     }
 
     @Override
     public UserDescriptor deleteUser(String username) throws IInventoryDataManagerException {
-        return this.userMap.remove(username);
+        UserDescriptor userDescriptor = this.userMap.remove(username);
+        notifyChange(IInventoryChangeListener.Entity.USER, username);
+        return userDescriptor;
     }
 
     ///BUILDING RESOURCE MANAGEMENT
@@ -140,6 +158,7 @@ public class DefaultInventoryDataManager implements IInventoryDataManager {
             throw new IInventoryDataManagerConflict("Floor already exists!");
 
         this.floorMap.put(floorDescriptor.getFloor_id(), floorDescriptor);
+        notifyChange(IInventoryChangeListener.Entity.FLOOR, floorDescriptor.getFloor_id());
         return floorDescriptor;
     }
 
@@ -151,12 +170,15 @@ public class DefaultInventoryDataManager implements IInventoryDataManager {
     @Override
     public FloorDescriptor updateFloor(FloorDescriptor floorDescriptor) throws IInventoryDataManagerException {
         this.floorMap.put(floorDescriptor.getFloor_id(), floorDescriptor);
+        notifyChange(IInventoryChangeListener.Entity.FLOOR, floorDescriptor.getFloor_id());
         return floorDescriptor;
     }
 
     @Override
     public FloorDescriptor deleteFloor(String floorId) throws IInventoryDataManagerException {
-        return this.floorMap.remove(floorId);
+        FloorDescriptor floorDescriptor = this.floorMap.remove(floorId);
+        notifyChange(IInventoryChangeListener.Entity.FLOOR, floorId);
+        return floorDescriptor;
     }
 
     @Override
@@ -164,6 +186,13 @@ public class DefaultInventoryDataManager implements IInventoryDataManager {
         return new ArrayList<>(this.areaMap.values());
     }
 
+    @Override
+    public List<AreaDescriptor> getAreaListByFloor(String floorId) throws IInventoryDataManagerException {
+        return this.areaMap.values().stream()
+                .filter(areaDescriptor -> areaDescriptor != null && Objects.equals(areaDescriptor.getFloorId(), floorId))
+                .collect(Collectors.toList());
+    }
+
     @Override
     public AreaDescriptor createNewArea(AreaDescriptor areaDescriptor) throws IInventoryDataManagerException, IInventoryDataManagerConflict {
         if(this.getArea(areaDescriptor.getAreaId()).isPresent())
@@ -172,6 +201,7 @@ public class DefaultInventoryDataManager implements IInventoryDataManager {
         areaDescriptor.setAreaId(String.format("%s:%s", areaDescriptor.getFloorId(), areaDescriptor.getAreaName()));
 
         this.areaMap.put(areaDescriptor.getAreaId(), areaDescriptor);
+        notifyChange(IInventoryChangeListener.Entity.AREA, areaDescriptor.getAreaId());
         return areaDescriptor;
     }
 
@@ -183,12 +213,15 @@ public class DefaultInventoryDataManager implements IInventoryDataManager {
     @Override
     public AreaDescriptor updateArea(AreaDescriptor areaDescriptor) throws IInventoryDataManagerException {
         this.areaMap.put(areaDescriptor.getAreaId(), areaDescriptor);
+        notifyChange(IInventoryChangeListener.Entity.AREA, areaDescriptor.getAreaId());
         return areaDescriptor;
     }
 
     @Override
     public AreaDescriptor deleteArea(String areaId) throws IInventoryDataManagerException {
-        return this.areaMap.remove(areaId);
+        AreaDescriptor areaDescriptor = this.areaMap.remove(areaId);
+        notifyChange(IInventoryChangeListener.Entity.AREA, areaId);
+        return areaDescriptor;
     }
 
     @Override
@@ -196,6 +229,13 @@ public class DefaultInventoryDataManager implements IInventoryDataManager {
         return new ArrayList<>(this.deviceMap.values());
     }
 
+    @Override
+    public List<GenericDeviceDescriptor> getDeviceListByArea(String areaId) throws IInventoryDataManagerException {
+        return this.deviceMap.values().stream()
+                .filter(deviceDescriptor -> deviceDescriptor != null && Objects.equals(deviceDescriptor.getAreaId(), areaId))
+                .collect(Collectors.toList());
+    }
+
     @Override
     public GenericDeviceDescriptor createNewDevice(GenericDeviceDescriptor genericDeviceDescriptor) throws IInventoryDataManagerException, IInventoryDataManagerConflict {
 
@@ -203,6 +243,7 @@ public class DefaultInventoryDataManager implements IInventoryDataManager {
             throw new IInventoryDataManagerConflict("Device already exists!");
 
         this.deviceMap.put(genericDeviceDescriptor.getDeviceId(), genericDeviceDescriptor);
+        notifyChange(IInventoryChangeListener.Entity.DEVICE, genericDeviceDescriptor.getDeviceId());
         return genericDeviceDescriptor;
     }
 
@@ -214,19 +255,25 @@ public class DefaultInventoryDataManager implements IInventoryDataManager {
     @Override
     public GenericDeviceDescriptor updateDevice(GenericDeviceDescriptor genericDeviceDescriptor) throws IInventoryDataManagerException {
         this.deviceMap.put(genericDeviceDescriptor.getDeviceId(), genericDeviceDescriptor);
-        this.areaMap.get(genericDeviceDescriptor.getAreaId()).addDeviceToList(genericDeviceDescriptor.getDeviceId());
+        //a device moved back to "unallocated" has no area to be added to
+        if(this.areaMap.containsKey(genericDeviceDescriptor.getAreaId()))
+            this.areaMap.get(genericDeviceDescriptor.getAreaId()).addDeviceToList(genericDeviceDescriptor.getDeviceId());
+        notifyChange(IInventoryChangeListener.Entity.DEVICE, genericDeviceDescriptor.getDeviceId());
         return genericDeviceDescriptor;
     }
 
     @Override
     public GenericDeviceDescriptor deleteDevice(String device_id) throws IInventoryDataManagerException {
-        return this.deviceMap.remove(device_id);
+        GenericDeviceDescriptor genericDeviceDescriptor = this.deviceMap.remove(device_id);
+        notifyChange(IInventoryChangeListener.Entity.DEVICE, device_id);
+        return genericDeviceDescriptor;
     }
 
     @Override
     public ResourceDescriptor createNewResource(ResourceDescriptor resourceDescriptor) throws IInventoryDataManagerException, IInventoryDataManagerConflict {
 
         this.resourceDeviceMap.put(resourceDescriptor.getResourceId(), resourceDescriptor);
+        notifyChange(IInventoryChangeListener.Entity.RESOURCE, resourceDescriptor.getResourceId());
         return resourceDescriptor;
     }
 
@@ -235,6 +282,13 @@ public class DefaultInventoryDataManager implements IInventoryDataManager {
         return new ArrayList<>(this.resourceDeviceMap.values());
     }
 
+    @Override
+    public List<ResourceDescriptor> getResourceListByDevice(String deviceId) throws IInventoryDataManagerException {
+        return this.resourceDeviceMap.values().stream()
+                .filter(resourceDescriptor -> resourceDescriptor != null && Objects.equals(resourceDescriptor.getDeviceId(), deviceId))
+                .collect(Collectors.toList());
+    }
+
     @Override
     public Optional<ResourceDescriptor> getResource(String resource_id) throws IInventoryDataManagerException {
         return Optional.ofNullable(this.resourceDeviceMap.get(resource_id));
@@ -243,8 +297,32 @@ public class DefaultInventoryDataManager implements IInventoryDataManager {
     @Override
     public ResourceDescriptor updateResource(ResourceDescriptor resourceDescriptor) throws IInventoryDataManagerException {
         this.resourceDeviceMap.put(resourceDescriptor.getResourceId(), resourceDescriptor);
+        notifyChange(IInventoryChangeListener.Entity.RESOURCE, resourceDescriptor.getResourceId());
         return resourceDescriptor;
     }
 
+    ///CHANGE LISTENERS
+
+    @Override
+    public void addChangeListener(IInventoryChangeListener changeListener) {
+        if(changeListener != null)
+            this.changeListenerList.add(changeListener);
+    }
+
+    @Override
+    public void removeChangeListener(IInventoryChangeListener changeListener) {
+        this.changeListenerList.remove(changeListener);
+    }
+
+    protected void notifyChange(IInventoryChangeListener.Entity entity, String id) {
+        this.changeListenerList.forEach(changeListener -> {
+            try {
+                changeListener.onInventoryChanged(entity, id);
+            } catch (Exception e) {
+                logger.error("Error notifying inventory change {} {}: {}", entity, id, e.getLocalizedMessage());
+            }
+        });
+    }
+
 
 }
@@ -0,0 +1,19 @@
+package buildingSecurityController.api.persistance;
+
+/*listener invocato dall'inventory dopo ogni create/update/delete, in modo che le strutture
+derivate (indici, cache) possano aggiornarsi senza rileggere tutto ad ogni richiesta*/
+
+public interface IInventoryChangeListener {
+
+    public enum Entity {
+        POLICY,
+        USER,
+        FLOOR,
+        AREA,
+        DEVICE,
+        RESOURCE
+    }
+
+    public void onInventoryChanged(Entity entity, String id);
+
+}
@@ -14,6 +14,7 @@ public interface IInventoryDataManager {
 
     public List<PolicyDescriptor> getPolicyList() throws IInventoryDataManagerException;
     public List<PolicyDescriptor> getPolicyListByFloor(String floorId) throws IInventoryDataManagerException;
+    public List<PolicyDescriptor> getPolicyListByArea(String areaId) throws IInventoryDataManagerException;
     public Optional<PolicyDescriptor> getPolicy(String policy_id) throws IInventoryDataManagerException;
     public PolicyDescriptor createNewPolicy(PolicyDescriptor policyDescriptor) throws IInventoryDataManagerException, IInventoryDataManagerConflict;
     public PolicyDescriptor updatePolicy(PolicyDescriptor policyDescriptor) throws IInventoryDataManagerException;
@@ -38,6 +39,7 @@ public interface IInventoryDataManager {
     //AREA MANAGEMENT
 
     public List<AreaDescriptor> getAreaList() throws IInventoryDataManagerException;
+    public List<AreaDescriptor> getAreaListByFloor(String floorId) throws IInventoryDataManagerException;
     public AreaDescriptor createNewArea(AreaDescriptor areaDescriptor) throws IInventoryDataManagerException, IInventoryDataManagerConflict;
     public Optional<AreaDescriptor> getArea(String areaId) throws IInventoryDataManagerException;
     public AreaDescriptor updateArea(AreaDescriptor areaDescriptor) throws IInventoryDataManagerException;
@@ -46,6 +48,7 @@ public interface IInventoryDataManager {
     //DEVICES management
 
     public List<GenericDeviceDescriptor> getDeviceList() throws IInventoryDataManagerException;
+    public List<GenericDeviceDescriptor> getDeviceListByArea(String areaId) throws IInventoryDataManagerException;
     public GenericDeviceDescriptor createNewDevice(GenericDeviceDescriptor genericDeviceDescriptor) throws IInventoryDataManagerException, IInventoryDataManagerConflict;
     public Optional<GenericDeviceDescriptor> getDevice(String device_id) throws IInventoryDataManagerException;
     public GenericDeviceDescriptor updateDevice(GenericDeviceDescriptor genericDeviceDescriptor) throws  IInventoryDataManagerException;
@@ -55,8 +58,13 @@ public interface IInventoryDataManager {
 
     public ResourceDescriptor createNewResource(ResourceDescriptor resourceDescriptor) throws IInventoryDataManagerException, IInventoryDataManagerConflict;
     public List<ResourceDescriptor> getResourceList() throws IInventoryDataManagerException;
+    public List<ResourceDescriptor> getResourceListByDevice(String deviceId) throws IInventoryDataManagerException;
     public Optional<ResourceDescriptor> getResource(String device_id) throws IInventoryDataManagerException;
     public ResourceDescriptor updateResource(ResourceDescriptor resourceDescriptor) throws  IInventoryDataManagerException;
 
+    //CHANGE LISTENERS
+
+    public void addChangeListener(IInventoryChangeListener changeListener);
+    public void removeChangeListener(IInventoryChangeListener changeListener);
 
 }
@@ -0,0 +1,936 @@
+package buildingSecurityController.api.persistance;
+
+import buildingSecurityController.api.auth.PasswordHasher;
+import buildingSecurityController.api.exception.IInventoryDataManagerConflict;
+import buildingSecurityController.api.exception.IInventoryDataManagerException;
+import buildingSecurityController.api.model.*;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.lifecycle.Managed;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/*inventory persistente: ogni modifica viene applicata in memoria (ConcurrentInventoryDataManager)
+e accodata ad un write-ahead log. Un solo thread scrive il log e fa un fsync per gruppo di record
+(group commit): le richieste concorrenti aspettano lo stesso fsync invece di uno a testa.
+Ogni snapshotEveryRecords record viene scritto uno snapshot completo e il log ricomincia da un nuovo
+segmento, i segmenti gia' coperti dallo snapshot vengono cancellati. Al riavvio si carica l'ultimo
+snapshot e si rieseguono solo i segmenti successivi, quindi il tempo di recovery dipende dalla
+dimensione dell'inventory piu' al massimo snapshotEveryRecords record.
+
+Se un record non arriva su disco la modifica viene annullata anche in memoria (rollback()).
+
+Formato del record: [int lunghezza][int crc32][byte op][byte entity][json del descriptor o id].
+Il byte entity e' un codice fisso per entity (entityCode), non l'ordinal dell'enum: aggiungere o
+riordinare le costanti di IInventoryChangeListener.Entity non cambia il significato dei log gia' scritti*/
+
+public class JournaledInventoryDataManager extends ConcurrentInventoryDataManager implements Managed {
+
+    public static final String DEFAULT_DIRECTORY = "inventory-data";
+    public static final int DEFAULT_SNAPSHOT_EVERY_RECORDS = 10000;
+
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".json";
+    private static final String CORRUPT_SUFFIX = ".corrupt";
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE = 2;
+
+    //codici delle entity nei record, uguali agli ordinal con cui erano scritti i primi log: non vanno cambiati
+    private static final byte ENTITY_POLICY = 0;
+    private static final byte ENTITY_USER = 1;
+    private static final byte ENTITY_FLOOR = 2;
+    private static final byte ENTITY_AREA = 3;
+    private static final byte ENTITY_DEVICE = 4;
+    private static final byte ENTITY_RESOURCE = 5;
+
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final int MAX_RECORD_BYTES = 16 * 1024 * 1024;
+    private static final int MAX_BATCH_RECORDS = 1024;
+
+    private final Path directory;
+    private final int snapshotEveryRecords;
+    private final boolean fsync;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    //applicazione in memoria e accodamento al log avvengono nello stesso ordine
+    private final Object journalLock = new Object();
+    private long nextSequence = 0;
+    private int recordsSinceSnapshot = 0;
+
+    private final BlockingQueue<JournalEntry> writeQueue = new LinkedBlockingQueue<>();
+    private final Thread writerThread;
+    private FileChannel segmentChannel;
+    //fine dell'ultimo record durevole del segmento corrente, usato solo dal thread del log
+    private long durablePosition;
+
+    private final ExecutorService snapshotExecutor;
+    private final AtomicBoolean snapshotInProgress = new AtomicBoolean(false);
+
+    private volatile boolean closed = false;
+
+    private final ThreadLocal<List<Runnable>> deferredNotifications = new ThreadLocal<>();
+
+    public JournaledInventoryDataManager(String directory, int snapshotEveryRecords, boolean fsync) throws IOException {
+
+        if(snapshotEveryRecords <= 0)
+            throw new IllegalArgumentException("snapshotEveryRecords must be positive");
+
+        this.directory = Paths.get(directory);
+        this.snapshotEveryRecords = snapshotEveryRecords;
+        this.fsync = fsync;
+
+        Files.createDirectories(this.directory);
+        recover();
+
+        this.segmentChannel = openSegment(nextSequence);
+        this.durablePosition = this.segmentChannel.size();
+
+        this.writerThread = new Thread(this::writeLoop, "inventory-wal-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+
+        this.snapshotExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "inventory-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    ///RECOVERY
+
+    private void recover() throws IOException {
+
+        long startTime = System.currentTimeMillis();
+        long replayFrom = 0;
+
+        List<Long> snapshotList = listFiles(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        Collections.reverse(snapshotList);
+        for(Long snapshotId : snapshotList){
+            try {
+                InventorySnapshot snapshot = objectMapper.readValue(fileName(SNAPSHOT_PREFIX, snapshotId, SNAPSHOT_SUFFIX).toFile(), InventorySnapshot.class);
+                loadSnapshot(snapshot);
+                replayFrom = snapshotId;
+                logger.info("Inventory snapshot {} loaded: {} devices, {} areas, {} policies", snapshotId, snapshot.devices.size(), snapshot.areas.size(), snapshot.policies.size());
+                break;
+            } catch (IOException | IInventoryDataManagerException e) {
+                //uno snapshot caricato a meta' non si deve mescolare con quello precedente
+                logger.error("Unreadable inventory snapshot {}: {}", snapshotId, e.getLocalizedMessage());
+                clear();
+            }
+        }
+
+        nextSequence = replayFrom;
+        int replayed = 0;
+        boolean torn = false;
+        for(Long segmentId : listFiles(SEGMENT_PREFIX, SEGMENT_SUFFIX)){
+            if(segmentId < replayFrom)
+                continue;
+            Path segment = fileName(SEGMENT_PREFIX, segmentId, SEGMENT_SUFFIX);
+            //dopo un segmento troncato mancano dei record: quelli dei segmenti successivi non si possono applicare
+            if(torn){
+                logger.error("Journal {} follows a torn segment, moved aside without replay", segment.getFileName());
+                quarantine(segment, true);
+                continue;
+            }
+            nextSequence = Math.max(nextSequence, segmentId);
+            ReplayResult result = replaySegment(segment);
+            nextSequence += result.count;
+            replayed += result.count;
+            torn = result.torn;
+        }
+        recordsSinceSnapshot = replayed;
+
+        logger.info("Inventory recovered from {} in {} ms ({} journal records replayed)", directory, System.currentTimeMillis() - startTime, replayed);
+    }
+
+    private void loadSnapshot(InventorySnapshot snapshot) throws IInventoryDataManagerException {
+        for(FloorDescriptor floorDescriptor : snapshot.floors)
+            super.updateFloor(floorDescriptor);
+        for(AreaDescriptor areaDescriptor : snapshot.areas)
+            super.updateArea(areaDescriptor);
+        for(GenericDeviceDescriptor genericDeviceDescriptor : snapshot.devices)
+            super.updateDevice(genericDeviceDescriptor);
+        for(ResourceDescriptor resourceDescriptor : snapshot.resources)
+            super.updateResource(resourceDescriptor);
+        for(PolicyDescriptor policyDescriptor : snapshot.policies)
+            super.updatePolicy(policyDescriptor);
+        for(UserDescriptor userDescriptor : snapshot.users)
+            super.updateUser(userDescriptor);
+    }
+
+    /*un record incompleto o corrotto (scrittura interrotta) chiude il segmento: una copia del segmento
+    intero resta in .corrupt, poi il segmento viene troncato all'ultimo record valido*/
+    private ReplayResult replaySegment(Path segment) throws IOException {
+
+        int count = 0;
+        long validLength = 0;
+
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment)))) {
+            while(true){
+                int length;
+                try {
+                    length = inputStream.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                byte[] payload;
+                try {
+                    int crc = inputStream.readInt();
+                    if(length <= 2 || length > MAX_RECORD_BYTES)
+                        throw new IOException("invalid record length " + length);
+                    payload = new byte[length];
+                    inputStream.readFully(payload);
+                    if(crc != crc32(payload))
+                        throw new IOException("checksum mismatch");
+                } catch (IOException e) {
+                    logger.warn("Journal {} truncated after {} records: {}", segment.getFileName(), count, e.getLocalizedMessage());
+                    break;
+                }
+
+                try {
+                    applyRecord(payload);
+                } catch (IOException | IInventoryDataManagerException e) {
+                    logger.error("Skipping journal record {} of {}: {}", count, segment.getFileName(), e.getLocalizedMessage());
+                }
+                validLength += RECORD_HEADER_BYTES + length;
+                count++;
+            }
+        }
+
+        boolean torn = validLength < Files.size(segment);
+        if(torn){
+            quarantine(segment, false);
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        }
+        return new ReplayResult(count, torn);
+    }
+
+    //copia (o sposta) il segmento in <nome>.corrupt, che listFiles() non considera piu' un segmento
+    private void quarantine(Path segment, boolean move) throws IOException {
+        Path corrupt = segment.resolveSibling(segment.getFileName() + CORRUPT_SUFFIX);
+        if(move)
+            Files.move(segment, corrupt, StandardCopyOption.REPLACE_EXISTING);
+        else
+            Files.copy(segment, corrupt, StandardCopyOption.REPLACE_EXISTING);
+        logger.warn("Journal {} saved as {}", segment.getFileName(), corrupt.getFileName());
+    }
+
+    private static final class ReplayResult {
+        private final int count;
+        private final boolean torn;
+
+        private ReplayResult(int count, boolean torn) {
+            this.count = count;
+            this.torn = torn;
+        }
+    }
+
+    private void applyRecord(byte[] payload) throws IOException, IInventoryDataManagerException {
+
+        byte op = payload[0];
+        IInventoryChangeListener.Entity entity = entityOf(payload[1]);
+        String body = new String(payload, 2, payload.length - 2, StandardCharsets.UTF_8);
+
+        if(op == OP_DELETE){
+            switch (entity){
+                case POLICY: super.deletePolicy(body); break;
+                case USER: super.deleteUser(body); break;
+                case FLOOR: super.deleteFloor(body); break;
+                case AREA: super.deleteArea(body); break;
+                case DEVICE: super.deleteDevice(body); break;
+                default: throw new IOException("unsupported delete of " + entity);
+            }
+            return;
+        }
+
+        switch (entity){
+            case POLICY: super.updatePolicy(objectMapper.readValue(body, PolicyDescriptor.class)); break;
+            case USER: super.updateUser(objectMapper.readValue(body, UserDescriptor.class)); break;
+            case FLOOR: super.updateFloor(objectMapper.readValue(body, FloorDescriptor.class)); break;
+            case AREA: super.updateArea(objectMapper.readValue(body, AreaDescriptor.class)); break;
+            case DEVICE: super.updateDevice(objectMapper.readValue(body, GenericDeviceDescriptor.class)); break;
+            case RESOURCE: super.updateResource(objectMapper.readValue(body, ResourceDescriptor.class)); break;
+        }
+    }
+
+    ///MUTATIONS
+
+    /*ogni modifica viene applicata in memoria e accodata al log sotto journalLock, cosi' memoria e log
+    hanno lo stesso ordine. Ogni record porta anche la modifica inversa: se il record non arriva su
+    disco il thread del log annulla le modifiche non durevoli e la memoria torna uguale al disco.
+    I listener vengono avvisati solo dopo aver rilasciato il lock: possono rileggere l'inventory
+    (es. ricompilare le policy) senza bloccare gli altri scrittori*/
+    private <T, E extends Exception> T journaled(Change<T, E> change) throws IInventoryDataManagerException, E {
+        Mutation mutation = new Mutation();
+        T result;
+        synchronized (journalLock) {
+            deferredNotifications.set(mutation.notifications);
+            try {
+                result = change.apply(mutation);
+            } finally {
+                deferredNotifications.remove();
+            }
+        }
+        mutation.notifications.forEach(Runnable::run);
+        awaitDurable(mutation.durable);
+        return result;
+    }
+
+    //dentro journaled() e durante un rollback le notifiche della superclasse vengono eseguite fuori dal lock
+    @Override
+    protected void notifyChange(IInventoryChangeListener.Entity entity, String id) {
+        List<Runnable> deferred = deferredNotifications.get();
+        if(deferred != null)
+            deferred.add(() -> super.notifyChange(entity, id));
+        else
+            super.notifyChange(entity, id);
+    }
+
+    @Override
+    public PolicyDescriptor createNewPolicy(PolicyDescriptor policyDescriptor) throws IInventoryDataManagerException, IInventoryDataManagerConflict {
+        return journaled(mutation -> {
+            super.createNewPolicy(policyDescriptor);
+            mutation.put(IInventoryChangeListener.Entity.POLICY, policyDescriptor, () -> super.deletePolicy(policyDescriptor.getPolicy_id()));
+            return policyDescriptor;
+        });
+    }
+
+    @Override
+    public PolicyDescriptor updatePolicy(PolicyDescriptor policyDescriptor) throws IInventoryDataManagerException {
+        return journaled(mutation -> {
+            PolicyDescriptor previous = getPolicy(policyDescriptor.getPolicy_id()).orElse(null);
+            super.updatePolicy(policyDescriptor);
+            mutation.put(IInventoryChangeListener.Entity.POLICY, policyDescriptor, () -> {
+                if(previous != null)
+                    super.updatePolicy(previous);
+                else
+                    super.deletePolicy(policyDescriptor.getPolicy_id());
+            });
+            return policyDescriptor;
+        });
+    }
+
+    @Override
+    public PolicyDescriptor deletePolicy(String policy_id) throws IInventoryDataManagerException {
+        return journaled(mutation -> {
+            PolicyDescriptor policyDescriptor = super.deletePolicy(policy_id);
+            if(policyDescriptor != null)
+                mutation.delete(IInventoryChangeListener.Entity.POLICY, policy_id, () -> super.updatePolicy(policyDescriptor));
+            return policyDescriptor;
+        });
+    }
+
+    //l'hash della password (volutamente lento) si calcola prima di prendere journalLock
+    @Override
+    public UserDescriptor createNewUser(UserDescriptor userDescriptor) throws IInventoryDataManagerException, IInventoryDataManagerConflict {
+        PasswordHasher.protect(userDescriptor);
+        return journaled(mutation -> {
+            try {
+                super.createNewUser(userDescriptor);
+            } catch (IOException e) {
+                throw new IInventoryDataManagerException(e.getLocalizedMessage());
+            }
+            mutation.put(IInventoryChangeListener.Entity.USER, userDescriptor, () -> super.deleteUser(userDescriptor.getUsername()));
+            return userDescriptor;
+        });
+    }
+
+    @Override
+    public UserDescriptor updateUser(UserDescriptor userDescriptor) throws IInventoryDataManagerException {
+        PasswordHasher.protect(userDescriptor);
+        return journaled(mutation -> {
+            UserDescriptor previous = getUser(userDescriptor.getUsername()).orElse(null);
+            super.updateUser(userDescriptor);
+            mutation.put(IInventoryChangeListener.Entity.USER, userDescriptor, () -> {
+                if(previous != null)
+                    super.updateUser(previous);
+                else
+                    super.deleteUser(userDescriptor.getUsername());
+            });
+            return userDescriptor;
+        });
+    }
+
+    @Override
+    public UserDescriptor deleteUser(String username) throws IInventoryDataManagerException {
+        return journaled(mutation -> {
+            UserDescriptor userDescriptor = super.deleteUser(username);
+            if(userDescriptor != null)
+                mutation.delete(IInventoryChangeListener.Entity.USER, username, () -> super.updateUser(userDescriptor));
+            return userDescriptor;
+        });
+    }
+
+    @Override
+    public FloorDescriptor createNewFloor(FloorDescriptor floorDescriptor) throws IInventoryDataManagerException, IInventoryDataManagerConflict {
+        return journaled(mutation -> {
+            super.createNewFloor(floorDescriptor);
+            mutation.put(IInventoryChangeListener.Entity.FLOOR, floorDescriptor, () -> super.deleteFloor(floorDescriptor.getFloor_id()));
+            return floorDescriptor;
+        });
+    }
+
+    @Override
+    public FloorDescriptor updateFloor(FloorDescriptor floorDescriptor) throws IInventoryDataManagerException {
+        return journaled(mutation -> {
+            FloorDescriptor previous = getFloor(floorDescriptor.getFloor_id()).orElse(null);
+            super.updateFloor(floorDescriptor);
+            mutation.put(IInventoryChangeListener.Entity.FLOOR, floorDescriptor, () -> {
+                if(previous != null)
+                    super.updateFloor(previous);
+                else
+                    super.deleteFloor(floorDescriptor.getFloor_id());
+            });
+            return floorDescriptor;
+        });
+    }
+
+    //la cancellazione del piano si porta via le sue aree: l'undo rimette piano, aree e device com'erano
+    @Override
+    public FloorDescriptor deleteFloor(String floorId) throws IInventoryDataManagerException {
+        return journaled(mutation -> {
+            List<AreaDescriptor> previousAreaList = getAreaListByFloor(floorId);
+            Map<AreaDescriptor, List<GenericDeviceDescriptor>> previousDeviceMap = new LinkedHashMap<>();
+            for(AreaDescriptor areaDescriptor : previousAreaList)
+                previousDeviceMap.put(areaDescriptor, getDeviceListByArea(areaDescriptor.getAreaId()));
+
+            FloorDescriptor floorDescriptor = super.deleteFloor(floorId);
+            if(floorDescriptor != null || !previousAreaList.isEmpty())
+                mutation.delete(IInventoryChangeListener.Entity.FLOOR, floorId, () -> {
+                    if(floorDescriptor != null)
+                        super.updateFloor(floorDescriptor);
+                    for(Map.Entry<AreaDescriptor, List<GenericDeviceDescriptor>> entry : previousDeviceMap.entrySet())
+                        restoreArea(entry.getKey().getAreaId(), entry.getKey(), entry.getValue());
+                });
+            return floorDescriptor;
+        });
+    }
+
+    @Override
+    public AreaDescriptor createNewArea(AreaDescriptor areaDescriptor) throws IInventoryDataManagerException, IInventoryDataManagerConflict {
+        return journaled(mutation -> {
+            //device che puntavano gia' a quest'area: la cancellazione dell'undo li sposterebbe in "unallocated"
+            List<GenericDeviceDescriptor> previousDeviceList = getDeviceListByArea(String.format("%s:%s", areaDescriptor.getFloorId(), areaDescriptor.getAreaName()));
+            super.createNewArea(areaDescriptor);
+            mutation.put(IInventoryChangeListener.Entity.AREA, areaDescriptor, () -> restoreArea(areaDescriptor.getAreaId(), null, previousDeviceList));
+            return areaDescriptor;
+        });
+    }
+
+    @Override
+    public AreaDescriptor updateArea(AreaDescriptor areaDescriptor) throws IInventoryDataManagerException {
+        return journaled(mutation -> {
+            AreaDescriptor previous = getArea(areaDescriptor.getAreaId()).orElse(null);
+            List<GenericDeviceDescriptor> previousDeviceList = getDeviceListByArea(areaDescriptor.getAreaId());
+            super.updateArea(areaDescriptor);
+            mutation.put(IInventoryChangeListener.Entity.AREA, areaDescriptor, () -> restoreArea(areaDescriptor.getAreaId(), previous, previousDeviceList));
+            return areaDescriptor;
+        });
+    }
+
+    @Override
+    public AreaDescriptor deleteArea(String areaId) throws IInventoryDataManagerException {
+        return journaled(mutation -> {
+            List<GenericDeviceDescriptor> previousDeviceList = getDeviceListByArea(areaId);
+            AreaDescriptor areaDescriptor = super.deleteArea(areaId);
+            if(areaDescriptor != null)
+                mutation.delete(IInventoryChangeListener.Entity.AREA, areaId, () -> restoreArea(areaId, areaDescriptor, previousDeviceList));
+            return areaDescriptor;
+        });
+    }
+
+    //rimette l'area (o la toglie se prima non c'era) e riporta i suoi device all'area di prima
+    private void restoreArea(String areaId, AreaDescriptor previous, List<GenericDeviceDescriptor> previousDeviceList) throws IInventoryDataManagerException {
+        if(previous != null)
+            super.updateArea(previous);
+        else
+            super.deleteArea(areaId);
+        for(GenericDeviceDescriptor genericDeviceDescriptor : previousDeviceList)
+            super.updateDevice(genericDeviceDescriptor);
+    }
+
+    @Override
+    public GenericDeviceDescriptor createNewDevice(GenericDeviceDescriptor genericDeviceDescriptor) throws IInventoryDataManagerException, IInventoryDataManagerConflict {
+        return journaled(mutation -> {
+            super.createNewDevice(genericDeviceDescriptor);
+            mutation.put(IInventoryChangeListener.Entity.DEVICE, genericDeviceDescriptor, () -> super.deleteDevice(genericDeviceDescriptor.getDeviceId()));
+            return genericDeviceDescriptor;
+        });
+    }
+
+    @Override
+    public GenericDeviceDescriptor updateDevice(GenericDeviceDescriptor genericDeviceDescriptor) throws IInventoryDataManagerException {
+        return journaled(mutation -> {
+            GenericDeviceDescriptor previous = getDevice(genericDeviceDescriptor.getDeviceId()).orElse(null);
+            super.updateDevice(genericDeviceDescriptor);
+            mutation.put(IInventoryChangeListener.Entity.DEVICE, genericDeviceDescriptor, () -> {
+                if(previous != null)
+                    super.updateDevice(previous);
+                else
+                    super.deleteDevice(genericDeviceDescriptor.getDeviceId());
+            });
+            return genericDeviceDescriptor;
+        });
+    }
+
+    @Override
+    public GenericDeviceDescriptor deleteDevice(String device_id) throws IInventoryDataManagerException {
+        return journaled(mutation -> {
+            GenericDeviceDescriptor genericDeviceDescriptor = super.deleteDevice(device_id);
+            if(genericDeviceDescriptor != null)
+                mutation.delete(IInventoryChangeListener.Entity.DEVICE, device_id, () -> super.updateDevice(genericDeviceDescriptor));
+            return genericDeviceDescriptor;
+        });
+    }
+
+    @Override
+    public ResourceDescriptor createNewResource(ResourceDescriptor resourceDescriptor) throws IInventoryDataManagerException, IInventoryDataManagerConflict {
+        return updateResource(resourceDescriptor);
+    }
+
+    @Override
+    public ResourceDescriptor updateResource(ResourceDescriptor resourceDescriptor) throws IInventoryDataManagerException {
+        return journaled(mutation -> {
+            if(resourceDescriptor.getResourceId() == null)
+                throw new IInventoryDataManagerException("Missing resource id");
+            ResourceDescriptor previous = getResource(resourceDescriptor.getResourceId()).orElse(null);
+            super.updateResource(resourceDescriptor);
+            mutation.put(IInventoryChangeListener.Entity.RESOURCE, resourceDescriptor, () -> {
+                if(previous != null)
+                    super.updateResource(previous);
+                else
+                    removeResource(resourceDescriptor.getResourceId());
+            });
+            return resourceDescriptor;
+        });
+    }
+
+    @FunctionalInterface
+    private interface Change<T, E extends Exception> {
+        T apply(Mutation mutation) throws IInventoryDataManagerException, E;
+    }
+
+    //modifica inversa di un record, eseguita con journalLock acquisito
+    @FunctionalInterface
+    private interface Undo {
+        void run() throws IInventoryDataManagerException;
+    }
+
+    //record accodato da una modifica e notifiche da inviare dopo il rilascio di journalLock
+    private final class Mutation {
+
+        private final List<Runnable> notifications = new ArrayList<>();
+        private CompletableFuture<Void> durable;
+
+        //se il record non si puo' accodare la modifica in memoria viene annullata subito
+        private void put(IInventoryChangeListener.Entity entity, Object descriptor, Undo undo) throws IInventoryDataManagerException {
+            try {
+                durable = append(OP_PUT, entity, objectMapper.writeValueAsBytes(descriptor), undo);
+            } catch (IOException e) {
+                undo.run();
+                throw new IInventoryDataManagerException(String.format("Unable to serialize %s: %s", entity, e.getLocalizedMessage()));
+            } catch (IInventoryDataManagerException e) {
+                undo.run();
+                throw e;
+            }
+        }
+
+        private void delete(IInventoryChangeListener.Entity entity, String id, Undo undo) throws IInventoryDataManagerException {
+            try {
+                durable = append(OP_DELETE, entity, id.getBytes(StandardCharsets.UTF_8), undo);
+            } catch (IInventoryDataManagerException e) {
+                undo.run();
+                throw e;
+            }
+        }
+    }
+
+    ///JOURNAL
+
+    private static byte entityCode(IInventoryChangeListener.Entity entity) {
+        switch (entity){
+            case POLICY: return ENTITY_POLICY;
+            case USER: return ENTITY_USER;
+            case FLOOR: return ENTITY_FLOOR;
+            case AREA: return ENTITY_AREA;
+            case DEVICE: return ENTITY_DEVICE;
+            case RESOURCE: return ENTITY_RESOURCE;
+            default: throw new IllegalArgumentException("no journal code for " + entity);
+        }
+    }
+
+    private static IInventoryChangeListener.Entity entityOf(byte code) throws IOException {
+        switch (code){
+            case ENTITY_POLICY: return IInventoryChangeListener.Entity.POLICY;
+            case ENTITY_USER: return IInventoryChangeListener.Entity.USER;
+            case ENTITY_FLOOR: return IInventoryChangeListener.Entity.FLOOR;
+            case ENTITY_AREA: return IInventoryChangeListener.Entity.AREA;
+            case ENTITY_DEVICE: return IInventoryChangeListener.Entity.DEVICE;
+            case ENTITY_RESOURCE: return IInventoryChangeListener.Entity.RESOURCE;
+            default: throw new IOException("unknown entity code " + code);
+        }
+    }
+
+    //chiamato con journalLock acquisito
+    private CompletableFuture<Void> append(byte op, IInventoryChangeListener.Entity entity, byte[] body, Undo undo) throws IInventoryDataManagerException {
+
+        if(closed)
+            throw new IInventoryDataManagerException("Inventory journal is closed");
+
+        byte[] payload = new byte[body.length + 2];
+        payload[0] = op;
+        payload[1] = entityCode(entity);
+        System.arraycopy(body, 0, payload, 2, body.length);
+
+        JournalEntry entry = new JournalEntry(payload, -1, undo);
+        writeQueue.add(entry);
+        nextSequence++;
+
+        if(++recordsSinceSnapshot >= snapshotEveryRecords)
+            scheduleSnapshot();
+
+        return entry.durable;
+    }
+
+    private void awaitDurable(CompletableFuture<Void> durable) throws IInventoryDataManagerException {
+        if(durable == null)
+            return;
+        try {
+            durable.join();
+        } catch (CompletionException e) {
+            logger.error("Inventory journal write failed: {}", e.getCause().getLocalizedMessage());
+            throw new IInventoryDataManagerException("Inventory change not persisted, rolled back");
+        }
+    }
+
+    //group commit: un fsync per tutti i record accodati mentre si scriveva il gruppo precedente
+    private void writeLoop() {
+
+        List<JournalEntry> batch = new ArrayList<>(MAX_BATCH_RECORDS);
+        List<JournalEntry> unsynced = new ArrayList<>(MAX_BATCH_RECORDS);
+        boolean stop = false;
+
+        while(!stop){
+            try {
+                batch.add(writeQueue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            writeQueue.drainTo(batch, MAX_BATCH_RECORDS - 1);
+
+            try {
+                for(JournalEntry entry : batch){
+                    if(entry.isStop()){
+                        stop = true;
+                    } else if(entry.isRotation()){
+                        syncAndComplete(unsynced);
+                        rotate(entry.rotateTo);
+                        entry.durable.complete(null);
+                    } else {
+                        write(entry.payload);
+                        unsynced.add(entry);
+                    }
+                }
+                syncAndComplete(unsynced);
+            } catch (IOException | RuntimeException e) {
+                logger.error("Inventory journal write failed: {}", e.getLocalizedMessage());
+                unsynced.clear();
+                stop |= rollback(batch, e);
+            }
+            batch.clear();
+        }
+
+        try {
+            segmentChannel.close();
+        } catch (IOException e) {
+            logger.error("Error closing the inventory journal: {}", e.getLocalizedMessage());
+        }
+    }
+
+    /*riporta log e memoria all'ultimo stato durevole: il segmento viene troncato dopo l'ultimo fsync
+    riuscito e le modifiche non ancora durevoli (quelle del gruppo fallito e quelle gia' in coda,
+    applicate dopo) vengono annullate in ordine inverso. Con journalLock acquisito nessuno accoda
+    altri record, quindi la coda contiene tutte e sole le modifiche da annullare.
+    Restituisce true se tra i record annullati c'era lo stop*/
+    private boolean rollback(List<JournalEntry> batch, Exception cause) {
+
+        try {
+            segmentChannel.truncate(durablePosition);
+        } catch (IOException | RuntimeException e) {
+            //non si sa piu' cosa c'e' in coda al segmento: niente altre scritture fino al riavvio
+            logger.error("Unable to truncate the inventory journal, journal closed: {}", e.getLocalizedMessage());
+            closed = true;
+        }
+
+        boolean stop = false;
+        List<JournalEntry> failed = new ArrayList<>();
+        List<Runnable> notifications = new ArrayList<>();
+
+        synchronized (journalLock) {
+            for(JournalEntry entry : batch)
+                if(!entry.durable.isDone())
+                    failed.add(entry);
+            writeQueue.drainTo(failed);
+
+            deferredNotifications.set(notifications);
+            try {
+                for(int i = failed.size() - 1; i >= 0; i--){
+                    JournalEntry entry = failed.get(i);
+                    if(entry.isStop()){
+                        stop = true;
+                    } else if(entry.undo != null){
+                        try {
+                            entry.undo.run();
+                        } catch (IInventoryDataManagerException | RuntimeException e) {
+                            logger.error("Unable to roll back an inventory change: {}", e.getLocalizedMessage());
+                        }
+                    }
+                }
+            } finally {
+                deferredNotifications.remove();
+            }
+        }
+
+        notifications.forEach(Runnable::run);
+        for(JournalEntry entry : failed)
+            if(!entry.isStop())
+                entry.durable.completeExceptionally(cause);
+        logger.warn("{} inventory changes rolled back", failed.size());
+        return stop;
+    }
+
+    private void syncAndComplete(List<JournalEntry> unsynced) throws IOException {
+        if(unsynced.isEmpty())
+            return;
+        if(fsync)
+            segmentChannel.force(false);
+        durablePosition = segmentChannel.size();
+        unsynced.forEach(entry -> entry.durable.complete(null));
+        unsynced.clear();
+    }
+
+    private void write(byte[] payload) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_BYTES + payload.length);
+        buffer.putInt(payload.length);
+        buffer.putInt(crc32(payload));
+        buffer.put(payload);
+        buffer.flip();
+        while(buffer.hasRemaining())
+            segmentChannel.write(buffer);
+    }
+
+    private void rotate(long segmentId) throws IOException {
+        segmentChannel.close();
+        segmentChannel = openSegment(segmentId);
+        durablePosition = segmentChannel.size();
+    }
+
+    private FileChannel openSegment(long segmentId) throws IOException {
+        return FileChannel.open(fileName(SEGMENT_PREFIX, segmentId, SEGMENT_SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    ///SNAPSHOTS
+
+    /*chiamato con journalLock acquisito: qui si copiano i descriptor (copie superficiali, con liste
+    proprie), nel punto del log in cui inizia il nuovo segmento. Le scritture successive non toccano le
+    copie, quindi la serializzazione, la scrittura su disco e la pulizia dei vecchi segmenti possono
+    avvenire sul thread degli snapshot senza bloccare le scritture*/
+    private CompletableFuture<Void> scheduleSnapshot() throws IInventoryDataManagerException {
+
+        if(!snapshotInProgress.compareAndSet(false, true))
+            return CompletableFuture.completedFuture(null);
+
+        long segmentId = nextSequence;
+        InventorySnapshot snapshot = captureSnapshot();
+        recordsSinceSnapshot = 0;
+
+        JournalEntry rotation = new JournalEntry(null, segmentId, null);
+        writeQueue.add(rotation);
+
+        /*lo snapshot contiene anche i record precedenti alla rotazione non ancora scritti: viene reso
+        visibile (rename) solo quando la rotazione, e quindi ognuno di quei record, e' durevole.
+        Se un record fallisce la rotazione viene annullata con lui e lo snapshot scartato*/
+        return CompletableFuture.runAsync(() -> {
+            Path tmpFile = null;
+            try {
+                tmpFile = writeSnapshot(segmentId, objectMapper.writeValueAsBytes(snapshot));
+                rotation.durable.join();
+                publishSnapshot(segmentId, tmpFile);
+                tmpFile = null;
+                deleteOlderThan(segmentId);
+            } catch (IOException | RuntimeException e) {
+                //i segmenti restano tutti, si riprova al prossimo snapshot
+                logger.error("Inventory snapshot {} failed: {}", segmentId, e.getLocalizedMessage());
+            } finally {
+                deleteQuietly(tmpFile);
+                snapshotInProgress.set(false);
+            }
+        }, snapshotExecutor);
+    }
+
+    private InventorySnapshot captureSnapshot() throws IInventoryDataManagerException {
+        InventorySnapshot snapshot = new InventorySnapshot();
+        getFloorList().forEach(floorDescriptor -> snapshot.floors.add(floorDescriptor.copy()));
+        getAreaList().forEach(areaDescriptor -> snapshot.areas.add(areaDescriptor.copy()));
+        getDeviceList().forEach(genericDeviceDescriptor -> snapshot.devices.add(genericDeviceDescriptor.copy()));
+        getResourceList().forEach(resourceDescriptor -> snapshot.resources.add(resourceDescriptor.copy()));
+        getPolicyList().forEach(policyDescriptor -> snapshot.policies.add(policyDescriptor.copy()));
+        for(UserDescriptor userDescriptor : getUserMap().values())
+            snapshot.users.add(userDescriptor.copy());
+        return snapshot;
+    }
+
+    //scrive lo snapshot nel file temporaneo, restituito per il rename
+    private Path writeSnapshot(long segmentId, byte[] snapshotBytes) throws IOException {
+
+        Path snapshotFile = fileName(SNAPSHOT_PREFIX, segmentId, SNAPSHOT_SUFFIX);
+        Path tmpFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(tmpFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(snapshotBytes);
+            while(buffer.hasRemaining())
+                channel.write(buffer);
+            channel.force(true);
+        }
+        return tmpFile;
+    }
+
+    private void publishSnapshot(long segmentId, Path tmpFile) throws IOException {
+        Files.move(tmpFile, fileName(SNAPSHOT_PREFIX, segmentId, SNAPSHOT_SUFFIX), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        logger.info("Inventory snapshot {} written ({} bytes)", segmentId, Files.size(fileName(SNAPSHOT_PREFIX, segmentId, SNAPSHOT_SUFFIX)));
+    }
+
+    private void deleteQuietly(Path path) {
+        if(path == null)
+            return;
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("Unable to delete {}: {}", path, e.getLocalizedMessage());
+        }
+    }
+
+    private void deleteOlderThan(long segmentId) throws IOException {
+        for(Long id : listFiles(SEGMENT_PREFIX, SEGMENT_SUFFIX))
+            if(id < segmentId)
+                Files.deleteIfExists(fileName(SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        for(Long id : listFiles(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX))
+            if(id < segmentId)
+                Files.deleteIfExists(fileName(SNAPSHOT_PREFIX, id, SNAPSHOT_SUFFIX));
+    }
+
+    private Map<String, UserDescriptor> getUserMap() throws IInventoryDataManagerException {
+        Map<String, UserDescriptor> userMap = new HashMap<>();
+        for(String username : getUsernameList())
+            getUser(username).ifPresent(userDescriptor -> userMap.put(username, userDescriptor));
+        return userMap;
+    }
+
+    ///FILES
+
+    private Path fileName(String prefix, long id, String suffix) {
+        return directory.resolve(String.format("%s%020d%s", prefix, id, suffix));
+    }
+
+    //id dei file con il prefisso dato, in ordine crescente
+    private List<Long> listFiles(String prefix, String suffix) throws IOException {
+        List<Long> idList = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+            for(Path path : stream){
+                String name = path.getFileName().toString();
+                try {
+                    idList.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+                } catch (NumberFormatException e) {
+                    logger.warn("Ignoring unexpected file {}", path);
+                }
+            }
+        }
+        Collections.sort(idList);
+        return idList;
+    }
+
+    private static int crc32(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+
+    ///LIFECYCLE
+
+    @Override
+    public void start() {
+    }
+
+    //snapshot finale per un riavvio senza replay, poi chiusura del log
+    @Override
+    public void stop() throws Exception {
+
+        synchronized (journalLock) {
+            if(closed)
+                return;
+            //se uno snapshot e' gia' in corso non ne parte un altro, gli ultimi record restano nel log
+            if(recordsSinceSnapshot > 0)
+                scheduleSnapshot();
+            closed = true;
+            writeQueue.add(JournalEntry.STOP);
+        }
+
+        //aspetta anche uno snapshot partito prima: cancella i segmenti vecchi solo dopo aver scritto il nuovo
+        snapshotExecutor.shutdown();
+        if(!snapshotExecutor.awaitTermination(30, TimeUnit.SECONDS))
+            logger.warn("Final inventory snapshot not completed in time");
+        writerThread.join(TimeUnit.SECONDS.toMillis(30));
+    }
+
+    private static final class JournalEntry {
+
+        private static final JournalEntry STOP = new JournalEntry(null, -1, null);
+
+        private final byte[] payload;
+        //>= 0 per i marker di rotazione: id del nuovo segmento
+        private final long rotateTo;
+        private final CompletableFuture<Void> durable = new CompletableFuture<>();
+        //modifica inversa del record, null per rotazioni e stop
+        private final Undo undo;
+
+        private JournalEntry(byte[] payload, long rotateTo, Undo undo) {
+            this.payload = payload;
+            this.rotateTo = rotateTo;
+            this.undo = undo;
+        }
+
+        private boolean isRotation() {
+            return rotateTo >= 0;
+        }
+
+        private boolean isStop() {
+            return this == STOP;
+        }
+    }
+
+    //contenuto di uno snapshot-N.json
+    public static class InventorySnapshot {
+        public List<FloorDescriptor> floors = new ArrayList<>();
+        public List<AreaDescriptor> areas = new ArrayList<>();
+        public List<GenericDeviceDescriptor> devices = new ArrayList<>();
+        public List<ResourceDescriptor> resources = new ArrayList<>();
+        public List<PolicyDescriptor> policies = new ArrayList<>();
+        public List<UserDescriptor> users = new ArrayList<>();
+    }
+
+}
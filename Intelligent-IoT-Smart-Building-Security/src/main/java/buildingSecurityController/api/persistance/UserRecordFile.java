@@ -0,0 +1,158 @@
+package buildingSecurityController.api.persistance;
+
+import buildingSecurityController.api.model.UserDescriptor;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*file degli utenti dell'inventory in memoria: una riga JSON per ogni creazione, modifica o
+cancellazione di un utente, invece di riscrivere tutta la mappa ad ogni modifica. Gli utenti
+arrivano gia' protetti da PasswordHasher, quindi nel file ci sono solo salt, hash e ruolo.
+All'apertura il file viene riletto e riscritto con un record per utente*/
+
+class UserRecordFile implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserRecordFile.class);
+
+    //primi due byte di uno stream di ObjectOutputStream, il vecchio formato di users-file
+    private static final byte[] JAVA_SERIALIZATION_MAGIC = {(byte) 0xAC, (byte) 0xED};
+
+    private final Path path;
+    private final ObjectMapper objectMapper = new ObjectMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL);
+    private FileChannel channel;
+
+    UserRecordFile(Path path) {
+        this.path = path;
+    }
+
+    //rilegge gli utenti, compatta il file e lo apre in append
+    synchronized Map<String, UserDescriptor> open() throws IOException {
+
+        Map<String, UserDescriptor> userMap = new LinkedHashMap<>();
+
+        if(Files.exists(path)){
+            if(isLegacyFormat()){
+                //mappa serializzata con le password in chiaro: non si rilegge, resta da parte per chi deve migrarla
+                Path legacy = path.resolveSibling(path.getFileName() + ".legacy");
+                Files.move(path, legacy, StandardCopyOption.REPLACE_EXISTING);
+                logger.warn("Users file {} has the old plaintext format, moved to {}: users must be created again", path, legacy);
+            } else {
+                replay(userMap);
+            }
+        }
+
+        rewrite(userMap.values());
+        channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        return userMap;
+    }
+
+    synchronized void put(UserDescriptor userDescriptor) throws IOException {
+        UserRecord record = new UserRecord();
+        record.op = UserRecord.PUT;
+        record.user = userDescriptor;
+        append(record);
+    }
+
+    synchronized void delete(String username) throws IOException {
+        UserRecord record = new UserRecord();
+        record.op = UserRecord.DELETE;
+        record.username = username;
+        append(record);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if(channel != null)
+            channel.close();
+    }
+
+    private void append(UserRecord record) throws IOException {
+        if(channel == null)
+            throw new IOException("Users file not open");
+        ByteBuffer buffer = ByteBuffer.wrap(toLine(record));
+        while(buffer.hasRemaining())
+            channel.write(buffer);
+        channel.force(false);
+    }
+
+    private byte[] toLine(UserRecord record) throws IOException {
+        byte[] json = objectMapper.writeValueAsBytes(record);
+        byte[] line = new byte[json.length + 1];
+        System.arraycopy(json, 0, line, 0, json.length);
+        line[json.length] = '\n';
+        return line;
+    }
+
+    //una riga illeggibile (scrittura interrotta) viene saltata
+    private void replay(Map<String, UserDescriptor> userMap) throws IOException {
+        int lineNumber = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while((line = reader.readLine()) != null){
+                lineNumber++;
+                if(line.trim().isEmpty())
+                    continue;
+                try {
+                    UserRecord record = objectMapper.readValue(line, UserRecord.class);
+                    if(UserRecord.DELETE.equals(record.op))
+                        userMap.remove(record.username);
+                    else if(record.user != null && record.user.getUsername() != null)
+                        userMap.put(record.user.getUsername(), record.user);
+                } catch (IOException e) {
+                    logger.warn("Skipping line {} of {}: {}", lineNumber, path, e.getLocalizedMessage());
+                }
+            }
+        }
+        logger.info("Loaded {} users from {}", userMap.size(), path);
+    }
+
+    private void rewrite(Collection<UserDescriptor> userList) throws IOException {
+        Path tmpFile = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel tmpChannel = FileChannel.open(tmpFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for(UserDescriptor userDescriptor : userList){
+                UserRecord record = new UserRecord();
+                record.op = UserRecord.PUT;
+                record.user = userDescriptor;
+                ByteBuffer buffer = ByteBuffer.wrap(toLine(record));
+                while(buffer.hasRemaining())
+                    tmpChannel.write(buffer);
+            }
+            tmpChannel.force(true);
+        }
+        Files.move(tmpFile, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private boolean isLegacyFormat() throws IOException {
+        byte[] header = new byte[JAVA_SERIALIZATION_MAGIC.length];
+        try (InputStream inputStream = Files.newInputStream(path)) {
+            return inputStream.read(header) == header.length
+                    && header[0] == JAVA_SERIALIZATION_MAGIC[0]
+                    && header[1] == JAVA_SERIALIZATION_MAGIC[1];
+        }
+    }
+
+    //una riga del file
+    public static class UserRecord {
+        static final String PUT = "PUT";
+        static final String DELETE = "DELETE";
+
+        public String op;
+        public UserDescriptor user;
+        public String username;
+    }
+}
@@ -0,0 +1,119 @@
+package buildingSecurityController.api.policy;
+
+import buildingSecurityController.api.model.PolicyDescriptor;
+
+/*versione immutabile di una PolicyDescriptor, con gli orari gia' convertiti in minuti del giorno
+cosi' la valutazione ad ogni notifica si riduce a pochi confronti tra interi*/
+
+public final class CompiledPolicy {
+
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    private final String policyId;
+    private final String areaId;
+    private final boolean enabled;
+    private final boolean presenceMode;
+    private final int startMinute;
+    private final int endMinute;
+    private final int maxPersons;
+
+    private CompiledPolicy(String policyId, String areaId, boolean enabled, boolean presenceMode, int startMinute, int endMinute, int maxPersons) {
+        this.policyId = policyId;
+        this.areaId = areaId;
+        this.enabled = enabled;
+        this.presenceMode = presenceMode;
+        this.startMinute = startMinute;
+        this.endMinute = endMinute;
+        this.maxPersons = maxPersons;
+    }
+
+    public static CompiledPolicy compile(PolicyDescriptor policyDescriptor) throws IllegalArgumentException {
+
+        if(policyDescriptor == null || policyDescriptor.getArea_id() == null)
+            throw new IllegalArgumentException("Policy without area");
+
+        return new CompiledPolicy(policyDescriptor.getPolicy_id(),
+                policyDescriptor.getArea_id(),
+                policyDescriptor.getIs_enabled() == null || policyDescriptor.getIs_enabled(),
+                policyDescriptor.getPresence_mode() != null && policyDescriptor.getPresence_mode(),
+                parseMinuteOfDay(policyDescriptor.getStart_working_time()),
+                parseMinuteOfDay(policyDescriptor.getEnd_working_time()),
+                policyDescriptor.getMax_persons() != null ? policyDescriptor.getMax_persons() : Integer.MAX_VALUE);
+    }
+
+    //"HH:mm" -> minuti dalla mezzanotte
+    public static int parseMinuteOfDay(String time) throws IllegalArgumentException {
+
+        if(time == null)
+            throw new IllegalArgumentException("Missing working time");
+
+        int separator = time.indexOf(':');
+        try {
+            int hour = Integer.parseInt(time.substring(0, separator).trim());
+            int minute = Integer.parseInt(time.substring(separator + 1).trim());
+            if(hour < 0 || hour > 23 || minute < 0 || minute > 59)
+                throw new IllegalArgumentException(String.format("Invalid working time: %s", time));
+            return hour * 60 + minute;
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException(String.format("Invalid working time: %s", time));
+        }
+    }
+
+    /*la finestra di allarme va da start (incluso) a end (escluso); se start > end la finestra
+    attraversa la mezzanotte (es. 19:00 -> 6:00)*/
+    public boolean isArmedAt(int minuteOfDay) {
+        int minute = minuteOfDay % MINUTES_PER_DAY;
+        if(startMinute <= endMinute)
+            return minute >= startMinute && minute < endMinute;
+        return minute >= startMinute || minute < endMinute;
+    }
+
+    public boolean matchesPresence(int minuteOfDay) {
+        return enabled && presenceMode && isArmedAt(minuteOfDay);
+    }
+
+    public boolean matchesPeopleCount(double peopleCount, int minuteOfDay) {
+        return enabled && !presenceMode && peopleCount > maxPersons && isArmedAt(minuteOfDay);
+    }
+
+    public String getPolicyId() {
+        return policyId;
+    }
+
+    public String getAreaId() {
+        return areaId;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isPresenceMode() {
+        return presenceMode;
+    }
+
+    public int getStartMinute() {
+        return startMinute;
+    }
+
+    public int getEndMinute() {
+        return endMinute;
+    }
+
+    public int getMaxPersons() {
+        return maxPersons;
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledPolicy{" +
+                "policyId='" + policyId + '\'' +
+                ", areaId='" + areaId + '\'' +
+                ", enabled=" + enabled +
+                ", presenceMode=" + presenceMode +
+                ", startMinute=" + startMinute +
+                ", endMinute=" + endMinute +
+                ", maxPersons=" + maxPersons +
+                '}';
+    }
+}
@@ -0,0 +1,186 @@
+package buildingSecurityController.api.policy;
+
+import buildingSecurityController.api.model.GenericDeviceDescriptor;
+import buildingSecurityController.api.model.PolicyDescriptor;
+import buildingSecurityController.api.persistance.IInventoryChangeListener;
+import buildingSecurityController.api.persistance.IInventoryDataManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalTime;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*compila le policy dell'inventory in un indice immutabile per area (device -> area, area -> policy,
+area -> attuatori). L'indice viene ricostruito e sostituito atomicamente dopo le modifiche di
+policy, device o aree, mentre le notifiche dei sensori leggono sempre uno snapshot coerente
+senza copiare le liste dell'inventory.
+La ricostruzione gira su un thread dedicato e assorbe le modifiche arrivate nel frattempo: una
+discovery di N device produce poche ricostruzioni invece di due per device, e chi scrive
+sull'inventory non aspetta mai la compilazione*/
+
+public class PolicyEngine implements IInventoryChangeListener {
+
+    private final static Logger logger = LoggerFactory.getLogger(PolicyEngine.class);
+
+    private final IInventoryDataManager inventoryDataManager;
+
+    private final AtomicReference<Snapshot> snapshot;
+
+    private final ExecutorService rebuildExecutor;
+    private final AtomicBoolean rebuildPending = new AtomicBoolean(false);
+
+    public PolicyEngine(IInventoryDataManager inventoryDataManager) {
+        this.inventoryDataManager = inventoryDataManager;
+        this.snapshot = new AtomicReference<>(Snapshot.EMPTY);
+        this.rebuildExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "policy-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+        rebuild();
+    }
+
+    /*al massimo una ricostruzione in coda: il flag si azzera prima di rileggere l'inventory,
+    quindi una modifica arrivata durante la compilazione ne programma un'altra e non va persa*/
+    @Override
+    public void onInventoryChanged(Entity entity, String id) {
+        if(entity != Entity.POLICY && entity != Entity.DEVICE && entity != Entity.AREA)
+            return;
+        if(rebuildPending.compareAndSet(false, true))
+            rebuildExecutor.execute(() -> {
+                rebuildPending.set(false);
+                rebuild();
+            });
+    }
+
+    public synchronized void rebuild() {
+        try {
+            Snapshot newSnapshot = Snapshot.compile(this.inventoryDataManager.getPolicyList(), this.inventoryDataManager.getDeviceList());
+            this.snapshot.set(newSnapshot);
+            logger.debug("Policy index rebuilt: {} policies, {} devices", newSnapshot.policyCount, newSnapshot.deviceAreaMap.size());
+        } catch (Exception e) {
+            logger.error("Error rebuilding the policy index ! Msg: {}", e.getLocalizedMessage());
+        }
+    }
+
+    public Optional<String> getDeviceArea(String deviceId) {
+        return Optional.ofNullable(this.snapshot.get().deviceAreaMap.get(deviceId));
+    }
+
+    //device id di luci e allarmi presenti nell'area
+    public List<String> getAreaActuators(String areaId) {
+        List<String> actuatorList = this.snapshot.get().areaActuatorMap.get(areaId);
+        return actuatorList != null ? actuatorList : Collections.emptyList();
+    }
+
+    public List<CompiledPolicy> getAreaPolicies(String areaId) {
+        List<CompiledPolicy> policyList = this.snapshot.get().areaPolicyMap.get(areaId);
+        return policyList != null ? policyList : Collections.emptyList();
+    }
+
+    //restituisce l'area da allarmare se un sensore PIR ha rilevato presenza in una finestra armata
+    public Optional<String> evaluatePresence(String deviceId, int minuteOfDay) {
+        Snapshot current = this.snapshot.get();
+        String areaId = current.deviceAreaMap.get(deviceId);
+        if(areaId == null)
+            return Optional.empty();
+
+        List<CompiledPolicy> policyList = current.areaPolicyMap.get(areaId);
+        if(policyList == null)
+            return Optional.empty();
+
+        for(CompiledPolicy policy : policyList)
+            if(policy.matchesPresence(minuteOfDay))
+                return Optional.of(areaId);
+
+        return Optional.empty();
+    }
+
+    public Optional<String> evaluatePresence(String deviceId) {
+        return evaluatePresence(deviceId, currentMinuteOfDay());
+    }
+
+    //restituisce l'area da allarmare se la telecamera conta piu' persone di quelle consentite
+    public Optional<String> evaluatePeopleCount(String deviceId, double peopleCount, int minuteOfDay) {
+        Snapshot current = this.snapshot.get();
+        String areaId = current.deviceAreaMap.get(deviceId);
+        if(areaId == null)
+            return Optional.empty();
+
+        List<CompiledPolicy> policyList = current.areaPolicyMap.get(areaId);
+        if(policyList == null)
+            return Optional.empty();
+
+        for(CompiledPolicy policy : policyList)
+            if(policy.matchesPeopleCount(peopleCount, minuteOfDay))
+                return Optional.of(areaId);
+
+        return Optional.empty();
+    }
+
+    public Optional<String> evaluatePeopleCount(String deviceId, double peopleCount) {
+        return evaluatePeopleCount(deviceId, peopleCount, currentMinuteOfDay());
+    }
+
+    public static int currentMinuteOfDay() {
+        LocalTime now = LocalTime.now();
+        return now.getHour() * 60 + now.getMinute();
+    }
+
+    private static final class Snapshot {
+
+        private static final Snapshot EMPTY = new Snapshot(Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap(), 0);
+
+        private final Map<String, String> deviceAreaMap;
+        private final Map<String, List<CompiledPolicy>> areaPolicyMap;
+        private final Map<String, List<String>> areaActuatorMap;
+        private final int policyCount;
+
+        private Snapshot(Map<String, String> deviceAreaMap, Map<String, List<CompiledPolicy>> areaPolicyMap, Map<String, List<String>> areaActuatorMap, int policyCount) {
+            this.deviceAreaMap = deviceAreaMap;
+            this.areaPolicyMap = areaPolicyMap;
+            this.areaActuatorMap = areaActuatorMap;
+            this.policyCount = policyCount;
+        }
+
+        private static Snapshot compile(List<PolicyDescriptor> policyList, List<GenericDeviceDescriptor> deviceList) {
+
+            Map<String, List<CompiledPolicy>> areaPolicyMap = new HashMap<>();
+            int policyCount = 0;
+
+            for(PolicyDescriptor policyDescriptor : policyList) {
+                try {
+                    CompiledPolicy policy = CompiledPolicy.compile(policyDescriptor);
+                    areaPolicyMap.computeIfAbsent(policy.getAreaId(), key -> new ArrayList<>()).add(policy);
+                    policyCount++;
+                } catch (IllegalArgumentException e) {
+                    logger.warn("Skipping policy {}: {}", policyDescriptor != null ? policyDescriptor.getPolicy_id() : null, e.getLocalizedMessage());
+                }
+            }
+
+            Map<String, String> deviceAreaMap = new HashMap<>();
+            Map<String, List<String>> areaActuatorMap = new HashMap<>();
+
+            for(GenericDeviceDescriptor device : deviceList) {
+                if(device == null || device.getDeviceId() == null || device.getAreaId() == null)
+                    continue;
+                deviceAreaMap.put(device.getDeviceId(), device.getAreaId());
+                if(device.getDeviceId().contains("alarm") || device.getDeviceId().contains("light"))
+                    areaActuatorMap.computeIfAbsent(device.getAreaId(), key -> new ArrayList<>()).add(device.getDeviceId());
+            }
+
+            areaPolicyMap.replaceAll((areaId, policies) -> Collections.unmodifiableList(policies));
+            areaActuatorMap.replaceAll((areaId, actuators) -> Collections.unmodifiableList(actuators));
+
+            return new Snapshot(Collections.unmodifiableMap(deviceAreaMap),
+                    Collections.unmodifiableMap(areaPolicyMap),
+                    Collections.unmodifiableMap(areaActuatorMap),
+                    policyCount);
+        }
+    }
+
+}
@@ -21,7 +21,6 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
 import java.net.URI;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
@@ -155,15 +154,13 @@ public class BuildingResource {
             this.conf.getInventoryDataManager().deleteFloor(floorId);
             //delete all the areas in that floor
 
-            List<AreaDescriptor> areaList = this.conf.getInventoryDataManager().getAreaList();
+            List<AreaDescriptor> areaList = this.conf.getInventoryDataManager().getAreaListByFloor(floorId);
 
             areaList.forEach(area->{
-                if (area.getFloorId().equals(floorId)){
-                    try {
-                        this.conf.getInventoryDataManager().deleteArea(area.getAreaName());
-                    } catch (IInventoryDataManagerException e) {
-                        e.printStackTrace();
-                    }
+                try {
+                    this.conf.getInventoryDataManager().deleteArea(area.getAreaId());
+                } catch (IInventoryDataManagerException e) {
+                    e.printStackTrace();
                 }
             });
 
@@ -198,14 +195,7 @@ public class BuildingResource {
             if(!floorDescriptor.isPresent())
                 return Response.status(Response.Status.NOT_FOUND).type(MediaType.APPLICATION_JSON_TYPE).entity(new ErrorMessage(Response.Status.NOT_FOUND.getStatusCode(),"Floor Not Found !")).build();
 
-            List<AreaDescriptor> areaList = this.conf.getInventoryDataManager().getAreaList();
-            List<AreaDescriptor> newAreaList = new ArrayList<>();
-
-
-            areaList.forEach(area -> {
-                if(area.getFloorId().equals(floorId))
-                    newAreaList.add(area);
-            });
+            List<AreaDescriptor> newAreaList = this.conf.getInventoryDataManager().getAreaListByFloor(floorId);
 
             if (newAreaList.isEmpty())
                 return Response.status(Response.Status.NOT_FOUND).type(MediaType.APPLICATION_JSON_TYPE).entity(new ErrorMessage(Response.Status.NOT_FOUND.getStatusCode(), "No areas found")).build();
@@ -252,6 +242,8 @@ public class BuildingResource {
             return Response.created(new URI(String.format("%s/%s",uriInfo.getAbsolutePath(),newAreaDescriptor.getAreaName()))).build();
 
 
+        } catch (IInventoryDataManagerConflict e){
+            return Response.status(Response.Status.CONFLICT).type(MediaType.APPLICATION_JSON_TYPE).entity(new ErrorMessage(Response.Status.CONFLICT.getStatusCode(),"Area already available !")).build();
         } catch (Exception e){
             e.printStackTrace();
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR).type(MediaType.APPLICATION_JSON_TYPE).entity(new ErrorMessage(Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(),"Internal Server Error !")).build();
@@ -352,20 +344,9 @@ public class BuildingResource {
             if(!this.conf.getInventoryDataManager().getArea(areaId).isPresent())
                 return Response.status(Response.Status.NOT_FOUND).type(MediaType.APPLICATION_JSON_TYPE).entity(new ErrorMessage(Response.Status.NOT_FOUND.getStatusCode(),"Area Not Found !")).build();
 
-            //Delete the location
+            //Delete the location, its devices become "unallocated"
             this.conf.getInventoryDataManager().deleteArea(areaId);
 
-            List<GenericDeviceDescriptor> devList = this.conf.getInventoryDataManager().getDeviceList();
-            devList.forEach(dev ->{
-                if(dev.getAreaId().equals(areaId)){
-                    try {
-                        this.conf.getInventoryDataManager().getDevice(dev.getDeviceId()).get().setAreaId("unallocated");
-                    } catch (IInventoryDataManagerException e) {
-                        e.printStackTrace();
-                    }
-                }
-            });
-
             return Response.noContent().build();
 
         } catch (Exception e){
@@ -396,13 +377,7 @@ public class BuildingResource {
             if(!areaDescriptor.isPresent())
                 return Response.status(Response.Status.NOT_FOUND).type(MediaType.APPLICATION_JSON_TYPE).entity(new ErrorMessage(Response.Status.NOT_FOUND.getStatusCode(),"Device Not Found !")).build();
 
-            List<GenericDeviceDescriptor> genericDeviceDescriptors = this.conf.getInventoryDataManager().getDeviceList();
-            List<GenericDeviceDescriptor> newDeviceList = new ArrayList<>();
-
-            genericDeviceDescriptors.forEach(device -> {
-                if(!device.getAreaId().equals("unallocated") || device.getAreaId().equals(areaId))
-                    newDeviceList.add(device);
-            });
+            List<GenericDeviceDescriptor> newDeviceList = this.conf.getInventoryDataManager().getDeviceListByArea(areaId);
 
             if (newDeviceList.isEmpty())
                 return Response.status(Response.Status.NOT_FOUND).type(MediaType.APPLICATION_JSON_TYPE).entity(new ErrorMessage(Response.Status.NOT_FOUND.getStatusCode(), "No Devices found")).build();
@@ -14,6 +14,7 @@ import io.swagger.annotations.ApiOperation;
 import org.eclipse.californium.core.CoapResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import utils.SenMLContentFormat;
 
 import javax.annotation.security.RolesAllowed;
 import javax.ws.rs.*;
@@ -92,7 +93,7 @@ public class DevicesResource {
             if (!this.conf.getInventoryDataManager().getDevice(deviceId).isPresent())
                 return Response.status(Response.Status.NOT_FOUND).type(MediaType.APPLICATION_JSON_TYPE).entity(new ErrorMessage(Response.Status.NOT_FOUND.getStatusCode(),"Device not found !")).build();
 
-            GenericDeviceDescriptor genericDeviceDescriptor = this.conf.getInventoryDataManager().getDevice(deviceId).get();
+            GenericDeviceDescriptor genericDeviceDescriptor = this.conf.getInventoryDataManager().getDevice(deviceId).get().copy();
 
             genericDeviceDescriptor.setDeviceId(deviceUpdateRequest.getDeviceId());
             genericDeviceDescriptor.setAreaId(deviceUpdateRequest.getAreaId());
@@ -142,11 +143,9 @@ public class DevicesResource {
 
 
 
-            List<ResourceDescriptor> resourceDescriptors = this.conf.getInventoryDataManager().getResourceList();
+            List<ResourceDescriptor> resourceDescriptors = this.conf.getInventoryDataManager().getResourceListByDevice(deviceId);
             logger.info("{}", resourceDescriptors);
 
-            resourceDescriptors.removeIf(resourceDescriptor -> !resourceDescriptor.getDeviceId().equals(deviceId));
-
             return Response.ok(resourceDescriptors).build();
 
         } catch (Exception e) {
@@ -209,7 +208,6 @@ public class DevicesResource {
             if (!resourceDescriptor.isPresent())
                 return Response.status(Response.Status.NOT_FOUND).type(MediaType.APPLICATION_JSON_TYPE).entity(new ErrorMessage(Response.Status.NOT_FOUND.getStatusCode(), "Resource Not Found !")).build();
 
-            CoapResourceClient coapResourceClient = new CoapResourceClient();
 
             String url = "";
 
@@ -223,7 +221,8 @@ public class DevicesResource {
             }
 
             CoapResponse response = coapResourceClient.getRequest(String.format("coap://192.168.1.107:5683/%s", url));
-            return Response.ok(response.getResponseText()).build();
+            //la risposta puo' essere SenML CBOR, al client REST si restituisce sempre JSON
+            return Response.ok(SenMLContentFormat.decode(response.getPayload(), response.getOptions().getContentFormat())).type(MediaType.APPLICATION_JSON_TYPE).build();
 
 
         } catch (Exception e) {
@@ -253,7 +252,6 @@ public class DevicesResource {
             if (!resourceDescriptor.isPresent())
                 return Response.status(Response.Status.NOT_FOUND).type(MediaType.APPLICATION_JSON_TYPE).entity(new ErrorMessage(Response.Status.NOT_FOUND.getStatusCode(), "Resource Not Found !")).build();
 
-            CoapResourceClient coapResourceClient = new CoapResourceClient();
 
             String url = "";
 
@@ -297,7 +295,6 @@ public class DevicesResource {
             if (!resourceDescriptor.isPresent())
                 return Response.status(Response.Status.NOT_FOUND).type(MediaType.APPLICATION_JSON_TYPE).entity(new ErrorMessage(Response.Status.NOT_FOUND.getStatusCode(), "Resource Not Found !")).build();
 
-            CoapResourceClient coapResourceClient = new CoapResourceClient();
 
             String url = "";
 
@@ -1,7 +1,6 @@
 package buildingSecurityController.api.resources;
 
 
-import buildingSecurityController.api.client.CoapResourceClient;
 import buildingSecurityController.api.data_transfer_object.PolicyCreationRequest;
 import buildingSecurityController.api.data_transfer_object.PolicyUpdateRequest;
 import buildingSecurityController.api.exception.IInventoryDataManagerConflict;
@@ -12,7 +11,6 @@ import com.codahale.metrics.annotation.Timed;
 import io.dropwizard.jersey.errors.ErrorMessage;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
-import org.eclipse.californium.core.CoapResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -173,25 +171,27 @@ public class PolicyResource {
 
             if (!policyUpdateRequest.getIs_enabled()){
 
-                List<GenericDeviceDescriptor> devList = this.conf.getInventoryDataManager().getDeviceList();
-                List<GenericDeviceDescriptor> newList = new ArrayList<>();
-
-                devList.forEach(dev ->{
-                    if(dev.getAreaId().equals(policyUpdateRequest.getArea_id())){
-                        newList.add(dev);
-                    }
-                });
+                List<GenericDeviceDescriptor> newList = this.conf.getInventoryDataManager().getDeviceListByArea(policyUpdateRequest.getArea_id());
 
                 if(!newList.isEmpty()){
+                    List<String> actuatorList = new ArrayList<>();
                     newList.forEach(dev ->{
                         if(dev.getDeviceId().contains("alarm") || dev.getDeviceId().contains("light")){
-
-                            CoapResourceClient coapResourceClient = new CoapResourceClient();
-                            CoapResponse response = coapResourceClient.putRequest(String.format("coap://192.168.1.107:5683/%s", dev.getDeviceId()), "false");
+                            actuatorList.add(dev.getDeviceId());
                             logger.info("Deactivated: {}", dev.getDeviceId());
                         }
 
                     });
+
+                    //la risposta non aspetta gli attuatori, l'esito del fan-out finisce nel log
+                    String areaId = policyUpdateRequest.getArea_id();
+                    this.conf.getActuationService().actuateArea(areaId, actuatorList, false)
+                            .whenComplete((ignored, error) -> {
+                                if(error != null)
+                                    logger.error("Deactivation of area {} failed: {}", areaId, error.getLocalizedMessage());
+                                else
+                                    logger.debug("Area {} deactivated", areaId);
+                            });
                 }
 
 
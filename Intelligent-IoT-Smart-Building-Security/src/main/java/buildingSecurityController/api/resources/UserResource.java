@@ -87,7 +87,7 @@ public class UserResource {
             if(!userDescriptor.isPresent())
                 return Response.status(Response.Status.NOT_FOUND).type(MediaType.APPLICATION_JSON_TYPE).entity(new ErrorMessage(Response.Status.NOT_FOUND.getStatusCode(),"User Not Found !")).build();
 
-            return Response.ok(userDescriptor.get()).build();
+            return Response.ok(userDescriptor.get().withoutCredentials()).build();
 
         } catch (Exception e){
             e.printStackTrace();
@@ -0,0 +1,66 @@
+package buildingSecurityController.api.services;
+
+import buildingSecurityController.api.client.ActuationService;
+import buildingSecurityController.api.client.CoapResourceClient;
+import buildingSecurityController.api.client.PipelineMetrics;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+//blocco "actuation" del file di configurazione
+public class ActuationConfig {
+
+    //base degli uri degli attuatori non ancora scoperti dal resource directory (null: solo quelli scoperti)
+    @JsonProperty("smartObjectEndpoint")
+    private String smartObjectEndpoint;
+
+    @JsonProperty("timeoutMillis")
+    private long timeoutMillis = ActuationService.DEFAULT_TIMEOUT_MILLIS;
+
+    @JsonProperty("maxRetries")
+    private int maxRetries = ActuationService.DEFAULT_MAX_RETRIES;
+
+    @JsonProperty("retryDelayMillis")
+    private long retryDelayMillis = ActuationService.DEFAULT_RETRY_DELAY_MILLIS;
+
+    public ActuationConfig() {
+    }
+
+    public ActuationService build() {
+        return build(new PipelineMetrics());
+    }
+
+    public ActuationService build(PipelineMetrics pipelineMetrics) {
+        return new ActuationService(new CoapResourceClient(), smartObjectEndpoint, timeoutMillis, maxRetries, retryDelayMillis, pipelineMetrics);
+    }
+
+    public String getSmartObjectEndpoint() {
+        return smartObjectEndpoint;
+    }
+
+    public void setSmartObjectEndpoint(String smartObjectEndpoint) {
+        this.smartObjectEndpoint = smartObjectEndpoint;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public void setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public long getRetryDelayMillis() {
+        return retryDelayMillis;
+    }
+
+    public void setRetryDelayMillis(long retryDelayMillis) {
+        this.retryDelayMillis = retryDelayMillis;
+    }
+}
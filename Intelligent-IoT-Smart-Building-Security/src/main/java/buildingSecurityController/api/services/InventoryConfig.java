@@ -0,0 +1,90 @@
+package buildingSecurityController.api.services;
+
+import buildingSecurityController.api.persistance.ConcurrentInventoryDataManager;
+import buildingSecurityController.api.persistance.IInventoryDataManager;
+import buildingSecurityController.api.persistance.JournaledInventoryDataManager;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.io.IOException;
+
+//blocco "inventory" del file di configurazione
+public class InventoryConfig {
+
+    public enum Type {
+        //solo in memoria, si perde al riavvio (tranne gli utenti, salvati in usersFile)
+        MEMORY,
+        //write-ahead log + snapshot su disco
+        JOURNAL
+    }
+
+    public static final String DEFAULT_USERS_FILE = "users-file";
+
+    @JsonProperty("type")
+    private Type type = Type.MEMORY;
+
+    @JsonProperty("directory")
+    private String directory = JournaledInventoryDataManager.DEFAULT_DIRECTORY;
+
+    //usato solo da MEMORY, con JOURNAL gli utenti sono nel journal
+    @JsonProperty("usersFile")
+    private String usersFile = DEFAULT_USERS_FILE;
+
+    @JsonProperty("snapshotEveryRecords")
+    private int snapshotEveryRecords = JournaledInventoryDataManager.DEFAULT_SNAPSHOT_EVERY_RECORDS;
+
+    @JsonProperty("fsync")
+    private boolean fsync = true;
+
+    public InventoryConfig() {
+    }
+
+    public IInventoryDataManager build() {
+        if(type != Type.JOURNAL)
+            return new ConcurrentInventoryDataManager(usersFile);
+        try {
+            return new JournaledInventoryDataManager(directory, snapshotEveryRecords, fsync);
+        } catch (IOException e) {
+            throw new IllegalStateException(String.format("Unable to open inventory journal in %s", directory), e);
+        }
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public String getUsersFile() {
+        return usersFile;
+    }
+
+    public void setUsersFile(String usersFile) {
+        this.usersFile = usersFile;
+    }
+
+    public int getSnapshotEveryRecords() {
+        return snapshotEveryRecords;
+    }
+
+    public void setSnapshotEveryRecords(int snapshotEveryRecords) {
+        this.snapshotEveryRecords = snapshotEveryRecords;
+    }
+
+    public boolean isFsync() {
+        return fsync;
+    }
+
+    public void setFsync(boolean fsync) {
+        this.fsync = fsync;
+    }
+}
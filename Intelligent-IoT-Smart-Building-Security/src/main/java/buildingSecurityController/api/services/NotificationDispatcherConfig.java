@@ -0,0 +1,59 @@
+package buildingSecurityController.api.services;
+
+import buildingSecurityController.api.client.NotificationDispatcher;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+//blocco "notificationDispatcher" del file di configurazione
+public class NotificationDispatcherConfig {
+
+    @JsonProperty("workerThreads")
+    private int workerThreads = NotificationDispatcher.DEFAULT_WORKER_THREADS;
+
+    @JsonProperty("queueCapacity")
+    private int queueCapacity = NotificationDispatcher.DEFAULT_QUEUE_CAPACITY;
+
+    @JsonProperty("overflowPolicy")
+    private NotificationDispatcher.OverflowPolicy overflowPolicy = NotificationDispatcher.OverflowPolicy.DROP_OLDEST;
+
+    @JsonProperty("virtualThreads")
+    private boolean virtualThreads = false;
+
+    public NotificationDispatcherConfig() {
+    }
+
+    public NotificationDispatcher build() {
+        return new NotificationDispatcher(workerThreads, queueCapacity, overflowPolicy, virtualThreads);
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public NotificationDispatcher.OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(NotificationDispatcher.OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+}
@@ -1,7 +1,12 @@
 package buildingSecurityController.api.services;
 
-import buildingSecurityController.api.persistance.DefaultInventoryDataManager;
+import buildingSecurityController.api.auth.UserCredentialStore;
+import buildingSecurityController.api.client.ActuationService;
+import buildingSecurityController.api.client.CoapResourceClient;
+import buildingSecurityController.api.client.NotificationDispatcher;
+import buildingSecurityController.api.client.PipelineMetrics;
 import buildingSecurityController.api.persistance.IInventoryDataManager;
+import buildingSecurityController.api.policy.PolicyEngine;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import io.dropwizard.Configuration;
 import io.federecio.dropwizard.swagger.SwaggerBundleConfiguration;
@@ -11,12 +16,73 @@ public class OperatorAppConfig extends Configuration {
     @JsonProperty("swagger")
     public SwaggerBundleConfiguration swaggerBundleConfiguration;
 
+    @JsonProperty("inventory")
+    public InventoryConfig inventoryConfig = new InventoryConfig();
+
+    @JsonProperty("notificationDispatcher")
+    public NotificationDispatcherConfig notificationDispatcherConfig = new NotificationDispatcherConfig();
+
+    @JsonProperty("actuation")
+    public ActuationConfig actuationConfig = new ActuationConfig();
+
+    //spec della cache delle credenziali verificate (formato CacheBuilderSpec di guava)
+    @JsonProperty("authenticationCachePolicy")
+    public String authenticationCachePolicy = "maximumSize=1000, expireAfterWrite=10m, recordStats";
+
+    //thread dell'endpoint CoAP condiviso da tutte le richieste verso gli smart object
+    @JsonProperty("coapClientThreads")
+    public int coapClientThreads = CoapResourceClient.DEFAULT_EXECUTOR_THREADS;
+
     private IInventoryDataManager inventoryDataManager = null;
 
-    public IInventoryDataManager getInventoryDataManager(){
+    public synchronized IInventoryDataManager getInventoryDataManager(){
         if(this.inventoryDataManager == null)
-            this.inventoryDataManager = new DefaultInventoryDataManager();
+            this.inventoryDataManager = this.inventoryConfig.build();
         return this.inventoryDataManager;
     }
 
+    private PolicyEngine policyEngine = null;
+
+    public synchronized PolicyEngine getPolicyEngine(){
+        if(this.policyEngine == null){
+            this.policyEngine = new PolicyEngine(getInventoryDataManager());
+            getInventoryDataManager().addChangeListener(this.policyEngine);
+        }
+        return this.policyEngine;
+    }
+
+    private UserCredentialStore userCredentialStore = null;
+
+    public synchronized UserCredentialStore getUserCredentialStore(){
+        if(this.userCredentialStore == null){
+            this.userCredentialStore = new UserCredentialStore(getInventoryDataManager());
+            getInventoryDataManager().addChangeListener(this.userCredentialStore);
+        }
+        return this.userCredentialStore;
+    }
+
+    private NotificationDispatcher notificationDispatcher = null;
+
+    public synchronized NotificationDispatcher getNotificationDispatcher(){
+        if(this.notificationDispatcher == null)
+            this.notificationDispatcher = this.notificationDispatcherConfig.build();
+        return this.notificationDispatcher;
+    }
+
+    private PipelineMetrics pipelineMetrics = null;
+
+    public synchronized PipelineMetrics getPipelineMetrics(){
+        if(this.pipelineMetrics == null)
+            this.pipelineMetrics = new PipelineMetrics();
+        return this.pipelineMetrics;
+    }
+
+    private ActuationService actuationService = null;
+
+    public synchronized ActuationService getActuationService(){
+        if(this.actuationService == null)
+            this.actuationService = this.actuationConfig.build(getPipelineMetrics());
+        return this.actuationService;
+    }
+
 }
@@ -4,18 +4,25 @@ package buildingSecurityController.api.services;
 import buildingSecurityController.api.auth.ExampleAuthorizer;
 import buildingSecurityController.api.auth.ExampleAuthenticator;
 import buildingSecurityController.api.auth.User;
+import buildingSecurityController.api.client.CoapResourceClient;
 import buildingSecurityController.api.client.LookupAndObserveProcess;
 import buildingSecurityController.api.resources.BuildingResource;
 import buildingSecurityController.api.resources.DevicesResource;
 import buildingSecurityController.api.resources.PolicyResource;
 import buildingSecurityController.api.resources.UserResource;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.CacheBuilderSpec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import utils.DummyDataGenerator;
 import io.dropwizard.Application;
 import io.dropwizard.auth.AuthDynamicFeature;
 import io.dropwizard.auth.AuthValueFactoryProvider;
+import io.dropwizard.auth.CachingAuthenticator;
+import io.dropwizard.auth.basic.BasicCredentials;
 import io.dropwizard.auth.basic.BasicCredentialAuthFilter;
+import io.dropwizard.lifecycle.Managed;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
 import io.federecio.dropwizard.swagger.SwaggerBundle;
@@ -46,18 +53,55 @@ public class OperatorAppService extends Application<OperatorAppConfig> {
 
         LookupAndObserveProcess lookupAndObserveProcess = new LookupAndObserveProcess(operatorAppConfig);
 
+        //pool delle notifiche di observe: metriche esposte sull'admin connector e chiusura gestita da dropwizard
+        environment.metrics().register("notification-dispatcher", operatorAppConfig.getNotificationDispatcher().getMetricRegistry());
+        environment.lifecycle().manage(operatorAppConfig.getNotificationDispatcher());
 
+        //latenze rilevazione -> attuazione per fase e per area
+        operatorAppConfig.getPipelineMetrics().registerTo(environment.metrics(), "detection-pipeline");
 
-        //creo dati fittizzi per le risorse
-        DummyDataGenerator.generateRandomPolicies(operatorAppConfig.getInventoryDataManager());
+        //endpoint CoAP condiviso per tutte le richieste verso gli smart object
+        CoapResourceClient.setExecutorThreads(operatorAppConfig.coapClientThreads);
+        environment.lifecycle().manage(new Managed() {
+            @Override
+            public void start() {
+            }
+
+            @Override
+            public void stop() {
+                CoapResourceClient.shutdown();
+            }
+        });
+        environment.lifecycle().manage(operatorAppConfig.getActuationService());
+
+
+
+        //inventory persistente: snapshot finale e chiusura del log allo shutdown
+        if(operatorAppConfig.getInventoryDataManager() instanceof Managed)
+            environment.lifecycle().manage((Managed) operatorAppConfig.getInventoryDataManager());
+
+        //creo dati fittizzi per le risorse, solo se non sono gia' stati recuperati dal disco
+        if(operatorAppConfig.getInventoryDataManager().getFloorList().isEmpty() && operatorAppConfig.getInventoryDataManager().getPolicyList().isEmpty())
+            DummyDataGenerator.generateRandomPolicies(operatorAppConfig.getInventoryDataManager());
 
 
 
         //registro le risorse per l'autenticazione all'api
 
+        //credenziali verificate in cache: il percorso caldo e' un lookup, la cache si svuota quando l'utente cambia
+        CachingAuthenticator<BasicCredentials, User> cachingAuthenticator = new CachingAuthenticator<>(environment.metrics(),
+                new ExampleAuthenticator(operatorAppConfig.getUserCredentialStore()),
+                CacheBuilderSpec.parse(operatorAppConfig.authenticationCachePolicy));
+        operatorAppConfig.getUserCredentialStore().addInvalidationListener(username ->
+                cachingAuthenticator.invalidateAll(credentials -> username.equals(credentials.getUsername())));
+
+        environment.metrics().register(MetricRegistry.name(ExampleAuthenticator.class, "cache-hits"), (Gauge<Long>) () -> cachingAuthenticator.stats().hitCount());
+        environment.metrics().register(MetricRegistry.name(ExampleAuthenticator.class, "cache-hit-ratio"), (Gauge<Double>) () -> cachingAuthenticator.stats().hitRate());
+        environment.metrics().register(MetricRegistry.name(ExampleAuthenticator.class, "cache-size"), (Gauge<Long>) cachingAuthenticator::size);
+
         environment.jersey().register(new AuthDynamicFeature(
                         new BasicCredentialAuthFilter.Builder<User>()
-                        .setAuthenticator(new ExampleAuthenticator())
+                        .setAuthenticator(cachingAuthenticator)
                         .setAuthorizer(new ExampleAuthorizer())
                         .setRealm("SUPER SECRET STUFF")
                         .buildAuthFilter()));
@@ -13,35 +13,74 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import utils.SenMLPack;
 
-import java.io.FileOutputStream;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.util.HashMap;
+import java.io.*;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+/*vecchio store dei pack su recordSensorsFile, per chi legge ancora quel file (script python, replay).
+Un solo ObjectMapper e un lock sul file: le richieste jersey concorrenti scrivono righe intere, una dopo
+l'altra, e un errore di scrittura arriva alla richiesta invece di diventare una risposta 200*/
 
 public class DefaultInventoryDataCollector implements IInventoryCollectorPack{
 
     final protected Logger logger = LoggerFactory.getLogger(DefaultInventoryDataCollector.class);
 
+    private static final String RECORD_FILE = "recordSensorsFile";
+
+    //il file e' uno solo anche se le istanze sono piu' d'una
+    private static final Object fileLock = new Object();
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
 
     @Override
     public SenMLPack createNewPack(SenMLPack pack) throws IInventoryDataManagerException, IInventoryDataManagerConflict {
-        try {
-            String record = new ObjectMapper().writeValueAsString(pack);
+        createNewPackList(Collections.singletonList(pack));
+        return pack;
+    }
 
-            FileWriter fileWriter = new FileWriter("recordSensorsFile", true);
-            fileWriter.write(record);
-            fileWriter.append("\n");
-            fileWriter.flush();
-            fileWriter.close();
-            logger.info(record);
+    @Override
+    public List<SenMLPack> createNewPackList(List<SenMLPack> packList) throws IInventoryDataManagerException, IInventoryDataManagerConflict {
+        try {
+            //serializzati fuori dal lock, scritti con una sola write
+            StringBuilder records = new StringBuilder();
+            for(SenMLPack pack : packList)
+                records.append(objectMapper.writeValueAsString(pack)).append('\n');
 
-            return pack;
+            synchronized (fileLock) {
+                try (Writer writer = new FileWriter(RECORD_FILE, true)) {
+                    writer.write(records.toString());
+                }
+            }
+            //un pack per richiesta: a info la console diventerebbe il collo di bottiglia
+            if(logger.isDebugEnabled())
+                logger.debug("{} packs stored: {}", packList.size(), records.toString().trim());
+            return packList;
 
         } catch (IOException e) {
-            e.printStackTrace();
-            return null;
+            logger.error("Unable to store {} packs in {}", packList.size(), RECORD_FILE, e);
+            throw new IInventoryDataManagerException("Unable to store the packs");
         }
+    }
 
+    //senza indice: il file viene letto tutto, una riga alla volta
+    @Override
+    public void scanPacks(PackQuery query, Predicate<SenMLPack> consumer) throws IInventoryDataManagerException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(RECORD_FILE))) {
+            String line;
+            while((line = reader.readLine()) != null){
+                if(line.isEmpty())
+                    continue;
+                SenMLPack result = query.filter(objectMapper.readValue(line, SenMLPack.class));
+                if(result != null && !consumer.test(result))
+                    return;
+            }
+        } catch (FileNotFoundException e) {
+            logger.info("No packs stored yet");
+        } catch (IOException e) {
+            logger.error("Unable to read the packs from {}", RECORD_FILE, e);
+            throw new IInventoryDataManagerException("Unable to read the packs");
+        }
     }
 }
@@ -4,9 +4,18 @@ import buildingSecurityController.api.exception.IInventoryDataManagerConflict;
 import buildingSecurityController.api.exception.IInventoryDataManagerException;
 import utils.SenMLPack;
 
+import java.util.List;
+import java.util.function.Predicate;
+
 
 public interface IInventoryCollectorPack {
 
     public SenMLPack createNewPack(SenMLPack pack) throws IInventoryDataManagerException, IInventoryDataManagerConflict;
 
+    //batch dell'uplink: tutti i pack vengono scritti con una sola apertura del file
+    public List<SenMLPack> createNewPackList(List<SenMLPack> packList) throws IInventoryDataManagerException, IInventoryDataManagerConflict;
+
+    //passa in ordine di arrivo i pack filtrati dalla query, il consumer restituisce false per fermare la lettura
+    public void scanPacks(PackQuery query, Predicate<SenMLPack> consumer) throws IInventoryDataManagerException;
+
 }
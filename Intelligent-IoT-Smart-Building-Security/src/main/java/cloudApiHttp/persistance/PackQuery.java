@@ -0,0 +1,121 @@
+package cloudApiHttp.persistance;
+
+import utils.SenMLPack;
+import utils.SenMLRecord;
+
+/*filtro delle GET sui pack salvati: device (base name), unita' di misura e intervallo di tempo
+(secondi, estremi inclusi). I campi a null non filtrano*/
+
+public class PackQuery {
+
+    private final String deviceId;
+    private final String unit;
+    private final Double fromTime;
+    private final Double toTime;
+
+    public PackQuery(String deviceId, String unit, Double fromTime, Double toTime) {
+        this.deviceId = deviceId;
+        this.unit = unit;
+        this.fromTime = fromTime;
+        this.toTime = toTime;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public String getUnit() {
+        return unit;
+    }
+
+    public Double getFromTime() {
+        return fromTime;
+    }
+
+    public Double getToTime() {
+        return toTime;
+    }
+
+    /*restituisce il pack con i soli record che soddisfano il filtro, null se non ne resta nessuno.
+    Se viene tolto il record che portava bn/bt/bu, i valori base vengono riportati sul primo record tenuto*/
+    public SenMLPack filter(SenMLPack pack) {
+
+        SenMLPack result = null;
+
+        String baseName = null;
+        String baseUnit = null;
+        //ultimo record che ha impostato bt, bv e bver, da cui ricopiarli se vanno ripetuti
+        SenMLRecord baseTimeRecord = null;
+        SenMLRecord baseValueRecord = null;
+        SenMLRecord baseVersionRecord = null;
+        boolean baseWritten = false;
+
+        for(int i = 0; i < pack.size(); i++){
+            SenMLRecord record = pack.get(i);
+            if(record.getBn() != null)
+                baseName = record.getBn();
+            if(record.getBu() != null)
+                baseUnit = record.getBu();
+            if(record.hasBt())
+                baseTimeRecord = record;
+            if(record.hasBv())
+                baseValueRecord = record;
+            if(record.hasBver())
+                baseVersionRecord = record;
+
+            boolean match = matches(baseName, record.getU() != null ? record.getU() : baseUnit,
+                    (baseTimeRecord != null ? baseTimeRecord.getBtAsDouble() : 0) + (record.hasT() ? record.getTAsDouble() : 0));
+
+            //finche' i record combaciano si evita la copia
+            if(match && result == null)
+                continue;
+
+            if(result == null){
+                result = new SenMLPack();
+                for(int j = 0; j < i; j++)
+                    result.add(pack.get(j));
+                baseWritten = i > 0;
+            }
+
+            if(!match){
+                //un record tolto che cambiava i valori base li fa ripetere sul prossimo tenuto
+                if(record.hasBaseFields())
+                    baseWritten = false;
+                continue;
+            }
+
+            if(!baseWritten){
+                SenMLRecord withBase = record.copy();
+                withBase.setBn(baseName);
+                withBase.setBu(baseUnit);
+                if(baseTimeRecord != null)
+                    withBase.setBt(baseTimeRecord.getBtAsDouble());
+                if(baseValueRecord != null)
+                    withBase.setBv(baseValueRecord.getBvAsDouble());
+                if(baseVersionRecord != null)
+                    withBase.setBver(baseVersionRecord.getBverAsDouble());
+                result.add(withBase);
+                baseWritten = true;
+            } else {
+                result.add(record);
+            }
+        }
+
+        if(result == null)
+            return pack.isEmpty() ? null : pack;
+        return result.isEmpty() ? null : result;
+    }
+
+    private boolean matches(String name, String recordUnit, double time) {
+        if(deviceId != null && !deviceId.equals(name))
+            return false;
+        if(unit != null && !unit.equals(recordUnit))
+            return false;
+        //i tempi in millisecondi delle risorse coap vengono confrontati in secondi
+        time = SenMLRecord.toSeconds(time);
+        if(fromTime != null && time < fromTime)
+            return false;
+        return toTime == null || time <= toTime;
+    }
+
+}
@@ -0,0 +1,128 @@
+package cloudApiHttp.persistance;
+
+import utils.SenMLPack;
+import utils.SenMLRecord;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+/*indice di un segmento dello store dei pack: intervallo di tempo coperto (secondi, come in SenML),
+numero di pack e device (base name) presenti. Basta per scartare i segmenti che non possono
+contenere risultati senza leggerli*/
+
+public class PackSegmentIndex {
+
+    public long segmentId;
+    public double minTime = Double.MAX_VALUE;
+    public double maxTime = -Double.MAX_VALUE;
+    public long packs = 0;
+    public Set<String> devices = new TreeSet<>();
+
+    public PackSegmentIndex() {
+    }
+
+    public PackSegmentIndex(long segmentId) {
+        this.segmentId = segmentId;
+    }
+
+    public synchronized void add(PackSummary summary) {
+        minTime = Math.min(minTime, summary.minTime);
+        maxTime = Math.max(maxTime, summary.maxTime);
+        devices.addAll(summary.devices);
+        packs++;
+    }
+
+    //fromTime e toTime a null equivalgono a un intervallo aperto
+    public synchronized boolean matches(Double fromTime, Double toTime, String deviceId) {
+        if(packs == 0)
+            return false;
+        if(fromTime != null && maxTime < fromTime)
+            return false;
+        if(toTime != null && minTime > toTime)
+            return false;
+        return deviceId == null || devices.contains(deviceId);
+    }
+
+    //tempi e device di un pack, con base name e base time ereditati dai record precedenti
+    public static class PackSummary {
+
+        public final double minTime;
+        public final double maxTime;
+        public final Set<String> devices;
+
+        private PackSummary(double minTime, double maxTime, Set<String> devices) {
+            this.minTime = minTime;
+            this.maxTime = maxTime;
+            this.devices = devices;
+        }
+
+        /*i tempi relativi contano da receivedTime (secondi). Il pack non viene modificato: a scriverlo
+        con i tempi assoluti ci pensa withAbsoluteTimes*/
+        public static PackSummary of(SenMLPack pack, double receivedTime) {
+            double minTime = Double.MAX_VALUE;
+            double maxTime = -Double.MAX_VALUE;
+            Set<String> devices = new TreeSet<>();
+
+            String baseName = null;
+            double baseTime = 0;
+            for(SenMLRecord record : pack){
+                if(record.getBn() != null)
+                    baseName = record.getBn();
+                if(record.hasBt())
+                    baseTime = record.getBtAsDouble();
+
+                double time = baseTime + (record.hasT() ? record.getTAsDouble() : 0);
+                if(time < SenMLRecord.RELATIVE_TIME_LIMIT)
+                    time += receivedTime;
+                //le risorse coap scrivono i tempi in millisecondi, l'indice e le query sono in secondi
+                time = SenMLRecord.toSeconds(time);
+
+                minTime = Math.min(minTime, time);
+                maxTime = Math.max(maxTime, time);
+                if(baseName != null)
+                    devices.add(baseName);
+            }
+
+            if(pack.isEmpty())
+                minTime = maxTime = receivedTime;
+
+            return new PackSummary(minTime, maxTime, devices);
+        }
+
+        /*copia del pack con i tempi relativi riportati a tempo assoluto (t += receivedTime), cosi' il pack
+        salvato resta interpretabile quando viene riletto. Vengono copiati solo i record da cambiare,
+        se non ce ne sono torna il pack stesso*/
+        public static SenMLPack withAbsoluteTimes(SenMLPack pack, double receivedTime) {
+            SenMLPack result = pack;
+
+            double baseTime = 0;
+            for(int i = 0; i < pack.size(); i++){
+                SenMLRecord record = pack.get(i);
+                if(record.hasBt())
+                    baseTime = record.getBtAsDouble();
+
+                double relativeTime = record.hasT() ? record.getTAsDouble() : 0;
+                if(baseTime + relativeTime >= SenMLRecord.RELATIVE_TIME_LIMIT)
+                    continue;
+
+                if(result == pack){
+                    result = new SenMLPack();
+                    result.addAll(pack);
+                }
+                SenMLRecord absolute = record.copy();
+                absolute.setT(relativeTime + receivedTime);
+                result.set(i, absolute);
+            }
+            return result;
+        }
+
+        public boolean matches(Double fromTime, Double toTime, String deviceId) {
+            if(fromTime != null && maxTime < fromTime)
+                return false;
+            if(toTime != null && minTime > toTime)
+                return false;
+            return deviceId == null || devices.contains(deviceId);
+        }
+    }
+
+}
@@ -0,0 +1,492 @@
+package cloudApiHttp.persistance;
+
+import buildingSecurityController.api.exception.IInventoryDataManagerConflict;
+import buildingSecurityController.api.exception.IInventoryDataManagerException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.SenMLPack;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+
+/*store append-only dei pack ricevuti dal cloud collector.
+Le richieste jersey serializzano il pack e lo accodano (coda lock-free), un solo thread scrive:
+raccoglie tutti i pack in coda, li copia in un buffer riusato e li scrive con una sola write sul
+FileChannel del segmento corrente, poi fa fsync secondo la policy e sblocca le richieste (group commit).
+Ogni segmento e' un file ndjson (un pack per riga, come il vecchio recordSensorsFile) e viene chiuso
+quando supera maxSegmentBytes o dopo rollIntervalMillis. Un gruppo si divide al cambio di segmento: i pack
+gia' scritti nel segmento chiuso vengono confermati prima della rotazione, cosi' un errore dopo la rotazione
+fa fallire solo quelli successivi e il client non li reinvia tutti. I pack di una stessa lista restano nello
+stesso segmento, anche oltre maxSegmentBytes, perche' la richiesta fallisce o riesce per intero.
+Per ogni segmento chiuso si salva un piccolo
+indice (tempo min/max e device) usato da scan() per leggere solo i segmenti utili.
+Nessuna richiesta resta appesa: l'attesa del commit e' limitata, e quando il writer si ferma (stop o
+errore inatteso) i pack ancora in coda vengono chiusi con un errore*/
+
+public class SegmentedPackStore implements IInventoryCollectorPack, Managed {
+
+    final protected Logger logger = LoggerFactory.getLogger(SegmentedPackStore.class);
+
+    public enum FsyncPolicy {
+        //fsync prima di rispondere, per ogni gruppo di scritture
+        ALWAYS,
+        //fsync al massimo ogni fsyncIntervalMillis, si risponde dopo la write
+        INTERVAL,
+        //lasciato al sistema operativo
+        NEVER
+    }
+
+    public static final String DEFAULT_DIRECTORY = "pack-store";
+    public static final long DEFAULT_MAX_SEGMENT_BYTES = 64L * 1024 * 1024;
+    public static final long DEFAULT_ROLL_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+    public static final long DEFAULT_FSYNC_INTERVAL_MILLIS = 1000;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".ndjson";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private static final int BUFFER_BYTES = 256 * 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    static final long COMMIT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final Path directory;
+    private final long maxSegmentBytes;
+    private final long rollIntervalMillis;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalMillis;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final ConcurrentLinkedQueue<PendingPack> queue = new ConcurrentLinkedQueue<>();
+    private final Thread writerThread;
+    private volatile boolean running = false;
+    //il writer non prende piu' pack: chi ne accoda uno dopo lo fallisce da solo
+    private volatile boolean closed = false;
+
+    //indici di tutti i segmenti, compreso quello aperto
+    private final ConcurrentSkipListMap<Long, PackSegmentIndex> segmentIndexMap = new ConcurrentSkipListMap<>();
+
+    //stato del writer, usato solo dal suo thread
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private FileChannel segmentChannel;
+    private PackSegmentIndex segmentIndex;
+    private long segmentBytes;
+    //dimensione del segmento prima del gruppo in scrittura, per togliere un gruppo scritto a meta'
+    private long groupStartBytes;
+    //pack del gruppo gia' nel buffer ma non ancora scritti, entrano nell'indice solo dopo la write
+    private final List<PackSegmentIndex.PackSummary> unindexed = new ArrayList<>();
+    private long segmentOpenedAt;
+    private long lastSyncAt;
+    private boolean unsynced = false;
+
+    public SegmentedPackStore(String directory, long maxSegmentBytes, long rollIntervalMillis, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis) throws IOException {
+
+        if(maxSegmentBytes <= 0 || rollIntervalMillis <= 0 || fsyncIntervalMillis < 0)
+            throw new IllegalArgumentException("Invalid pack store settings");
+
+        this.directory = Paths.get(directory);
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.rollIntervalMillis = rollIntervalMillis;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+
+        Files.createDirectories(this.directory);
+        loadIndexes();
+
+        //avviato da start()
+        this.writerThread = new Thread(this::writeLoop, "pack-store-writer");
+        this.writerThread.setDaemon(true);
+    }
+
+    @Override
+    public SenMLPack createNewPack(SenMLPack pack) throws IInventoryDataManagerException, IInventoryDataManagerConflict {
+        awaitCommit(append(pack, false));
+        return pack;
+    }
+
+    @Override
+    public List<SenMLPack> createNewPackList(List<SenMLPack> packList) throws IInventoryDataManagerException, IInventoryDataManagerConflict {
+        //accodati tutti insieme finiscono nello stesso gruppo, basta aspettare l'ultimo
+        CompletableFuture<Void> last = null;
+        for(SenMLPack pack : packList)
+            last = append(pack, last != null);
+        awaitCommit(last);
+        return packList;
+    }
+
+    //i segmenti esclusi dall'indice (tempo o device) non vengono aperti
+    @Override
+    public void scanPacks(PackQuery query, Predicate<SenMLPack> consumer) throws IInventoryDataManagerException {
+        for(PackSegmentIndex index : segmentIndexMap.values()){
+            if(!index.matches(query.getFromTime(), query.getToTime(), query.getDeviceId()))
+                continue;
+
+            try (BufferedReader reader = Files.newBufferedReader(segmentPath(index.segmentId), StandardCharsets.UTF_8)) {
+                String line;
+                while((line = reader.readLine()) != null){
+                    SenMLPack pack = parse(line);
+                    if(pack == null)
+                        continue;
+                    SenMLPack result = query.filter(pack);
+                    if(result != null && !consumer.test(result))
+                        return;
+                }
+            } catch (NoSuchFileException e) {
+                logger.warn("Segment {} removed while scanning", index.segmentId);
+            } catch (IOException e) {
+                logger.error("Unable to read segment {}", index.segmentId, e);
+                throw new IInventoryDataManagerException("Unable to read the pack store");
+            }
+        }
+    }
+
+    public Collection<PackSegmentIndex> getSegmentIndexList() {
+        return Collections.unmodifiableCollection(segmentIndexMap.values());
+    }
+
+    //continuesList: non e' il primo pack di una lista, prima di lui il segmento non ruota
+    private CompletableFuture<Void> append(SenMLPack pack, boolean continuesList) throws IInventoryDataManagerException {
+        if(!running || closed)
+            throw new IInventoryDataManagerException("Pack store is closed");
+        try {
+            double receivedTime = System.currentTimeMillis() / 1000.0;
+            PackSegmentIndex.PackSummary summary = PackSegmentIndex.PackSummary.of(pack, receivedTime);
+            byte[] line = objectMapper.writeValueAsBytes(PackSegmentIndex.PackSummary.withAbsoluteTimes(pack, receivedTime));
+
+            PendingPack pendingPack = new PendingPack(line, summary, continuesList);
+            queue.add(pendingPack);
+            LockSupport.unpark(writerThread);
+            //il writer puo' aver svuotato la coda per l'ultima volta tra il controllo e l'accodamento
+            if(closed)
+                failQueued();
+            return pendingPack.committed;
+
+        } catch (IOException e) {
+            logger.error("Unable to serialize the pack", e);
+            throw new IInventoryDataManagerException("Unable to serialize the pack");
+        }
+    }
+
+    private void awaitCommit(CompletableFuture<Void> committed) throws IInventoryDataManagerException {
+        if(committed == null)
+            return;
+        try {
+            committed.get(COMMIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            logger.error("Pack store write failed: {}", e.getCause().getLocalizedMessage());
+            throw new IInventoryDataManagerException("Unable to store the pack");
+        } catch (TimeoutException e) {
+            logger.error("Pack store write not committed after {} ms", COMMIT_TIMEOUT_MILLIS);
+            throw new IInventoryDataManagerException("Pack store write timed out");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IInventoryDataManagerException("Interrupted while storing the pack");
+        }
+    }
+
+    private void failQueued() {
+        IOException closedException = new IOException("Pack store is closed");
+        PendingPack pendingPack;
+        while((pendingPack = queue.poll()) != null)
+            pendingPack.committed.completeExceptionally(closedException);
+    }
+
+    ///WRITER
+
+    private void writeLoop() {
+
+        List<PendingPack> group = new ArrayList<>();
+
+        try {
+            while(running || !queue.isEmpty()){
+
+                PendingPack pendingPack;
+                while((pendingPack = queue.poll()) != null)
+                    group.add(pendingPack);
+
+                try {
+                    if(!group.isEmpty())
+                        writeGroup(group);
+                    else if(unsynced && fsyncPolicy == FsyncPolicy.INTERVAL && System.currentTimeMillis() - lastSyncAt >= fsyncIntervalMillis)
+                        sync();
+
+                    if(System.currentTimeMillis() - segmentOpenedAt >= rollIntervalMillis && segmentBytes > 0)
+                        roll();
+
+                } catch (IOException | RuntimeException e) {
+                    logger.error("Pack store write of {} packs failed", group.size(), e);
+                    discardGroup();
+                    group.forEach(pending -> pending.committed.completeExceptionally(e));
+                }
+                group.clear();
+
+                if(queue.isEmpty() && running)
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+
+            closeSegment();
+
+        } catch (IOException | RuntimeException e) {
+            logger.error("Unable to close pack store segment {}", segmentIndex.segmentId, e);
+        } finally {
+            //anche se il thread muore per un Error nessuno resta ad aspettare
+            closed = true;
+            IOException stopped = new IOException("Pack store writer stopped");
+            group.forEach(pending -> pending.committed.completeExceptionally(stopped));
+            failQueued();
+        }
+    }
+
+    private void writeGroup(List<PendingPack> group) throws IOException {
+
+        //un errore precedente puo' aver lasciato il segmento chiuso
+        if(!segmentChannel.isOpen())
+            openSegment(segmentIndex.segmentId + 1);
+        groupStartBytes = segmentBytes;
+
+        int committed = 0;
+        for(int i = 0; i < group.size(); i++){
+            PendingPack pendingPack = group.get(i);
+            int lineBytes = pendingPack.line.length + 1;
+
+            if(!pendingPack.continuesList && segmentBytes + buffer.position() > 0 && segmentBytes + buffer.position() + lineBytes > maxSegmentBytes){
+                //le righe gia' scritte restano nel segmento che si chiude: i loro pack sono confermati
+                flushBuffer();
+                commit(group.subList(committed, i));
+                committed = i;
+                //se la rotazione fallisce discardGroup non deve togliere le righe confermate
+                groupStartBytes = segmentBytes;
+                roll();
+                groupStartBytes = segmentBytes;
+            }
+
+            if(buffer.remaining() < lineBytes)
+                flushBuffer();
+
+            if(lineBytes > buffer.capacity()){
+                writeFully(ByteBuffer.wrap(pendingPack.line));
+                writeFully(ByteBuffer.wrap(new byte[]{'\n'}));
+                segmentBytes += lineBytes;
+            } else {
+                buffer.put(pendingPack.line);
+                buffer.put((byte) '\n');
+            }
+            unindexed.add(pendingPack.summary);
+        }
+        flushBuffer();
+        commit(group.subList(committed, group.size()));
+    }
+
+    private void commit(List<PendingPack> written) throws IOException {
+        if(written.isEmpty())
+            return;
+        if(fsyncPolicy == FsyncPolicy.ALWAYS || (fsyncPolicy == FsyncPolicy.INTERVAL && System.currentTimeMillis() - lastSyncAt >= fsyncIntervalMillis))
+            sync();
+        written.forEach(pending -> pending.committed.complete(null));
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        long bytes = buffer.remaining();
+        try {
+            writeFully(buffer);
+        } finally {
+            buffer.clear();
+        }
+        segmentBytes += bytes;
+        unindexed.forEach(segmentIndex::add);
+        unindexed.clear();
+    }
+
+    /*dopo una write fallita toglie dal segmento le righe del gruppo gia' scritte: i pack vengono
+    rifiutati, una riga a meta' rovinerebbe anche quella scritta dopo*/
+    private void discardGroup() {
+        buffer.clear();
+        unindexed.clear();
+        if(!segmentChannel.isOpen())
+            return;
+        try {
+            segmentChannel.truncate(groupStartBytes);
+            segmentBytes = groupStartBytes;
+        } catch (IOException e) {
+            logger.error("Unable to truncate pack store segment {}, moving to a new one", segmentIndex.segmentId, e);
+            try {
+                segmentChannel.close();
+            } catch (IOException closeException) {
+                logger.warn("Unable to close pack store segment {}", segmentIndex.segmentId, closeException);
+            }
+        }
+    }
+
+    private void writeFully(ByteBuffer source) throws IOException {
+        while(source.hasRemaining())
+            segmentChannel.write(source);
+        unsynced = true;
+    }
+
+    private void sync() throws IOException {
+        if(unsynced && fsyncPolicy != FsyncPolicy.NEVER)
+            segmentChannel.force(false);
+        unsynced = false;
+        lastSyncAt = System.currentTimeMillis();
+    }
+
+    private void roll() throws IOException {
+        long nextSegmentId = segmentIndex.segmentId + 1;
+        closeSegment();
+        openSegment(nextSegmentId);
+    }
+
+    private void openSegment(long segmentId) throws IOException {
+        segmentChannel = FileChannel.open(segmentPath(segmentId), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segmentIndex = new PackSegmentIndex(segmentId);
+        segmentIndexMap.put(segmentId, segmentIndex);
+        segmentBytes = segmentChannel.size();
+        segmentOpenedAt = System.currentTimeMillis();
+        lastSyncAt = segmentOpenedAt;
+        logger.info("Pack store segment {} opened", segmentId);
+    }
+
+    private void closeSegment() throws IOException {
+        if(segmentChannel.isOpen()){
+            if(fsyncPolicy != FsyncPolicy.NEVER)
+                segmentChannel.force(false);
+            segmentChannel.close();
+        }
+        unsynced = false;
+
+        if(segmentIndex.packs == 0){
+            Files.deleteIfExists(segmentPath(segmentIndex.segmentId));
+            segmentIndexMap.remove(segmentIndex.segmentId);
+        } else {
+            writeIndex(segmentIndex);
+        }
+    }
+
+    ///INDEXES
+
+    private void loadIndexes() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for(Path segment : stream){
+                String name = segment.getFileName().toString();
+                long segmentId;
+                try {
+                    segmentId = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                } catch (NumberFormatException e) {
+                    logger.warn("Ignoring unexpected file {}", segment);
+                    continue;
+                }
+
+                Path indexPath = indexPath(segmentId);
+                PackSegmentIndex index = null;
+                if(Files.exists(indexPath)){
+                    try {
+                        index = objectMapper.readValue(indexPath.toFile(), PackSegmentIndex.class);
+                    } catch (IOException e) {
+                        logger.warn("Unreadable index {}, rebuilding it", indexPath.getFileName());
+                    }
+                }
+                //segmento rimasto aperto (crash): l'indice si ricostruisce leggendolo
+                if(index == null){
+                    index = rebuildIndex(segmentId);
+                    writeIndex(index);
+                }
+                segmentIndexMap.put(segmentId, index);
+            }
+        }
+        logger.info("Pack store {}: {} segments", directory, segmentIndexMap.size());
+    }
+
+    private PackSegmentIndex rebuildIndex(long segmentId) throws IOException {
+        PackSegmentIndex index = new PackSegmentIndex(segmentId);
+        try (BufferedReader reader = Files.newBufferedReader(segmentPath(segmentId), StandardCharsets.UTF_8)) {
+            String line;
+            while((line = reader.readLine()) != null){
+                SenMLPack pack = parse(line);
+                if(pack != null)
+                    index.add(PackSegmentIndex.PackSummary.of(pack, 0));
+            }
+        }
+        logger.info("Rebuilt index of segment {}: {} packs", segmentId, index.packs);
+        return index;
+    }
+
+    private void writeIndex(PackSegmentIndex index) throws IOException {
+        Path indexPath = indexPath(index.segmentId);
+        Path tmpPath = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        synchronized (index) {
+            objectMapper.writeValue(tmpPath.toFile(), index);
+        }
+        Files.move(tmpPath, indexPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    //una riga troncata (crash durante la scrittura) viene ignorata
+    private SenMLPack parse(String line) {
+        if(line.isEmpty())
+            return null;
+        try {
+            return objectMapper.readValue(line, SenMLPack.class);
+        } catch (IOException e) {
+            logger.warn("Skipping unreadable pack line: {}", e.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    private Path segmentPath(long segmentId) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, segmentId, SEGMENT_SUFFIX));
+    }
+
+    private Path indexPath(long segmentId) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, segmentId, INDEX_SUFFIX));
+    }
+
+    ///LIFECYCLE
+
+    @Override
+    public void start() throws IOException {
+        //dopo un riavvio si riparte sempre da un segmento nuovo
+        openSegment(segmentIndexMap.isEmpty() ? 0 : segmentIndexMap.lastKey() + 1);
+        running = true;
+        writerThread.start();
+    }
+
+    @Override
+    public void stop() throws Exception {
+        running = false;
+        LockSupport.unpark(writerThread);
+        writerThread.join(TimeUnit.SECONDS.toMillis(30));
+        if(writerThread.isAlive())
+            logger.warn("Pack store writer still running after stop");
+        closed = true;
+        failQueued();
+    }
+
+    private static final class PendingPack {
+        private final byte[] line;
+        private final PackSegmentIndex.PackSummary summary;
+        private final boolean continuesList;
+        private final CompletableFuture<Void> committed = new CompletableFuture<>();
+
+        private PendingPack(byte[] line, PackSegmentIndex.PackSummary summary, boolean continuesList) {
+            this.line = line;
+            this.summary = summary;
+            this.continuesList = continuesList;
+        }
+    }
+
+}
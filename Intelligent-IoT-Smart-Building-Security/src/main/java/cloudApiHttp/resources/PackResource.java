@@ -6,25 +6,39 @@ import buildingSecurityController.api.exception.IInventoryDataManagerConflict;
 import buildingSecurityController.api.model.PolicyDescriptor;
 import buildingSecurityController.api.resources.PolicyResource;
 import buildingSecurityController.api.services.OperatorAppConfig;
+import cloudApiHttp.persistance.PackQuery;
 import cloudApiHttp.services.CloudAppConfig;
 import com.codahale.metrics.annotation.Timed;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import io.dropwizard.jersey.errors.ErrorMessage;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import utils.SenMLPack;
 
 import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.container.ContainerRequestContext;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.util.List;
 
 @Path("/cloudCollector/")
 @Api("Packs resources Collector")
@@ -36,6 +50,13 @@ public class PackResource {
     public static class MissingKeyException extends Exception{}
     final CloudAppConfig conf;
 
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+    private static final TypeReference<List<SenMLPack>> PACK_LIST_TYPE = new TypeReference<List<SenMLPack>>() {};
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    //niente flush dopo ogni pack, lo stream viene svuotato dal buffer del generatore
+    private final ObjectWriter packWriter = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
     public PackResource(CloudAppConfig conf){
         this.conf = conf;
     }
@@ -45,24 +66,34 @@ public class PackResource {
     @Timed
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes(MediaType.APPLICATION_JSON)
-    @ApiOperation(value="Create a new Pack")
+    @ApiOperation(value="Create a new Pack, or a batch of Packs (array of packs)")
     public Response createPackAlarm(@Context ContainerRequestContext req,
                                    @Context UriInfo uriInfo,
-                                   SenMLPack senMLPack) {
+                                   JsonNode payload) {
         try {
 
-            logger.info("Incoming Policy Creation Request: {}", senMLPack);
-
             //Check the request
-            if(senMLPack == null)
+            if(payload == null || !payload.isArray())
                 return Response.status(Response.Status.BAD_REQUEST).type(MediaType.APPLICATION_JSON_TYPE).entity(new ErrorMessage(Response.Status.BAD_REQUEST.getStatusCode(),"Invalid request payload")).build();
 
-            SenMLPack newPack = (SenMLPack) senMLPack;
-
-            this.conf.getInventoryCollectorPack().createNewPack(newPack);
+            //un pack e' un array di record, un batch e' un array di pack
+            if(payload.size() > 0 && payload.get(0).isArray()){
+                List<SenMLPack> packList = objectMapper.convertValue(payload, PACK_LIST_TYPE);
+                logger.debug("Incoming Pack batch: {} packs", packList.size());
+                this.conf.getInventoryCollectorPack().createNewPackList(packList);
+                packList.forEach(this.conf.getPackRollup()::add);
+            } else {
+                SenMLPack newPack = objectMapper.convertValue(payload, SenMLPack.class);
+                logger.debug("Incoming Pack: {}", newPack);
+                this.conf.getInventoryCollectorPack().createNewPack(newPack);
+                this.conf.getPackRollup().add(newPack);
+            }
 
             return Response.ok().build();
 
+        } catch (IllegalArgumentException e){
+            return Response.status(Response.Status.BAD_REQUEST).type(MediaType.APPLICATION_JSON_TYPE).entity(new ErrorMessage(Response.Status.BAD_REQUEST.getStatusCode(),"Invalid SenML payload")).build();
+
         } catch (IInventoryDataManagerConflict e){
             return Response.status(Response.Status.CONFLICT).type(MediaType.APPLICATION_JSON_TYPE).entity(new ErrorMessage(Response.Status.CONFLICT.getStatusCode(),"Policy already available !")).build();
         } catch (Exception e){
@@ -70,4 +101,81 @@ public class PackResource {
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR).type(MediaType.APPLICATION_JSON_TYPE).entity(new ErrorMessage(Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(),"Internal Server Error !")).build();
         }
     }
+
+    /*le GET scrivono i pack mentre vengono letti dallo store, senza caricarli tutti in memoria.
+    Stessi filtri per JSON (un array di pack) e NDJSON (un pack per riga)*/
+
+    @GET
+    @Path("/pack")
+    @Timed
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(value="Get the stored Packs filtered by device, unit and time range, as a JSON array")
+    public Response getPackList(@ApiParam("Device base name") @QueryParam("bn") String deviceId,
+                                @ApiParam("Unit") @QueryParam("u") String unit,
+                                @ApiParam("Start time (s), included") @QueryParam("from") Double fromTime,
+                                @ApiParam("End time (s), included") @QueryParam("to") Double toTime,
+                                @ApiParam("Maximum number of packs") @QueryParam("limit") Integer limit) {
+        return streamPacks(deviceId, unit, fromTime, toTime, limit, false);
+    }
+
+    @GET
+    @Path("/pack")
+    @Timed
+    @Produces(APPLICATION_NDJSON)
+    @ApiOperation(value="Get the stored Packs filtered by device, unit and time range, one pack per line")
+    public Response getPackListNdjson(@QueryParam("bn") String deviceId,
+                                      @QueryParam("u") String unit,
+                                      @QueryParam("from") Double fromTime,
+                                      @QueryParam("to") Double toTime,
+                                      @QueryParam("limit") Integer limit) {
+        return streamPacks(deviceId, unit, fromTime, toTime, limit, true);
+    }
+
+    private Response streamPacks(String deviceId, String unit, Double fromTime, Double toTime, Integer limit, boolean ndjson) {
+
+        //Check the request, dopo l'inizio dello stream non si puo' piu' cambiare lo status
+        if(fromTime != null && toTime != null && fromTime > toTime)
+            return Response.status(Response.Status.BAD_REQUEST).type(MediaType.APPLICATION_JSON_TYPE).entity(new ErrorMessage(Response.Status.BAD_REQUEST.getStatusCode(),"from must not be after to")).build();
+        if(limit != null && limit <= 0)
+            return Response.status(Response.Status.BAD_REQUEST).type(MediaType.APPLICATION_JSON_TYPE).entity(new ErrorMessage(Response.Status.BAD_REQUEST.getStatusCode(),"limit must be positive")).build();
+
+        PackQuery query = new PackQuery(deviceId, unit, fromTime, toTime);
+        int maxPacks = limit != null ? limit : Integer.MAX_VALUE;
+
+        StreamingOutput output = outputStream -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                //il generatore non deve chiudere lo stream di jersey
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                if(ndjson)
+                    generator.setRootValueSeparator(null);
+                else
+                    generator.writeStartArray();
+
+                int[] count = {0};
+                this.conf.getInventoryCollectorPack().scanPacks(query, pack -> {
+                    try {
+                        packWriter.writeValue(generator, pack);
+                        if(ndjson)
+                            generator.writeRaw('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return ++count[0] < maxPacks;
+                });
+
+                if(!ndjson)
+                    generator.writeEndArray();
+                logger.info("Pack query bn={} u={} from={} to={}: {} packs", deviceId, unit, fromTime, toTime, count[0]);
+
+            } catch (UncheckedIOException e) {
+                //tipicamente il client ha chiuso la connessione
+                throw e.getCause();
+            } catch (Exception e) {
+                e.printStackTrace();
+                throw new IOException("Pack query failed", e);
+            }
+        };
+
+        return Response.ok(output).build();
+    }
 }
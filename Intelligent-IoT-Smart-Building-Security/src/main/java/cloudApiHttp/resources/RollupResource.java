@@ -0,0 +1,99 @@
+package cloudApiHttp.resources;
+
+import cloudApiHttp.rollup.PackRollup;
+import cloudApiHttp.rollup.RollupBucket;
+import cloudApiHttp.services.CloudAppConfig;
+import com.codahale.metrics.annotation.Timed;
+import io.dropwizard.jersey.errors.ErrorMessage;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.List;
+import java.util.Optional;
+
+@Path("/cloudCollector/rollup")
+@Api("Pre-aggregated rollups of the collected Packs")
+public class RollupResource {
+
+    final protected Logger logger = LoggerFactory.getLogger(RollupResource.class);
+
+    final CloudAppConfig conf;
+
+    public RollupResource(CloudAppConfig conf){
+        this.conf = conf;
+    }
+
+    @GET
+    @Path("/device")
+    @Timed
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(value="Get the ids of the devices with rollups")
+    public Response getDeviceIdList() {
+        return Response.ok(this.conf.getPackRollup().getDeviceIdSet()).build();
+    }
+
+    @GET
+    @Path("/device/{device_id}")
+    @Timed
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(value="Get the rollup buckets of a device (bn)")
+    public Response getDeviceRollup(@PathParam("device_id") String deviceId,
+                                    @ApiParam("1m, 1h or 1d") @QueryParam("resolution") String resolution,
+                                    @ApiParam("Start time (s)") @QueryParam("from") Double fromTime,
+                                    @ApiParam("End time (s)") @QueryParam("to") Double toTime) {
+        return getRollup(deviceId, resolution, fromTime, toTime, false);
+    }
+
+    @GET
+    @Path("/area")
+    @Timed
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(value="Get the ids of the areas with rollups")
+    public Response getAreaIdList() {
+        return Response.ok(this.conf.getPackRollup().getAreaIdSet()).build();
+    }
+
+    @GET
+    @Path("/area/{area_id}")
+    @Timed
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(value="Get the rollup buckets of an area")
+    public Response getAreaRollup(@PathParam("area_id") String areaId,
+                                  @ApiParam("1m, 1h or 1d") @QueryParam("resolution") String resolution,
+                                  @ApiParam("Start time (s)") @QueryParam("from") Double fromTime,
+                                  @ApiParam("End time (s)") @QueryParam("to") Double toTime) {
+        return getRollup(areaId, resolution, fromTime, toTime, true);
+    }
+
+    private Response getRollup(String id, String resolutionLabel, Double fromTime, Double toTime, boolean area) {
+        try {
+
+            //Check the request
+            Optional<PackRollup.Resolution> resolution = PackRollup.Resolution.fromLabel(resolutionLabel != null ? resolutionLabel : PackRollup.Resolution.HOUR.getLabel());
+            if(!resolution.isPresent())
+                return Response.status(Response.Status.BAD_REQUEST).type(MediaType.APPLICATION_JSON_TYPE).entity(new ErrorMessage(Response.Status.BAD_REQUEST.getStatusCode(),"resolution must be 1m, 1h or 1d")).build();
+            if(fromTime != null && toTime != null && fromTime > toTime)
+                return Response.status(Response.Status.BAD_REQUEST).type(MediaType.APPLICATION_JSON_TYPE).entity(new ErrorMessage(Response.Status.BAD_REQUEST.getStatusCode(),"from must not be after to")).build();
+
+            PackRollup packRollup = this.conf.getPackRollup();
+            List<RollupBucket> bucketList = area ? packRollup.getAreaRollup(id, resolution.get(), fromTime, toTime)
+                    : packRollup.getDeviceRollup(id, resolution.get(), fromTime, toTime);
+
+            return Response.ok(bucketList).build();
+
+        } catch (Exception e){
+            e.printStackTrace();
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).type(MediaType.APPLICATION_JSON_TYPE).entity(new ErrorMessage(Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(),"Internal Server Error !")).build();
+        }
+    }
+}
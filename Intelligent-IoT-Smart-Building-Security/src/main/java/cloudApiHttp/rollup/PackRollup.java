@@ -0,0 +1,249 @@
+package cloudApiHttp.rollup;
+
+import buildingSecurityController.api.exception.IInventoryDataManagerException;
+import cloudApiHttp.persistance.IInventoryCollectorPack;
+import cloudApiHttp.persistance.PackQuery;
+import cloudApiHttp.persistance.SegmentedPackStore;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.DeviceIds;
+import utils.SenMLPack;
+import utils.SenMLRecord;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/*aggregati dei pack calcolati in ingresso, per device (bn) e per area, a 1 minuto, 1 ora e 1 giorno.
+Camera (u = Num): min/max/media/ultimo numero di persone. Pir (u = SEEING): campioni e quanti a true.
+Allarmi (bn <device>:alarm, la risorsa iot.actuator.alarm): attivazioni, cioe' passaggi a vb = true.
+L'area di un device e' quella della mappa di configurazione se presente, altrimenti quella scritta
+nell'id del device (F<piano>A<area>D<indice>, vedi DeviceIds).
+I grafici leggono qualche centinaio di bucket invece di rileggere tutti i record.
+Al riavvio gli aggregati vengono ricostruiti dallo store a segmenti, leggendo solo i segmenti che
+l'indice colloca dentro la retention. Il vecchio file unico non ha indice e non viene riletto*/
+
+public class PackRollup implements Managed {
+
+    final protected Logger logger = LoggerFactory.getLogger(PackRollup.class);
+
+    public enum Resolution {
+        MINUTE("1m", TimeUnit.MINUTES.toSeconds(1)),
+        HOUR("1h", TimeUnit.HOURS.toSeconds(1)),
+        DAY("1d", TimeUnit.DAYS.toSeconds(1));
+
+        private final String label;
+        private final long seconds;
+
+        Resolution(String label, long seconds) {
+            this.label = label;
+            this.seconds = seconds;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public long getSeconds() {
+            return seconds;
+        }
+
+        public static Optional<Resolution> fromLabel(String label) {
+            return Arrays.stream(values()).filter(resolution -> resolution.label.equals(label)).findFirst();
+        }
+    }
+
+    public static final String CAMERA_UNIT = "Num";
+    public static final String PIR_UNIT = "SEEING";
+    //ultima parte del bn dei pack dell'allarme (CoapAlarmResource)
+    public static final String ALARM_RESOURCE = "alarm";
+
+    private final IInventoryCollectorPack inventoryCollectorPack;
+    //id del device (prima parte del bn) -> area, per i device il cui id non contiene l'area
+    private final Map<String, String> areaMap;
+    private final Map<Resolution, Long> retentionSeconds;
+
+    //resolution -> device o area -> inizio bucket -> bucket
+    private final Map<Resolution, ConcurrentMap<String, ConcurrentNavigableMap<Long, RollupBucket>>> deviceRollupMap = new EnumMap<>(Resolution.class);
+    private final Map<Resolution, ConcurrentMap<String, ConcurrentNavigableMap<Long, RollupBucket>>> areaRollupMap = new EnumMap<>(Resolution.class);
+
+    //ultimo stato di ogni allarme, per contare solo le attivazioni
+    private final ConcurrentMap<String, Boolean> alarmStateMap = new ConcurrentHashMap<>();
+
+    public PackRollup(IInventoryCollectorPack inventoryCollectorPack, Map<String, String> areaMap, Map<Resolution, Long> retentionSeconds) {
+        this.inventoryCollectorPack = inventoryCollectorPack;
+        this.areaMap = new HashMap<>(areaMap);
+        this.retentionSeconds = new EnumMap<>(Resolution.class);
+        this.retentionSeconds.putAll(retentionSeconds);
+        for(Resolution resolution : Resolution.values()){
+            this.retentionSeconds.putIfAbsent(resolution, Long.MAX_VALUE);
+            deviceRollupMap.put(resolution, new ConcurrentHashMap<>());
+            areaRollupMap.put(resolution, new ConcurrentHashMap<>());
+        }
+    }
+
+    public void add(SenMLPack pack) {
+        add(pack, System.currentTimeMillis() / 1000.0);
+    }
+
+    //i tempi relativi del pack contano da receivedTime (secondi), come nello store
+    public void add(SenMLPack pack, double receivedTime) {
+
+        String baseName = null;
+        String baseUnit = null;
+        double baseTime = 0;
+        double baseValue = 0;
+
+        for(SenMLRecord record : pack){
+            if(record.getBn() != null)
+                baseName = record.getBn();
+            if(record.getBu() != null)
+                baseUnit = record.getBu();
+            if(record.hasBt())
+                baseTime = record.getBtAsDouble();
+            if(record.hasBv())
+                baseValue = record.getBvAsDouble();
+
+            if(baseName == null)
+                continue;
+
+            double time = baseTime + (record.hasT() ? record.getTAsDouble() : 0);
+            time = SenMLRecord.toSeconds(time < SenMLRecord.RELATIVE_TIME_LIMIT ? time + receivedTime : time);
+            String unit = record.getU() != null ? record.getU() : baseUnit;
+
+            if(CAMERA_UNIT.equals(unit) && record.hasV()){
+                double value = baseValue + record.getVAsDouble();
+                final double sampleTime = time;
+                update(baseName, time, bucket -> bucket.addPeopleCount(sampleTime, value));
+            }
+            else if(PIR_UNIT.equals(unit) && record.hasVb()){
+                boolean seeing = record.getVbAsBoolean();
+                update(baseName, time, bucket -> bucket.addPirSample(seeing));
+            }
+            else if(ALARM_RESOURCE.equals(resourceOf(baseName)) && record.hasVb()){
+                Boolean previous = alarmStateMap.put(baseName, record.getVbAsBoolean());
+                if(record.getVbAsBoolean() && !Boolean.TRUE.equals(previous))
+                    update(baseName, time, RollupBucket::addAlarmActivation);
+            }
+        }
+    }
+
+    public List<RollupBucket> getDeviceRollup(String deviceId, Resolution resolution, Double fromTime, Double toTime) {
+        return select(deviceRollupMap.get(resolution).get(deviceId), resolution, fromTime, toTime);
+    }
+
+    public List<RollupBucket> getAreaRollup(String areaId, Resolution resolution, Double fromTime, Double toTime) {
+        return select(areaRollupMap.get(resolution).get(areaId), resolution, fromTime, toTime);
+    }
+
+    public Set<String> getDeviceIdSet() {
+        return new TreeSet<>(deviceRollupMap.get(Resolution.DAY).keySet());
+    }
+
+    public Set<String> getAreaIdSet() {
+        return new TreeSet<>(areaRollupMap.get(Resolution.DAY).keySet());
+    }
+
+    private List<RollupBucket> select(ConcurrentNavigableMap<Long, RollupBucket> bucketMap, Resolution resolution, Double fromTime, Double toTime) {
+        if(bucketMap == null)
+            return Collections.emptyList();
+
+        //un bucket e' incluso se si sovrappone all'intervallo richiesto
+        NavigableMap<Long, RollupBucket> view = bucketMap;
+        if(fromTime != null)
+            view = view.tailMap(bucketStart((long) Math.floor(fromTime), resolution), true);
+        if(toTime != null)
+            view = view.headMap((long) Math.floor(toTime), true);
+
+        return view.values().stream().map(RollupBucket::copy).collect(Collectors.toList());
+    }
+
+    private void update(String deviceId, double time, Consumer<RollupBucket> action) {
+        long second = (long) Math.floor(time);
+        long now = System.currentTimeMillis() / 1000;
+        String areaId = areaOf(deviceId);
+
+        for(Resolution resolution : Resolution.values()){
+            //dati oltre la retention non vengono aggregati
+            if(now - second > retentionSeconds.get(resolution))
+                continue;
+
+            long start = bucketStart(second, resolution);
+            action.accept(bucket(deviceRollupMap.get(resolution), deviceId, start, resolution));
+            if(areaId != null)
+                action.accept(bucket(areaRollupMap.get(resolution), areaId, start, resolution));
+        }
+    }
+
+    private RollupBucket bucket(ConcurrentMap<String, ConcurrentNavigableMap<Long, RollupBucket>> rollupMap, String key, long start, Resolution resolution) {
+        ConcurrentNavigableMap<Long, RollupBucket> bucketMap = rollupMap.computeIfAbsent(key, k -> new ConcurrentSkipListMap<>());
+        RollupBucket bucket = bucketMap.get(start);
+        if(bucket != null)
+            return bucket;
+
+        bucket = bucketMap.computeIfAbsent(start, RollupBucket::new);
+        //alla creazione di un bucket si scartano quelli fuori retention
+        long retention = retentionSeconds.get(resolution);
+        if(retention != Long.MAX_VALUE)
+            bucketMap.headMap(System.currentTimeMillis() / 1000 - retention - resolution.seconds).clear();
+        return bucket;
+    }
+
+    private static long bucketStart(long second, Resolution resolution) {
+        return second - Math.floorMod(second, resolution.seconds);
+    }
+
+    //deviceId e' il bn intero (es. F01A02D003:presencemonitoring)
+    private String areaOf(String deviceId) {
+        String area = areaMap.get(deviceId);
+        if(area != null)
+            return area;
+        int separator = deviceId.indexOf(':');
+        String device = separator > 0 ? deviceId.substring(0, separator) : deviceId;
+        area = areaMap.get(device);
+        return area != null ? area : DeviceIds.areaIdOf(device);
+    }
+
+    private static String resourceOf(String baseName) {
+        return baseName.substring(baseName.lastIndexOf(':') + 1);
+    }
+
+    ///LIFECYCLE
+
+    @Override
+    public void start() throws Exception {
+        if(!(inventoryCollectorPack instanceof SegmentedPackStore)){
+            logger.warn("Rollups are not rebuilt from the {} store: only the segmented store is indexed", inventoryCollectorPack.getClass().getName());
+            return;
+        }
+
+        long maxRetention = Collections.max(retentionSeconds.values());
+        Double fromTime = maxRetention == Long.MAX_VALUE ? null : (double) (System.currentTimeMillis() / 1000 - maxRetention);
+
+        long startedAt = System.currentTimeMillis();
+        long[] packs = {0};
+        try {
+            //i segmenti fuori retention vengono saltati dall'indice senza aprirli;
+            //l'indice e' in secondi: i pack in millisecondi superano comunque fromTime
+            inventoryCollectorPack.scanPacks(new PackQuery(null, null, fromTime, null), pack -> {
+                add(pack);
+                packs[0]++;
+                return true;
+            });
+        } catch (IInventoryDataManagerException e) {
+            logger.error("Unable to rebuild the rollups: {}", e.getLocalizedMessage());
+        }
+        logger.info("Rollups rebuilt from {} packs in {} ms", packs[0], System.currentTimeMillis() - startedAt);
+    }
+
+    @Override
+    public void stop() {
+    }
+
+}
@@ -0,0 +1,106 @@
+package cloudApiHttp.rollup;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+//aggregati di un device (o di un'area) in un intervallo [start, start + resolution)
+public class RollupBucket {
+
+    private final long start;
+
+    private long peopleSamples = 0;
+    private double peopleMin = Double.MAX_VALUE;
+    private double peopleMax = -Double.MAX_VALUE;
+    private double peopleSum = 0;
+    private double peopleLast = 0;
+    private double peopleLastTime = -Double.MAX_VALUE;
+
+    private long pirSamples = 0;
+    private long pirTrueCount = 0;
+
+    private long alarmActivations = 0;
+
+    public RollupBucket(long start) {
+        this.start = start;
+    }
+
+    public synchronized void addPeopleCount(double time, double value) {
+        peopleSamples++;
+        peopleMin = Math.min(peopleMin, value);
+        peopleMax = Math.max(peopleMax, value);
+        peopleSum += value;
+        if(time >= peopleLastTime){
+            peopleLast = value;
+            peopleLastTime = time;
+        }
+    }
+
+    public synchronized void addPirSample(boolean seeing) {
+        pirSamples++;
+        if(seeing)
+            pirTrueCount++;
+    }
+
+    public synchronized void addAlarmActivation() {
+        alarmActivations++;
+    }
+
+    //copia coerente per la risposta REST
+    public synchronized RollupBucket copy() {
+        RollupBucket copy = new RollupBucket(start);
+        copy.peopleSamples = peopleSamples;
+        copy.peopleMin = peopleMin;
+        copy.peopleMax = peopleMax;
+        copy.peopleSum = peopleSum;
+        copy.peopleLast = peopleLast;
+        copy.peopleLastTime = peopleLastTime;
+        copy.pirSamples = pirSamples;
+        copy.pirTrueCount = pirTrueCount;
+        copy.alarmActivations = alarmActivations;
+        return copy;
+    }
+
+    @JsonProperty("start")
+    public long getStart() {
+        return start;
+    }
+
+    @JsonProperty("peopleSamples")
+    public long getPeopleSamples() {
+        return peopleSamples;
+    }
+
+    @JsonProperty("peopleMin")
+    public Double getPeopleMin() {
+        return peopleSamples > 0 ? peopleMin : null;
+    }
+
+    @JsonProperty("peopleMax")
+    public Double getPeopleMax() {
+        return peopleSamples > 0 ? peopleMax : null;
+    }
+
+    @JsonProperty("peopleAvg")
+    public Double getPeopleAvg() {
+        return peopleSamples > 0 ? peopleSum / peopleSamples : null;
+    }
+
+    @JsonProperty("peopleLast")
+    public Double getPeopleLast() {
+        return peopleSamples > 0 ? peopleLast : null;
+    }
+
+    @JsonProperty("pirSamples")
+    public long getPirSamples() {
+        return pirSamples;
+    }
+
+    @JsonProperty("pirTrueCount")
+    public long getPirTrueCount() {
+        return pirTrueCount;
+    }
+
+    @JsonProperty("alarmActivations")
+    public long getAlarmActivations() {
+        return alarmActivations;
+    }
+}
@@ -1,9 +1,7 @@
 package cloudApiHttp.services;
 
-import buildingSecurityController.api.persistance.DefaultInventoryDataManager;
-import buildingSecurityController.api.persistance.IInventoryDataManager;
-import cloudApiHttp.persistance.DefaultInventoryDataCollector;
 import cloudApiHttp.persistance.IInventoryCollectorPack;
+import cloudApiHttp.rollup.PackRollup;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import io.dropwizard.Configuration;
 import io.federecio.dropwizard.swagger.SwaggerBundleConfiguration;
@@ -13,11 +11,25 @@ public class CloudAppConfig extends Configuration {
     @JsonProperty("swagger")
     public SwaggerBundleConfiguration swaggerBundleConfiguration;
 
+    @JsonProperty("packStore")
+    public PackStoreConfig packStoreConfig = new PackStoreConfig();
+
+    @JsonProperty("rollups")
+    public RollupConfig rollupConfig = new RollupConfig();
+
     private IInventoryCollectorPack inventoryCollectorPack = null;
 
-    public IInventoryCollectorPack getInventoryCollectorPack(){
+    private PackRollup packRollup = null;
+
+    public synchronized IInventoryCollectorPack getInventoryCollectorPack(){
         if(this.inventoryCollectorPack == null)
-            this.inventoryCollectorPack = new DefaultInventoryDataCollector();
+            this.inventoryCollectorPack = packStoreConfig.build();
         return this.inventoryCollectorPack;
     }
+
+    public synchronized PackRollup getPackRollup(){
+        if(this.packRollup == null)
+            this.packRollup = rollupConfig.build(getInventoryCollectorPack());
+        return this.packRollup;
+    }
 }
@@ -1,7 +1,9 @@
 package cloudApiHttp.services;
 
 import cloudApiHttp.resources.PackResource;
+import cloudApiHttp.resources.RollupResource;
 import io.dropwizard.Application;
+import io.dropwizard.lifecycle.Managed;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
 import io.federecio.dropwizard.swagger.SwaggerBundle;
@@ -31,7 +33,15 @@ public class CloudCollectorAppService extends Application<CloudAppConfig> {
 
     public void run(CloudAppConfig cloudAppConfig, Environment environment) throws Exception {
 
+        //il writer dello store va fermato con l'applicazione per chiudere l'ultimo segmento
+        if(cloudAppConfig.getInventoryCollectorPack() instanceof Managed)
+            environment.lifecycle().manage((Managed) cloudAppConfig.getInventoryCollectorPack());
+
+        //ricostruisce gli aggregati dallo store prima di accettare richieste
+        environment.lifecycle().manage(cloudAppConfig.getPackRollup());
+
         environment.jersey().register(new PackResource(cloudAppConfig));
+        environment.jersey().register(new RollupResource(cloudAppConfig));
 
         // Enable CORS headers
         final FilterRegistration.Dynamic cors = environment.servlets().addFilter("CORS", CrossOriginFilter.class);
@@ -39,7 +49,7 @@ public class CloudCollectorAppService extends Application<CloudAppConfig> {
         // Configure CORS parameters
         cors.setInitParameter("allowedOrigins", "*");
         cors.setInitParameter("allowedHeaders", "X-Requested-With,Content-Type,Accept,Origin");
-        cors.setInitParameter("allowedMethods", "POST");
+        cors.setInitParameter("allowedMethods", "GET,POST");
 
         // Add URL mapping
         cors.addMappingForUrlPatterns(EnumSet.allOf(DispatcherType.class), true, "/*");
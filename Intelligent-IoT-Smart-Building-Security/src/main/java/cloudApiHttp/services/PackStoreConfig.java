@@ -0,0 +1,99 @@
+package cloudApiHttp.services;
+
+import cloudApiHttp.persistance.DefaultInventoryDataCollector;
+import cloudApiHttp.persistance.IInventoryCollectorPack;
+import cloudApiHttp.persistance.SegmentedPackStore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.io.IOException;
+
+//blocco "packStore" del file di configurazione
+public class PackStoreConfig {
+
+    public enum Type {
+        //vecchio recordSensorsFile, aperto e chiuso ad ogni richiesta
+        FILE,
+        //log a segmenti con un solo writer e indice per segmento
+        SEGMENTED
+    }
+
+    //FILE solo per chi legge ancora recordSensorsFile (script python, replay delle tracce)
+    @JsonProperty("type")
+    private Type type = Type.SEGMENTED;
+
+    @JsonProperty("directory")
+    private String directory = SegmentedPackStore.DEFAULT_DIRECTORY;
+
+    @JsonProperty("maxSegmentBytes")
+    private long maxSegmentBytes = SegmentedPackStore.DEFAULT_MAX_SEGMENT_BYTES;
+
+    @JsonProperty("rollIntervalMillis")
+    private long rollIntervalMillis = SegmentedPackStore.DEFAULT_ROLL_INTERVAL_MILLIS;
+
+    @JsonProperty("fsyncPolicy")
+    private SegmentedPackStore.FsyncPolicy fsyncPolicy = SegmentedPackStore.FsyncPolicy.INTERVAL;
+
+    @JsonProperty("fsyncIntervalMillis")
+    private long fsyncIntervalMillis = SegmentedPackStore.DEFAULT_FSYNC_INTERVAL_MILLIS;
+
+    public PackStoreConfig() {
+    }
+
+    public IInventoryCollectorPack build() {
+        if(type != Type.SEGMENTED)
+            return new DefaultInventoryDataCollector();
+        try {
+            return new SegmentedPackStore(directory, maxSegmentBytes, rollIntervalMillis, fsyncPolicy, fsyncIntervalMillis);
+        } catch (IOException e) {
+            throw new IllegalStateException(String.format("Unable to open pack store in %s", directory), e);
+        }
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public long getMaxSegmentBytes() {
+        return maxSegmentBytes;
+    }
+
+    public void setMaxSegmentBytes(long maxSegmentBytes) {
+        this.maxSegmentBytes = maxSegmentBytes;
+    }
+
+    public long getRollIntervalMillis() {
+        return rollIntervalMillis;
+    }
+
+    public void setRollIntervalMillis(long rollIntervalMillis) {
+        this.rollIntervalMillis = rollIntervalMillis;
+    }
+
+    public SegmentedPackStore.FsyncPolicy getFsyncPolicy() {
+        return fsyncPolicy;
+    }
+
+    public void setFsyncPolicy(SegmentedPackStore.FsyncPolicy fsyncPolicy) {
+        this.fsyncPolicy = fsyncPolicy;
+    }
+
+    public long getFsyncIntervalMillis() {
+        return fsyncIntervalMillis;
+    }
+
+    public void setFsyncIntervalMillis(long fsyncIntervalMillis) {
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+    }
+}
@@ -0,0 +1,71 @@
+package cloudApiHttp.services;
+
+import cloudApiHttp.persistance.IInventoryCollectorPack;
+import cloudApiHttp.rollup.PackRollup;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+//blocco "rollups" del file di configurazione
+public class RollupConfig {
+
+    /*id del device (prima parte del bn, es. 0001) -> id dell'area (floorId:areaName). Serve solo per i
+    device il cui id non contiene gia' l'area (F<piano>A<area>D<indice>) o per sostituirla*/
+    @JsonProperty("areas")
+    private Map<String, String> areaMap = new HashMap<>();
+
+    @JsonProperty("minuteRetentionHours")
+    private long minuteRetentionHours = 48;
+
+    @JsonProperty("hourRetentionDays")
+    private long hourRetentionDays = 90;
+
+    @JsonProperty("dayRetentionDays")
+    private long dayRetentionDays = 1825;
+
+    public RollupConfig() {
+    }
+
+    public PackRollup build(IInventoryCollectorPack inventoryCollectorPack) {
+        Map<PackRollup.Resolution, Long> retentionSeconds = new EnumMap<>(PackRollup.Resolution.class);
+        retentionSeconds.put(PackRollup.Resolution.MINUTE, TimeUnit.HOURS.toSeconds(minuteRetentionHours));
+        retentionSeconds.put(PackRollup.Resolution.HOUR, TimeUnit.DAYS.toSeconds(hourRetentionDays));
+        retentionSeconds.put(PackRollup.Resolution.DAY, TimeUnit.DAYS.toSeconds(dayRetentionDays));
+        return new PackRollup(inventoryCollectorPack, areaMap, retentionSeconds);
+    }
+
+    public Map<String, String> getAreaMap() {
+        return areaMap;
+    }
+
+    public void setAreaMap(Map<String, String> areaMap) {
+        this.areaMap = areaMap;
+    }
+
+    public long getMinuteRetentionHours() {
+        return minuteRetentionHours;
+    }
+
+    public void setMinuteRetentionHours(long minuteRetentionHours) {
+        this.minuteRetentionHours = minuteRetentionHours;
+    }
+
+    public long getHourRetentionDays() {
+        return hourRetentionDays;
+    }
+
+    public void setHourRetentionDays(long hourRetentionDays) {
+        this.hourRetentionDays = hourRetentionDays;
+    }
+
+    public long getDayRetentionDays() {
+        return dayRetentionDays;
+    }
+
+    public void setDayRetentionDays(long dayRetentionDays) {
+        this.dayRetentionDays = dayRetentionDays;
+    }
+}
@@ -0,0 +1,114 @@
+package smartBuilding.server.resource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*latenza rilevazione -> attuazione misurata lato smart object durante il replay.
+Per ogni attuatore spento si ricorda la prima rilevazione della sua area (pir a true):
+quando il controller lo accende la latenza e' il tempo da quella rilevazione. Vale se le policy dell'area
+scattano alla prima rilevazione, altrimenti la latenza misurata comprende anche le rilevazioni ignorate.
+I conteggi della telecamera non sono rilevazioni: la soglia e' nelle policy del controller e qui non si sa
+quale conteggio l'ha superata*/
+
+public class ActuationLatencyRecorder {
+
+    private final Map<String, Actuator> actuatorMap = new HashMap<>();
+    private final Map<String, List<Actuator>> areaActuatorMap = new HashMap<>();
+
+    private long[] latencyNanos = new long[1024];
+    private int latencyCount = 0;
+
+    private long detections = 0;
+    private long unattributed = 0;
+    private long redundantCommands = 0;
+
+    public synchronized void addActuator(String actuatorId, String areaId) {
+        Actuator actuator = new Actuator();
+        actuatorMap.put(actuatorId, actuator);
+        areaActuatorMap.computeIfAbsent(areaId, key -> new ArrayList<>()).add(actuator);
+    }
+
+    public synchronized void onDetection(String areaId, long nanos) {
+        detections++;
+        List<Actuator> actuatorList = areaActuatorMap.get(areaId);
+        if(actuatorList == null)
+            return;
+        for(Actuator actuator : actuatorList)
+            if(!actuator.on && actuator.pendingSince == 0)
+                actuator.pendingSince = nanos;
+    }
+
+    public synchronized void onActuatorState(String actuatorId, boolean on, long nanos) {
+        Actuator actuator = actuatorMap.get(actuatorId);
+        if(actuator == null)
+            return;
+
+        if(on && actuator.on)
+            redundantCommands++;
+        else if(on){
+            if(actuator.pendingSince != 0)
+                addLatency(nanos - actuator.pendingSince);
+            else
+                unattributed++;
+        }
+
+        actuator.on = on;
+        actuator.pendingSince = 0;
+    }
+
+    private void addLatency(long nanos) {
+        if(latencyCount == latencyNanos.length)
+            latencyNanos = Arrays.copyOf(latencyNanos, latencyCount * 2);
+        latencyNanos[latencyCount++] = nanos;
+    }
+
+    public synchronized long getDetections() {
+        return detections;
+    }
+
+    //attuazioni con una rilevazione a cui attribuirle
+    public synchronized int getActuations() {
+        return latencyCount;
+    }
+
+    public synchronized long getUnattributed() {
+        return unattributed;
+    }
+
+    public synchronized long getRedundantCommands() {
+        return redundantCommands;
+    }
+
+    //percentili nearest-rank in millisecondi, NaN se non ci sono attuazioni
+    public synchronized double[] getLatencyPercentilesMillis(double... percentiles) {
+        double[] result = new double[percentiles.length];
+        long[] sorted = Arrays.copyOf(latencyNanos, latencyCount);
+        Arrays.sort(sorted);
+        for(int i = 0; i < percentiles.length; i++){
+            if(sorted.length == 0){
+                result[i] = Double.NaN;
+                continue;
+            }
+            int rank = (int) Math.ceil(percentiles[i] / 100 * sorted.length);
+            result[i] = sorted[Math.min(sorted.length, Math.max(1, rank)) - 1] / 1e6;
+        }
+        return result;
+    }
+
+    public synchronized double getMeanLatencyMillis() {
+        if(latencyCount == 0)
+            return Double.NaN;
+        double sum = 0;
+        for(int i = 0; i < latencyCount; i++)
+            sum += latencyNanos[i];
+        return sum / latencyCount / 1e6;
+    }
+
+    private static final class Actuator {
+        private boolean on = false;
+        private long pendingSince = 0;
+    }
+}
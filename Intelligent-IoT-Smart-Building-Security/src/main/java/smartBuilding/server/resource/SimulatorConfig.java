@@ -0,0 +1,235 @@
+package smartBuilding.server.resource;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import smartBuilding.server.resource.raw.CameraRawSensor;
+import smartBuilding.server.resource.raw.PirRawSensor;
+import smartBuilding.server.resource.raw.SensorScheduler;
+
+import java.io.File;
+import java.io.IOException;
+
+//file di configurazione del simulatore (es. simulator.yml): piani x aree x device, periodi dei sensori
+public class SimulatorConfig {
+
+    //5683 e' la porta del resource directory
+    @JsonProperty("port")
+    private int port = 5685;
+
+    @JsonProperty("floors")
+    private int floors = 1;
+
+    @JsonProperty("areasPerFloor")
+    private int areasPerFloor = 4;
+
+    @JsonProperty("presenceMonitoringPerArea")
+    private int presenceMonitoringPerArea = 1;
+
+    @JsonProperty("alarmsPerArea")
+    private int alarmsPerArea = 1;
+
+    @JsonProperty("lightsPerArea")
+    private int lightsPerArea = 1;
+
+    @JsonProperty("pirUpdatePeriodMillis")
+    private long pirUpdatePeriodMillis = PirRawSensor.UPDATE_PERIOD;
+
+    @JsonProperty("cameraUpdatePeriodMillis")
+    private long cameraUpdatePeriodMillis = CameraRawSensor.UPDATE_PERIOD;
+
+    @JsonProperty("schedulerThreads")
+    private int schedulerThreads = SensorScheduler.DEFAULT_THREADS;
+
+    @JsonProperty("jitter")
+    private double jitter = SensorScheduler.DEFAULT_JITTER;
+
+    @JsonProperty("statsIntervalSeconds")
+    private int statsIntervalSeconds = 30;
+
+    @JsonProperty("registerToResourceDirectory")
+    private boolean registerToResourceDirectory = false;
+
+    @JsonProperty("resourceDirectoryUrl")
+    private String resourceDirectoryUrl = "coap://127.0.0.1:5683/rd";
+
+    @JsonProperty("endpointName")
+    private String endpointName = "CoapEndpointSmartObject";
+
+    @JsonProperty("registrationPayloadBytes")
+    private int registrationPayloadBytes = SmartBuildingCoapSmartObjectProcess.DEFAULT_REGISTRATION_PAYLOAD_BYTES;
+
+    @JsonProperty("listeningIp")
+    private String listeningIp = "127.0.0.1";
+
+    public SimulatorConfig() {
+    }
+
+    public static SimulatorConfig load(File file) throws IOException {
+        ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+        mapper.enable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        SimulatorConfig config = mapper.readValue(file, SimulatorConfig.class);
+        config.validate();
+        return config;
+    }
+
+    public void validate() {
+        if(floors <= 0 || areasPerFloor <= 0)
+            throw new IllegalArgumentException("floors and areasPerFloor must be positive");
+        if(presenceMonitoringPerArea < 0 || alarmsPerArea < 0 || lightsPerArea < 0)
+            throw new IllegalArgumentException("devices per area must not be negative");
+        if(pirUpdatePeriodMillis <= 0 || cameraUpdatePeriodMillis <= 0)
+            throw new IllegalArgumentException("update periods must be positive");
+        if(statsIntervalSeconds <= 0)
+            throw new IllegalArgumentException("statsIntervalSeconds must be positive");
+        if(registrationPayloadBytes <= 0)
+            throw new IllegalArgumentException("registrationPayloadBytes must be positive");
+    }
+
+    public SensorScheduler buildScheduler() {
+        return new SensorScheduler(schedulerThreads, jitter);
+    }
+
+    public int getDevicesPerArea() {
+        return presenceMonitoringPerArea + alarmsPerArea + lightsPerArea;
+    }
+
+    public int getTotalDevices() {
+        return floors * areasPerFloor * getDevicesPerArea();
+    }
+
+    //aggiornamenti al secondo attesi da tutti i sensori raw (pir e camera di ogni presence monitoring)
+    public double getExpectedUpdatesPerSecond() {
+        int presenceMonitoring = floors * areasPerFloor * presenceMonitoringPerArea;
+        return presenceMonitoring * (1000.0 / pirUpdatePeriodMillis + 1000.0 / cameraUpdatePeriodMillis);
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public int getFloors() {
+        return floors;
+    }
+
+    public void setFloors(int floors) {
+        this.floors = floors;
+    }
+
+    public int getAreasPerFloor() {
+        return areasPerFloor;
+    }
+
+    public void setAreasPerFloor(int areasPerFloor) {
+        this.areasPerFloor = areasPerFloor;
+    }
+
+    public int getPresenceMonitoringPerArea() {
+        return presenceMonitoringPerArea;
+    }
+
+    public void setPresenceMonitoringPerArea(int presenceMonitoringPerArea) {
+        this.presenceMonitoringPerArea = presenceMonitoringPerArea;
+    }
+
+    public int getAlarmsPerArea() {
+        return alarmsPerArea;
+    }
+
+    public void setAlarmsPerArea(int alarmsPerArea) {
+        this.alarmsPerArea = alarmsPerArea;
+    }
+
+    public int getLightsPerArea() {
+        return lightsPerArea;
+    }
+
+    public void setLightsPerArea(int lightsPerArea) {
+        this.lightsPerArea = lightsPerArea;
+    }
+
+    public long getPirUpdatePeriodMillis() {
+        return pirUpdatePeriodMillis;
+    }
+
+    public void setPirUpdatePeriodMillis(long pirUpdatePeriodMillis) {
+        this.pirUpdatePeriodMillis = pirUpdatePeriodMillis;
+    }
+
+    public long getCameraUpdatePeriodMillis() {
+        return cameraUpdatePeriodMillis;
+    }
+
+    public void setCameraUpdatePeriodMillis(long cameraUpdatePeriodMillis) {
+        this.cameraUpdatePeriodMillis = cameraUpdatePeriodMillis;
+    }
+
+    public int getSchedulerThreads() {
+        return schedulerThreads;
+    }
+
+    public void setSchedulerThreads(int schedulerThreads) {
+        this.schedulerThreads = schedulerThreads;
+    }
+
+    public double getJitter() {
+        return jitter;
+    }
+
+    public void setJitter(double jitter) {
+        this.jitter = jitter;
+    }
+
+    public int getStatsIntervalSeconds() {
+        return statsIntervalSeconds;
+    }
+
+    public void setStatsIntervalSeconds(int statsIntervalSeconds) {
+        this.statsIntervalSeconds = statsIntervalSeconds;
+    }
+
+    public boolean isRegisterToResourceDirectory() {
+        return registerToResourceDirectory;
+    }
+
+    public void setRegisterToResourceDirectory(boolean registerToResourceDirectory) {
+        this.registerToResourceDirectory = registerToResourceDirectory;
+    }
+
+    public String getResourceDirectoryUrl() {
+        return resourceDirectoryUrl;
+    }
+
+    public void setResourceDirectoryUrl(String resourceDirectoryUrl) {
+        this.resourceDirectoryUrl = resourceDirectoryUrl;
+    }
+
+    public String getEndpointName() {
+        return endpointName;
+    }
+
+    public void setEndpointName(String endpointName) {
+        this.endpointName = endpointName;
+    }
+
+    public int getRegistrationPayloadBytes() {
+        return registrationPayloadBytes;
+    }
+
+    public void setRegistrationPayloadBytes(int registrationPayloadBytes) {
+        this.registrationPayloadBytes = registrationPayloadBytes;
+    }
+
+    public String getListeningIp() {
+        return listeningIp;
+    }
+
+    public void setListeningIp(String listeningIp) {
+        this.listeningIp = listeningIp;
+    }
+}
@@ -11,9 +11,15 @@ import org.eclipse.californium.core.server.resources.Resource;
 import org.eclipse.californium.elements.exception.ConnectorException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import utils.DeviceIds;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 public class SmartBuildingCoapSmartObjectProcess extends CoapServer {
 
@@ -25,6 +31,12 @@ public class SmartBuildingCoapSmartObjectProcess extends CoapServer {
 
     private static final int TARGET_PORT = 5683;
 
+    //sotto il MAX_RESOURCE_BODY_SIZE (8192) del resource directory, inviati a blocchi (block1)
+    public static final int DEFAULT_REGISTRATION_PAYLOAD_BYTES = 4096;
+
+    private static final String WELL_KNOWN_NAME = ".well-known";
+
+
     private final static Logger logger = LoggerFactory.getLogger(SmartBuildingCoapSmartObjectProcess.class);
 
     public SmartBuildingCoapSmartObjectProcess() throws InterruptedException {
@@ -46,13 +58,41 @@ public class SmartBuildingCoapSmartObjectProcess extends CoapServer {
 
   }
 
+    /*modalita' simulatore: piani x aree x device letti dal file di configurazione, tutti i sensori raw
+    aggiornati dallo stesso SensorScheduler. Id dei device: F<piano>A<area>D<indice>, es. F01A02D003*/
+    public SmartBuildingCoapSmartObjectProcess(SimulatorConfig config, SensorScheduler scheduler) throws InterruptedException {
+
+        super(config.getPort());
+
+        for(int floor = 1; floor <= config.getFloors(); floor++)
+            for(int area = 1; area <= config.getAreasPerFloor(); area++){
+                int device = 1;
+                for(int i = 0; i < config.getPresenceMonitoringPerArea(); i++)
+                    this.add(createPresenceMonitoringResource(DeviceIds.deviceId(floor, area, device++), scheduler,
+                            config.getPirUpdatePeriodMillis(), config.getCameraUpdatePeriodMillis()));
+                for(int i = 0; i < config.getAlarmsPerArea(); i++)
+                    this.add(createAlarmResource(DeviceIds.deviceId(floor, area, device++)));
+                for(int i = 0; i < config.getLightsPerArea(); i++)
+                    this.add(createLightResource(DeviceIds.deviceId(floor, area, device++)));
+            }
+    }
+
+    //server vuoto, le risorse vengono aggiunte da fuori (replay di un trace)
+    public SmartBuildingCoapSmartObjectProcess(int port) {
+        super(port);
+    }
+
 
     private static CoapResource createPresenceMonitoringResource(String deviceId) throws InterruptedException {
+        return createPresenceMonitoringResource(deviceId, SensorScheduler.getDefault(), PirRawSensor.UPDATE_PERIOD, CameraRawSensor.UPDATE_PERIOD);
+    }
+
+    private static CoapResource createPresenceMonitoringResource(String deviceId, SensorScheduler scheduler, long pirUpdatePeriod, long cameraUpdatePeriod) throws InterruptedException {
 
         PMRaw pmRaw = new PMRaw();
         CoapPMResource coapPMResource = new CoapPMResource ("presencemonitoring",deviceId, pmRaw);
-        PirRawSensor PMPirRawSensor = new PirRawSensor();
-        CameraRawSensor PMCameraRawSensor = new CameraRawSensor();
+        PirRawSensor PMPirRawSensor = new PirRawSensor(scheduler, pirUpdatePeriod);
+        CameraRawSensor PMCameraRawSensor = new CameraRawSensor(scheduler, cameraUpdatePeriod);
         CoapPirResource PMcoapPirResource = new CoapPirResource ("pir",deviceId, PMPirRawSensor);
         CoapCameraResource PMcoapCameraRecource = new CoapCameraResource("camera", deviceId,PMCameraRawSensor );
 
@@ -79,42 +119,144 @@ public class SmartBuildingCoapSmartObjectProcess extends CoapServer {
 
 
     public void registerToCoapResourceDirectory(SmartBuildingCoapSmartObjectProcess smartBuildingCoapSmartObjectProcess, String endpointName, String sourceIp, int sourcePort){
+        registerToCoapResourceDirectory(smartBuildingCoapSmartObjectProcess, RD_COAP_ENDPOINT_BASE_URL, endpointName, sourceIp, sourcePort);
+    }
+
+    public void registerToCoapResourceDirectory(SmartBuildingCoapSmartObjectProcess smartBuildingCoapSmartObjectProcess, String rdUrl, String endpointName, String sourceIp, int sourcePort){
+        registerToCoapResourceDirectory(smartBuildingCoapSmartObjectProcess, rdUrl, endpointName, sourceIp, sourcePort, DEFAULT_REGISTRATION_PAYLOAD_BYTES);
+    }
+
+    /*tutto l'edificio in una POST supera il MAX_RESOURCE_BODY_SIZE del resource directory (8192 byte
+    contro ~1 MB con 10k device): i device vengono divisi in gruppi di al massimo maxPayloadBytes di
+    link-format, ognuno registrato come endpoint "<endpointName>-<gruppo>" con la stessa base.
+    Un device non viene mai diviso tra due gruppi, e l'ordine per nome tiene stabili i gruppi tra
+    una registrazione e la successiva. Il lookup /rd-lookup/res del controller li vede tutti insieme*/
+    public void registerToCoapResourceDirectory(SmartBuildingCoapSmartObjectProcess smartBuildingCoapSmartObjectProcess, String rdUrl, String endpointName, String sourceIp, int sourcePort, int maxPayloadBytes){
+
+        List<String> payloadList = registrationPayloads(smartBuildingCoapSmartObjectProcess.getRoot(), maxPayloadBytes);
+
+        logger.info("Registering {} endpoints to Resource Directory: {}", payloadList.size(), rdUrl);
+
+        logger.debug("{}", smartBuildingCoapSmartObjectProcess.getRoot());
+
+        CoapClient coapClient = new CoapClient();
+        try {
+            for(int i = 0; i < payloadList.size(); i++){
+                String groupEndpointName = payloadList.size() == 1 ? endpointName : String.format("%s-%04d", endpointName, i);
+                coapClient.setURI(String.format("%s?ep=%s&base=coap://%s:%d", rdUrl, groupEndpointName, sourceIp, sourcePort));
+                register(coapClient, groupEndpointName, payloadList.get(i));
+            }
+        } finally {
+            coapClient.shutdown();
+        }
+    }
 
-        String finalRdUrl = String.format("%s?ep=%s&base=coap://%s:%d", RD_COAP_ENDPOINT_BASE_URL, endpointName, sourceIp, sourcePort);
+    static List<String> registrationPayloads(Resource root, int maxPayloadBytes) {
 
-        logger.info("Registering to Resource Directory: {}", finalRdUrl);
+        List<Resource> deviceList = new ArrayList<>(root.getChildren());
+        deviceList.removeIf(resource -> WELL_KNOWN_NAME.equals(resource.getName()));
+        deviceList.sort(Comparator.comparing(Resource::getName));
 
-        logger.info("{}", (smartBuildingCoapSmartObjectProcess.getRoot()).toString());
+        List<String> payloadList = new ArrayList<>();
+        StringBuilder payload = new StringBuilder();
+        for(Resource device : deviceList){
+            String links = LinkFormat.serializeTree(device);
+            if(links.isEmpty())
+                continue;
+            if(links.length() > maxPayloadBytes)
+                logger.warn("Links of {} ({} bytes) exceed the registration payload limit of {} bytes", device.getName(), links.length(), maxPayloadBytes);
+
+            if(payload.length() > 0 && payload.length() + 1 + links.length() > maxPayloadBytes){
+                payloadList.add(payload.toString());
+                payload.setLength(0);
+            }
+            if(payload.length() > 0)
+                payload.append(',');
+            payload.append(links);
+        }
+        if(payload.length() > 0)
+            payloadList.add(payload.toString());
+        return payloadList;
+    }
+
+    private static void register(CoapClient coapClient, String endpointName, String payload){
 
-        CoapClient coapClient = new CoapClient(finalRdUrl);
         Request request = new Request(CoAP.Code.POST);
 
-        request.setPayload(LinkFormat.serializeTree(smartBuildingCoapSmartObjectProcess.getRoot()));
+        request.setPayload(payload);
         request.setConfirmable(true);
 
-        logger.info("Request Pretty Print:\n{}", Utils.prettyPrint(request));
+        if(logger.isDebugEnabled())
+            logger.debug("Request Pretty Print:\n{}", Utils.prettyPrint(request));
 
         //bloccante, aspetta la risposta
         CoapResponse coapResponse = null;
 
         try{
             coapResponse = coapClient.advanced(request);
+            if(coapResponse == null){
+                logger.warn("No response from the Resource Directory registering {}", endpointName);
+                return;
+            }
 
-            logger.info("Response Pretty Print:\n{}", Utils.prettyPrint(coapResponse));
-            String text = coapResponse.getResponseText();
-            logger.info("Payload: {}", text);
-            logger.info("Message Id: "+ coapResponse.advanced().getMID());
-            logger.info("Token: "+ coapResponse.advanced().getTokenString());
+            logger.info("Resource Directory response for {} ({} bytes): {}", endpointName, payload.length(), coapResponse.getCode());
+            if(logger.isDebugEnabled()){
+                logger.debug("Response Pretty Print:\n{}", Utils.prettyPrint(coapResponse));
+                logger.debug("Payload: {}, Message Id: {}, Token: {}", coapResponse.getResponseText(),
+                        coapResponse.advanced().getMID(), coapResponse.advanced().getTokenString());
+            }
 
         } catch (ConnectorException | IOException e) {
-            e.printStackTrace();
+            logger.error("Registration of {} to the Resource Directory failed: {}", endpointName, e.getLocalizedMessage());
         }
 
     }
 
 
 
-    public static void main(String[] args) throws InterruptedException {
+    //simulatore: java ... SmartBuildingCoapSmartObjectProcess simulator.yml
+    private static void runSimulator(File configFile) throws IOException, InterruptedException {
+
+        SimulatorConfig config = SimulatorConfig.load(configFile);
+        SensorScheduler scheduler = config.buildScheduler();
+
+        long startedAt = System.currentTimeMillis();
+        SmartBuildingCoapSmartObjectProcess simulator = new SmartBuildingCoapSmartObjectProcess(config, scheduler);
+        simulator.start();
+
+        logger.info("Simulator started in {} ms: {} floors x {} areas x {} devices = {} devices, {} raw sensors on {} scheduler threads",
+                System.currentTimeMillis() - startedAt, config.getFloors(), config.getAreasPerFloor(), config.getDevicesPerArea(),
+                config.getTotalDevices(), scheduler.getScheduledSensors(), config.getSchedulerThreads());
+        logger.info("Sensor periods: pir {} ms, camera {} ms (jitter +-{}%), expected {} updates/s",
+                config.getPirUpdatePeriodMillis(), config.getCameraUpdatePeriodMillis(), Math.round(config.getJitter() * 100),
+                String.format("%.1f", config.getExpectedUpdatesPerSecond()));
+
+        long lastUpdates = 0;
+        long lastRegistration = 0;
+        while(true){
+
+            if(config.isRegisterToResourceDirectory() && System.currentTimeMillis() - lastRegistration >= TimeUnit.MINUTES.toMillis(2)){
+                simulator.registerToCoapResourceDirectory(simulator, config.getResourceDirectoryUrl(),
+                        config.getEndpointName(), config.getListeningIp(), config.getPort(), config.getRegistrationPayloadBytes());
+                lastRegistration = System.currentTimeMillis();
+            }
+
+            Thread.sleep(TimeUnit.SECONDS.toMillis(config.getStatsIntervalSeconds()));
+
+            long updates = scheduler.getExecutedUpdates();
+            logger.info("Sensor updates: {}/s (expected {}/s), {} total",
+                    String.format("%.1f", (updates - lastUpdates) / (double) config.getStatsIntervalSeconds()),
+                    String.format("%.1f", config.getExpectedUpdatesPerSecond()), updates);
+            lastUpdates = updates;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+
+        if(args.length > 0){
+            runSimulator(new File(args[0]));
+            return;
+        }
 
         SmartBuildingCoapSmartObjectProcess smartBuildingCoapSmartObjectProcess = new SmartBuildingCoapSmartObjectProcess();
         smartBuildingCoapSmartObjectProcess.start();
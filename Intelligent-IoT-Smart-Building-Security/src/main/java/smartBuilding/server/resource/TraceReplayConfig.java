@@ -0,0 +1,179 @@
+package smartBuilding.server.resource;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+//file di configurazione del replay (es. replay.yml): trace, velocita', aree per attribuire le attuazioni
+public class TraceReplayConfig {
+
+    public static final String MAX_SPEED = "max";
+
+    //file scritto da DefaultInventoryDataCollector (un pack per riga) o directory dei segmenti dello store
+    @JsonProperty("trace")
+    private String trace = "recordSensorsFile";
+
+    //"1" tempo reale, "10" dieci volte piu' veloce, "max" senza attese
+    @JsonProperty("speed")
+    private String speed = "1";
+
+    //5683 e' la porta del resource directory, 5685 quella del simulatore
+    @JsonProperty("port")
+    private int port = 5686;
+
+    //attesa prima del replay, per dare al controller il tempo di trovare e osservare le risorse
+    @JsonProperty("startDelaySeconds")
+    private int startDelaySeconds = 30;
+
+    //attesa dopo l'ultimo record per le attuazioni ancora in corso
+    @JsonProperty("drainSeconds")
+    private int drainSeconds = 10;
+
+    //dopo un'attuazione l'attuatore viene spento, cosi' le rilevazioni successive devono riattivarlo (0 = mai)
+    @JsonProperty("actuatorResetMillis")
+    private long actuatorResetMillis = 0;
+
+    //id del device (prima parte del bn) -> area; senza voce l'area viene dall'id del device del simulatore o e' quella del solo device
+    @JsonProperty("areas")
+    private Map<String, String> areaMap = new HashMap<>();
+
+    @JsonProperty("registerToResourceDirectory")
+    private boolean registerToResourceDirectory = false;
+
+    @JsonProperty("resourceDirectoryUrl")
+    private String resourceDirectoryUrl = "coap://127.0.0.1:5683/rd";
+
+    @JsonProperty("endpointName")
+    private String endpointName = "CoapEndpointTraceReplay";
+
+    @JsonProperty("listeningIp")
+    private String listeningIp = "127.0.0.1";
+
+    public TraceReplayConfig() {
+    }
+
+    public static TraceReplayConfig load(File file) throws IOException {
+        ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+        mapper.enable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        TraceReplayConfig config = mapper.readValue(file, TraceReplayConfig.class);
+        config.validate();
+        return config;
+    }
+
+    public void validate() {
+        if(trace == null || trace.isEmpty())
+            throw new IllegalArgumentException("trace is required");
+        getSpeedFactor();
+        if(startDelaySeconds < 0 || drainSeconds < 0 || actuatorResetMillis < 0)
+            throw new IllegalArgumentException("delays must not be negative");
+    }
+
+    //0 = massima velocita'
+    public double getSpeedFactor() {
+        if(MAX_SPEED.equalsIgnoreCase(speed))
+            return 0;
+        double factor;
+        try {
+            factor = Double.parseDouble(speed.endsWith("x") ? speed.substring(0, speed.length() - 1) : speed);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Invalid speed: %s", speed));
+        }
+        if(factor <= 0 || Double.isInfinite(factor) || Double.isNaN(factor))
+            throw new IllegalArgumentException(String.format("Invalid speed: %s", speed));
+        return factor;
+    }
+
+    public String getTrace() {
+        return trace;
+    }
+
+    public void setTrace(String trace) {
+        this.trace = trace;
+    }
+
+    public String getSpeed() {
+        return speed;
+    }
+
+    public void setSpeed(String speed) {
+        this.speed = speed;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public int getStartDelaySeconds() {
+        return startDelaySeconds;
+    }
+
+    public void setStartDelaySeconds(int startDelaySeconds) {
+        this.startDelaySeconds = startDelaySeconds;
+    }
+
+    public int getDrainSeconds() {
+        return drainSeconds;
+    }
+
+    public void setDrainSeconds(int drainSeconds) {
+        this.drainSeconds = drainSeconds;
+    }
+
+    public long getActuatorResetMillis() {
+        return actuatorResetMillis;
+    }
+
+    public void setActuatorResetMillis(long actuatorResetMillis) {
+        this.actuatorResetMillis = actuatorResetMillis;
+    }
+
+    public Map<String, String> getAreaMap() {
+        return areaMap;
+    }
+
+    public void setAreaMap(Map<String, String> areaMap) {
+        this.areaMap = areaMap;
+    }
+
+    public boolean isRegisterToResourceDirectory() {
+        return registerToResourceDirectory;
+    }
+
+    public void setRegisterToResourceDirectory(boolean registerToResourceDirectory) {
+        this.registerToResourceDirectory = registerToResourceDirectory;
+    }
+
+    public String getResourceDirectoryUrl() {
+        return resourceDirectoryUrl;
+    }
+
+    public void setResourceDirectoryUrl(String resourceDirectoryUrl) {
+        this.resourceDirectoryUrl = resourceDirectoryUrl;
+    }
+
+    public String getEndpointName() {
+        return endpointName;
+    }
+
+    public void setEndpointName(String endpointName) {
+        this.endpointName = endpointName;
+    }
+
+    public String getListeningIp() {
+        return listeningIp;
+    }
+
+    public void setListeningIp(String listeningIp) {
+        this.listeningIp = listeningIp;
+    }
+}
@@ -0,0 +1,331 @@
+package smartBuilding.server.resource;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.californium.core.CoapResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import smartBuilding.server.resource.coap.*;
+import smartBuilding.server.resource.raw.*;
+import utils.DeviceIds;
+import utils.SenMLPack;
+import utils.SenMLRecord;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/*replay di un trace SenML registrato (il file di DefaultInventoryDataCollector o i segmenti dello store)
+come notifiche observe delle stesse risorse coap degli smart object. Il controller le trova nel resource
+directory e le osserva come al solito. I record vengono riprodotti nell'ordine del trace, con i tempi
+registrati divisi per la velocita' (o senza attese a "max"), quindi due replay dello stesso trace producono
+la stessa sequenza di notifiche. Degli attuatori si riproducono solo gli spegnimenti: le accensioni sono
+le PUT del controller, di cui si misura la latenza dalla rilevazione.
+L'area di un device (per attribuire un'accensione alla prima rilevazione nella stessa area) viene dalla
+mappa areas del file di configurazione, altrimenti dall'id dei device del simulatore (F<piano>A<area>D<indice>);
+un device senza area e' un'area a se', e il report dice quanti sono.
+Avvio: java ... TraceReplayProcess replay.yml*/
+
+public class TraceReplayProcess {
+
+    private final static Logger logger = LoggerFactory.getLogger(TraceReplayProcess.class);
+
+    private enum Kind { PIR, CAMERA, ALARM, LIGHT }
+
+    private final TraceReplayConfig config;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ActuationLatencyRecorder latencyRecorder = new ActuationLatencyRecorder();
+
+    private final Map<String, PirRawSensor> pirMap = new HashMap<>();
+    private final Map<String, CameraRawSensor> cameraMap = new HashMap<>();
+    private final Map<String, AlarmActuator> alarmMap = new HashMap<>();
+    private final Map<String, LightActuator> lightMap = new HashMap<>();
+
+    private ScheduledExecutorService resetScheduler = null;
+
+    private long replayedRecords = 0;
+    private long skippedRecords = 0;
+    private long maxLagNanos = 0;
+
+    //da dove viene l'area dei device del trace: mappa, id del device, nessuna (area del solo device)
+    private int mappedAreas = 0;
+    private int deviceIdAreas = 0;
+    private int ownAreas = 0;
+
+    public TraceReplayProcess(TraceReplayConfig config) {
+        this.config = config;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        TraceReplayConfig config = TraceReplayConfig.load(new File(args.length > 0 ? args[0] : "replay.yml"));
+        new TraceReplayProcess(config).run();
+    }
+
+    public void run() throws IOException, InterruptedException {
+
+        //primo passaggio: i device del trace, per creare le risorse prima che il controller le cerchi
+        Map<String, EnumSet<Kind>> deviceMap = new TreeMap<>();
+        forEachPack(pack -> {
+            for(SenMLRecord record : pack.resolve(0)){
+                Kind kind = kindOf(record);
+                if(kind != null)
+                    deviceMap.computeIfAbsent(deviceIdOf(record.getN()), key -> EnumSet.noneOf(Kind.class)).add(kind);
+            }
+        });
+
+        SmartBuildingCoapSmartObjectProcess server = new SmartBuildingCoapSmartObjectProcess(config.getPort());
+        deviceMap.forEach((deviceId, kinds) -> {
+            try {
+                addDevice(server, deviceId, kinds);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.start();
+
+        for(String deviceId : deviceMap.keySet()){
+            if(config.getAreaMap().containsKey(deviceId))
+                mappedAreas++;
+            else if(DeviceIds.areaIdOf(deviceId) != null)
+                deviceIdAreas++;
+            else
+                ownAreas++;
+        }
+        if(ownAreas > 0)
+            logger.warn("{} devices have no area in the configuration nor in their id: each one is an area of its own", ownAreas);
+
+        if(config.getActuatorResetMillis() > 0)
+            resetScheduler = Executors.newSingleThreadScheduledExecutor();
+
+        logger.info("Trace {}: {} devices ({} pir, {} camera, {} alarm, {} light), replay at speed {} in {} s",
+                config.getTrace(), deviceMap.size(), pirMap.size(), cameraMap.size(), alarmMap.size(), lightMap.size(),
+                config.getSpeed(), config.getStartDelaySeconds());
+
+        if(config.isRegisterToResourceDirectory())
+            server.registerToCoapResourceDirectory(server, config.getResourceDirectoryUrl(),
+                    config.getEndpointName(), config.getListeningIp(), config.getPort());
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(config.getStartDelaySeconds()));
+
+        //secondo passaggio: il replay vero e proprio
+        long startedAt = System.nanoTime();
+        replay(startedAt);
+        long elapsedNanos = System.nanoTime() - startedAt;
+
+        logger.info("Replay done, waiting {} s for the last actuations", config.getDrainSeconds());
+        Thread.sleep(TimeUnit.SECONDS.toMillis(config.getDrainSeconds()));
+
+        report(elapsedNanos);
+
+        if(resetScheduler != null)
+            resetScheduler.shutdownNow();
+        server.destroy();
+    }
+
+    private void replay(long startedAt) throws IOException {
+
+        double speed = config.getSpeedFactor();
+        double[] firstTime = {Double.NaN};
+        double[] lastTime = {Double.NaN};
+
+        forEachPack(pack -> {
+            for(SenMLRecord record : pack.resolve(0)){
+
+                //un record senza tempo (o fuori ordine) parte subito dopo il precedente
+                double time = SenMLRecord.toSeconds(record.getTAsDouble());
+                if(time > 0 && (Double.isNaN(lastTime[0]) || time > lastTime[0]))
+                    lastTime[0] = time;
+
+                if(speed > 0 && !Double.isNaN(lastTime[0])){
+                    if(Double.isNaN(firstTime[0]))
+                        firstTime[0] = lastTime[0];
+                    long target = startedAt + (long) ((lastTime[0] - firstTime[0]) / speed * 1e9);
+                    long wait;
+                    while((wait = target - System.nanoTime()) > 0)
+                        LockSupport.parkNanos(wait);
+                    maxLagNanos = Math.max(maxLagNanos, -wait);
+                }
+
+                if(apply(record))
+                    replayedRecords++;
+                else
+                    skippedRecords++;
+            }
+        });
+    }
+
+    private boolean apply(SenMLRecord record) {
+
+        Kind kind = kindOf(record);
+        if(kind == null)
+            return false;
+        String deviceId = deviceIdOf(record.getN());
+
+        switch (kind){
+            case PIR:
+                if(!record.hasVb())
+                    return false;
+                //la rilevazione viene registrata prima di inviare la notifica
+                if(record.getVbAsBoolean())
+                    latencyRecorder.onDetection(areaOf(deviceId), System.nanoTime());
+                pirMap.get(deviceId).setValue(record.getVbAsBoolean());
+                return true;
+            case CAMERA:
+                if(!record.hasV())
+                    return false;
+                //il conteggio della telecamera non fa partire la latenza, vedi ActuationLatencyRecorder
+                cameraMap.get(deviceId).setValue((int) Math.round(record.getVAsDouble()));
+                return true;
+            case ALARM:
+                if(!record.hasVb() || record.getVbAsBoolean())
+                    return false;
+                alarmMap.get(deviceId).setActive(false);
+                return true;
+            case LIGHT:
+                if(!record.hasVb() || record.getVbAsBoolean())
+                    return false;
+                lightMap.get(deviceId).setActive(false);
+                return true;
+        }
+        return false;
+    }
+
+    private void addDevice(SmartBuildingCoapSmartObjectProcess server, String deviceId, EnumSet<Kind> kinds) throws InterruptedException {
+
+        if(kinds.contains(Kind.PIR) || kinds.contains(Kind.CAMERA)){
+            //senza scheduler i sensori cambiano valore solo quando lo dice il trace
+            PirRawSensor pirRawSensor = new PirRawSensor(null, PirRawSensor.UPDATE_PERIOD);
+            CameraRawSensor cameraRawSensor = new CameraRawSensor(null, CameraRawSensor.UPDATE_PERIOD);
+            CoapResource coapPMResource = new CoapPMResource("presencemonitoring", deviceId, new PMRaw());
+            coapPMResource.add(new CoapPirResource("pir", deviceId, pirRawSensor));
+            coapPMResource.add(new CoapCameraResource("camera", deviceId, cameraRawSensor));
+            server.add(coapPMResource);
+            pirMap.put(deviceId, pirRawSensor);
+            cameraMap.put(deviceId, cameraRawSensor);
+        }
+
+        if(kinds.contains(Kind.ALARM)){
+            AlarmActuator alarmActuator = new AlarmActuator();
+            server.add(new CoapAlarmResource("alarm", deviceId, alarmActuator));
+            addActuator(String.format("%s:alarm", deviceId), deviceId, alarmActuator);
+            alarmMap.put(deviceId, alarmActuator);
+        }
+
+        if(kinds.contains(Kind.LIGHT)){
+            LightActuator lightActuator = new LightActuator();
+            server.add(new CoapLightResource("light", deviceId, lightActuator));
+            addActuator(String.format("%s:light", deviceId), deviceId, lightActuator);
+            lightMap.put(deviceId, lightActuator);
+        }
+    }
+
+    private void addActuator(String actuatorId, String deviceId, SmartObjectResource<Boolean> actuator) {
+
+        //gli attuatori partono spenti, cosi' la prima rilevazione richiede una PUT
+        if(actuator instanceof AlarmActuator)
+            ((AlarmActuator) actuator).setActive(false);
+        else
+            ((LightActuator) actuator).setActive(false);
+
+        latencyRecorder.addActuator(actuatorId, areaOf(deviceId));
+        actuator.addDataListener((resource, value) -> {
+            latencyRecorder.onActuatorState(actuatorId, value, System.nanoTime());
+            if(value && resetScheduler != null)
+                resetScheduler.schedule(() -> {
+                    if(actuator instanceof AlarmActuator)
+                        ((AlarmActuator) actuator).setActive(false);
+                    else
+                        ((LightActuator) actuator).setActive(false);
+                }, config.getActuatorResetMillis(), TimeUnit.MILLISECONDS);
+        });
+    }
+
+    private void report(long elapsedNanos) {
+
+        double seconds = elapsedNanos / 1e9;
+        double[] percentiles = latencyRecorder.getLatencyPercentilesMillis(50, 90, 99, 99.9, 100);
+
+        logger.info("Replayed {} records ({} skipped) in {} s: {} records/s, max lag {} ms",
+                replayedRecords, skippedRecords, String.format("%.3f", seconds),
+                String.format("%.1f", seconds > 0 ? replayedRecords / seconds : 0), String.format("%.1f", maxLagNanos / 1e6));
+        logger.info("Areas: {} devices from the configuration, {} from the device id, {} without area (own area)",
+                mappedAreas, deviceIdAreas, ownAreas);
+        logger.info("Detections: {}, actuations: {} ({} without a detection, {} redundant commands)",
+                latencyRecorder.getDetections(), latencyRecorder.getActuations(),
+                latencyRecorder.getUnattributed(), latencyRecorder.getRedundantCommands());
+        logger.info("Detection to actuation latency (ms): p50={} p90={} p99={} p99.9={} max={} mean={}",
+                String.format("%.1f", percentiles[0]), String.format("%.1f", percentiles[1]), String.format("%.1f", percentiles[2]),
+                String.format("%.1f", percentiles[3]), String.format("%.1f", percentiles[4]),
+                String.format("%.1f", latencyRecorder.getMeanLatencyMillis()));
+    }
+
+    private void forEachPack(Consumer<SenMLPack> consumer) throws IOException {
+
+        File trace = new File(config.getTrace());
+        List<File> fileList = new ArrayList<>();
+        if(trace.isDirectory()){
+            //segmenti dello store: il nome contiene il numero progressivo, l'ordine alfabetico e' quello di scrittura
+            File[] segments = trace.listFiles((dir, name) -> name.startsWith("segment-") && name.endsWith(".ndjson"));
+            if(segments != null)
+                fileList.addAll(Arrays.asList(segments));
+            Collections.sort(fileList);
+        }
+        else
+            fileList.add(trace);
+
+        for(File file : fileList)
+            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+                String line;
+                while((line = reader.readLine()) != null){
+                    if(line.isEmpty())
+                        continue;
+                    try {
+                        consumer.accept(objectMapper.readValue(line, SenMLPack.class));
+                    } catch (IOException e) {
+                        logger.warn("Skipping invalid pack in {}: {}", file, e.getLocalizedMessage());
+                    }
+                }
+            }
+    }
+
+    //nome risolto (bn + n): <device>:presencemonitoring per pir e camera, <device>:alarm, <device>:light
+    private static Kind kindOf(SenMLRecord record) {
+        String name = record.getN();
+        if(name == null || name.indexOf(':') <= 0)
+            return null;
+        if(name.endsWith(":alarm"))
+            return Kind.ALARM;
+        if(name.endsWith(":light"))
+            return Kind.LIGHT;
+        if(name.endsWith(":pir"))
+            return Kind.PIR;
+        if(name.endsWith(":camera"))
+            return Kind.CAMERA;
+        if(name.endsWith(":presencemonitoring")){
+            if(record.hasVb() || "SEEING".equals(record.getU()))
+                return Kind.PIR;
+            if(record.hasV() || "Num".equals(record.getU()))
+                return Kind.CAMERA;
+        }
+        return null;
+    }
+
+    private static String deviceIdOf(String name) {
+        return name.substring(0, name.lastIndexOf(':'));
+    }
+
+    /*senza area il device non condivide l'area con nessuno: con un'area unica per tutto l'edificio la latenza
+    partirebbe dalla prima rilevazione in un punto qualsiasi e i percentili non vorrebbero dire niente*/
+    private String areaOf(String deviceId) {
+        String area = config.getAreaMap().get(deviceId);
+        if(area == null)
+            area = DeviceIds.areaIdOf(deviceId);
+        return area != null ? area : deviceId;
+    }
+}
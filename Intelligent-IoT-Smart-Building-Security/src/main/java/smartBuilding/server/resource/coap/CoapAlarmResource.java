@@ -3,7 +3,6 @@ package smartBuilding.server.resource.coap;
 import smartBuilding.server.resource.raw.AlarmActuator;
 import smartBuilding.server.resource.raw.ResourceDataListener;
 import smartBuilding.server.resource.raw.SmartObjectResource;
-import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.eclipse.californium.core.CoapResource;
 import org.eclipse.californium.core.coap.CoAP;
@@ -15,7 +14,6 @@ import utils.CoreInterfaces;
 import utils.SenMLPack;
 import utils.SenMLRecord;
 
-import java.util.Optional;
 
 public class CoapAlarmResource extends CoapResource {
 
@@ -31,6 +29,7 @@ public class CoapAlarmResource extends CoapResource {
 
     private String deviceId;
     private ObjectMapper objectMapper;
+    private SenMLRepresentationCache representationCache;
 
 
     public CoapAlarmResource(String name, String deviceId, AlarmActuator alarmActuator) throws InterruptedException {
@@ -40,8 +39,8 @@ public class CoapAlarmResource extends CoapResource {
         {
             this.deviceId = deviceId;
             this.alarmActuator = alarmActuator;
-            this.objectMapper=new ObjectMapper();
-            this.objectMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+            this.objectMapper=SenMLRepresentationCache.sharedObjectMapper();
+            this.representationCache = new SenMLRepresentationCache(this::buildSenmlPack, this.objectMapper);
 
             setObservable(true);
             setObserveType(CoAP.Type.CON);
@@ -51,12 +50,13 @@ public class CoapAlarmResource extends CoapResource {
             getAttributes().addAttribute("rt", alarmActuator.getType());
             getAttributes().addAttribute("if", CoreInterfaces.CORE_A.getValue());
             getAttributes().addAttribute("ct", Integer.toString(MediaTypeRegistry.APPLICATION_SENML_JSON));
+            getAttributes().addAttribute("ct", Integer.toString(MediaTypeRegistry.APPLICATION_SENML_CBOR));
             getAttributes().addAttribute("ct", Integer.toString(MediaTypeRegistry.TEXT_PLAIN));
 
             alarmActuator.addDataListener(new ResourceDataListener<Boolean>() {
                 @Override
                 public void onDataChanged(SmartObjectResource<Boolean> resource, Boolean updatedValue) {
-                    logger.info("Raw Resource Notification. New Value: {}", updatedValue);
+                    logger.debug("Raw Resource Notification. New Value: {}", updatedValue);
                     isActive=updatedValue;
                     changed();
                 }
@@ -70,36 +70,32 @@ public class CoapAlarmResource extends CoapResource {
     }
 
 
-    private Optional<String> getJsonSenmlResponse() {
+    private SenMLPack buildSenmlPack(long timestamp) {
 
-        try {
+        SenMLPack senMLPack = new SenMLPack();
 
-            SenMLPack senMLPack = new SenMLPack();
+        SenMLRecord senMLRecord = new SenMLRecord();
+        senMLRecord.setBn(String.format("%s:%s", this.deviceId, "alarm"));
+        senMLRecord.setBver(ACTUATOR_VERSION);
+        senMLRecord.setVb(isActive);
+        senMLRecord.setT(timestamp);
 
-            SenMLRecord senMLRecord = new SenMLRecord();
-            senMLRecord.setBn(String.format("%s:%s", this.deviceId, "alarm"));
-            senMLRecord.setBver(ACTUATOR_VERSION);
-            senMLRecord.setVb(isActive);
-            senMLRecord.setT(System.currentTimeMillis());
+        senMLPack.add(senMLRecord);
 
-            senMLPack.add(senMLRecord);
-
-            return Optional.of(this.objectMapper.writeValueAsString(senMLPack));
+        return senMLPack;
+    }
 
-        } catch (Exception e) {
-            return Optional.empty();
-        }
+    @Override
+    public void changed() {
+        if(representationCache != null)
+            representationCache.invalidate();
+        super.changed();
     }
 
     @Override
     public void handleGET(CoapExchange exchange){
 
-        Optional<String> senmlPayload = getJsonSenmlResponse();
-
-        if(senmlPayload.isPresent())
-            exchange.respond(CoAP.ResponseCode.CONTENT, senmlPayload.get(), exchange.getRequestOptions().getAccept());
-        else
-            exchange.respond(CoAP.ResponseCode.INTERNAL_SERVER_ERROR);
+        representationCache.respond(exchange);
 
     }
     @Override
@@ -110,7 +106,7 @@ public class CoapAlarmResource extends CoapResource {
                 this.isActive = !isActive;
                 this.alarmActuator.setActive(isActive);
 
-                logger.info("Resource Status Updated: {}", this.isActive);
+                logger.debug("Resource Status Updated: {}", this.isActive);
 
                 exchange.respond(CoAP.ResponseCode.CHANGED);
 
@@ -132,12 +128,12 @@ public class CoapAlarmResource extends CoapResource {
 
                 boolean submittedValue = Boolean.parseBoolean(new String(exchange.getRequestPayload()));
 
-                logger.info("Submitted value: {}", submittedValue);
+                logger.debug("Submitted value: {}", submittedValue);
 
                 this.isActive = submittedValue;
                 this.alarmActuator.setActive(this.isActive);
 
-                logger.info("Resource Status Updated: {}", this.isActive);
+                logger.debug("Resource Status Updated: {}", this.isActive);
 
                 changed();
 
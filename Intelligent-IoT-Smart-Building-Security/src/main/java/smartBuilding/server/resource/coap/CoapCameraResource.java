@@ -3,7 +3,6 @@ package smartBuilding.server.resource.coap;
 import smartBuilding.server.resource.raw.CameraRawSensor;
 import smartBuilding.server.resource.raw.ResourceDataListener;
 import smartBuilding.server.resource.raw.SmartObjectResource;
-import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.eclipse.californium.core.CoapResource;
 import org.eclipse.californium.core.coap.CoAP;
@@ -15,7 +14,6 @@ import utils.CoreInterfaces;
 import utils.SenMLPack;
 import utils.SenMLRecord;
 
-import java.util.Optional;
 
 public class CoapCameraResource extends CoapResource {
 
@@ -34,6 +32,7 @@ public class CoapCameraResource extends CoapResource {
     private CameraRawSensor cameraRawSensor;
 
     private ObjectMapper objectMapper;
+    private SenMLRepresentationCache representationCache;
 
 
     public CoapCameraResource(String name, String deviceId, CameraRawSensor cameraRawSensor) {
@@ -43,8 +42,8 @@ public class CoapCameraResource extends CoapResource {
         {
             this.deviceId = deviceId;
             this.cameraRawSensor = cameraRawSensor;
-            this.objectMapper=new ObjectMapper();
-            this.objectMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+            this.objectMapper=SenMLRepresentationCache.sharedObjectMapper();
+            this.representationCache = new SenMLRepresentationCache(this::buildSenmlPack, this.objectMapper);
 
             setObservable(true);
             setObserveType(CoAP.Type.CON);
@@ -54,6 +53,7 @@ public class CoapCameraResource extends CoapResource {
             getAttributes().addAttribute("rt", cameraRawSensor.getType());
             getAttributes().addAttribute("if", CoreInterfaces.CORE_S.getValue());
             getAttributes().addAttribute("ct", Integer.toString(MediaTypeRegistry.APPLICATION_SENML_JSON));
+            getAttributes().addAttribute("ct", Integer.toString(MediaTypeRegistry.APPLICATION_SENML_CBOR));
             getAttributes().addAttribute("ct", Integer.toString(MediaTypeRegistry.TEXT_PLAIN));
 
         }
@@ -72,39 +72,38 @@ public class CoapCameraResource extends CoapResource {
 
 
     }
-    private Optional<String> getJsonSenmlResponse() {
 
-        try {
-            SenMLPack senMLPack = new SenMLPack();
+    private SenMLPack buildSenmlPack(long timestamp) {
 
-            SenMLRecord senMLRecord = new SenMLRecord();
-            senMLRecord.setBn(String.format("%s:%s", this.deviceId,"presencemonitoring"));
-            senMLRecord.setBver(SENSOR_VERSION);
-            senMLRecord.setU(UNIT);
-            senMLRecord.setV(value);
-            senMLRecord.setT(System.currentTimeMillis());
+        SenMLPack senMLPack = new SenMLPack();
 
-            senMLPack.add(senMLRecord);
+        SenMLRecord senMLRecord = new SenMLRecord();
+        senMLRecord.setBn(String.format("%s:%s", this.deviceId,"presencemonitoring"));
+        senMLRecord.setBver(SENSOR_VERSION);
+        senMLRecord.setU(UNIT);
+        senMLRecord.setV(value);
+        senMLRecord.setT(timestamp);
 
-            return Optional.of(this.objectMapper.writeValueAsString(senMLPack));
+        senMLPack.add(senMLRecord);
 
-        } catch (Exception e) {
-            return Optional.empty();
-        }
+        return senMLPack;
+    }
+
+    @Override
+    public void changed() {
+        if(representationCache != null)
+            representationCache.invalidate();
+        super.changed();
     }
 
-        @Override
+    @Override
     public void handleGET (CoapExchange exchange)
     {
 
-        exchange.setMaxAge(CameraRawSensor.UPDATE_PERIOD);
+        exchange.setMaxAge(Math.max(1, cameraRawSensor.getUpdatePeriod() / 1000));
 
 
-        Optional<String> senmlPayload = getJsonSenmlResponse();
-        if(senmlPayload.isPresent())
-            exchange.respond(CoAP.ResponseCode.CONTENT, senmlPayload.get(), exchange.getRequestOptions().getAccept());
-        else
-            exchange.respond(CoAP.ResponseCode.INTERNAL_SERVER_ERROR);
+        representationCache.respond(exchange);
 
 
     }
@@ -3,7 +3,6 @@ package smartBuilding.server.resource.coap;
 import smartBuilding.server.resource.raw.LightActuator;
 import smartBuilding.server.resource.raw.ResourceDataListener;
 import smartBuilding.server.resource.raw.SmartObjectResource;
-import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.eclipse.californium.core.CoapResource;
 import org.eclipse.californium.core.Utils;
@@ -16,7 +15,6 @@ import utils.CoreInterfaces;
 import utils.SenMLPack;
 import utils.SenMLRecord;
 
-import java.util.Optional;
 
 public class CoapLightResource extends CoapResource {
 
@@ -32,6 +30,7 @@ public class CoapLightResource extends CoapResource {
 
     private String deviceId;
     private ObjectMapper objectMapper;
+    private SenMLRepresentationCache representationCache;
 
 
     public CoapLightResource(String name, String deviceId, LightActuator lightActuator) {
@@ -43,8 +42,8 @@ public class CoapLightResource extends CoapResource {
         {
             this.deviceId = deviceId;
             this.lightActuator = lightActuator;
-            this.objectMapper=new ObjectMapper();
-            this.objectMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+            this.objectMapper=SenMLRepresentationCache.sharedObjectMapper();
+            this.representationCache = new SenMLRepresentationCache(this::buildSenmlPack, this.objectMapper);
 
             setObservable(true);
             setObserveType(CoAP.Type.CON);
@@ -54,12 +53,13 @@ public class CoapLightResource extends CoapResource {
             getAttributes().addAttribute("rt", lightActuator.getType());
             getAttributes().addAttribute("if", CoreInterfaces.CORE_A.getValue());
             getAttributes().addAttribute("ct", Integer.toString(MediaTypeRegistry.APPLICATION_SENML_JSON));
+            getAttributes().addAttribute("ct", Integer.toString(MediaTypeRegistry.APPLICATION_SENML_CBOR));
             getAttributes().addAttribute("ct", Integer.toString(MediaTypeRegistry.TEXT_PLAIN));
 
             lightActuator.addDataListener(new ResourceDataListener<Boolean>() {
                 @Override
                 public void onDataChanged(SmartObjectResource<Boolean> resource, Boolean updatedValue) {
-                    logger.info("Raw Resource Notification. New Value: {}", updatedValue);
+                    logger.debug("Raw Resource Notification. New Value: {}", updatedValue);
 
                     Is_Active=updatedValue;
                     changed();
@@ -72,45 +72,37 @@ public class CoapLightResource extends CoapResource {
         }
 
     }
-    private Optional<String> getJsonSenmlResponse() {
 
-        try {
+    private SenMLPack buildSenmlPack(long timestamp) {
 
-            SenMLPack senMLPack = new SenMLPack();
+        SenMLPack senMLPack = new SenMLPack();
 
-            SenMLRecord senMLRecord = new SenMLRecord();
-            senMLRecord.setBn(String.format("%s:%s", this.deviceId, "light"));
-            senMLRecord.setBver(ACTUATOR_VERSION);
-            senMLRecord.setVb(Is_Active);
-            senMLRecord.setT(System.currentTimeMillis());
+        SenMLRecord senMLRecord = new SenMLRecord();
+        senMLRecord.setBn(String.format("%s:%s", this.deviceId, "light"));
+        senMLRecord.setBver(ACTUATOR_VERSION);
+        senMLRecord.setVb(Is_Active);
+        senMLRecord.setT(timestamp);
 
-            senMLPack.add(senMLRecord);
+        senMLPack.add(senMLRecord);
 
-            logger.info("{}", senMLPack);
+        return senMLPack;
+    }
 
-            return Optional.of(this.objectMapper.writeValueAsString(senMLPack));
 
-        } catch (Exception e) {
-            return Optional.empty();
-        }
+    @Override
+    public void changed() {
+        if(representationCache != null)
+            representationCache.invalidate();
+        super.changed();
     }
 
-
     @Override
     public void handleGET(CoapExchange exchange) {
 
+        if(logger.isDebugEnabled())
+            logger.debug("Pretty Print: \n{}\nOptions: {}", Utils.prettyPrint(exchange.advanced().getRequest()), exchange.getRequestOptions());
 
-        logger.info("Pretty Print: \n{}", Utils.prettyPrint(exchange.advanced().getRequest()));
-        logger.info("Pretty Print: \n{}", exchange.getRequestOptions());
-
-        Optional<String> senmlPayload = getJsonSenmlResponse();
-
-        if (senmlPayload.isPresent()){
-            exchange.respond(CoAP.ResponseCode.CONTENT, senmlPayload.get(), exchange.getRequestOptions().getAccept());
-            logger.info("Pretty Print: \n{}", exchange.getRequestOptions());
-        }
-        else
-            exchange.respond(CoAP.ResponseCode.INTERNAL_SERVER_ERROR);
+        representationCache.respond(exchange);
 
     }
     @Override
@@ -121,7 +113,7 @@ public class CoapLightResource extends CoapResource {
                 this.Is_Active = !Is_Active;
                 this.lightActuator.setActive(Is_Active);
 
-                logger.info("Resource Status Updated: {}", this.Is_Active);
+                logger.debug("Resource Status Updated: {}", this.Is_Active);
 
                 changed();
 
@@ -143,12 +135,12 @@ public class CoapLightResource extends CoapResource {
 
                 boolean submittedValue = Boolean.parseBoolean(new String(exchange.getRequestPayload()));
 
-                logger.info("Submitted value: {}", submittedValue);
+                logger.debug("Submitted value: {}", submittedValue);
 
                 this.Is_Active = submittedValue;
                 this.lightActuator.setActive(this.Is_Active);
 
-                logger.info("Resource Status Updated: {}", this.Is_Active);
+                logger.debug("Resource Status Updated: {}", this.Is_Active);
 
                 changed();
 
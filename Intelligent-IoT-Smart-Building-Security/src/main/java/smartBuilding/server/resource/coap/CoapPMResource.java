@@ -1,6 +1,5 @@
 package smartBuilding.server.resource.coap;
 
-import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.eclipse.californium.core.CoapResource;
 import org.eclipse.californium.core.coap.CoAP;
@@ -16,7 +15,6 @@ import utils.CoreInterfaces;
 import utils.SenMLPack;
 import utils.SenMLRecord;
 
-import java.util.Optional;
 
 public class CoapPMResource extends CoapResource {
 
@@ -30,6 +28,7 @@ public class CoapPMResource extends CoapResource {
 
     private String deviceId;
     private ObjectMapper objectMapper;
+    private SenMLRepresentationCache representationCache;
 
 
     public CoapPMResource(String name, String deviceId, PMRaw pmRaw) throws InterruptedException {
@@ -39,8 +38,8 @@ public class CoapPMResource extends CoapResource {
         {
             this.deviceId = deviceId;
             this.pmRaw = pmRaw;
-            this.objectMapper=new ObjectMapper();
-            this.objectMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+            this.objectMapper=SenMLRepresentationCache.sharedObjectMapper();
+            this.representationCache = new SenMLRepresentationCache(this::buildSenmlPack, this.objectMapper);
 
             setObservable(false);
             setObserveType(CoAP.Type.CON);
@@ -49,6 +48,7 @@ public class CoapPMResource extends CoapResource {
             getAttributes().addAttribute("rt", pmRaw.getType());
             getAttributes().addAttribute("if", CoreInterfaces.CORE_S.getValue());
             getAttributes().addAttribute("ct", Integer.toString(MediaTypeRegistry.APPLICATION_SENML_JSON));
+            getAttributes().addAttribute("ct", Integer.toString(MediaTypeRegistry.APPLICATION_SENML_CBOR));
             getAttributes().addAttribute("ct", Integer.toString(MediaTypeRegistry.TEXT_PLAIN));
 
 
@@ -61,38 +61,30 @@ public class CoapPMResource extends CoapResource {
     }
 
 
-    private Optional<String> getJsonSenmlResponse() {
+    private SenMLPack buildSenmlPack(long timestamp) {
 
-        try {
+        SenMLPack senMLPack = new SenMLPack();
 
-            SenMLPack senMLPack = new SenMLPack();
+        SenMLRecord senMLRecord = new SenMLRecord();
+        senMLRecord.setBn(String.format("%s:%s", this.deviceId, "presencemonitoring"));
+        senMLRecord.setBver(ACTUATOR_VERSION);
+        senMLRecord.setT(timestamp);
 
-            SenMLRecord senMLRecord = new SenMLRecord();
-            senMLRecord.setBn(String.format("%s:%s", this.deviceId, "presencemonitoring"));
-            senMLRecord.setBver(ACTUATOR_VERSION);
-            senMLRecord.setT(System.currentTimeMillis());
+        senMLPack.add(senMLRecord);
 
-            senMLPack.add(senMLRecord);
-
-            return Optional.of(this.objectMapper.writeValueAsString(senMLPack));
+        return senMLPack;
+    }
 
-        } catch (Exception e) {
-            return Optional.empty();
-        }
+    @Override
+    public void changed() {
+        if(representationCache != null)
+            representationCache.invalidate();
+        super.changed();
     }
 
     @Override
     public void handleGET(CoapExchange exchange){
 
-        if(exchange.getRequestOptions().getAccept() == MediaTypeRegistry.APPLICATION_SENML_JSON ||
-                exchange.getRequestOptions().getAccept() == MediaTypeRegistry.APPLICATION_JSON){
-
-            Optional<String> senmlPayload = getJsonSenmlResponse();
-
-            if(senmlPayload.isPresent())
-                exchange.respond(CoAP.ResponseCode.CONTENT, senmlPayload.get(), exchange.getRequestOptions().getAccept());
-            else
-                exchange.respond(CoAP.ResponseCode.INTERNAL_SERVER_ERROR);
-        }
+        representationCache.respond(exchange);
     }
 }
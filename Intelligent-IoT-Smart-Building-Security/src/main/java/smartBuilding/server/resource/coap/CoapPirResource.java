@@ -3,7 +3,6 @@ package smartBuilding.server.resource.coap;
 import smartBuilding.server.resource.raw.PirRawSensor;
 import smartBuilding.server.resource.raw.ResourceDataListener;
 import smartBuilding.server.resource.raw.SmartObjectResource;
-import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.eclipse.californium.core.CoapResource;
 import org.eclipse.californium.core.coap.CoAP;
@@ -15,7 +14,6 @@ import utils.CoreInterfaces;
 import utils.SenMLPack;
 import utils.SenMLRecord;
 
-import java.util.Optional;
 
 public class  CoapPirResource extends CoapResource {
 
@@ -34,6 +32,7 @@ public class  CoapPirResource extends CoapResource {
     private PirRawSensor pirRawSensor;
 
     private ObjectMapper objectMapper;
+    private SenMLRepresentationCache representationCache;
 
 
     public CoapPirResource(String name, String deviceId, PirRawSensor pirRawSensor) {
@@ -44,8 +43,8 @@ public class  CoapPirResource extends CoapResource {
 
             this.deviceId = deviceId;
             this.pirRawSensor = pirRawSensor;
-            this.objectMapper=new ObjectMapper();
-            this.objectMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+            this.objectMapper=SenMLRepresentationCache.sharedObjectMapper();
+            this.representationCache = new SenMLRepresentationCache(this::buildSenmlPack, this.objectMapper);
 
             setObservable(true);
             setObserveType(CoAP.Type.CON);
@@ -55,6 +54,7 @@ public class  CoapPirResource extends CoapResource {
             getAttributes().addAttribute("rt", pirRawSensor.getType());
             getAttributes().addAttribute("if", CoreInterfaces.CORE_S.getValue());
             getAttributes().addAttribute("ct", Integer.toString(MediaTypeRegistry.APPLICATION_SENML_JSON));
+            getAttributes().addAttribute("ct", Integer.toString(MediaTypeRegistry.APPLICATION_SENML_CBOR));
             getAttributes().addAttribute("ct", Integer.toString(MediaTypeRegistry.TEXT_PLAIN));
 
             pirRawSensor.addDataListener(new ResourceDataListener<Boolean>() {
@@ -75,42 +75,39 @@ public class  CoapPirResource extends CoapResource {
 
 
     }
-    private Optional<String> getJsonSenmlResponse() {
 
-        try {
+    private SenMLPack buildSenmlPack(long timestamp) {
 
-            SenMLPack senMLPack = new SenMLPack();
+        SenMLPack senMLPack = new SenMLPack();
 
-            SenMLRecord senMLRecordValue = new SenMLRecord();
-            senMLRecordValue.setBn(String.format("%s:%s", this.deviceId, "presencemonitoring"));
-            senMLRecordValue.setBver(SENSOR_VERSION);
-            senMLRecordValue.setU(UNIT);
-            senMLRecordValue.setVb(value);
-            senMLRecordValue.setT(System.currentTimeMillis());
+        SenMLRecord senMLRecordValue = new SenMLRecord();
+        senMLRecordValue.setBn(String.format("%s:%s", this.deviceId, "presencemonitoring"));
+        senMLRecordValue.setBver(SENSOR_VERSION);
+        senMLRecordValue.setU(UNIT);
+        senMLRecordValue.setVb(value);
+        senMLRecordValue.setT(timestamp);
 
 
-            senMLPack.add(senMLRecordValue);
+        senMLPack.add(senMLRecordValue);
 
-            return Optional.of(this.objectMapper.writeValueAsString(senMLPack));
+        return senMLPack;
+    }
 
-        } catch (Exception e) {
-            return Optional.empty();
-        }
+    @Override
+    public void changed() {
+        if(representationCache != null)
+            representationCache.invalidate();
+        super.changed();
     }
 
-        @Override
+    @Override
     public void handleGET (CoapExchange exchange)
     {
 
-        exchange.setMaxAge(PirRawSensor.UPDATE_PERIOD);
-
+        exchange.setMaxAge(Math.max(1, pirRawSensor.getUpdatePeriod() / 1000));
 
-        Optional<String> senmlPayload = getJsonSenmlResponse();
 
-        if(senmlPayload.isPresent())
-            exchange.respond(CoAP.ResponseCode.CONTENT, senmlPayload.get(), exchange.getRequestOptions().getAccept());
-        else
-            exchange.respond(CoAP.ResponseCode.INTERNAL_SERVER_ERROR);
+        representationCache.respond(exchange);
 
 
     }
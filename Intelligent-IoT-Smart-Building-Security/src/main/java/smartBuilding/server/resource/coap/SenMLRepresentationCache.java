@@ -0,0 +1,112 @@
+package smartBuilding.server.resource.coap;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.SenMLContentFormat;
+import utils.SenMLPack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongFunction;
+
+/*rappresentazione SenML di una risorsa serializzata una sola volta per ogni cambio di stato
+(e per ogni content-format richiesto, SenML CBOR o JSON in base all'Accept), poi servita a tutte le GET
+e a tutti gli observer. Le risorse coap costruiscono il pack solo qui dentro, con il tempo del cambio di
+stato, e chiamano invalidate() nel proprio changed() prima di notificare gli observer.
+Ogni versione ha un ETag: una GET con lo stesso ETag riceve 2.03 Valid senza payload*/
+
+public class SenMLRepresentationCache {
+
+    private final static Logger logger = LoggerFactory.getLogger(SenMLRepresentationCache.class);
+
+    //un solo mapper per tutte le risorse: con migliaia di oggetti simulati uno per risorsa pesa
+    private static final ObjectMapper SHARED_OBJECT_MAPPER = new ObjectMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+    private final LongFunction<SenMLPack> packBuilder;
+    private final ObjectMapper objectMapper;
+
+    private final Map<Integer, Representation> representationMap = new HashMap<>();
+    //parte da un valore casuale, cosi' un ETag di prima di un riavvio non viene ritenuto valido
+    private int version = ThreadLocalRandom.current().nextInt();
+    private long changedAt = System.currentTimeMillis();
+
+    //packBuilder riceve l'istante dell'ultimo cambio di stato (ms), da usare come tempo del record
+    public SenMLRepresentationCache(LongFunction<SenMLPack> packBuilder, ObjectMapper objectMapper) {
+        this.packBuilder = packBuilder;
+        this.objectMapper = objectMapper;
+    }
+
+    public static ObjectMapper sharedObjectMapper() {
+        return SHARED_OBJECT_MAPPER;
+    }
+
+    //va chiamato dopo aver aggiornato lo stato della risorsa e prima di notificare gli observer
+    public synchronized void invalidate() {
+        version++;
+        changedAt = System.currentTimeMillis();
+        representationMap.clear();
+    }
+
+    public synchronized Representation get(int contentFormat) throws IOException {
+        Representation representation = representationMap.get(contentFormat);
+        if(representation == null){
+            byte[] payload = SenMLContentFormat.encode(packBuilder.apply(changedAt), contentFormat, objectMapper);
+            byte[] etag = ByteBuffer.allocate(6).putInt(version).putShort((short) contentFormat).array();
+            representation = new Representation(payload, etag);
+            representationMap.put(contentFormat, representation);
+        }
+        return representation;
+    }
+
+    //risposta a una GET (o notifica): negoziazione del formato, ETag e 2.03 se il client ha gia' questa versione
+    public void respond(CoapExchange exchange) {
+
+        int contentFormat = SenMLContentFormat.negotiate(exchange.getRequestOptions().getAccept());
+        if(contentFormat == MediaTypeRegistry.UNDEFINED){
+            exchange.respond(CoAP.ResponseCode.NOT_ACCEPTABLE);
+            return;
+        }
+
+        Representation representation;
+        try {
+            representation = get(contentFormat);
+        } catch (Exception e) {
+            logger.error("Error serializing SenML representation: {}", e.getLocalizedMessage());
+            exchange.respond(CoAP.ResponseCode.INTERNAL_SERVER_ERROR);
+            return;
+        }
+
+        exchange.setETag(representation.etag);
+        if(exchange.getRequestOptions().containsETag(representation.etag))
+            exchange.respond(CoAP.ResponseCode.VALID);
+        else
+            exchange.respond(CoAP.ResponseCode.CONTENT, representation.payload, contentFormat);
+    }
+
+    public static final class Representation {
+        private final byte[] payload;
+        private final byte[] etag;
+
+        private Representation(byte[] payload, byte[] etag) {
+            this.payload = payload;
+            this.etag = etag;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        public byte[] getEtag() {
+            return etag;
+        }
+    }
+
+}
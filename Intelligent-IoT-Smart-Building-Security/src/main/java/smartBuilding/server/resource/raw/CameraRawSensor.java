@@ -4,8 +4,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Random;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.UUID;
 
 public class CameraRawSensor extends SmartObjectResource<Integer>{
@@ -36,10 +34,20 @@ public class CameraRawSensor extends SmartObjectResource<Integer>{
 
     private Random random;
 
-    private Timer updateTimer = null;
+    private final SensorScheduler scheduler;
+
+    private final long updatePeriod;
+
+    private SensorScheduler.Task updateTask = null;
 
     public CameraRawSensor() {
+        this(SensorScheduler.getDefault(), UPDATE_PERIOD);
+    }
+
+    public CameraRawSensor(SensorScheduler scheduler, long updatePeriod) {
         super(UUID.randomUUID().toString(), RESOURCE_TYPE);
+        this.scheduler = scheduler;
+        this.updatePeriod = updatePeriod;
         init();
     }
 
@@ -47,7 +55,15 @@ public class CameraRawSensor extends SmartObjectResource<Integer>{
 
         try{
 
-            this.random = new Random(System.currentTimeMillis());
+            //niente seed dal clock: i sensori creati nello stesso millisecondo avrebbero la stessa sequenza
+            this.random = new Random();
+
+            //senza scheduler il valore arriva solo da setValue (replay di un trace) e parte da 0
+            if (this.scheduler == null) {
+                this.updatedValue = 0;
+                return;
+            }
+
             this.updatedValue = ((int) (MIN_VALUE + this.random.nextDouble()*(MAX_VALUE - MIN_VALUE)));
 
             startPeriodicEventValueUpdateTask();
@@ -62,29 +78,25 @@ public class CameraRawSensor extends SmartObjectResource<Integer>{
 
         try{
 
-            logger.info("Starting periodic Update Task with Period: {} ms", UPDATE_PERIOD);
+            logger.debug("Starting periodic Update Task with Period: {} ms", updatePeriod);
 
-            this.updateTimer = new Timer();
-            this.updateTimer.schedule(new TimerTask() {
-                @Override
-                public void run() {
+            this.updateTask = this.scheduler.schedule(() -> {
 
-                    int people = (int) (MIN_VARIATION + MAX_VARIATION*random.nextDouble());
-                    if (random.nextDouble()>0.5){
-                        updatedValue = updatedValue + people;
+                int people = (int) (MIN_VARIATION + MAX_VARIATION*random.nextDouble());
+                if (random.nextDouble()>0.5){
+                    updatedValue = updatedValue + people;
+                }
+                else {
+                    if (updatedValue - people >= 0)
+                    {
+                        updatedValue = updatedValue - people;
                     }
-                    else {
-                        if (updatedValue - people >= 0)
-                        {
-                            updatedValue = updatedValue - people;
-                        }
 
-                    }
+                }
 
-                    notifyUpdate(updatedValue);
+                notifyUpdate(updatedValue);
 
-                }
-            }, TASK_DELAY_TIME, UPDATE_PERIOD);
+            }, TASK_DELAY_TIME, updatePeriod);
 
         }catch (Exception e){
             logger.error("Error executing periodic resource value ! Msg: {}", e.getLocalizedMessage());
@@ -92,6 +104,20 @@ public class CameraRawSensor extends SmartObjectResource<Integer>{
 
     }
 
+    public long getUpdatePeriod() {
+        return updatePeriod;
+    }
+
+    public void setValue(Integer value) {
+        this.updatedValue = value;
+        notifyUpdate(this.updatedValue);
+    }
+
+    public void stop() {
+        if (this.updateTask != null)
+            this.updateTask.cancel();
+    }
+
     @Override
     public Integer loadUpdatedValue() {
         return this.updatedValue;
@@ -4,8 +4,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Random;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.UUID;
 
 public class PirRawSensor extends SmartObjectResource<Boolean> {
@@ -31,18 +29,35 @@ public class PirRawSensor extends SmartObjectResource<Boolean> {
     private Random random;
 
 
-    private Timer updateTimer = null;
+    private final SensorScheduler scheduler;
+
+    private final long updatePeriod;
+
+    private SensorScheduler.Task updateTask = null;
 
 
     public PirRawSensor() {
+        this(SensorScheduler.getDefault(), UPDATE_PERIOD);
+    }
+
+    public PirRawSensor(SensorScheduler scheduler, long updatePeriod) {
         super(UUID.randomUUID().toString(), RESOURCE_TYPE);
+        this.scheduler = scheduler;
+        this.updatePeriod = updatePeriod;
         init();
     }
 
     private void init() {
 
         try {
-            this.random = new Random(System.currentTimeMillis());
+            //niente seed dal clock: i sensori creati nello stesso millisecondo avrebbero la stessa sequenza
+            this.random = new Random();
+
+            //senza scheduler il valore arriva solo da setValue (replay di un trace) e parte da false
+            if (this.scheduler == null) {
+                this.updatedValue = Boolean.FALSE;
+                return;
+            }
 
             if (half > this.random.nextDouble()) {
 
@@ -64,29 +79,39 @@ public class PirRawSensor extends SmartObjectResource<Boolean> {
 
         try {
 
-            logger.info("Starting periodic Update Task with Period: {} ms", UPDATE_PERIOD);
-
-            this.updateTimer = new Timer();
-            this.updateTimer.schedule(new TimerTask() {
-                @Override
-                public void run() {
+            logger.debug("Starting periodic Update Task with Period: {} ms", updatePeriod);
 
-                    if (half > random.nextDouble()) {
+            this.updateTask = this.scheduler.schedule(() -> {
 
-                        updatedValue = Boolean.TRUE;
-                    } else {
-                        updatedValue = Boolean.FALSE;
-                    }
-                    notifyUpdate(updatedValue);
+                if (half > random.nextDouble()) {
 
+                    updatedValue = Boolean.TRUE;
+                } else {
+                    updatedValue = Boolean.FALSE;
                 }
-            }, TASK_DELAY_TIME, UPDATE_PERIOD);
+                notifyUpdate(updatedValue);
+
+            }, TASK_DELAY_TIME, updatePeriod);
 
         } catch (Exception e) {
             logger.error("Error executing periodic resource value ! Msg: {}", e.getLocalizedMessage());
         }
     }
 
+    public long getUpdatePeriod() {
+        return updatePeriod;
+    }
+
+    public void setValue(Boolean value) {
+        this.updatedValue = value;
+        notifyUpdate(this.updatedValue);
+    }
+
+    public void stop() {
+        if (this.updateTask != null)
+            this.updateTask.cancel();
+    }
+
     @Override
     public Boolean loadUpdatedValue() {
         return this.updatedValue;
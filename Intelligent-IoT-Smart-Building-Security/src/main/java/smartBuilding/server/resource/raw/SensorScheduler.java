@@ -0,0 +1,138 @@
+package smartBuilding.server.resource.raw;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*scheduler condiviso da tutti i sensori simulati: pochi thread per migliaia di sensori,
+invece di un Timer (e quindi un thread) per sensore. Ogni aggiornamento viene rischedulato
+con un periodo variato di +-jitter, cosi' i sensori con lo stesso periodo non scattano tutti insieme*/
+
+public class SensorScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(SensorScheduler.class);
+
+    public static final int DEFAULT_THREADS = 2;
+
+    public static final double DEFAULT_JITTER = 0.1;
+
+    private static SensorScheduler defaultScheduler = null;
+
+    private final ScheduledExecutorService executor;
+
+    private final double jitter;
+
+    private final AtomicInteger scheduledSensors = new AtomicInteger();
+
+    private final LongAdder executedUpdates = new LongAdder();
+
+    public SensorScheduler(int threads, double jitter) {
+        if(threads <= 0)
+            throw new IllegalArgumentException("threads must be positive");
+        if(jitter < 0 || jitter >= 1)
+            throw new IllegalArgumentException("jitter must be in [0, 1)");
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "sensor-scheduler-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.executor = Executors.newScheduledThreadPool(threads, threadFactory);
+        this.jitter = jitter;
+    }
+
+    //usato dai sensori creati senza scheduler esplicito
+    public static synchronized SensorScheduler getDefault() {
+        if(defaultScheduler == null)
+            defaultScheduler = new SensorScheduler(DEFAULT_THREADS, DEFAULT_JITTER);
+        return defaultScheduler;
+    }
+
+    public Task schedule(Runnable update, long initialDelay, long period) {
+        if(period <= 0)
+            throw new IllegalArgumentException("period must be positive");
+
+        Task task = new Task(update, period);
+        scheduledSensors.incrementAndGet();
+        task.next(jittered(initialDelay));
+        return task;
+    }
+
+    private long jittered(long delay) {
+        if(jitter == 0 || delay == 0)
+            return delay;
+        double factor = 1 + jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+        return Math.max(1, (long) (delay * factor));
+    }
+
+    public int getScheduledSensors() {
+        return scheduledSensors.get();
+    }
+
+    //aggiornamenti eseguiti dall'avvio, per misurare il rate effettivo
+    public long getExecutedUpdates() {
+        return executedUpdates.sum();
+    }
+
+    public double getJitter() {
+        return jitter;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public final class Task implements Runnable {
+
+        private final Runnable update;
+        private final long period;
+        private volatile boolean cancelled = false;
+        private volatile ScheduledFuture<?> future;
+
+        private Task(Runnable update, long period) {
+            this.update = update;
+            this.period = period;
+        }
+
+        private void next(long delay) {
+            if(cancelled || executor.isShutdown())
+                return;
+            future = executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void run() {
+            try {
+                update.run();
+                executedUpdates.increment();
+            } catch (Exception e) {
+                //un sensore che fallisce non deve fermare gli altri ne' i suoi aggiornamenti successivi
+                logger.error("Error executing periodic resource value ! Msg: {}", e.getLocalizedMessage());
+            }
+            next(jittered(period));
+        }
+
+        public long getPeriod() {
+            return period;
+        }
+
+        public void cancel() {
+            if(cancelled)
+                return;
+            cancelled = true;
+            scheduledSensors.decrementAndGet();
+            ScheduledFuture<?> current = future;
+            if(current != null)
+                current.cancel(false);
+        }
+    }
+}
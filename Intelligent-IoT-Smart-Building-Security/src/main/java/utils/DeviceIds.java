@@ -0,0 +1,27 @@
+package utils;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*id dei device del simulatore: F<piano>A<area>D<indice>, es. F01A02D003 e' il terzo device dell'area
+F01A02. Il simulatore li genera, chi riceve solo i pack (rollup del cloud, replay) ne ricava l'area*/
+
+public class DeviceIds {
+
+    private static final Pattern DEVICE_ID_PATTERN = Pattern.compile("(F\\d+A\\d+)D\\d+");
+
+    private DeviceIds() {
+    }
+
+    public static String deviceId(int floor, int area, int device) {
+        return String.format("F%02dA%02dD%03d", floor, area, device);
+    }
+
+    //F01A02D003 -> F01A02, null se l'id non segue lo schema
+    public static String areaIdOf(String deviceId) {
+        if(deviceId == null)
+            return null;
+        Matcher matcher = DEVICE_ID_PATTERN.matcher(deviceId);
+        return matcher.matches() ? matcher.group(1) : null;
+    }
+}
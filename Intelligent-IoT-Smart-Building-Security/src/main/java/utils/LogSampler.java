@@ -0,0 +1,45 @@
+package utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*campionamento dei log per evento (una riga per notifica, per richiesta...): sample() restituisce true
+al piu' una volta ogni intervallo, gli eventi scartati nel frattempo vengono contati e restituiti da
+getAndResetSuppressed() per poterli riportare nella riga loggata.
+L'intervallo di default si imposta con la system property log.sampleIntervalMillis, 0 = nessun campionamento*/
+
+public class LogSampler {
+
+    public static final String INTERVAL_PROPERTY = "log.sampleIntervalMillis";
+    public static final long DEFAULT_INTERVAL_MILLIS = 1000;
+
+    private final long intervalNanos;
+    private final AtomicLong nextSampleNanos = new AtomicLong(System.nanoTime());
+    private final AtomicLong suppressed = new AtomicLong();
+
+    public LogSampler() {
+        this(Long.getLong(INTERVAL_PROPERTY, DEFAULT_INTERVAL_MILLIS));
+    }
+
+    public LogSampler(long intervalMillis) {
+        if(intervalMillis < 0)
+            throw new IllegalArgumentException("intervalMillis must not be negative");
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    }
+
+    public boolean sample() {
+        if(intervalNanos == 0)
+            return true;
+        long now = System.nanoTime();
+        long next = nextSampleNanos.get();
+        //un solo thread vince il compareAndSet per ogni intervallo
+        if(now - next >= 0 && nextSampleNanos.compareAndSet(next, now + intervalNanos))
+            return true;
+        suppressed.incrementAndGet();
+        return false;
+    }
+
+    public long getAndResetSuppressed() {
+        return suppressed.getAndSet(0);
+    }
+}
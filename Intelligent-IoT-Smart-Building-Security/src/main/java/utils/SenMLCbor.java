@@ -0,0 +1,469 @@
+package utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+/*codifica SenML CBOR (RFC 8428, sezione 6, content-format 112): un array di mappe con chiavi intere.
+I campi assenti non vengono scritti, i numeri interi diventano interi CBOR e gli altri float a 32 bit
+quando non si perde precisione, altrimenti a 64 bit. vd, che in JSON e' base64url, in CBOR e' una byte string*/
+
+public final class SenMLCbor {
+
+    private static final int BVER = -1;
+    private static final int BN = -2;
+    private static final int BT = -3;
+    private static final int BU = -4;
+    private static final int BV = -5;
+    private static final int N = 0;
+    private static final int U = 1;
+    private static final int V = 2;
+    private static final int VS = 3;
+    private static final int VB = 4;
+    private static final int S = 5;
+    private static final int T = 6;
+    private static final int UT = 7;
+    private static final int VD = 8;
+
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_BYTES = 2;
+    private static final int MAJOR_TEXT = 3;
+    private static final int MAJOR_ARRAY = 4;
+    private static final int MAJOR_MAP = 5;
+    private static final int MAJOR_TAG = 6;
+    private static final int MAJOR_SIMPLE = 7;
+
+    private static final int FALSE = 20;
+    private static final int TRUE = 21;
+    private static final int NULL = 22;
+    private static final int HALF_FLOAT = 25;
+    private static final int SINGLE_FLOAT = 26;
+    private static final int DOUBLE_FLOAT = 27;
+    private static final int INDEFINITE = 31;
+    private static final int BREAK = 0xff;
+
+    //limite per non allocare array enormi su payload malformati
+    private static final int MAX_ITEMS = 65536;
+    //limite di annidamento dei valori ignorati: la skip e' ricorsiva e non deve finire lo stack
+    private static final int MAX_DEPTH = 16;
+
+    private SenMLCbor() {
+    }
+
+    ///ENCODE
+
+    public static byte[] encode(SenMLPack pack) {
+        Writer writer = new Writer(32 + pack.size() * 48);
+        writer.head(MAJOR_ARRAY, pack.size());
+        for(SenMLRecord record : pack)
+            writeRecord(writer, record);
+        return writer.toByteArray();
+    }
+
+    private static void writeRecord(Writer writer, SenMLRecord record) {
+
+        byte[] vd = record.getVd() != null ? decodeBase64(record.getVd()) : null;
+
+        int fields = (record.hasBver() ? 1 : 0) + (record.getBn() != null ? 1 : 0) + (record.hasBt() ? 1 : 0)
+                + (record.getBu() != null ? 1 : 0) + (record.hasBv() ? 1 : 0) + (record.getN() != null ? 1 : 0)
+                + (record.getU() != null ? 1 : 0) + (record.hasV() ? 1 : 0) + (record.getVs() != null ? 1 : 0)
+                + (record.hasVb() ? 1 : 0) + (record.hasS() ? 1 : 0) + (record.hasT() ? 1 : 0)
+                + (record.hasUt() ? 1 : 0) + (record.getVd() != null ? 1 : 0);
+        writer.head(MAJOR_MAP, fields);
+
+        if(record.hasBver())
+            writer.label(BVER).number(record.getBverAsDouble());
+        if(record.getBn() != null)
+            writer.label(BN).text(record.getBn());
+        if(record.hasBt())
+            writer.label(BT).number(record.getBtAsDouble());
+        if(record.getBu() != null)
+            writer.label(BU).text(record.getBu());
+        if(record.hasBv())
+            writer.label(BV).number(record.getBvAsDouble());
+        if(record.getN() != null)
+            writer.label(N).text(record.getN());
+        if(record.getU() != null)
+            writer.label(U).text(record.getU());
+        if(record.hasV())
+            writer.label(V).number(record.getVAsDouble());
+        if(record.getVs() != null)
+            writer.label(VS).text(record.getVs());
+        if(record.hasVb())
+            writer.label(VB).bool(record.getVbAsBoolean());
+        if(record.hasS())
+            writer.label(S).number(record.getSAsDouble());
+        if(record.hasT())
+            writer.label(T).number(record.getTAsDouble());
+        if(record.hasUt())
+            writer.label(UT).number(record.getUtAsDouble());
+        if(record.getVd() != null){
+            //un vd che non e' base64url valido viene lasciato come testo
+            writer.label(VD);
+            if(vd != null)
+                writer.bytes(vd);
+            else
+                writer.text(record.getVd());
+        }
+    }
+
+    private static byte[] decodeBase64(String value) {
+        try {
+            return Base64.getUrlDecoder().decode(value);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static final class Writer {
+
+        private byte[] buffer;
+        private int position = 0;
+
+        private Writer(int capacity) {
+            this.buffer = new byte[capacity];
+        }
+
+        private void ensure(int bytes) {
+            if(position + bytes > buffer.length)
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + bytes));
+        }
+
+        private void put(int value) {
+            buffer[position++] = (byte) value;
+        }
+
+        private void head(int major, long value) {
+            ensure(9);
+            int type = major << 5;
+            if(value < 24){
+                put(type | (int) value);
+            } else if(value < 0x100){
+                put(type | 24);
+                put((int) value);
+            } else if(value < 0x10000){
+                put(type | 25);
+                put((int) (value >> 8));
+                put((int) value);
+            } else if(value < 0x100000000L){
+                put(type | 26);
+                for(int shift = 24; shift >= 0; shift -= 8)
+                    put((int) (value >> shift));
+            } else {
+                put(type | 27);
+                for(int shift = 56; shift >= 0; shift -= 8)
+                    put((int) (value >> shift));
+            }
+        }
+
+        private Writer label(int label) {
+            integer(label);
+            return this;
+        }
+
+        private void integer(long value) {
+            if(value >= 0)
+                head(MAJOR_UNSIGNED, value);
+            else
+                head(MAJOR_NEGATIVE, -1 - value);
+        }
+
+        private void number(double value) {
+            if(value == Math.rint(value) && Math.abs(value) < 9007199254740992d){
+                integer((long) value);
+            } else if((float) value == value || Double.isNaN(value)){
+                ensure(5);
+                put(MAJOR_SIMPLE << 5 | SINGLE_FLOAT);
+                int bits = Float.floatToIntBits((float) value);
+                for(int shift = 24; shift >= 0; shift -= 8)
+                    put(bits >> shift);
+            } else {
+                ensure(9);
+                put(MAJOR_SIMPLE << 5 | DOUBLE_FLOAT);
+                long bits = Double.doubleToLongBits(value);
+                for(int shift = 56; shift >= 0; shift -= 8)
+                    put((int) (bits >> shift));
+            }
+        }
+
+        private void text(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            head(MAJOR_TEXT, bytes.length);
+            raw(bytes);
+        }
+
+        private void bytes(byte[] value) {
+            head(MAJOR_BYTES, value.length);
+            raw(value);
+        }
+
+        private void raw(byte[] value) {
+            ensure(value.length);
+            System.arraycopy(value, 0, buffer, position, value.length);
+            position += value.length;
+        }
+
+        private void bool(boolean value) {
+            ensure(1);
+            put(MAJOR_SIMPLE << 5 | (value ? TRUE : FALSE));
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(buffer, position);
+        }
+    }
+
+    ///DECODE
+
+    public static SenMLPack decode(byte[] payload) throws IOException {
+        if(payload == null || payload.length == 0)
+            throw new IOException("Empty SenML CBOR payload");
+
+        Reader reader = new Reader(payload);
+        int head = reader.next();
+        if(head >> 5 != MAJOR_ARRAY)
+            throw new IOException("SenML CBOR payload is not an array");
+
+        SenMLPack pack = new SenMLPack();
+        long records = reader.length(head);
+        for(long i = 0; records < 0 ? !reader.atBreak() : i < records; i++)
+            pack.add(readRecord(reader));
+
+        if(reader.position != payload.length)
+            throw new IOException("Trailing bytes after SenML CBOR pack");
+        return pack;
+    }
+
+    private static SenMLRecord readRecord(Reader reader) throws IOException {
+        int head = reader.next();
+        if(head >> 5 != MAJOR_MAP)
+            throw new IOException("SenML CBOR record is not a map");
+
+        SenMLRecord record = new SenMLRecord();
+        long fields = reader.length(head);
+        for(long i = 0; fields < 0 ? !reader.atBreak() : i < fields; i++){
+            int keyHead = reader.next();
+            if(keyHead >> 5 != MAJOR_UNSIGNED && keyHead >> 5 != MAJOR_NEGATIVE){
+                //chiavi testuali o di altro tipo non appartengono a SenML CBOR
+                reader.skip(keyHead, 0);
+                reader.skip(reader.next(), 0);
+                continue;
+            }
+            long label = reader.integer(keyHead);
+            //le label SenML sono piccole, (int) ne farebbe coincidere una enorme con una label nota
+            if(label < Integer.MIN_VALUE || label > Integer.MAX_VALUE)
+                throw new IOException("SenML CBOR label out of range: " + label);
+            int valueHead = reader.next();
+
+            if(valueHead == (MAJOR_SIMPLE << 5 | NULL))
+                continue;
+
+            switch ((int) label){
+                case BVER:
+                    record.setBver(reader.number(valueHead));
+                    break;
+                case BN:
+                    record.setBn(reader.text(valueHead));
+                    break;
+                case BT:
+                    record.setBt(reader.number(valueHead));
+                    break;
+                case BU:
+                    record.setBu(reader.text(valueHead));
+                    break;
+                case BV:
+                    record.setBv(reader.number(valueHead));
+                    break;
+                case N:
+                    record.setN(reader.text(valueHead));
+                    break;
+                case U:
+                    record.setU(reader.text(valueHead));
+                    break;
+                case V:
+                    record.setV(reader.number(valueHead));
+                    break;
+                case VS:
+                    record.setVs(reader.text(valueHead));
+                    break;
+                case VB:
+                    record.setVb(reader.bool(valueHead));
+                    break;
+                case S:
+                    record.setS(reader.number(valueHead));
+                    break;
+                case T:
+                    record.setT(reader.number(valueHead));
+                    break;
+                case UT:
+                    record.setUt(reader.number(valueHead));
+                    break;
+                case VD:
+                    if(valueHead >> 5 == MAJOR_BYTES)
+                        record.setVd(Base64.getUrlEncoder().withoutPadding().encodeToString(reader.bytes(valueHead)));
+                    else
+                        record.setVd(reader.text(valueHead));
+                    break;
+                default:
+                    reader.skip(valueHead, 0);
+            }
+        }
+        return record;
+    }
+
+    private static final class Reader {
+
+        private final byte[] payload;
+        private int position = 0;
+
+        private Reader(byte[] payload) {
+            this.payload = payload;
+        }
+
+        private int next() throws IOException {
+            if(position >= payload.length)
+                throw new IOException("Truncated SenML CBOR payload");
+            return payload[position++] & 0xff;
+        }
+
+        private boolean atBreak() throws IOException {
+            if(position >= payload.length)
+                throw new IOException("Truncated SenML CBOR payload");
+            if((payload[position] & 0xff) == BREAK){
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        //argomento della testa: valore, lunghezza o -1 per le lunghezze indefinite
+        private long argument(int head) throws IOException {
+            int info = head & 0x1f;
+            if(info < 24)
+                return info;
+            if(info == INDEFINITE)
+                return -1;
+            int size;
+            switch (info){
+                case 24: size = 1; break;
+                case 25: size = 2; break;
+                case 26: size = 4; break;
+                case 27: size = 8; break;
+                default: throw new IOException("Invalid CBOR additional info " + info);
+            }
+            long value = 0;
+            for(int i = 0; i < size; i++)
+                value = value << 8 | next();
+            return value;
+        }
+
+        private long length(int head) throws IOException {
+            long length = argument(head);
+            if(length > MAX_ITEMS || length < -1)
+                throw new IOException("CBOR item too large");
+            return length;
+        }
+
+        private long integer(int head) throws IOException {
+            long value = argument(head);
+            if(value < 0)
+                throw new IOException("Integer out of range");
+            return head >> 5 == MAJOR_NEGATIVE ? -1 - value : value;
+        }
+
+        private double number(int head) throws IOException {
+            int major = head >> 5;
+            if(major == MAJOR_UNSIGNED || major == MAJOR_NEGATIVE)
+                return integer(head);
+            if(major == MAJOR_SIMPLE){
+                switch (head & 0x1f){
+                    case HALF_FLOAT:
+                        return halfToDouble((int) argument(head));
+                    case SINGLE_FLOAT:
+                        return Float.intBitsToFloat((int) argument(head));
+                    case DOUBLE_FLOAT:
+                        return Double.longBitsToDouble(argument(head));
+                }
+            }
+            throw new IOException("Expected a CBOR number");
+        }
+
+        private boolean bool(int head) throws IOException {
+            if(head == (MAJOR_SIMPLE << 5 | TRUE))
+                return true;
+            if(head == (MAJOR_SIMPLE << 5 | FALSE))
+                return false;
+            throw new IOException("Expected a CBOR boolean");
+        }
+
+        private String text(int head) throws IOException {
+            if(head >> 5 != MAJOR_TEXT)
+                throw new IOException("Expected a CBOR text string");
+            return new String(bytesOf(head), StandardCharsets.UTF_8);
+        }
+
+        private byte[] bytes(int head) throws IOException {
+            if(head >> 5 != MAJOR_BYTES)
+                throw new IOException("Expected a CBOR byte string");
+            return bytesOf(head);
+        }
+
+        private byte[] bytesOf(int head) throws IOException {
+            long length = argument(head);
+            if(length < 0)
+                throw new IOException("Indefinite length strings are not supported");
+            if(length > payload.length - position)
+                throw new IOException("Truncated SenML CBOR payload");
+            byte[] value = Arrays.copyOfRange(payload, position, position + (int) length);
+            position += (int) length;
+            return value;
+        }
+
+        private void skip(int head, int depth) throws IOException {
+            if(depth > MAX_DEPTH)
+                throw new IOException("SenML CBOR nesting too deep");
+            switch (head >> 5){
+                case MAJOR_UNSIGNED:
+                case MAJOR_NEGATIVE:
+                    argument(head);
+                    break;
+                case MAJOR_BYTES:
+                case MAJOR_TEXT:
+                    bytesOf(head);
+                    break;
+                case MAJOR_ARRAY:
+                case MAJOR_MAP: {
+                    long items = length(head);
+                    int perItem = head >> 5 == MAJOR_MAP ? 2 : 1;
+                    for(long i = 0; items < 0 ? !atBreak() : i < items; i++)
+                        for(int j = 0; j < perItem; j++)
+                            skip(next(), depth + 1);
+                    break;
+                }
+                case MAJOR_TAG:
+                    argument(head);
+                    skip(next(), depth + 1);
+                    break;
+                default:
+                    if((head & 0x1f) >= 24)
+                        argument(head);
+            }
+        }
+
+        private static double halfToDouble(int bits) {
+            int exponent = (bits >> 10) & 0x1f;
+            int mantissa = bits & 0x3ff;
+            double value;
+            if(exponent == 0)
+                value = mantissa * Math.pow(2, -24);
+            else if(exponent != 31)
+                value = (mantissa + 1024) * Math.pow(2, exponent - 25);
+            else
+                value = mantissa == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+            return (bits & 0x8000) != 0 ? -value : value;
+        }
+    }
+
+}
@@ -0,0 +1,47 @@
+package utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+
+import java.io.IOException;
+
+//scelta del formato SenML in base all'opzione Accept e decodifica in base al Content-Format della risposta
+public final class SenMLContentFormat {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private SenMLContentFormat() {
+    }
+
+    /*formato della risposta per l'Accept richiesto: CBOR se chiesto (application/cbor resta 60, il payload
+    SenML CBOR e' CBOR valido), JSON se chiesto o senza Accept (text/plain resta JSON come prima),
+    UNDEFINED se il formato non e' supportato (4.06)*/
+    public static int negotiate(int accept) {
+        switch (accept){
+            case MediaTypeRegistry.APPLICATION_SENML_CBOR:
+            case MediaTypeRegistry.APPLICATION_CBOR:
+                return accept;
+            case MediaTypeRegistry.UNDEFINED:
+            case MediaTypeRegistry.APPLICATION_SENML_JSON:
+                return MediaTypeRegistry.APPLICATION_SENML_JSON;
+            case MediaTypeRegistry.APPLICATION_JSON:
+            case MediaTypeRegistry.TEXT_PLAIN:
+                return accept;
+            default:
+                return MediaTypeRegistry.UNDEFINED;
+        }
+    }
+
+    public static byte[] encode(SenMLPack pack, int contentFormat, ObjectMapper jsonMapper) throws IOException {
+        if(contentFormat == MediaTypeRegistry.APPLICATION_SENML_CBOR || contentFormat == MediaTypeRegistry.APPLICATION_CBOR)
+            return SenMLCbor.encode(pack);
+        return jsonMapper.writeValueAsBytes(pack);
+    }
+
+    public static SenMLPack decode(byte[] payload, int contentFormat) throws IOException {
+        if(contentFormat == MediaTypeRegistry.APPLICATION_SENML_CBOR || contentFormat == MediaTypeRegistry.APPLICATION_CBOR)
+            return SenMLCbor.decode(payload);
+        return objectMapper.readValue(payload, SenMLPack.class);
+    }
+
+}
@@ -3,4 +3,69 @@ package utils;
 import java.util.ArrayList;
 
 public class SenMLPack extends ArrayList<SenMLRecord> {
-}
\ No newline at end of file
+
+    /*record risolti come da RFC 8428 (4.6): nome = bn + n, tempo = bt + t (assoluto, i tempi sotto 2^28
+    sono relativi a nowSeconds), unita' = u o bu, valore = bv + v. Nei record risolti restano solo bver
+    e i campi propri, senza campi base*/
+    public SenMLPack resolve(double nowSeconds) {
+
+        SenMLPack resolved = new SenMLPack();
+
+        String baseName = null;
+        String baseUnit = null;
+        double baseTime = 0;
+        boolean hasBaseValue = false;
+        double baseValue = 0;
+        boolean hasBaseVersion = false;
+        double baseVersion = 0;
+
+        for(SenMLRecord record : this){
+            if(record.getBn() != null)
+                baseName = record.getBn();
+            if(record.getBu() != null)
+                baseUnit = record.getBu();
+            if(record.hasBt())
+                baseTime = record.getBtAsDouble();
+            if(record.hasBv()){
+                hasBaseValue = true;
+                baseValue = record.getBvAsDouble();
+            }
+            if(record.hasBver()){
+                hasBaseVersion = true;
+                baseVersion = record.getBverAsDouble();
+            }
+
+            SenMLRecord resolvedRecord = new SenMLRecord();
+
+            String name = baseName != null ? (record.getN() != null ? baseName + record.getN() : baseName) : record.getN();
+            resolvedRecord.setN(name);
+            resolvedRecord.setU(record.getU() != null ? record.getU() : baseUnit);
+
+            double time = baseTime + (record.hasT() ? record.getTAsDouble() : 0);
+            resolvedRecord.setT(time < SenMLRecord.RELATIVE_TIME_LIMIT ? time + nowSeconds : time);
+            if(record.hasUt())
+                resolvedRecord.setUt(record.getUtAsDouble());
+
+            if(record.hasV())
+                resolvedRecord.setV(baseValue + record.getVAsDouble());
+            else if(hasBaseValue && record.getVs() == null && !record.hasVb() && record.getVd() == null)
+                resolvedRecord.setV(baseValue);
+            resolvedRecord.setVs(record.getVs());
+            if(record.hasVb())
+                resolvedRecord.setVb(record.getVbAsBoolean());
+            resolvedRecord.setVd(record.getVd());
+            if(record.hasS())
+                resolvedRecord.setS(record.getSAsDouble());
+            if(hasBaseVersion)
+                resolvedRecord.setBver(baseVersion);
+
+            resolved.add(resolvedRecord);
+        }
+
+        return resolved;
+    }
+
+    public SenMLPack resolve() {
+        return resolve(System.currentTimeMillis() / 1000.0);
+    }
+}
@@ -1,6 +1,9 @@
 package utils;
 
 
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
 /**
  +---------------+------+---------+
  |         SenML | JSON | Type    |
@@ -22,50 +25,125 @@ package utils;
  +---------------+------+---------+
  */
 
+/*i campi numerici sono double primitivi e la presenza di ogni campo e' tenuta in una maschera di bit,
+cosi' un record non alloca un oggetto per ogni valore. I getter Number restano per compatibilita',
+sul percorso caldo vanno usati has*() e get*AsDouble(). Serializer e deserializer scrivono e leggono
+i campi direttamente, il formato JSON e' lo stesso di prima*/
+
+@JsonSerialize(using = SenMLRecordSerializer.class)
+@JsonDeserialize(using = SenMLRecordDeserializer.class)
 public class SenMLRecord {
 
+	static final int BT = 1;
+	static final int BV = 1 << 1;
+	static final int BVER = 1 << 2;
+	static final int V = 1 << 3;
+	static final int VB = 1 << 4;
+	static final int S = 1 << 5;
+	static final int T = 1 << 6;
+	static final int UT = 1 << 7;
+
+	private static final int BASE_FIELDS = BT | BV | BVER;
+
+	//i tempi SenML sotto 2^28 sono relativi all'istante corrente (RFC 8428, 4.5.3)
+	public static final double RELATIVE_TIME_LIMIT = 268435456;
+
+	/*i tempi assoluti oltre questa soglia sono in millisecondi invece che in secondi come da RFC 8428:
+	le risorse coap usano System.currentTimeMillis(). 1e11 s e' oltre l'anno 5000, 1e11 ms e' il 1973*/
+	public static final double MILLIS_TIME_LIMIT = 1e11;
+
 	private String bn;
 
-	private Number bt;
+	private double bt;
 
 	private String bu;
 
-	private Number bv, bver;
+	private double bv, bver;
 
 	private String n, u;
 
-	private Number v;
+	private double v;
 
 	private String vs;
 
-	private Boolean vb;
+	private boolean vb;
 
 	private String vd;
 
-	private Number s;
+	private double s;
+
+	private double t;
 
-	private Number t;
+	private double ut;
 
-	private Number ut;
+	private int present = 0;
 
 	public SenMLRecord() {
 	}
 
+	//tempo assoluto in secondi, qualunque sia l'unita' con cui e' stato scritto
+	public static double toSeconds(double time) {
+		return time > MILLIS_TIME_LIMIT ? time / 1000 : time;
+	}
+
 	public SenMLRecord(String bn, Number bt, String bu, Number bv, Number bver, String n, String u, Number v, String vs, Boolean vb, String vd, Number s, Number t, Number ut) {
 		this.bn = bn;
-		this.bt = bt;
+		setBt(bt);
 		this.bu = bu;
-		this.bv = bv;
-		this.bver = bver;
+		setBv(bv);
+		setBver(bver);
 		this.n = n;
 		this.u = u;
-		this.v = v;
+		setV(v);
 		this.vs = vs;
-		this.vb = vb;
+		setVb(vb);
 		this.vd = vd;
-		this.s = s;
-		this.t = t;
-		this.ut = ut;
+		setS(s);
+		setT(t);
+		setUt(ut);
+	}
+
+	public SenMLRecord copy() {
+		SenMLRecord copy = new SenMLRecord();
+		copy.bn = bn;
+		copy.bt = bt;
+		copy.bu = bu;
+		copy.bv = bv;
+		copy.bver = bver;
+		copy.n = n;
+		copy.u = u;
+		copy.v = v;
+		copy.vs = vs;
+		copy.vb = vb;
+		copy.vd = vd;
+		copy.s = s;
+		copy.t = t;
+		copy.ut = ut;
+		copy.present = present;
+		return copy;
+	}
+
+	boolean has(int field) {
+		return (present & field) != 0;
+	}
+
+	private void mark(int field, boolean value) {
+		if(value)
+			present |= field;
+		else
+			present &= ~field;
+	}
+
+	private static Number box(double value) {
+		//gli interi restano interi, come li avrebbe letti jackson
+		if(value == Math.rint(value) && Math.abs(value) < 9007199254740992d)
+			return (long) value;
+		return value;
+	}
+
+	//true se il record porta almeno un campo base (bn, bt, bu, bv, bver)
+	public boolean hasBaseFields() {
+		return bn != null || bu != null || (present & BASE_FIELDS) != 0;
 	}
 
 	public String getBn() {
@@ -77,11 +155,25 @@ public class SenMLRecord {
 	}
 
 	public Number getBt() {
+		return has(BT) ? box(bt) : null;
+	}
+
+	public boolean hasBt() {
+		return has(BT);
+	}
+
+	public double getBtAsDouble() {
 		return bt;
 	}
 
 	public void setBt(Number bt) {
+		this.bt = bt != null ? bt.doubleValue() : 0;
+		mark(BT, bt != null);
+	}
+
+	public void setBt(double bt) {
 		this.bt = bt;
+		mark(BT, true);
 	}
 
 	public String getBu() {
@@ -93,19 +185,47 @@ public class SenMLRecord {
 	}
 
 	public Number getBv() {
+		return has(BV) ? box(bv) : null;
+	}
+
+	public boolean hasBv() {
+		return has(BV);
+	}
+
+	public double getBvAsDouble() {
 		return bv;
 	}
 
 	public void setBv(Number bv) {
+		this.bv = bv != null ? bv.doubleValue() : 0;
+		mark(BV, bv != null);
+	}
+
+	public void setBv(double bv) {
 		this.bv = bv;
+		mark(BV, true);
 	}
 
 	public Number getBver() {
+		return has(BVER) ? box(bver) : null;
+	}
+
+	public boolean hasBver() {
+		return has(BVER);
+	}
+
+	public double getBverAsDouble() {
 		return bver;
 	}
 
 	public void setBver(Number bver) {
+		this.bver = bver != null ? bver.doubleValue() : 0;
+		mark(BVER, bver != null);
+	}
+
+	public void setBver(double bver) {
 		this.bver = bver;
+		mark(BVER, true);
 	}
 
 	public String getN() {
@@ -125,11 +245,25 @@ public class SenMLRecord {
 	}
 
 	public Number getV() {
+		return has(V) ? box(v) : null;
+	}
+
+	public boolean hasV() {
+		return has(V);
+	}
+
+	public double getVAsDouble() {
 		return v;
 	}
 
 	public void setV(Number v) {
+		this.v = v != null ? v.doubleValue() : 0;
+		mark(V, v != null);
+	}
+
+	public void setV(double v) {
 		this.v = v;
+		mark(V, true);
 	}
 
 	public String getVs() {
@@ -141,11 +275,25 @@ public class SenMLRecord {
 	}
 
 	public Boolean getVb() {
+		return has(VB) ? vb : null;
+	}
+
+	public boolean hasVb() {
+		return has(VB);
+	}
+
+	public boolean getVbAsBoolean() {
 		return vb;
 	}
 
 	public void setVb(Boolean vb) {
+		this.vb = vb != null && vb;
+		mark(VB, vb != null);
+	}
+
+	public void setVb(boolean vb) {
 		this.vb = vb;
+		mark(VB, true);
 	}
 
 	public String getVd() {
@@ -157,38 +305,80 @@ public class SenMLRecord {
 	}
 
 	public Number getS() {
+		return has(S) ? box(s) : null;
+	}
+
+	public boolean hasS() {
+		return has(S);
+	}
+
+	public double getSAsDouble() {
 		return s;
 	}
 
 	public void setS(Number s) {
+		this.s = s != null ? s.doubleValue() : 0;
+		mark(S, s != null);
+	}
+
+	public void setS(double s) {
 		this.s = s;
+		mark(S, true);
 	}
 
 	public Number getT() {
+		return has(T) ? box(t) : null;
+	}
+
+	public boolean hasT() {
+		return has(T);
+	}
+
+	public double getTAsDouble() {
 		return t;
 	}
 
 	public void setT(Number t) {
+		this.t = t != null ? t.doubleValue() : 0;
+		mark(T, t != null);
+	}
+
+	public void setT(double t) {
 		this.t = t;
+		mark(T, true);
 	}
 
 	public Number getUt() {
+		return has(UT) ? box(ut) : null;
+	}
+
+	public boolean hasUt() {
+		return has(UT);
+	}
+
+	public double getUtAsDouble() {
 		return ut;
 	}
 
 	public void setUt(Number ut) {
+		this.ut = ut != null ? ut.doubleValue() : 0;
+		mark(UT, ut != null);
+	}
+
+	public void setUt(double ut) {
 		this.ut = ut;
+		mark(UT, true);
 	}
 
 	@Override
 	public String toString() {
-		return "SenML [ " + (bn != null ? "bn=" + bn + "  " : "") + (bt != null ? "bt=" + bt + "  " : "")
-				+ (bu != null ? "bu=" + bu + "  " : "") + (bv != null ? "bv=" + bv + "  " : "")
-				+ (bver != null ? "bver=" + bver + "  " : "") + (n != null ? "n=" + n + "  " : "")
-				+ (u != null ? "u=" + u + "  " : "") + (v != null ? "v=" + v + "  " : "")
-				+ (vs != null ? "vs=" + vs + "  " : "") + (vb != null ? "vb=" + vb + "  " : "")
-				+ (vd != null ? "vd=" + vd + "  " : "") + (s != null ? "s=" + s + "  " : "")
-				+ (t != null ? "t=" + t + "  " : "") + (ut != null ? "ut=" + ut + "  " : "") + "]";
+		return "SenML [ " + (bn != null ? "bn=" + bn + "  " : "") + (has(BT) ? "bt=" + getBt() + "  " : "")
+				+ (bu != null ? "bu=" + bu + "  " : "") + (has(BV) ? "bv=" + getBv() + "  " : "")
+				+ (has(BVER) ? "bver=" + getBver() + "  " : "") + (n != null ? "n=" + n + "  " : "")
+				+ (u != null ? "u=" + u + "  " : "") + (has(V) ? "v=" + getV() + "  " : "")
+				+ (vs != null ? "vs=" + vs + "  " : "") + (has(VB) ? "vb=" + vb + "  " : "")
+				+ (vd != null ? "vd=" + vd + "  " : "") + (has(S) ? "s=" + getS() + "  " : "")
+				+ (has(T) ? "t=" + getT() + "  " : "") + (has(UT) ? "ut=" + getUt() + "  " : "") + "]";
 	}
 
 }
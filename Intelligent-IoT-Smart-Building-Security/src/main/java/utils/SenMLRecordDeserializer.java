@@ -0,0 +1,96 @@
+package utils;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+import java.io.IOException;
+
+/*legge il record token per token direttamente nei campi primitivi, senza creare Number intermedi.
+I campi a null vengono considerati assenti, quelli sconosciuti ignorati*/
+
+@SuppressWarnings("serial")
+public class SenMLRecordDeserializer extends StdDeserializer<SenMLRecord> {
+
+    public SenMLRecordDeserializer() {
+        super(SenMLRecord.class);
+    }
+
+    @Override
+    public SenMLRecord deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+
+        JsonToken token = parser.currentToken();
+        if(token == JsonToken.START_OBJECT)
+            token = parser.nextToken();
+        else if(token != JsonToken.FIELD_NAME)
+            return (SenMLRecord) context.handleUnexpectedToken(SenMLRecord.class, parser);
+
+        SenMLRecord record = new SenMLRecord();
+
+        for(; token == JsonToken.FIELD_NAME; token = parser.nextToken()){
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+
+            if(value == JsonToken.VALUE_NULL)
+                continue;
+
+            switch (field){
+                case "bn":
+                    record.setBn(parser.getValueAsString());
+                    break;
+                case "bt":
+                    record.setBt(readDouble(parser, context));
+                    break;
+                case "bu":
+                    record.setBu(parser.getValueAsString());
+                    break;
+                case "bv":
+                    record.setBv(readDouble(parser, context));
+                    break;
+                case "bver":
+                    record.setBver(readDouble(parser, context));
+                    break;
+                case "n":
+                    record.setN(parser.getValueAsString());
+                    break;
+                case "u":
+                    record.setU(parser.getValueAsString());
+                    break;
+                case "v":
+                    record.setV(readDouble(parser, context));
+                    break;
+                case "vs":
+                    record.setVs(parser.getValueAsString());
+                    break;
+                case "vb":
+                    if(value != JsonToken.VALUE_TRUE && value != JsonToken.VALUE_FALSE)
+                        context.reportInputMismatch(SenMLRecord.class, "vb must be a boolean");
+                    record.setVb(value == JsonToken.VALUE_TRUE);
+                    break;
+                case "vd":
+                    record.setVd(parser.getValueAsString());
+                    break;
+                case "s":
+                    record.setS(readDouble(parser, context));
+                    break;
+                case "t":
+                    record.setT(readDouble(parser, context));
+                    break;
+                case "ut":
+                    record.setUt(readDouble(parser, context));
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+
+        return record;
+    }
+
+    private static double readDouble(JsonParser parser, DeserializationContext context) throws IOException {
+        if(!parser.currentToken().isNumeric())
+            context.reportInputMismatch(SenMLRecord.class, "Field %s must be a number", parser.getCurrentName());
+        return parser.getDoubleValue();
+    }
+}
@@ -0,0 +1,66 @@
+package utils;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+
+/*scrive i campi del record senza passare dai getter Number (niente boxing).
+Stesso formato di prima: campi nello stesso ordine, interi senza decimali, i campi assenti scritti a null
+solo se l'ObjectMapper non e' configurato con NON_NULL (come nelle risorse coap)*/
+
+@SuppressWarnings("serial")
+public class SenMLRecordSerializer extends StdSerializer<SenMLRecord> {
+
+    public SenMLRecordSerializer() {
+        super(SenMLRecord.class);
+    }
+
+    @Override
+    public void serialize(SenMLRecord record, JsonGenerator generator, SerializerProvider provider) throws IOException {
+        JsonInclude.Include inclusion = provider.getConfig().getDefaultPropertyInclusion(SenMLRecord.class).getValueInclusion();
+        boolean nulls = inclusion == JsonInclude.Include.ALWAYS || inclusion == JsonInclude.Include.USE_DEFAULTS;
+
+        generator.writeStartObject();
+        writeString(generator, "bn", record.getBn(), nulls);
+        writeNumber(generator, "bt", record.hasBt(), record.getBtAsDouble(), nulls);
+        writeString(generator, "bu", record.getBu(), nulls);
+        writeNumber(generator, "bv", record.hasBv(), record.getBvAsDouble(), nulls);
+        writeNumber(generator, "bver", record.hasBver(), record.getBverAsDouble(), nulls);
+        writeString(generator, "n", record.getN(), nulls);
+        writeString(generator, "u", record.getU(), nulls);
+        writeNumber(generator, "v", record.hasV(), record.getVAsDouble(), nulls);
+        writeString(generator, "vs", record.getVs(), nulls);
+        if(record.hasVb())
+            generator.writeBooleanField("vb", record.getVbAsBoolean());
+        else if(nulls)
+            generator.writeNullField("vb");
+        writeString(generator, "vd", record.getVd(), nulls);
+        writeNumber(generator, "s", record.hasS(), record.getSAsDouble(), nulls);
+        writeNumber(generator, "t", record.hasT(), record.getTAsDouble(), nulls);
+        writeNumber(generator, "ut", record.hasUt(), record.getUtAsDouble(), nulls);
+        generator.writeEndObject();
+    }
+
+    private static void writeString(JsonGenerator generator, String name, String value, boolean nulls) throws IOException {
+        if(value != null)
+            generator.writeStringField(name, value);
+        else if(nulls)
+            generator.writeNullField(name);
+    }
+
+    private static void writeNumber(JsonGenerator generator, String name, boolean present, double value, boolean nulls) throws IOException {
+        if(!present){
+            if(nulls)
+                generator.writeNullField(name);
+            return;
+        }
+        generator.writeFieldName(name);
+        if(value == Math.rint(value) && Math.abs(value) < 9007199254740992d)
+            generator.writeNumber((long) value);
+        else
+            generator.writeNumber(value);
+    }
+}
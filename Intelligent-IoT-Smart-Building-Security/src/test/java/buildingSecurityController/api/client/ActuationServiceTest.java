@@ -0,0 +1,144 @@
+package buildingSecurityController.api.client;
+
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.Response;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+//comandi ridondanti, trigger accorpati, nessun retry sui 4.xx e backoff sui timeout e sui 5.xx
+public class ActuationServiceTest {
+
+    private static final String ENDPOINT = "coap://127.0.0.1:5683";
+    private static final String LIGHT = "F1A1D1:light";
+    private static final String ALARM = "F1A1D1:alarm";
+
+    //registra le PUT e risponde con i future preparati per uri, 2.04 Changed se non ce ne sono
+    private static class StubCoapResourceClient extends CoapResourceClient {
+
+        private final List<String> putList = new CopyOnWriteArrayList<>();
+        private final List<Long> putTimeList = new CopyOnWriteArrayList<>();
+        private final Map<String, Queue<CompletableFuture<CoapResponse>>> responseMap = new ConcurrentHashMap<>();
+
+        void respond(String uri, CompletableFuture<CoapResponse> response) {
+            responseMap.computeIfAbsent(uri, key -> new ConcurrentLinkedQueue<>()).add(response);
+        }
+
+        void respond(String uri, CoAP.ResponseCode code) {
+            respond(uri, CompletableFuture.completedFuture(response(code)));
+        }
+
+        @Override
+        public CompletableFuture<CoapResponse> putRequestAsync(String uriRequest, String payload) {
+            putList.add(uriRequest + "=" + payload);
+            putTimeList.add(System.nanoTime());
+            Queue<CompletableFuture<CoapResponse>> responseQueue = responseMap.get(uriRequest);
+            CompletableFuture<CoapResponse> response = responseQueue != null ? responseQueue.poll() : null;
+            return response != null ? response : CompletableFuture.completedFuture(response(CoAP.ResponseCode.CHANGED));
+        }
+    }
+
+    private static CoapResponse response(CoAP.ResponseCode code) {
+        return new CoapResponse(new Response(code)) {};
+    }
+
+    private final StubCoapResourceClient coapResourceClient = new StubCoapResourceClient();
+    private ActuationService actuationService;
+
+    private ActuationService newService(long timeoutMillis, int maxRetries, long retryDelayMillis) {
+        actuationService = new ActuationService(coapResourceClient, ENDPOINT, timeoutMillis, maxRetries, retryDelayMillis);
+        return actuationService;
+    }
+
+    @After
+    public void tearDown() {
+        if(actuationService != null)
+            actuationService.stop();
+    }
+
+    @Test
+    public void testCommandsToActuatorsAlreadyInStateAreSkipped() throws Exception {
+        ActuationService service = newService(1000, 2, 10);
+        //l'allarme e' stato scoperto dal resource directory, la luce no
+        service.onActuatorDiscovered(ALARM, "coap://10.0.0.2:5683/" + ALARM);
+
+        service.actuateArea("F1:A1", Arrays.asList(LIGHT, ALARM), true).get(5, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList(ENDPOINT + "/" + LIGHT + "=true", "coap://10.0.0.2:5683/" + ALARM + "=true"), coapResourceClient.putList);
+        assertEquals(Boolean.TRUE, service.getLastCommandedState(LIGHT));
+
+        //gia' accesi: nessuna PUT
+        service.actuateArea("F1:A1", Arrays.asList(LIGHT, ALARM), true).get(5, TimeUnit.SECONDS);
+        assertEquals(2, coapResourceClient.putList.size());
+
+        //la luce e' stata spenta da fuori: lo stato osservato ha la precedenza sull'ultimo comando
+        service.onObservedState(LIGHT, false);
+        service.actuateArea("F1:A1", Arrays.asList(LIGHT, ALARM), true).get(5, TimeUnit.SECONDS);
+        assertEquals(3, coapResourceClient.putList.size());
+        assertEquals(ENDPOINT + "/" + LIGHT + "=true", coapResourceClient.putList.get(2));
+    }
+
+    @Test
+    public void testConcurrentTriggersOnTheSameAreaAreCoalesced() throws Exception {
+        ActuationService service = newService(5000, 0, 10);
+        CompletableFuture<CoapResponse> pending = new CompletableFuture<>();
+        coapResourceClient.respond(ENDPOINT + "/" + LIGHT, pending);
+
+        CompletableFuture<Void> first = service.actuateArea("F1:A1", Collections.singletonList(LIGHT), true);
+        CompletableFuture<Void> second = service.actuateArea("F1:A1", Collections.singletonList(LIGHT), true);
+        assertSame(first, second);
+        //un valore diverso e' un altro fan-out
+        CompletableFuture<Void> off = service.actuateArea("F1:A1", Collections.singletonList(LIGHT), false);
+        assertNotSame(first, off);
+        off.get(5, TimeUnit.SECONDS);
+
+        assertFalse(first.isDone());
+        pending.complete(response(CoAP.ResponseCode.CHANGED));
+        first.get(5, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList(ENDPOINT + "/" + LIGHT + "=true", ENDPOINT + "/" + LIGHT + "=false"), coapResourceClient.putList);
+
+        //concluso il fan-out un nuovo trigger non viene piu' accorpato
+        assertNotSame(first, service.actuateArea("F1:A1", Collections.singletonList(LIGHT), true));
+    }
+
+    @Test
+    public void testClientErrorsAreNotRetried() throws Exception {
+        ActuationService service = newService(1000, 3, 10);
+        coapResourceClient.respond(ENDPOINT + "/" + LIGHT, CoAP.ResponseCode.BAD_REQUEST);
+
+        service.actuateArea("F1:A1", Collections.singletonList(LIGHT), true).get(5, TimeUnit.SECONDS);
+
+        assertEquals(1, coapResourceClient.putList.size());
+        assertEquals(1, service.getPipelineMetrics().getFailedMeter().getCount());
+        assertNull(service.getLastCommandedState(LIGHT));
+    }
+
+    @Test
+    public void testTimeoutsAndServerErrorsAreRetriedWithBackoff() throws Exception {
+        ActuationService service = newService(100, 2, 50);
+        //prima un timeout, poi un 5.03, poi la PUT va a buon fine
+        coapResourceClient.respond(ENDPOINT + "/" + LIGHT, new CompletableFuture<>());
+        coapResourceClient.respond(ENDPOINT + "/" + LIGHT, CoAP.ResponseCode.SERVICE_UNAVAILABLE);
+
+        service.actuateArea("F1:A1", Collections.singletonList(LIGHT), true).get(5, TimeUnit.SECONDS);
+
+        assertEquals(3, coapResourceClient.putList.size());
+        List<Long> putTimeList = coapResourceClient.putTimeList;
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(putTimeList.get(1) - putTimeList.get(0)) >= 100 + 50);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(putTimeList.get(2) - putTimeList.get(1)) >= 100);
+        assertEquals(0, service.getPipelineMetrics().getFailedMeter().getCount());
+        assertEquals(Boolean.TRUE, service.getLastCommandedState(LIGHT));
+    }
+}
@@ -0,0 +1,159 @@
+package buildingSecurityController.api.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import utils.SenMLPack;
+import utils.SenMLRecord;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+//batch, scarto dei batch rifiutati con 4xx e reinvio dello spool sul cloud collector finto
+public class CloudPostClientTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    //un array json di bt per richiesta ricevuta
+    private final BlockingQueue<List<Integer>> requestQueue = new LinkedBlockingQueue<>();
+    //status delle prossime risposte, 201 se vuoto
+    private final ConcurrentLinkedQueue<Integer> statusQueue = new ConcurrentLinkedQueue<>();
+
+    private HttpServer server;
+    private String targetUrl;
+    private CloudPostClient client;
+
+    private static SenMLPack pack(int time) {
+        SenMLRecord record = new SenMLRecord();
+        record.setBn("F01A01D001:presencemonitoring");
+        record.setBt(time);
+        record.setN("pir");
+        record.setVb(true);
+        SenMLPack pack = new SenMLPack();
+        pack.add(record);
+        return pack;
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws java.io.IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        int read;
+        while((read = inputStream.read(chunk)) > 0)
+            outputStream.write(chunk, 0, read);
+        return outputStream.toByteArray();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/pack", exchange -> {
+            byte[] body = readAll(exchange.getRequestBody());
+            if("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding")))
+                body = readAll(new GZIPInputStream(new ByteArrayInputStream(body)));
+            List<Integer> timeList = new ArrayList<>();
+            for(JsonNode pack : objectMapper.readTree(body))
+                timeList.add(pack.get(0).get("bt").asInt());
+            requestQueue.add(timeList);
+
+            Integer status = statusQueue.poll();
+            byte[] response = "{}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status != null ? status : 201, response.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(response);
+            }
+        });
+        server.start();
+        targetUrl = String.format("http://127.0.0.1:%d/pack", server.getAddress().getPort());
+    }
+
+    @After
+    public void tearDown() {
+        if(client != null)
+            client.close();
+        server.stop(0);
+    }
+
+    private List<Integer> nextRequest() throws InterruptedException {
+        List<Integer> request = requestQueue.poll(10, TimeUnit.SECONDS);
+        assertNotNull("no request received", request);
+        return request;
+    }
+
+    private CloudPostClient newClient(File spoolDirectory, int batchSize) {
+        client = new CloudPostClient(targetUrl, batchSize, 200, true, spoolDirectory.getPath(), CloudPostClient.DEFAULT_MAX_SPOOL_BYTES);
+        return client;
+    }
+
+    @Test
+    public void testPacksAreSentInBatches() throws Exception {
+        CloudPostClient client = newClient(folder.newFolder(), 3);
+        for(int i = 0; i < 7; i++)
+            assertTrue(client.enqueue(pack(i)));
+
+        assertEquals(Arrays.asList(0, 1, 2), nextRequest());
+        assertEquals(Arrays.asList(3, 4, 5), nextRequest());
+        assertEquals(Collections.singletonList(6), nextRequest());
+    }
+
+    @Test
+    public void testBatchRejectedWithClientErrorIsDiscarded() throws Exception {
+        File spoolDirectory = folder.newFolder();
+        CloudPostClient client = newClient(spoolDirectory, 10);
+        statusQueue.add(400);
+
+        client.enqueue(pack(1));
+        assertEquals(Collections.singletonList(1), nextRequest());
+        client.enqueue(pack(2));
+        //il batch rifiutato non viene reinviato ne' messo nello spool
+        assertEquals(Collections.singletonList(2), nextRequest());
+        assertNull(requestQueue.poll(500, TimeUnit.MILLISECONDS));
+        assertEquals(0, spoolDirectory.list().length);
+    }
+
+    @Test
+    public void testSpooledBatchesAreReplayedInOrder() throws Exception {
+        File spoolDirectory = folder.newFolder();
+        //batch rimasti nello spool dal processo precedente, piu' un file estraneo che va ignorato
+        Files.write(spoolDirectory.toPath().resolve(String.format("%020d.json", 8)), objectMapper.writeValueAsBytes(Collections.singletonList(pack(8))));
+        Files.write(spoolDirectory.toPath().resolve(String.format("%020d.json", 9)), objectMapper.writeValueAsBytes(Collections.singletonList(pack(9))));
+        Files.write(spoolDirectory.toPath().resolve("notes.json"), "{}".getBytes(StandardCharsets.UTF_8));
+
+        //il cloud non risponde alla prima richiesta: il nuovo batch finisce nello spool dopo quelli vecchi
+        statusQueue.add(503);
+        CloudPostClient client = newClient(spoolDirectory, 10);
+        client.enqueue(pack(10));
+
+        assertEquals(Collections.singletonList(8), nextRequest());
+        assertEquals(Collections.singletonList(8), nextRequest());
+        assertEquals(Collections.singletonList(9), nextRequest());
+        assertEquals(Collections.singletonList(10), nextRequest());
+
+        for(int i = 0; i < 100 && spoolDirectory.list().length > 1; i++)
+            Thread.sleep(10);
+        assertEquals(Collections.singletonList("notes.json"), Arrays.asList(spoolDirectory.list()));
+    }
+}
@@ -0,0 +1,60 @@
+package buildingSecurityController.api.client;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+//ordine delle notifiche per device e code tolte quando si svuotano
+public class NotificationDispatcherTest {
+
+    private static int devices(NotificationDispatcher dispatcher) {
+        return (Integer) dispatcher.getMetricRegistry().getGauges().get("devices").getValue();
+    }
+
+    @Test
+    public void testDrainedDeviceQueuesAreRemoved() throws Exception {
+        NotificationDispatcher dispatcher = new NotificationDispatcher(4, 64, NotificationDispatcher.OverflowPolicy.DROP_NEWEST, false);
+        CountDownLatch done = new CountDownLatch(1000);
+        for(int i = 0; i < 1000; i++)
+            assertTrue(dispatcher.dispatch("coap://127.0.0.1/device-" + i, done::countDown));
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for(int i = 0; i < 100 && devices(dispatcher) > 0; i++)
+            Thread.sleep(10);
+        assertEquals(0, devices(dispatcher));
+        assertEquals(0, dispatcher.getQueueDepth());
+        dispatcher.stop();
+    }
+
+    @Test
+    public void testNotificationsOfADeviceStayInOrderAcrossDrains() throws Exception {
+        NotificationDispatcher dispatcher = new NotificationDispatcher(4, 100000, NotificationDispatcher.OverflowPolicy.DROP_NEWEST, false);
+        int notifications = 20000;
+        List<Integer> processed = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(notifications);
+
+        //la coda si svuota e viene tolta di continuo mentre arrivano le notifiche successive
+        for(int i = 0; i < notifications; i++){
+            int sequence = i;
+            dispatcher.dispatch("device", () -> {
+                //mai due notifiche dello stesso device in parallelo
+                synchronized (processed) {
+                    processed.add(sequence);
+                }
+                done.countDown();
+            });
+            if(i % 100 == 0)
+                Thread.sleep(1);
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for(int i = 0; i < notifications; i++)
+            assertEquals(i, (int) processed.get(i));
+        dispatcher.stop();
+    }
+}
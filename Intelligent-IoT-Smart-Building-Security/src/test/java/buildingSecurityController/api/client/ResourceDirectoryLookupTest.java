@@ -0,0 +1,228 @@
+package buildingSecurityController.api.client;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+//lookup completo, delta con since= e ritorno al lookup completo sul resource directory finto
+public class ResourceDirectoryLookupTest {
+
+    private static final String PRESENCE = "iot.sensor.presencemonitoring";
+    private static final String PIR = "iot.sensor.pir";
+
+    private static final String A_PRESENCE = "</a/pm>;if=\"core.s\";rt=\"" + PRESENCE + "\"";
+    private static final String A_PIR = "</a/pm/pir>;if=\"core.s\";rt=\"" + PIR + "\"";
+    private static final String B_PRESENCE = "</b/pm>;if=\"core.s\";rt=\"" + PRESENCE + "\"";
+    private static final String C_PRESENCE = "</c/pm>;if=\"core.s\";rt=\"" + PRESENCE + "\"";
+
+    private final ConcurrentLinkedQueue<Consumer<CoapExchange>> responseQueue = new ConcurrentLinkedQueue<>();
+    private final List<List<String>> queryList = new CopyOnWriteArrayList<>();
+    private final List<String> eventList = new CopyOnWriteArrayList<>();
+
+    //registry finto per l'observe: link aggiunti ad ogni versione, i delta si calcolano dal since della richiesta
+    private final NavigableMap<Long, String> changeMap = new ConcurrentSkipListMap<>();
+    private final List<String> observeQueryList = new CopyOnWriteArrayList<>();
+    private final List<Integer> deltaSizeList = new CopyOnWriteArrayList<>();
+    private CoapResource deltaResource;
+
+    private CoapServer server;
+    private ResourceDirectoryLookup lookup;
+    private ResourceDirectoryLookup deltaLookup;
+
+    private static Consumer<CoapExchange> links(long version, String... links) {
+        return exchange -> {
+            exchange.setETag(ByteBuffer.allocate(Long.BYTES).putLong(version).array());
+            exchange.respond(CoAP.ResponseCode.CONTENT, String.join(",", links), MediaTypeRegistry.APPLICATION_LINK_FORMAT);
+        };
+    }
+
+    @Before
+    public void setUp() {
+        CoapResource lookupResource = new CoapResource("rd-lookup");
+        lookupResource.add(new CoapResource("res") {
+            @Override
+            public void handleGET(CoapExchange exchange) {
+                queryList.add(new ArrayList<>(exchange.getRequestOptions().getUriQuery()));
+                Consumer<CoapExchange> response = responseQueue.poll();
+                if(response == null)
+                    exchange.respond(CoAP.ResponseCode.SERVICE_UNAVAILABLE);
+                else
+                    response.accept(exchange);
+            }
+        });
+        deltaResource = new CoapResource("delta") {
+            @Override
+            public void handleGET(CoapExchange exchange) {
+                long since = Long.MIN_VALUE;
+                for(String query : exchange.getRequestOptions().getUriQuery())
+                    if(query.startsWith("since="))
+                        since = Long.parseLong(query.substring("since=".length()));
+                if(exchange.getRequestOptions().hasObserve())
+                    observeQueryList.add(String.join("&", exchange.getRequestOptions().getUriQuery()));
+
+                Collection<String> links = changeMap.tailMap(since, false).values();
+                if(since != Long.MIN_VALUE)
+                    deltaSizeList.add(links.size());
+                exchange.setETag(ByteBuffer.allocate(Long.BYTES).putLong(changeMap.lastKey()).array());
+                exchange.respond(CoAP.ResponseCode.CONTENT, String.join(",", links), MediaTypeRegistry.APPLICATION_LINK_FORMAT);
+            }
+        };
+        deltaResource.setObservable(true);
+        lookupResource.add(deltaResource);
+
+        server = new CoapServer(0);
+        server.add(lookupResource);
+        server.start();
+
+        int port = server.getEndpoints().get(0).getAddress().getPort();
+        lookup = newLookup(String.format("coap://127.0.0.1:%d/rd-lookup/res", port));
+        deltaLookup = newLookup(String.format("coap://127.0.0.1:%d/rd-lookup/delta", port));
+    }
+
+    private ResourceDirectoryLookup newLookup(String lookupUrl) {
+        return new ResourceDirectoryLookup(new CoapClient(), lookupUrl, Arrays.asList(PRESENCE, PIR),
+                new ResourceDirectoryLookup.Listener() {
+                    @Override
+                    public void onTargetAdded(String targetUrl, String resourceType) {
+                        eventList.add("+" + targetUrl);
+                    }
+
+                    @Override
+                    public void onTargetRemoved(String targetUrl, String resourceType) {
+                        eventList.add("-" + targetUrl);
+                    }
+                }, ResourceDirectoryLookup.DEFAULT_FALLBACK_POLL_MILLIS);
+    }
+
+    @After
+    public void tearDown() {
+        server.destroy();
+    }
+
+    private static void await(String description, BooleanSupplier condition) throws InterruptedException {
+        for(int i = 0; i < 500 && !condition.getAsBoolean(); i++)
+            Thread.sleep(10);
+        assertTrue(description, condition.getAsBoolean());
+    }
+
+    //una notifica inviata prima che il client abbia ricevuto la risposta di registrazione puo' andare persa
+    private void notifyUntil(String description, BooleanSupplier condition) throws InterruptedException {
+        for(int i = 0; i < 50 && !condition.getAsBoolean(); i++){
+            deltaResource.changed();
+            Thread.sleep(100);
+        }
+        assertTrue(description, condition.getAsBoolean());
+    }
+
+    //le risposte vengono applicate sul thread rd-sync
+    private void awaitApplied() throws InterruptedException {
+        for(int i = 0; i < 500 && !responseQueue.isEmpty(); i++)
+            Thread.sleep(10);
+        assertTrue("pending responses", responseQueue.isEmpty());
+        Thread.sleep(100);
+    }
+
+    @Test
+    public void testPollAsksForTheChangesSinceTheAppliedVersion() throws Exception {
+        responseQueue.add(links(5, A_PRESENCE, A_PIR));
+        lookup.lookup();
+        awaitApplied();
+        assertEquals(Arrays.asList("+/a/pm", "+/a/pm/pir"), eventList);
+
+        //il delta aggiunge solo le risorse dell'endpoint cambiato
+        responseQueue.add(links(6, B_PRESENCE));
+        lookup.lookup();
+        awaitApplied();
+        assertEquals(Arrays.asList("+/a/pm", "+/a/pm/pir", "+/b/pm"), eventList);
+
+        assertEquals(Arrays.asList(Collections.<String>emptyList(), Collections.singletonList("since=5")), queryList);
+    }
+
+    @Test
+    public void testRemovedEndpointOrLostDeltaRepeatsTheFullLookup() throws Exception {
+        responseQueue.add(links(5, A_PRESENCE, A_PIR, B_PRESENCE));
+        lookup.lookup();
+        awaitApplied();
+
+        //endpoint rimosso: il delta non dice quali risorse togliere
+        responseQueue.add(links(7, "<coap://127.0.0.1:5685>;ep=\"a\";d=\"building\";removed"));
+        responseQueue.add(links(7, B_PRESENCE));
+        lookup.lookup();
+        awaitApplied();
+        //prima i device di presence monitoring, poi i sensori
+        assertEquals(Arrays.asList("+/a/pm", "+/b/pm", "+/a/pm/pir", "-/a/pm", "-/a/pm/pir"), sortedRemovals(eventList));
+
+        //il RD non ha piu' il delta richiesto
+        responseQueue.add(exchange -> exchange.respond(CoAP.ResponseCode.PRECONDITION_FAILED));
+        responseQueue.add(links(9, B_PRESENCE));
+        lookup.lookup();
+        awaitApplied();
+        assertEquals(5, eventList.size());
+
+        responseQueue.add(links(9));
+        lookup.lookup();
+        awaitApplied();
+
+        assertEquals(Arrays.asList(
+                Collections.<String>emptyList(),
+                Collections.singletonList("since=5"),
+                Collections.<String>emptyList(),
+                Collections.singletonList("since=7"),
+                Collections.<String>emptyList(),
+                Collections.singletonList("since=9")), queryList);
+    }
+
+    @Test
+    public void testObserveIsReopenedFromEachAppliedVersion() throws Exception {
+        changeMap.put(5L, A_PRESENCE);
+        Thread thread = new Thread(deltaLookup, "rd-lookup-test");
+        thread.start();
+        try {
+            await("observe since 5", () -> observeQueryList.contains("since=5"));
+
+            changeMap.put(6L, B_PRESENCE);
+            notifyUntil("observe since 6", () -> eventList.contains("+/b/pm") && observeQueryList.contains("since=6"));
+
+            changeMap.put(7L, C_PRESENCE);
+            notifyUntil("observe since 7", () -> eventList.contains("+/c/pm") && observeQueryList.contains("since=7"));
+        } finally {
+            thread.interrupt();
+            thread.join(5000);
+        }
+
+        assertEquals(Arrays.asList("+/a/pm", "+/b/pm", "+/c/pm"), eventList);
+        //ogni notifica porta solo la modifica successiva alla versione applicata, non tutte quelle dall'inizio
+        assertTrue(deltaSizeList.toString(), Collections.max(deltaSizeList) <= 1);
+    }
+
+    //l'ordine delle rimozioni dipende dalla hash map delle risorse note
+    private static List<String> sortedRemovals(List<String> eventList) {
+        List<String> sorted = new ArrayList<>(eventList);
+        int firstRemoval = 0;
+        while(firstRemoval < sorted.size() && sorted.get(firstRemoval).startsWith("+"))
+            firstRemoval++;
+        Collections.sort(sorted.subList(firstRemoval, sorted.size()));
+        return sorted;
+    }
+}
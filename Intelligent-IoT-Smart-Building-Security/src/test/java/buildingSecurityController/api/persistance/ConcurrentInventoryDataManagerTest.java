@@ -0,0 +1,109 @@
+package buildingSecurityController.api.persistance;
+
+import buildingSecurityController.api.auth.PasswordHasher;
+import buildingSecurityController.api.model.AreaDescriptor;
+import buildingSecurityController.api.model.FloorDescriptor;
+import buildingSecurityController.api.model.GenericDeviceDescriptor;
+import buildingSecurityController.api.model.UserDescriptor;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentInventoryDataManagerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static boolean matches(UserDescriptor userDescriptor, String password) {
+        return PasswordHasher.verify(password,
+                Base64.getDecoder().decode(userDescriptor.getPasswordSalt()),
+                Base64.getDecoder().decode(userDescriptor.getPasswordHash()));
+    }
+
+    @Test
+    public void testUsersFileKeepsOnlySaltAndHash() throws Exception {
+        File usersFile = new File(folder.getRoot(), "users-file");
+
+        ConcurrentInventoryDataManager inventory = new ConcurrentInventoryDataManager(usersFile.getPath());
+        inventory.createNewUser(new UserDescriptor("user", "secret-password", "USER", "user@example.com"));
+
+        UserDescriptor stored = inventory.getUser("user").get();
+        assertNull(stored.getPassword());
+        assertTrue(matches(stored, "secret-password"));
+        assertFalse(stored.toString().contains("secret-password"));
+
+        String content = new String(Files.readAllBytes(usersFile.toPath()), StandardCharsets.UTF_8);
+        assertFalse(content.contains("secret-password"));
+        assertTrue(content.contains(stored.getPasswordHash()));
+    }
+
+    @Test
+    public void testUsersFileAppendsOneRecordPerChange() throws Exception {
+        File usersFile = new File(folder.getRoot(), "users-file");
+
+        ConcurrentInventoryDataManager inventory = new ConcurrentInventoryDataManager(usersFile.getPath());
+        inventory.createNewUser(new UserDescriptor("user", "pass", "USER", null));
+        inventory.createNewUser(new UserDescriptor("admin", "admin-pass", "USER", null));
+        //un update senza password mantiene l'hash salvato
+        inventory.updateUser(new UserDescriptor("user", null, "ADMIN", "user@example.com"));
+        inventory.deleteUser("admin");
+
+        List<String> lineList = Files.readAllLines(usersFile.toPath());
+        assertEquals(4, lineList.size());
+        assertTrue(lineList.get(3).contains("DELETE"));
+
+        ConcurrentInventoryDataManager restarted = new ConcurrentInventoryDataManager(usersFile.getPath());
+        assertEquals(1, restarted.getUsernameList().size());
+        UserDescriptor user = restarted.getUser("user").get();
+        assertEquals("ADMIN", user.getRole());
+        assertTrue(matches(user, "pass"));
+
+        //all'apertura il file viene compattato
+        assertEquals(1, Files.readAllLines(usersFile.toPath()).size());
+    }
+
+    @Test
+    public void testLegacyUsersFileIsMovedAside() throws Exception {
+        File usersFile = new File(folder.getRoot(), "users-file");
+        try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(Files.newOutputStream(usersFile.toPath()))) {
+            objectOutputStream.writeObject(new HashMap<String, UserDescriptor>());
+        }
+
+        ConcurrentInventoryDataManager inventory = new ConcurrentInventoryDataManager(usersFile.getPath());
+        assertTrue(inventory.getUsernameList().isEmpty());
+        assertTrue(new File(folder.getRoot(), "users-file.legacy").exists());
+    }
+
+    @Test
+    public void testDeletedAreaMovesItsDevicesToUnallocated() throws Exception {
+        ConcurrentInventoryDataManager inventory = new ConcurrentInventoryDataManager();
+        inventory.createNewFloor(new FloorDescriptor("1"));
+        AreaDescriptor areaDescriptor = new AreaDescriptor();
+        areaDescriptor.setFloorId("1");
+        areaDescriptor.setAreaName("A");
+        inventory.createNewArea(areaDescriptor);
+        inventory.updateArea(new AreaDescriptor("unallocated", new ArrayList<>(), "1", "unallocated"));
+        inventory.createNewDevice(new GenericDeviceDescriptor("1:A", "1-0001:presencemonitoring", new ArrayList<>(Collections.singletonList("pir"))));
+
+        GenericDeviceDescriptor before = inventory.getDevice("1-0001:presencemonitoring").get();
+        inventory.deleteArea("1:A");
+
+        //il descriptor letto prima della cancellazione non viene toccato
+        assertEquals("1:A", before.getAreaId());
+        assertEquals("unallocated", inventory.getDevice("1-0001:presencemonitoring").get().getAreaId());
+        assertEquals(Collections.singletonList("1-0001:presencemonitoring"), inventory.getArea("unallocated").get().getDeviceIdList());
+        assertEquals(1, inventory.getDeviceListByArea("unallocated").size());
+    }
+}
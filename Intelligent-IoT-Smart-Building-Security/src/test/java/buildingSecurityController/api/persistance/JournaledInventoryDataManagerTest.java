@@ -0,0 +1,204 @@
+package buildingSecurityController.api.persistance;
+
+import buildingSecurityController.api.auth.PasswordHasher;
+import buildingSecurityController.api.model.AreaDescriptor;
+import buildingSecurityController.api.model.FloorDescriptor;
+import buildingSecurityController.api.model.GenericDeviceDescriptor;
+import buildingSecurityController.api.model.PolicyDescriptor;
+import buildingSecurityController.api.model.UserDescriptor;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+//recovery dal log, segmenti troncati e rotazione degli snapshot
+public class JournaledInventoryDataManagerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static JournaledInventoryDataManager open(File directory, int snapshotEveryRecords) throws IOException {
+        return new JournaledInventoryDataManager(directory.getPath(), snapshotEveryRecords, false);
+    }
+
+    private static void populate(IInventoryDataManager inventory, String floorId) throws Exception {
+        inventory.createNewFloor(new FloorDescriptor(floorId));
+
+        AreaDescriptor areaDescriptor = new AreaDescriptor();
+        areaDescriptor.setFloorId(floorId);
+        areaDescriptor.setAreaName("A");
+        inventory.createNewArea(areaDescriptor);
+
+        inventory.createNewDevice(new GenericDeviceDescriptor(floorId + ":A", floorId + "-0001:presencemonitoring", new ArrayList<>(Collections.singletonList("pir"))));
+        inventory.createNewPolicy(new PolicyDescriptor(floorId + "-policy", floorId + ":A", true, true, "19:00", "07:00", 1));
+    }
+
+    private static List<String> list(File directory, String glob) throws IOException {
+        List<String> nameList = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory.toPath(), glob)) {
+            stream.forEach(path -> nameList.add(path.getFileName().toString()));
+        }
+        Collections.sort(nameList);
+        return nameList;
+    }
+
+    private static void appendGarbage(Path segment) throws IOException {
+        //intestazione di un record da 100 byte seguita da soli 3 byte: scrittura interrotta
+        Files.write(segment, new byte[]{0, 0, 0, 100, 1, 2, 3, 4, 5, 6, 7}, StandardOpenOption.APPEND);
+    }
+
+    @Test
+    public void testRecoversFromTheJournalWithoutSnapshot() throws Exception {
+        File directory = folder.newFolder();
+
+        JournaledInventoryDataManager inventory = open(directory, 1000);
+        populate(inventory, "1");
+        GenericDeviceDescriptor moved = inventory.getDevice("1-0001:presencemonitoring").get().copy();
+        moved.setAreaId("unallocated");
+        inventory.updateDevice(moved);
+        inventory.deletePolicy("1-policy");
+        //nessuno stop(): il processo si ferma senza snapshot finale
+
+        JournaledInventoryDataManager recovered = open(directory, 1000);
+        assertTrue(recovered.getFloor("1").isPresent());
+        assertTrue(recovered.getArea("1:A").isPresent());
+        assertEquals("unallocated", recovered.getDevice("1-0001:presencemonitoring").get().getAreaId());
+        assertEquals(Collections.singletonList("pir"), recovered.getDevice("1-0001:presencemonitoring").get().getResourceList());
+        assertTrue(recovered.getDeviceListByArea("1:A").isEmpty());
+        assertFalse(recovered.getPolicy("1-policy").isPresent());
+        assertTrue(list(directory, "snapshot-*").isEmpty());
+    }
+
+    @Test
+    public void testRecordsCarryStableEntityCodes() throws Exception {
+        File directory = folder.newFolder();
+
+        JournaledInventoryDataManager inventory = open(directory, 1000);
+        populate(inventory, "1");
+
+        //[int lunghezza][int crc32][byte op][byte entity]...: floor 2, area 3, device 4, policy 0
+        ByteBuffer segment = ByteBuffer.wrap(Files.readAllBytes(directory.toPath().resolve(list(directory, "wal-*.log").get(0))));
+        List<Byte> entityList = new ArrayList<>();
+        while(segment.remaining() > 0) {
+            int length = segment.getInt();
+            entityList.add(segment.get(segment.position() + 5));
+            segment.position(segment.position() + 4 + length);
+        }
+        assertEquals(Arrays.asList((byte) 2, (byte) 3, (byte) 4, (byte) 0), entityList);
+    }
+
+    @Test
+    public void testTornTailIsTruncatedAndKeptAside() throws Exception {
+        File directory = folder.newFolder();
+
+        JournaledInventoryDataManager inventory = open(directory, 1000);
+        populate(inventory, "1");
+
+        List<String> segmentList = list(directory, "wal-*.log");
+        assertEquals(1, segmentList.size());
+        Path segment = directory.toPath().resolve(segmentList.get(0));
+        long validLength = Files.size(segment);
+        appendGarbage(segment);
+
+        JournaledInventoryDataManager recovered = open(directory, 1000);
+        assertTrue(recovered.getFloor("1").isPresent());
+        assertTrue(recovered.getPolicy("1-policy").isPresent());
+        assertEquals(validLength, Files.size(segment));
+        assertEquals(validLength + 11, Files.size(segment.resolveSibling(segment.getFileName() + ".corrupt")));
+
+        //il log continua a funzionare dopo il troncamento
+        recovered.createNewFloor(new FloorDescriptor("2"));
+        assertTrue(open(directory, 1000).getFloor("2").isPresent());
+    }
+
+    @Test
+    public void testSegmentsAfterATornSegmentAreNotReplayed() throws Exception {
+        //un segmento valido che verra' messo dopo quello troncato
+        File otherDirectory = folder.newFolder();
+        open(otherDirectory, 1000).createNewFloor(new FloorDescriptor("late"));
+        Path lateSegment = otherDirectory.toPath().resolve(list(otherDirectory, "wal-*.log").get(0));
+
+        File directory = folder.newFolder();
+        open(directory, 1000).createNewFloor(new FloorDescriptor("early"));
+        appendGarbage(directory.toPath().resolve(list(directory, "wal-*.log").get(0)));
+        Files.copy(lateSegment, directory.toPath().resolve(String.format("wal-%020d.log", 100)));
+
+        JournaledInventoryDataManager recovered = open(directory, 1000);
+        assertTrue(recovered.getFloor("early").isPresent());
+        assertFalse(recovered.getFloor("late").isPresent());
+        assertTrue(Files.exists(directory.toPath().resolve(String.format("wal-%020d.log.corrupt", 100))));
+        assertFalse(Files.exists(directory.toPath().resolve(String.format("wal-%020d.log", 100))));
+    }
+
+    @Test
+    public void testSnapshotRotationDeletesCoveredSegments() throws Exception {
+        File directory = folder.newFolder();
+
+        JournaledInventoryDataManager inventory = open(directory, 3);
+        for(int floor = 0; floor < 10; floor++)
+            populate(inventory, String.valueOf(floor));
+        inventory.stop();
+
+        List<String> snapshotList = list(directory, "snapshot-*.json");
+        assertEquals(1, snapshotList.size());
+        String snapshotId = snapshotList.get(0).substring("snapshot-".length(), snapshotList.get(0).length() - ".json".length());
+        for(String segment : list(directory, "wal-*.log"))
+            assertTrue(segment + " is older than " + snapshotList.get(0), segment.compareTo("wal-" + snapshotId + ".log") >= 0);
+        assertTrue(list(directory, "*.tmp").isEmpty());
+
+        JournaledInventoryDataManager recovered = open(directory, 3);
+        assertEquals(10, recovered.getFloorList().size());
+        assertEquals(10, recovered.getAreaList().size());
+        assertEquals(10, recovered.getDeviceList().size());
+        assertEquals(10, recovered.getPolicyList().size());
+        assertEquals(Collections.singletonList("9-0001:presencemonitoring"), recovered.getArea("9:A").get().getDeviceIdList());
+    }
+
+    @Test
+    public void testJournalAndSnapshotHoldNoPlaintextPassword() throws Exception {
+        File directory = folder.newFolder();
+
+        JournaledInventoryDataManager inventory = open(directory, 1000);
+        inventory.createNewUser(new UserDescriptor("user", "secret-password", "USER", null));
+        inventory.updateUser(new UserDescriptor("user", null, "ADMIN", null));
+        for(String segment : list(directory, "wal-*.log"))
+            assertFalse(new String(Files.readAllBytes(directory.toPath().resolve(segment)), StandardCharsets.UTF_8).contains("secret-password"));
+        inventory.stop();
+
+        String snapshot = new String(Files.readAllBytes(directory.toPath().resolve(list(directory, "snapshot-*.json").get(0))), StandardCharsets.UTF_8);
+        assertFalse(snapshot.contains("secret-password"));
+
+        UserDescriptor recovered = open(directory, 1000).getUser("user").get();
+        assertEquals("ADMIN", recovered.getRole());
+        assertTrue(PasswordHasher.verify("secret-password", Base64.getDecoder().decode(recovered.getPasswordSalt()), Base64.getDecoder().decode(recovered.getPasswordHash())));
+    }
+
+    @Test
+    public void testUnreadableSnapshotFallsBackToTheOlderOne() throws Exception {
+        File directory = folder.newFolder();
+
+        JournaledInventoryDataManager inventory = open(directory, 1000);
+        populate(inventory, "1");
+        inventory.stop();
+        assertEquals(1, list(directory, "snapshot-*.json").size());
+
+        Files.write(directory.toPath().resolve(String.format("snapshot-%020d.json", 1000)), "{\"floors\":[{\"floor_id\":\"x\"}],\"areas\":".getBytes());
+
+        JournaledInventoryDataManager recovered = open(directory, 1000);
+        assertTrue(recovered.getFloor("1").isPresent());
+        assertFalse(recovered.getFloor("x").isPresent());
+        assertTrue(recovered.getPolicy("1-policy").isPresent());
+    }
+}
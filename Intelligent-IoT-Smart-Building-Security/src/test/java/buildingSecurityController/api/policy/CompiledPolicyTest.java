@@ -0,0 +1,85 @@
+package buildingSecurityController.api.policy;
+
+import buildingSecurityController.api.model.PolicyDescriptor;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+//finestra [start, end) anche a cavallo della mezzanotte, policy disabilitate e soglia di persone
+public class CompiledPolicyTest {
+
+    private static int minute(String time) {
+        return CompiledPolicy.parseMinuteOfDay(time);
+    }
+
+    private static CompiledPolicy presence(Boolean enabled, String start, String end) {
+        return CompiledPolicy.compile(new PolicyDescriptor("p1", "F1:A1", enabled, true, start, end, null));
+    }
+
+    private static CompiledPolicy people(String start, String end, Integer maxPersons) {
+        return CompiledPolicy.compile(new PolicyDescriptor("p2", "F1:A1", true, false, start, end, maxPersons));
+    }
+
+    @Test
+    public void testWindowIncludesStartAndExcludesEnd() {
+        CompiledPolicy policy = presence(true, "08:00", "18:00");
+
+        assertFalse(policy.isArmedAt(minute("07:59")));
+        assertTrue(policy.isArmedAt(minute("08:00")));
+        assertTrue(policy.isArmedAt(minute("17:59")));
+        assertFalse(policy.isArmedAt(minute("18:00")));
+    }
+
+    @Test
+    public void testWindowWrapsAroundMidnight() {
+        CompiledPolicy policy = presence(true, "19:00", "06:00");
+
+        assertTrue(policy.isArmedAt(minute("19:00")));
+        assertTrue(policy.isArmedAt(minute("23:59")));
+        assertTrue(policy.isArmedAt(minute("00:00")));
+        assertTrue(policy.isArmedAt(minute("05:59")));
+        assertFalse(policy.isArmedAt(minute("06:00")));
+        assertFalse(policy.isArmedAt(minute("12:00")));
+        assertFalse(policy.isArmedAt(minute("18:59")));
+        //minuti oltre la fine del giorno ricadono nel giorno successivo
+        assertTrue(policy.isArmedAt(24 * 60 + minute("01:00")));
+    }
+
+    @Test
+    public void testDisabledPoliciesNeverMatch() {
+        CompiledPolicy disabled = presence(false, "00:00", "23:59");
+        assertFalse(disabled.isEnabled());
+        assertTrue(disabled.isArmedAt(minute("12:00")));
+        assertFalse(disabled.matchesPresence(minute("12:00")));
+
+        //senza is_enabled la policy resta attiva
+        assertTrue(presence(null, "00:00", "23:59").matchesPresence(minute("12:00")));
+    }
+
+    @Test
+    public void testPeopleThresholdIsExceededOnlyAboveMaxPersons() {
+        CompiledPolicy policy = people("08:00", "18:00", 3);
+
+        assertFalse(policy.matchesPeopleCount(3, minute("12:00")));
+        assertTrue(policy.matchesPeopleCount(4, minute("12:00")));
+        assertFalse(policy.matchesPeopleCount(4, minute("19:00")));
+        //una policy di conteggio non scatta sulla sola presenza, e viceversa
+        assertFalse(policy.matchesPresence(minute("12:00")));
+        assertFalse(presence(true, "08:00", "18:00").matchesPeopleCount(100, minute("12:00")));
+
+        //senza max_persons nessun conteggio supera la soglia
+        assertFalse(people("08:00", "18:00", null).matchesPeopleCount(1000, minute("12:00")));
+    }
+
+    @Test
+    public void testInvalidWorkingTimesAreRejected() {
+        for(String time : new String[]{null, "8", "24:00", "12:60", "ab:cd"}) {
+            try {
+                presence(true, time, "18:00");
+                fail("Accepted working time " + time);
+            } catch (IllegalArgumentException e) {
+                //atteso
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package buildingSecurityController.api.policy;
+
+import buildingSecurityController.api.model.GenericDeviceDescriptor;
+import buildingSecurityController.api.model.PolicyDescriptor;
+import buildingSecurityController.api.persistance.ConcurrentInventoryDataManager;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+//valutazione delle notifiche sull'indice per area e ricostruzione dopo le modifiche dell'inventory
+public class PolicyEngineTest {
+
+    private static final int NOON = 12 * 60;
+    private static final int NIGHT = 23 * 60;
+
+    private ConcurrentInventoryDataManager inventory;
+    private PolicyEngine policyEngine;
+
+    //la ricostruzione gira sul thread policy-index
+    private static void await(String description, BooleanSupplier condition) throws InterruptedException {
+        for(int i = 0; i < 500 && !condition.getAsBoolean(); i++)
+            Thread.sleep(10);
+        assertTrue(description, condition.getAsBoolean());
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        inventory = new ConcurrentInventoryDataManager();
+        inventory.createNewDevice(new GenericDeviceDescriptor("F1:A1", "F1A1D1", Collections.emptyList()));
+        inventory.createNewDevice(new GenericDeviceDescriptor("F1:A1", "F1A1D1:light", Collections.emptyList()));
+        inventory.createNewDevice(new GenericDeviceDescriptor("F1:A1", "F1A1D1:alarm", Collections.emptyList()));
+        inventory.createNewPolicy(new PolicyDescriptor("presence", "F1:A1", true, true, "19:00", "06:00", null));
+
+        policyEngine = new PolicyEngine(inventory);
+        inventory.addChangeListener(policyEngine);
+    }
+
+    @Test
+    public void testPresenceAlarmsTheDeviceAreaInsideTheWindow() {
+        assertEquals(Optional.of("F1:A1"), policyEngine.evaluatePresence("F1A1D1", NIGHT));
+        assertEquals(Optional.empty(), policyEngine.evaluatePresence("F1A1D1", NOON));
+        assertEquals(Optional.empty(), policyEngine.evaluatePresence("unknown", NIGHT));
+
+        assertEquals(Arrays.asList("F1A1D1:light", "F1A1D1:alarm"), policyEngine.getAreaActuators("F1:A1"));
+        assertEquals(Collections.emptyList(), policyEngine.getAreaActuators("F2:A1"));
+    }
+
+    @Test
+    public void testPeopleCountUsesTheAreaThreshold() throws Exception {
+        inventory.createNewPolicy(new PolicyDescriptor("people", "F1:A1", true, false, "08:00", "18:00", 2));
+        policyEngine.rebuild();
+
+        assertEquals(Optional.empty(), policyEngine.evaluatePeopleCount("F1A1D1", 2, NOON));
+        assertEquals(Optional.of("F1:A1"), policyEngine.evaluatePeopleCount("F1A1D1", 3, NOON));
+        //fuori dalla finestra della policy di conteggio
+        assertEquals(Optional.empty(), policyEngine.evaluatePeopleCount("F1A1D1", 3, NIGHT));
+    }
+
+    @Test
+    public void testIndexIsRebuiltAfterInventoryChanges() throws Exception {
+        //policy disabilitata: la presenza non allarma piu' l'area
+        inventory.updatePolicy(new PolicyDescriptor("presence", "F1:A1", false, true, "19:00", "06:00", null));
+        await("disabled policy", () -> !policyEngine.evaluatePresence("F1A1D1", NIGHT).isPresent());
+
+        inventory.updatePolicy(new PolicyDescriptor("presence", "F1:A1", true, true, "19:00", "06:00", null));
+        await("enabled policy", () -> policyEngine.evaluatePresence("F1A1D1", NIGHT).isPresent());
+
+        //nuovo device nell'area
+        inventory.createNewDevice(new GenericDeviceDescriptor("F1:A1", "F1A1D2", Collections.emptyList()));
+        await("new device", () -> policyEngine.evaluatePresence("F1A1D2", NIGHT).isPresent());
+
+        //device spostato in un'area senza policy
+        inventory.updateDevice(new GenericDeviceDescriptor("F1:A2", "F1A1D2", Collections.emptyList()));
+        await("moved device", () -> Optional.of("F1:A2").equals(policyEngine.getDeviceArea("F1A1D2")));
+        assertFalse(policyEngine.evaluatePresence("F1A1D2", NIGHT).isPresent());
+
+        //policy cancellata
+        inventory.deletePolicy("presence");
+        await("deleted policy", () -> policyEngine.getAreaPolicies("F1:A1").isEmpty());
+        assertFalse(policyEngine.evaluatePresence("F1A1D1", NIGHT).isPresent());
+    }
+}
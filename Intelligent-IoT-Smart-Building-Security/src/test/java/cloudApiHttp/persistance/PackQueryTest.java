@@ -0,0 +1,142 @@
+package cloudApiHttp.persistance;
+
+import org.junit.Test;
+import utils.SenMLPack;
+import utils.SenMLRecord;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.*;
+
+//filtro dei pack: i record tenuti devono risolversi (RFC 8428) come nel pack originale
+public class PackQueryTest {
+
+    private static SenMLRecord record(String bn, Double bt, String bu, String n, String u, Double v, Boolean vb, Double t) {
+        SenMLRecord record = new SenMLRecord();
+        record.setBn(bn);
+        record.setBt(bt);
+        record.setBu(bu);
+        record.setN(n);
+        record.setU(u);
+        record.setV(v);
+        record.setVb(vb);
+        record.setT(t);
+        return record;
+    }
+
+    private static SenMLPack pack(SenMLRecord... records) {
+        SenMLPack pack = new SenMLPack();
+        for(SenMLRecord record : records)
+            pack.add(record);
+        return pack;
+    }
+
+    private static String describe(SenMLRecord resolved) {
+        return resolved.getN() + "|" + resolved.getU() + "|" + resolved.getTAsDouble() + "|" + resolved.getV() + "|" + resolved.getVb() + "|" + resolved.getBver();
+    }
+
+    //i record risolti del risultato sono quelli del pack originale che soddisfano il filtro
+    private static void assertKeeps(SenMLPack pack, SenMLPack result, Predicate<SenMLRecord> expected) {
+        List<String> expectedList = new ArrayList<>();
+        for(SenMLRecord resolved : pack.resolve(0))
+            if(expected.test(resolved))
+                expectedList.add(describe(resolved));
+
+        List<String> resultList = new ArrayList<>();
+        if(result != null)
+            for(SenMLRecord resolved : result.resolve(0))
+                resultList.add(describe(resolved));
+
+        assertEquals(expectedList, resultList);
+    }
+
+    @Test
+    public void testPackMatchingEntirelyIsReturnedAsIs() {
+        SenMLPack pack = pack(record("F01A01D001", 1600000000.0, null, "pir", "SEEING", null, true, null),
+                record(null, null, null, "camera", "Num", 3.0, null, 1.0));
+        assertSame(pack, new PackQuery("F01A01D001", null, null, null).filter(pack));
+        assertNull(new PackQuery("F01A01D002", null, null, null).filter(pack));
+    }
+
+    @Test
+    public void testBaseFieldsOfADroppedFirstRecordAreCarriedOver() {
+        SenMLPack pack = pack(record("F01A01D001", 1600000000.0, "Num", "camera", null, 1.0, null, null),
+                record(null, null, null, "pir", "SEEING", null, true, 1.0),
+                record(null, null, null, "camera", null, 2.0, null, 2.0));
+
+        SenMLPack result = new PackQuery(null, "SEEING", null, null).filter(pack);
+        assertKeeps(pack, result, resolved -> "SEEING".equals(resolved.getU()));
+        assertEquals("F01A01D001", result.get(0).getBn());
+        assertEquals(1600000000.0, result.get(0).getBtAsDouble(), 0);
+
+        //il record originale non viene toccato
+        assertNull(pack.get(1).getBn());
+        assertFalse(pack.get(1).hasBt());
+    }
+
+    @Test
+    public void testBaseTimeOfADroppedMiddleRecordIsRepeated() {
+        SenMLPack pack = pack(record("F01A01D001", 1600000000.0, null, "camera", "Num", 1.0, null, null),
+                record(null, 1600000100.0, null, "pir", "SEEING", null, true, null),
+                record(null, null, null, "camera", "Num", 3.0, null, 5.0));
+
+        SenMLPack result = new PackQuery(null, "Num", null, null).filter(pack);
+        assertKeeps(pack, result, resolved -> "Num".equals(resolved.getU()));
+        assertEquals(1600000105.0, result.resolve(0).get(1).getTAsDouble(), 0);
+    }
+
+    @Test
+    public void testBaseValueAndVersionAreCarriedOver() {
+        SenMLRecord first = record("F01A01D001", 1600000000.0, null, "pir", "SEEING", null, true, null);
+        first.setBv(10);
+        first.setBver(11);
+        SenMLPack pack = pack(first, record(null, null, null, "camera", "Num", 2.0, null, 1.0));
+
+        SenMLPack result = new PackQuery(null, "Num", null, null).filter(pack);
+        assertKeeps(pack, result, resolved -> "Num".equals(resolved.getU()));
+        assertEquals(12.0, result.resolve(0).get(0).getVAsDouble(), 0);
+    }
+
+    @Test
+    public void testDeviceFilterFollowsBaseNameChanges() {
+        SenMLPack pack = pack(record("F01A01D001", 1600000000.0, "SEEING", "pir", null, null, true, null),
+                record("F01A01D002", null, null, "pir", null, null, false, 1.0),
+                record(null, null, null, "pir", null, null, true, 2.0),
+                record("F01A01D001", null, null, "pir", null, null, false, 3.0));
+
+        SenMLPack result = new PackQuery("F01A01D002", null, null, null).filter(pack);
+        assertKeeps(pack, result, resolved -> resolved.getN().startsWith("F01A01D002"));
+        assertEquals("F01A01D002", result.get(0).getBn());
+    }
+
+    @Test
+    public void testTimeRangeUsesBaseTimeAndMilliseconds() {
+        //tempi in millisecondi come li scrivono le risorse coap, l'intervallo della query e' in secondi
+        SenMLPack pack = pack(record("F01A01D001", 1600000000000.0, null, "pir", "SEEING", null, true, null),
+                record(null, null, null, "pir", "SEEING", null, false, 5000.0),
+                record(null, null, null, "pir", "SEEING", null, true, 10000.0));
+
+        SenMLPack result = new PackQuery(null, null, 1600000004.0, 1600000006.0).filter(pack);
+        assertKeeps(pack, result, resolved -> resolved.getTAsDouble() == 1600000005000.0);
+    }
+
+    @Test
+    public void testSummaryDoesNotChangeThePack() {
+        SenMLPack pack = pack(record("F01A01D001", null, null, "pir", "SEEING", null, true, -5.0),
+                record(null, null, null, "pir", "SEEING", null, false, null));
+
+        PackSegmentIndex.PackSummary summary = PackSegmentIndex.PackSummary.of(pack, 1600000000);
+        assertEquals(1599999995.0, summary.minTime, 0);
+        assertEquals(1600000000.0, summary.maxTime, 0);
+        assertEquals(-5.0, pack.get(0).getTAsDouble(), 0);
+        assertFalse(pack.get(1).hasT());
+
+        SenMLPack absolute = PackSegmentIndex.PackSummary.withAbsoluteTimes(pack, 1600000000);
+        assertNotSame(pack, absolute);
+        assertEquals(1599999995.0, absolute.get(0).getTAsDouble(), 0);
+        assertEquals(1600000000.0, absolute.get(1).getTAsDouble(), 0);
+        assertEquals(-5.0, pack.get(0).getTAsDouble(), 0);
+    }
+}
@@ -0,0 +1,155 @@
+package cloudApiHttp.persistance;
+
+import buildingSecurityController.api.exception.IInventoryDataManagerException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import utils.SenMLPack;
+import utils.SenMLRecord;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+//scrittura a gruppi, rotazione dei segmenti e richieste che non devono mai restare appese
+public class SegmentedPackStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static SegmentedPackStore open(File directory, long maxSegmentBytes) throws Exception {
+        SegmentedPackStore store = new SegmentedPackStore(directory.getPath(), maxSegmentBytes, TimeUnit.HOURS.toMillis(1), SegmentedPackStore.FsyncPolicy.ALWAYS, 0);
+        store.start();
+        return store;
+    }
+
+    private static SenMLPack pack(String deviceId, double time) {
+        SenMLRecord record = new SenMLRecord();
+        record.setBn(deviceId);
+        record.setBt(time);
+        record.setN("presence");
+        record.setVb(true);
+        SenMLPack pack = new SenMLPack();
+        pack.add(record);
+        return pack;
+    }
+
+    private static List<SenMLPack> scan(SegmentedPackStore store, PackQuery query) throws Exception {
+        List<SenMLPack> packList = new ArrayList<>();
+        store.scanPacks(query, packList::add);
+        return packList;
+    }
+
+    @Test
+    public void testPacksAreReadBackFromRolledSegments() throws Exception {
+        File directory = folder.newFolder();
+
+        SegmentedPackStore store = open(directory, 200);
+        for(int i = 0; i < 20; i++)
+            store.createNewPack(pack("device-" + (i % 4), 1600000000 + i));
+
+        assertTrue(store.getSegmentIndexList().size() > 1);
+        assertEquals(20, scan(store, new PackQuery(null, null, null, null)).size());
+        assertEquals(5, scan(store, new PackQuery("device-1", null, null, null)).size());
+        assertEquals(3, scan(store, new PackQuery(null, null, 1600000005.0, 1600000007.0)).size());
+        store.stop();
+
+        //dopo il riavvio gli indici vengono riletti e si scrive su un segmento nuovo
+        SegmentedPackStore restarted = open(directory, 200);
+        restarted.createNewPack(pack("device-0", 1600000100));
+        assertEquals(6, scan(restarted, new PackQuery("device-0", null, null, null)).size());
+        restarted.stop();
+    }
+
+    @Test(expected = IInventoryDataManagerException.class)
+    public void testAppendAfterStopFails() throws Exception {
+        SegmentedPackStore store = open(folder.newFolder(), SegmentedPackStore.DEFAULT_MAX_SEGMENT_BYTES);
+        store.stop();
+        store.createNewPack(pack("device-0", 1600000000));
+    }
+
+    @Test
+    public void testConcurrentAppendsDuringStopNeverHang() throws Exception {
+        SegmentedPackStore store = open(folder.newFolder(), SegmentedPackStore.DEFAULT_MAX_SEGMENT_BYTES);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> resultList = new ArrayList<>();
+        for(int i = 0; i < 2000; i++){
+            double time = 1600000000 + i;
+            resultList.add(executor.submit(() -> {
+                try {
+                    store.createNewPack(pack("device-0", time));
+                    return true;
+                } catch (IInventoryDataManagerException e) {
+                    return false;
+                }
+            }));
+        }
+        store.stop();
+
+        int committed = 0;
+        for(Future<Boolean> result : resultList)
+            if(result.get(10, TimeUnit.SECONDS))
+                committed++;
+        executor.shutdown();
+
+        //tutti i pack confermati sono sul disco
+        assertEquals(committed, scan(store, new PackQuery(null, null, null, null)).size());
+    }
+
+    @Test
+    public void testFailedWriteFailsTheRequestAndTheStoreRecovers() throws Exception {
+        File directory = folder.newFolder();
+
+        //ogni pack fa ruotare il segmento
+        SegmentedPackStore store = open(directory, 1);
+        store.createNewPack(pack("device-0", 1600000000));
+
+        //senza directory la rotazione fallisce
+        for(File file : directory.listFiles())
+            Files.delete(file.toPath());
+        Files.delete(directory.toPath());
+        try {
+            store.createNewPack(pack("device-0", 1600000001));
+            fail("The write should have failed");
+        } catch (IInventoryDataManagerException expected) {
+        }
+
+        Files.createDirectories(directory.toPath());
+        store.createNewPack(pack("device-0", 1600000002));
+        store.stop();
+
+        List<SenMLPack> packList = scan(store, new PackQuery("device-0", null, null, null));
+        assertEquals(1, packList.size());
+        assertEquals(1600000002, packList.get(0).get(0).getBtAsDouble(), 0);
+    }
+
+    @Test
+    public void testPackListIsNotSplitAcrossSegments() throws Exception {
+        File directory = folder.newFolder();
+
+        //ogni pack singolo fa ruotare il segmento, una lista resta intera nel suo
+        SegmentedPackStore store = open(directory, 1);
+        store.createNewPack(pack("device-0", 1600000000));
+        List<SenMLPack> packList = new ArrayList<>();
+        for(int i = 1; i <= 5; i++)
+            packList.add(pack("device-1", 1600000000 + i));
+        store.createNewPackList(packList);
+        store.createNewPack(pack("device-2", 1600000010));
+
+        List<Long> packsPerSegment = new ArrayList<>();
+        for(PackSegmentIndex index : store.getSegmentIndexList())
+            packsPerSegment.add(index.packs);
+        assertEquals(Arrays.asList(1L, 5L, 1L), packsPerSegment);
+        assertEquals(5, scan(store, new PackQuery("device-1", null, null, null)).size());
+        store.stop();
+    }
+}
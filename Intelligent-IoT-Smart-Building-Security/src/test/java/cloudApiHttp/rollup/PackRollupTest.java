@@ -0,0 +1,127 @@
+package cloudApiHttp.rollup;
+
+import cloudApiHttp.persistance.IInventoryCollectorPack;
+import cloudApiHttp.persistance.PackQuery;
+import cloudApiHttp.persistance.SegmentedPackStore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import utils.SenMLPack;
+import utils.SenMLRecord;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.*;
+
+//area dei device, attivazioni degli allarmi e ricostruzione dallo store a segmenti
+public class PackRollupTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    //secondi, dentro il bucket di un minuto che inizia a START
+    private static final long START = (System.currentTimeMillis() / 1000 / 60 - 1) * 60;
+
+    private static SenMLPack pack(String baseName, double time, String unit, Double value, Boolean booleanValue) {
+        SenMLRecord record = new SenMLRecord();
+        record.setBn(baseName);
+        record.setT(time);
+        if(unit != null)
+            record.setU(unit);
+        if(value != null)
+            record.setV(value);
+        if(booleanValue != null)
+            record.setVb(booleanValue);
+        SenMLPack pack = new SenMLPack();
+        pack.add(record);
+        return pack;
+    }
+
+    private static PackRollup rollup(IInventoryCollectorPack store, String deviceId, String areaId) {
+        return new PackRollup(store, deviceId == null ? Collections.emptyMap() : Collections.singletonMap(deviceId, areaId), Collections.emptyMap());
+    }
+
+    private static RollupBucket single(List<RollupBucket> bucketList) {
+        assertEquals(1, bucketList.size());
+        return bucketList.get(0);
+    }
+
+    @Test
+    public void testAreaComesFromTheDeviceIdOrTheConfiguredMap() {
+        PackRollup rollup = rollup(null, "0001", "1:A");
+        rollup.add(pack("F01A02D001:presencemonitoring", START, PackRollup.CAMERA_UNIT, 3.0, null));
+        rollup.add(pack("F01A02D004:presencemonitoring", START + 1, PackRollup.CAMERA_UNIT, 5.0, null));
+        rollup.add(pack("F01A03D001:presencemonitoring", START + 2, PackRollup.PIR_UNIT, null, true));
+        rollup.add(pack("0001:presencemonitoring", START + 3, PackRollup.PIR_UNIT, null, true));
+        rollup.add(pack("0002:presencemonitoring", START + 4, PackRollup.PIR_UNIT, null, true));
+
+        assertEquals(new TreeSet<>(Arrays.asList("1:A", "F01A02", "F01A03")), rollup.getAreaIdSet());
+        RollupBucket area = single(rollup.getAreaRollup("F01A02", PackRollup.Resolution.MINUTE, null, null));
+        assertEquals(2, area.getPeopleSamples());
+        assertEquals(5.0, area.getPeopleMax(), 0);
+        assertEquals(1, single(rollup.getAreaRollup("1:A", PackRollup.Resolution.HOUR, null, null)).getPirSamples());
+        assertEquals(5, rollup.getDeviceIdSet().size());
+    }
+
+    @Test
+    public void testOnlyTheAlarmResourceCountsActivations() {
+        PackRollup rollup = rollup(null, null, null);
+        rollup.add(pack("F01A01D002:alarm", START, null, null, true));
+        rollup.add(pack("F01A01D002:alarm", START + 1, null, null, true));
+        rollup.add(pack("F01A01D002:alarm", START + 2, null, null, false));
+        rollup.add(pack("F01A01D002:alarm", START + 3, null, null, true));
+        //una luce con "alarm" nell'id del device non e' un allarme
+        rollup.add(pack("alarm-room:light", START, null, null, true));
+
+        assertEquals(2, single(rollup.getDeviceRollup("F01A01D002:alarm", PackRollup.Resolution.MINUTE, null, null)).getAlarmActivations());
+        assertEquals(2, single(rollup.getAreaRollup("F01A01", PackRollup.Resolution.DAY, null, null)).getAlarmActivations());
+        assertTrue(rollup.getDeviceRollup("alarm-room:light", PackRollup.Resolution.MINUTE, null, null).isEmpty());
+    }
+
+    @Test
+    public void testStartRebuildsFromTheSegmentedStore() throws Exception {
+        SegmentedPackStore store = new SegmentedPackStore(folder.newFolder().getPath(), 200, TimeUnit.HOURS.toMillis(1), SegmentedPackStore.FsyncPolicy.ALWAYS, 0);
+        store.start();
+        for(int i = 0; i < 10; i++)
+            store.createNewPack(pack("F01A01D001:presencemonitoring", START + i, PackRollup.CAMERA_UNIT, (double) i, null));
+        //fuori dalla retention di un giorno: il suo segmento non viene letto
+        store.createNewPack(pack("F09A09D001:presencemonitoring", START - TimeUnit.DAYS.toSeconds(3), PackRollup.CAMERA_UNIT, 1.0, null));
+        assertTrue(store.getSegmentIndexList().size() > 1);
+
+        PackRollup rollup = new PackRollup(store, Collections.emptyMap(), Collections.singletonMap(PackRollup.Resolution.DAY, TimeUnit.DAYS.toSeconds(1)));
+        rollup.start();
+        store.stop();
+
+        RollupBucket area = single(rollup.getAreaRollup("F01A01", PackRollup.Resolution.MINUTE, null, null));
+        assertEquals(10, area.getPeopleSamples());
+        assertEquals(9.0, area.getPeopleLast(), 0);
+        assertEquals(Collections.singleton("F01A01"), rollup.getAreaIdSet());
+    }
+
+    @Test
+    public void testStartDoesNotScanAStoreWithoutIndex() throws Exception {
+        IInventoryCollectorPack store = new IInventoryCollectorPack() {
+            @Override
+            public SenMLPack createNewPack(SenMLPack pack) {
+                return pack;
+            }
+
+            @Override
+            public List<SenMLPack> createNewPackList(List<SenMLPack> packList) {
+                return packList;
+            }
+
+            @Override
+            public void scanPacks(PackQuery query, Predicate<SenMLPack> consumer) {
+                fail("the whole store would be read");
+            }
+        };
+
+        rollup(store, null, null).start();
+    }
+}
@@ -0,0 +1,45 @@
+package smartBuilding.server.resource;
+
+import org.eclipse.californium.core.CoapResource;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SmartBuildingCoapSmartObjectProcessTest {
+
+    private static CoapResource device(String deviceId) {
+        CoapResource device = new CoapResource(deviceId);
+        CoapResource presenceMonitoring = new CoapResource("presencemonitoring");
+        presenceMonitoring.getAttributes().addResourceType("iot.sensor.presencemonitoring");
+        CoapResource pir = new CoapResource("pir");
+        pir.setObservable(true);
+        pir.getAttributes().addResourceType("iot.sensor.pir");
+        presenceMonitoring.add(pir);
+        device.add(presenceMonitoring);
+        return device;
+    }
+
+    @Test
+    public void testRegistrationIsSplitByDeviceUnderThePayloadLimit() {
+        SmartBuildingCoapSmartObjectProcess server = new SmartBuildingCoapSmartObjectProcess(0);
+        for(int i = 0; i < 200; i++)
+            server.add(device(String.format("F01A01D%03d", i)));
+
+        List<String> payloadList = SmartBuildingCoapSmartObjectProcess.registrationPayloads(server.getRoot(), 1024);
+
+        assertTrue(payloadList.size() > 1);
+        int links = 0;
+        for(String payload : payloadList){
+            assertTrue(payload.length() <= 1024);
+            assertFalse(payload.contains(".well-known"));
+            //ogni gruppo contiene device interi
+            assertEquals(payload.split("/presencemonitoring>").length - 1, payload.split("/presencemonitoring/pir>").length - 1);
+            links += payload.split(",<").length;
+        }
+        //presencemonitoring e pir per ogni device, il device senza attributi non compare nel link-format
+        assertEquals(400, links);
+        assertTrue(payloadList.get(0).startsWith("</F01A01D000/presencemonitoring>"));
+    }
+}
@@ -0,0 +1,182 @@
+package utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORGenerator;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+//round trip di SenMLCbor e interoperabilita' con un codec CBOR indipendente (jackson-dataformat-cbor)
+public class SenMLCborTest {
+
+    private static final CBORFactory CBOR_FACTORY = new CBORFactory();
+
+    private static SenMLPack fullPack() {
+        SenMLPack pack = new SenMLPack();
+
+        SenMLRecord base = new SenMLRecord();
+        base.setBn("urn:dev:ow:10e2073a01080063:");
+        base.setBt(1.276020076001e+09);
+        base.setBu("A");
+        base.setBv(5);
+        base.setBver(10);
+        base.setN("voltage");
+        base.setU("V");
+        base.setV(120.1);
+        base.setT(-5);
+        pack.add(base);
+
+        SenMLRecord record = new SenMLRecord();
+        record.setN("current");
+        record.setV(1.5);
+        record.setS(-12.25);
+        record.setUt(600);
+        pack.add(record);
+
+        SenMLRecord flags = new SenMLRecord();
+        flags.setN("door");
+        flags.setVb(true);
+        flags.setVs("open");
+        flags.setVd("aGVsbG8");
+        flags.setT(1600000000123L);
+        pack.add(flags);
+
+        return pack;
+    }
+
+    private static void assertSameRecord(SenMLRecord expected, SenMLRecord actual) {
+        assertEquals(expected.getBn(), actual.getBn());
+        assertEquals(expected.getBu(), actual.getBu());
+        assertEquals(expected.getN(), actual.getN());
+        assertEquals(expected.getU(), actual.getU());
+        assertEquals(expected.getVs(), actual.getVs());
+        assertEquals(expected.getVb(), actual.getVb());
+        assertEquals(expected.getVd(), actual.getVd());
+        assertSameNumber(expected.getBt(), actual.getBt());
+        assertSameNumber(expected.getBv(), actual.getBv());
+        assertSameNumber(expected.getBver(), actual.getBver());
+        assertSameNumber(expected.getV(), actual.getV());
+        assertSameNumber(expected.getS(), actual.getS());
+        assertSameNumber(expected.getT(), actual.getT());
+        assertSameNumber(expected.getUt(), actual.getUt());
+    }
+
+    private static void assertSameNumber(Number expected, Number actual) {
+        if(expected == null)
+            assertNull(actual);
+        else
+            assertEquals(expected.doubleValue(), actual.doubleValue(), 0);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        SenMLPack pack = fullPack();
+        SenMLPack decoded = SenMLCbor.decode(SenMLCbor.encode(pack));
+
+        assertEquals(pack.size(), decoded.size());
+        for(int i = 0; i < pack.size(); i++)
+            assertSameRecord(pack.get(i), decoded.get(i));
+    }
+
+    @Test
+    public void testEncodedPackIsReadableByOtherDecoders() throws IOException {
+        JsonNode records = new ObjectMapper(CBOR_FACTORY).readTree(SenMLCbor.encode(fullPack()));
+
+        assertTrue(records.isArray());
+        assertEquals(3, records.size());
+
+        //chiavi intere di RFC 8428: -2 bn, -3 bt, 0 n, 2 v, 4 vb, 8 vd
+        JsonNode base = records.get(0);
+        assertEquals("urn:dev:ow:10e2073a01080063:", base.get("-2").asText());
+        assertEquals(1.276020076001e+09, base.get("-3").asDouble(), 0);
+        assertEquals("voltage", base.get("0").asText());
+        assertEquals(120.1, base.get("2").asDouble(), 1e-12);
+        assertEquals(-5, base.get("6").asInt());
+
+        JsonNode flags = records.get(2);
+        assertTrue(flags.get("4").asBoolean());
+        assertTrue(flags.get("8").isBinary());
+        assertArrayEquals("hello".getBytes("UTF-8"), flags.get("8").binaryValue());
+    }
+
+    @Test
+    public void testDecodesPackWrittenByOtherEncoders() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try(CBORGenerator generator = CBOR_FACTORY.createGenerator(out)){
+            generator.writeStartArray();
+            generator.writeStartObject();
+            generator.writeFieldId(-2);
+            generator.writeString("0001:pir");
+            generator.writeFieldId(-3);
+            generator.writeNumber(1600000000.5d);
+            generator.writeFieldId(4);
+            generator.writeBoolean(true);
+            generator.writeEndObject();
+            generator.writeStartObject();
+            generator.writeFieldId(0);
+            generator.writeString("people");
+            generator.writeFieldId(2);
+            generator.writeNumber(3);
+            generator.writeFieldId(8);
+            generator.writeBinary("hello".getBytes("UTF-8"));
+            generator.writeEndObject();
+            generator.writeEndArray();
+        }
+
+        SenMLPack pack = SenMLCbor.decode(out.toByteArray());
+
+        assertEquals(2, pack.size());
+        assertEquals("0001:pir", pack.get(0).getBn());
+        assertEquals(1600000000.5d, pack.get(0).getBtAsDouble(), 0);
+        assertTrue(pack.get(0).getVbAsBoolean());
+        assertEquals("people", pack.get(1).getN());
+        assertEquals(3, pack.get(1).getVAsDouble(), 0);
+        assertEquals("aGVsbG8", pack.get(1).getVd());
+    }
+
+    @Test
+    public void testDecodesIndefiniteLengthAndHalfFloat() throws IOException {
+        //[_ {0: "a", 2: 1.5 (half float)}] con array e mappa a lunghezza indefinita
+        byte[] payload = {(byte) 0x9f, (byte) 0xbf, 0x00, 0x61, 'a', 0x02, (byte) 0xf9, 0x3e, 0x00, (byte) 0xff, (byte) 0xff};
+
+        SenMLPack pack = SenMLCbor.decode(payload);
+
+        assertEquals(1, pack.size());
+        assertEquals("a", pack.get(0).getN());
+        assertEquals(1.5, pack.get(0).getVAsDouble(), 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedPayloadIsRejected() throws IOException {
+        byte[] payload = SenMLCbor.encode(fullPack());
+        byte[] truncated = new byte[payload.length - 3];
+        System.arraycopy(payload, 0, truncated, 0, truncated.length);
+        SenMLCbor.decode(truncated);
+    }
+
+    //label 2^32 + 2: troncata a int sarebbe v
+    @Test(expected = IOException.class)
+    public void testLabelOutOfIntRangeIsRejected() throws IOException {
+        SenMLCbor.decode(new byte[]{(byte) 0x81, (byte) 0xa1, 0x1b, 0, 0, 0, 1, 0, 0, 0, 2, 0x01});
+    }
+
+    //un valore ignorato annidato a fondo non deve arrivare allo StackOverflowError
+    @Test(expected = IOException.class)
+    public void testDeeplyNestedValueIsRejected() throws IOException {
+        int depth = 100000;
+        byte[] payload = new byte[depth + 5];
+        payload[0] = (byte) 0x81;
+        payload[1] = (byte) 0xa1;
+        payload[2] = 0x18;
+        payload[3] = 100;
+        Arrays.fill(payload, 4, 4 + depth, (byte) 0x81);
+        payload[4 + depth] = 0x00;
+        SenMLCbor.decode(payload);
+    }
+}
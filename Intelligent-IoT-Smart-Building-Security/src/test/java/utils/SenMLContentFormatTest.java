@@ -0,0 +1,35 @@
+package utils;
+
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SenMLContentFormatTest {
+
+    @Test
+    public void testNegotiateAnswersWithTheRequestedFormat() {
+        assertEquals(MediaTypeRegistry.APPLICATION_SENML_CBOR, SenMLContentFormat.negotiate(MediaTypeRegistry.APPLICATION_SENML_CBOR));
+        assertEquals(MediaTypeRegistry.APPLICATION_CBOR, SenMLContentFormat.negotiate(MediaTypeRegistry.APPLICATION_CBOR));
+        assertEquals(MediaTypeRegistry.APPLICATION_SENML_JSON, SenMLContentFormat.negotiate(MediaTypeRegistry.APPLICATION_SENML_JSON));
+        assertEquals(MediaTypeRegistry.APPLICATION_SENML_JSON, SenMLContentFormat.negotiate(MediaTypeRegistry.UNDEFINED));
+        assertEquals(MediaTypeRegistry.APPLICATION_JSON, SenMLContentFormat.negotiate(MediaTypeRegistry.APPLICATION_JSON));
+        assertEquals(MediaTypeRegistry.UNDEFINED, SenMLContentFormat.negotiate(MediaTypeRegistry.APPLICATION_XML));
+    }
+
+    @Test
+    public void testApplicationCborCarriesSenMLCbor() throws Exception {
+        SenMLPack pack = new SenMLPack();
+        SenMLRecord record = new SenMLRecord();
+        record.setBn("0001:camera");
+        record.setV(4);
+        pack.add(record);
+
+        byte[] payload = SenMLContentFormat.encode(pack, MediaTypeRegistry.APPLICATION_CBOR, null);
+
+        assertArrayEquals(SenMLCbor.encode(pack), payload);
+        SenMLPack decoded = SenMLContentFormat.decode(payload, MediaTypeRegistry.APPLICATION_CBOR);
+        assertEquals("0001:camera", decoded.get(0).getBn());
+        assertEquals(4, decoded.get(0).getVAsDouble(), 0);
+    }
+}
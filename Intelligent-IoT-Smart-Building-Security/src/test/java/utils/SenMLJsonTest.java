@@ -0,0 +1,123 @@
+package utils;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+//formato JSON dei pack gia' salvati (recordSensorsFile, segmenti dello store) e record risolti
+public class SenMLJsonTest {
+
+    //righe come le scriveva il vecchio SenMLRecord con i campi Number e l'ObjectMapper di default
+    private static final List<String> STORED_LINES = Arrays.asList(
+            "[{\"bn\":\"0001:presencemonitoring\",\"bt\":null,\"bu\":null,\"bv\":null,\"bver\":null,\"n\":null,\"u\":\"SEEING\",\"v\":null,\"vs\":null,\"vb\":true,\"vd\":null,\"s\":null,\"t\":1600000000123,\"ut\":null}]",
+            "[{\"bn\":\"0001:presencemonitoring\",\"bt\":null,\"bu\":null,\"bv\":null,\"bver\":null,\"n\":null,\"u\":\"Num\",\"v\":3,\"vs\":null,\"vb\":null,\"vd\":null,\"s\":null,\"t\":1600000000456,\"ut\":null}]",
+            "[{\"bn\":\"0002:alarm\",\"bt\":null,\"bu\":null,\"bv\":null,\"bver\":0.1,\"n\":null,\"u\":null,\"v\":null,\"vs\":null,\"vb\":false,\"vd\":null,\"s\":null,\"t\":1600000000789,\"ut\":null}]",
+            "[{\"bn\":\"room:\",\"bt\":1600000000,\"bu\":\"Cel\",\"bv\":20,\"bver\":null,\"n\":\"temp\",\"u\":null,\"v\":1.5,\"vs\":null,\"vb\":null,\"vd\":null,\"s\":null,\"t\":-10,\"ut\":60},"
+                    + "{\"bn\":null,\"bt\":null,\"bu\":null,\"bv\":null,\"bver\":null,\"n\":\"label\",\"u\":null,\"v\":null,\"vs\":\"kitchen\",\"vb\":null,\"vd\":\"AQI=\",\"s\":12.25,\"t\":null,\"ut\":null}]");
+
+    //le stesse righe come le scrivono le risorse coap, con NON_NULL
+    private static final List<String> COMPACT_LINES = Arrays.asList(
+            "[{\"bn\":\"0001:presencemonitoring\",\"u\":\"SEEING\",\"vb\":true,\"t\":1600000000123}]",
+            "[{\"bn\":\"0001:presencemonitoring\",\"u\":\"Num\",\"v\":3,\"t\":1600000000456}]",
+            "[{\"bn\":\"0002:alarm\",\"bver\":0.1,\"vb\":false,\"t\":1600000000789}]",
+            "[{\"bn\":\"room:\",\"bt\":1600000000,\"bu\":\"Cel\",\"bv\":20,\"n\":\"temp\",\"v\":1.5,\"t\":-10,\"ut\":60},"
+                    + "{\"n\":\"label\",\"vs\":\"kitchen\",\"vd\":\"AQI=\",\"s\":12.25}]");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ObjectMapper nonNullMapper = new ObjectMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+    @Test
+    public void testStoredLinesAreWrittenBackUnchanged() throws Exception {
+        for(String line : STORED_LINES)
+            assertEquals(line, objectMapper.writeValueAsString(objectMapper.readValue(line, SenMLPack.class)));
+    }
+
+    @Test
+    public void testNonNullInclusionLeavesOutAbsentFields() throws Exception {
+        for(int i = 0; i < STORED_LINES.size(); i++){
+            SenMLPack pack = objectMapper.readValue(STORED_LINES.get(i), SenMLPack.class);
+            assertEquals(COMPACT_LINES.get(i), nonNullMapper.writeValueAsString(pack));
+            //e dal formato compatto si torna a quello con i null
+            assertEquals(STORED_LINES.get(i), objectMapper.writeValueAsString(nonNullMapper.readValue(COMPACT_LINES.get(i), SenMLPack.class)));
+        }
+    }
+
+    @Test
+    public void testFieldsAreReadIntoPrimitives() throws Exception {
+        SenMLRecord record = objectMapper.readValue(STORED_LINES.get(3), SenMLPack.class).get(0);
+        assertTrue(record.hasBt() && record.hasBv() && record.hasV() && record.hasT() && record.hasUt());
+        assertFalse(record.hasBver() || record.hasVb() || record.hasS());
+        assertEquals(1600000000, record.getBtAsDouble(), 0);
+        assertEquals(1.5, record.getVAsDouble(), 0);
+        assertEquals(-10, record.getTAsDouble(), 0);
+
+        //campi sconosciuti ignorati
+        SenMLPack pack = objectMapper.readValue("[{\"bn\":\"x\",\"extra\":{\"a\":[1,2]},\"v\":2}]", SenMLPack.class);
+        assertEquals("x", pack.get(0).getBn());
+        assertEquals(2, pack.get(0).getVAsDouble(), 0);
+    }
+
+    @Test(expected = JsonMappingException.class)
+    public void testNonNumericValueIsRejected() throws Exception {
+        objectMapper.readValue("[{\"bn\":\"x\",\"v\":\"3\"}]", SenMLPack.class);
+    }
+
+    @Test(expected = JsonMappingException.class)
+    public void testNonBooleanVbIsRejected() throws Exception {
+        objectMapper.readValue("[{\"bn\":\"x\",\"vb\":1}]", SenMLPack.class);
+    }
+
+    @Test
+    public void testResolveAppliesTheBaseFields() throws Exception {
+        SenMLPack resolved = objectMapper.readValue(STORED_LINES.get(3), SenMLPack.class).resolve(0);
+
+        assertEquals(2, resolved.size());
+        SenMLRecord temp = resolved.get(0);
+        assertEquals("room:temp", temp.getN());
+        assertEquals("Cel", temp.getU());
+        assertEquals(21.5, temp.getVAsDouble(), 0);
+        assertEquals(1599999990, temp.getTAsDouble(), 0);
+        assertEquals(60, temp.getUtAsDouble(), 0);
+
+        //bn, bt e bu valgono anche per i record seguenti; bv no, il record ha gia' un valore stringa
+        SenMLRecord label = resolved.get(1);
+        assertEquals("room:label", label.getN());
+        assertEquals("Cel", label.getU());
+        assertEquals(1600000000, label.getTAsDouble(), 0);
+        assertFalse(label.hasV());
+        assertEquals("kitchen", label.getVs());
+        assertEquals(12.25, label.getSAsDouble(), 0);
+
+        //nei record risolti non restano campi base
+        for(SenMLRecord record : resolved)
+            assertTrue(record.getBn() == null && !record.hasBt() && record.getBu() == null && !record.hasBv());
+    }
+
+    @Test
+    public void testResolveAnchorsRelativeTimesAndKeepsTheVersion() throws Exception {
+        SenMLPack pack = nonNullMapper.readValue("[{\"bn\":\"0003:\",\"bver\":2,\"bv\":5,\"n\":\"a\",\"t\":-2},{\"n\":\"b\"},{\"n\":\"c\",\"vb\":true,\"t\":1600000000}]", SenMLPack.class);
+        SenMLPack resolved = pack.resolve(1700000000);
+
+        assertEquals(1699999998, resolved.get(0).getTAsDouble(), 0);
+        assertEquals(5, resolved.get(0).getVAsDouble(), 0);
+        //senza valore proprio il record prende bv
+        assertEquals("0003:b", resolved.get(1).getN());
+        assertEquals(5, resolved.get(1).getVAsDouble(), 0);
+        assertEquals(1700000000, resolved.get(1).getTAsDouble(), 0);
+        //un tempo assoluto resta com'e', un valore booleano non prende bv
+        assertEquals(1600000000, resolved.get(2).getTAsDouble(), 0);
+        assertFalse(resolved.get(2).hasV());
+        assertTrue(resolved.get(2).getVbAsBoolean());
+        for(SenMLRecord record : resolved)
+            assertEquals(2, record.getBverAsDouble(), 0);
+
+        //il pack di partenza non viene modificato
+        assertEquals("[{\"bn\":\"0003:\",\"bv\":5,\"bver\":2,\"n\":\"a\",\"t\":-2},{\"n\":\"b\"},{\"n\":\"c\",\"vb\":true,\"t\":1600000000}]", nonNullMapper.writeValueAsString(pack));
+    }
+}
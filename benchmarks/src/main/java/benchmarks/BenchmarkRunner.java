@@ -0,0 +1,37 @@
+package benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*come org.openjdk.jmh.Main, ma di default scrive i risultati in JSON (jmh-result.json) e attiva il
+profiler gc, cosi' ogni run riporta throughput e allocazioni (gc.alloc.rate.norm, byte per operazione).
+Le opzioni passate da riga di comando (-rf, -rff, -prof, -p devices=1000, ...) hanno la precedenza*/
+
+public class BenchmarkRunner {
+
+    public static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+    public static void main(String[] args) throws Exception {
+
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        if(commandLineOptions.shouldHelp() || commandLineOptions.shouldList() || commandLineOptions.shouldListProfilers()
+                || commandLineOptions.shouldListResultFormats() || commandLineOptions.shouldListWithParams()){
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLineOptions);
+        if(!commandLineOptions.getResultFormat().hasValue())
+            options.resultFormat(ResultFormatType.JSON);
+        if(!commandLineOptions.getResult().hasValue())
+            options.result(DEFAULT_RESULT_FILE);
+        if(commandLineOptions.getProfilers().isEmpty())
+            options.addProfiler(GCProfiler.class);
+
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,130 @@
+package benchmarks;
+
+import buildingSecurityController.api.model.GenericDeviceDescriptor;
+import buildingSecurityController.api.model.PolicyDescriptor;
+import buildingSecurityController.api.persistance.ConcurrentInventoryDataManager;
+import buildingSecurityController.api.persistance.DefaultInventoryDataManager;
+import buildingSecurityController.api.persistance.IInventoryDataManager;
+import buildingSecurityController.api.policy.PolicyEngine;
+import utils.SenMLPack;
+import utils.SenMLRecord;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*building sintetico per i benchmark: areas aree, ognuna con un allarme e una luce, il resto dei device
+sono presence monitoring distribuiti in modo uniforme sulle aree. Per ogni area policiesPerArea policy,
+alternate tra presenza e conteggio persone, armate dalle 19:00 alle 7:00. Gli id sono quelli dei bn
+delle risorse coap (0001:presencemonitoring, 0002:alarm, ...)*/
+
+public class BuildingFixture {
+
+    public enum Inventory { DEFAULT, CONCURRENT }
+
+    //22:00, dentro la finestra armata delle policy
+    public static final int ARMED_MINUTE_OF_DAY = 22 * 60;
+
+    public static final int MAX_PERSONS = 10;
+
+    private final IInventoryDataManager inventoryDataManager;
+    private final PolicyEngine policyEngine;
+    private final List<String> sensorIdList = new ArrayList<>();
+    private final List<String> areaIdList = new ArrayList<>();
+
+    public BuildingFixture(int devices, int areas, int policiesPerArea, Inventory inventory) throws Exception {
+
+        if(areas <= 0 || devices < 3 * areas)
+            throw new IllegalArgumentException("At least 3 devices per area are needed (alarm, light, presence monitoring)");
+
+        this.inventoryDataManager = inventory == Inventory.DEFAULT ? new DefaultInventoryDataManager() : new ConcurrentInventoryDataManager();
+
+        for(int area = 0; area < areas; area++)
+            areaIdList.add(String.format("floor%02d:area%04d", area % 10, area));
+
+        int device = 0;
+        for(String areaId : areaIdList){
+            addDevice(String.format("%04d:alarm", ++device), areaId);
+            addDevice(String.format("%04d:light", ++device), areaId);
+        }
+        while(device < devices){
+            String sensorId = String.format("%04d:presencemonitoring", ++device);
+            addDevice(sensorId, areaIdList.get(device % areas));
+            sensorIdList.add(sensorId);
+        }
+
+        for(String areaId : areaIdList)
+            for(int policy = 0; policy < policiesPerArea; policy++)
+                inventoryDataManager.createNewPolicy(new PolicyDescriptor(String.format("%s:policy%d", areaId, policy), areaId,
+                        true, policy % 2 == 0, "19:00", "07:00", MAX_PERSONS));
+
+        //l'indice viene costruito una volta sola, a inventory completo
+        this.policyEngine = new PolicyEngine(inventoryDataManager);
+    }
+
+    private void addDevice(String deviceId, String areaId) throws Exception {
+        GenericDeviceDescriptor deviceDescriptor = new GenericDeviceDescriptor();
+        deviceDescriptor.setDeviceId(deviceId);
+        deviceDescriptor.setAreaId(areaId);
+        inventoryDataManager.createNewDevice(deviceDescriptor);
+    }
+
+    //pack come quelli notificati dalle risorse pir e camera
+    public static SenMLPack pirPack(String deviceId, boolean seeing) {
+        SenMLPack pack = new SenMLPack();
+        SenMLRecord record = new SenMLRecord();
+        record.setBn(deviceId);
+        record.setBver(0.5);
+        record.setU("SEEING");
+        record.setVb(seeing);
+        record.setT(System.currentTimeMillis());
+        pack.add(record);
+        return pack;
+    }
+
+    public static SenMLPack cameraPack(String deviceId, int people) {
+        SenMLPack pack = new SenMLPack();
+        SenMLRecord record = new SenMLRecord();
+        record.setBn(deviceId);
+        record.setBver(0.5);
+        record.setU("Num");
+        record.setV(people);
+        record.setT(System.currentTimeMillis());
+        pack.add(record);
+        return pack;
+    }
+
+    //pack con piu' record (es. un batch verso il cloud), il primo porta i campi base
+    public static SenMLPack batchPack(String deviceId, int records) {
+        SenMLPack pack = new SenMLPack();
+        long now = System.currentTimeMillis();
+        for(int i = 0; i < records; i++){
+            SenMLRecord record = new SenMLRecord();
+            if(i == 0){
+                record.setBn(deviceId);
+                record.setBt(now);
+                record.setBver(0.5);
+            }
+            record.setU("Num");
+            record.setV(i % 30);
+            record.setT(i * 5000);
+            pack.add(record);
+        }
+        return pack;
+    }
+
+    public IInventoryDataManager getInventoryDataManager() {
+        return inventoryDataManager;
+    }
+
+    public PolicyEngine getPolicyEngine() {
+        return policyEngine;
+    }
+
+    public List<String> getSensorIdList() {
+        return sensorIdList;
+    }
+
+    public List<String> getAreaIdList() {
+        return areaIdList;
+    }
+}
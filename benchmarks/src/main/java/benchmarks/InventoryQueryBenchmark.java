@@ -0,0 +1,71 @@
+package benchmarks;
+
+import buildingSecurityController.api.exception.IInventoryDataManagerException;
+import buildingSecurityController.api.model.GenericDeviceDescriptor;
+import buildingSecurityController.api.persistance.IInventoryDataManager;
+import buildingSecurityController.api.policy.PolicyEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*letture dell'inventory usate dalle resource REST e dalla ricostruzione dell'indice delle policy:
+lista completa dei device, device di un'area e rebuild dell'indice, per le due implementazioni in memoria*/
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InventoryQueryBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int devices;
+
+    @Param({"10", "30"})
+    public int areas;
+
+    @Param({"DEFAULT", "CONCURRENT"})
+    public BuildingFixture.Inventory inventory;
+
+    private IInventoryDataManager inventoryDataManager;
+    private PolicyEngine policyEngine;
+    private String[] areaIds;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BuildingFixture fixture = new BuildingFixture(devices, areas, 1, inventory);
+        inventoryDataManager = fixture.getInventoryDataManager();
+        policyEngine = fixture.getPolicyEngine();
+        areaIds = fixture.getAreaIdList().toArray(new String[0]);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next = 0;
+
+        int next(int size) {
+            int current = next;
+            next = current + 1 == size ? 0 : current + 1;
+            return current;
+        }
+    }
+
+    @Benchmark
+    public List<GenericDeviceDescriptor> getDeviceList() throws IInventoryDataManagerException {
+        return inventoryDataManager.getDeviceList();
+    }
+
+    @Benchmark
+    public List<GenericDeviceDescriptor> getDeviceListByArea(Cursor cursor) throws IInventoryDataManagerException {
+        return inventoryDataManager.getDeviceListByArea(areaIds[cursor.next(areaIds.length)]);
+    }
+
+    //rebuild completo dell'indice, come dopo ogni modifica di device o policy
+    @Benchmark
+    public PolicyEngine policyIndexRebuild() {
+        policyEngine.rebuild();
+        return policyEngine;
+    }
+}
@@ -0,0 +1,132 @@
+package benchmarks;
+
+import buildingSecurityController.api.client.LookupAndObserveProcess;
+import buildingSecurityController.api.persistance.IInventoryDataManager;
+import buildingSecurityController.api.policy.PolicyEngine;
+import buildingSecurityController.api.services.OperatorAppConfig;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.openjdk.jmh.annotations.*;
+import utils.SenMLContentFormat;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/*valutazione delle policy ad ogni notifica di pir e camera: solo l'indice (evaluate*) e il corpo degli handler
+di LookupAndObserveProcess (decodifica del payload CBOR, metriche, log campionato e valutazione), senza attuazione*/
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PolicyEvaluationBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int devices;
+
+    @Param({"10", "30"})
+    public int areas;
+
+    @Param({"1", "4"})
+    public int policiesPerArea;
+
+    private static final String TARGET_URL = "coap://127.0.0.1:5683/benchmark";
+
+    private PolicyEngine policyEngine;
+    private CountingProcess process;
+    private String[] sensorIds;
+    private byte[][] pirPayloads;
+    private byte[][] cameraPayloads;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BuildingFixture fixture = new BuildingFixture(devices, areas, policiesPerArea, BuildingFixture.Inventory.CONCURRENT);
+        policyEngine = fixture.getPolicyEngine();
+        process = new CountingProcess(new FixtureConfig(fixture));
+
+        List<String> sensorIdList = fixture.getSensorIdList();
+        sensorIds = sensorIdList.toArray(new String[0]);
+        pirPayloads = new byte[sensorIds.length][];
+        cameraPayloads = new byte[sensorIds.length][];
+        for(int i = 0; i < sensorIds.length; i++){
+            pirPayloads[i] = SenMLContentFormat.encode(BuildingFixture.pirPack(sensorIds[i], i % 2 == 0), MediaTypeRegistry.APPLICATION_SENML_CBOR, null);
+            cameraPayloads[i] = SenMLContentFormat.encode(BuildingFixture.cameraPack(sensorIds[i], i % 20), MediaTypeRegistry.APPLICATION_SENML_CBOR, null);
+        }
+    }
+
+    //ogni thread scorre i sensori in ordine, cosi' tutte le aree vengono toccate
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next = 0;
+
+        int next(int size) {
+            int current = next;
+            next = current + 1 == size ? 0 : current + 1;
+            return current;
+        }
+    }
+
+    @Benchmark
+    public Optional<String> evaluatePresence(Cursor cursor) {
+        return policyEngine.evaluatePresence(sensorIds[cursor.next(sensorIds.length)], BuildingFixture.ARMED_MINUTE_OF_DAY);
+    }
+
+    @Benchmark
+    public Optional<String> evaluatePeopleCount(Cursor cursor) {
+        int index = cursor.next(sensorIds.length);
+        return policyEngine.evaluatePeopleCount(sensorIds[index], index % 20, BuildingFixture.ARMED_MINUTE_OF_DAY);
+    }
+
+    //percorso di produzione: LookupAndObserveProcess.processPirNotification con metriche e log campionato
+    @Benchmark
+    public int pirNotification(Cursor cursor) throws IOException {
+        process.processPirNotification(pirPayloads[cursor.next(pirPayloads.length)], MediaTypeRegistry.APPLICATION_SENML_CBOR,
+                TARGET_URL, System.currentTimeMillis(), BuildingFixture.ARMED_MINUTE_OF_DAY);
+        return process.triggers;
+    }
+
+    @Benchmark
+    public int cameraNotification(Cursor cursor) throws IOException {
+        process.processCameraNotification(cameraPayloads[cursor.next(cameraPayloads.length)], MediaTypeRegistry.APPLICATION_SENML_CBOR,
+                TARGET_URL, System.currentTimeMillis(), BuildingFixture.ARMED_MINUTE_OF_DAY);
+        return process.triggers;
+    }
+
+    //l'attuazione andrebbe in rete verso gli smart object: qui si contano solo le aree da attivare
+    static class CountingProcess extends LookupAndObserveProcess {
+
+        int triggers = 0;
+
+        CountingProcess(OperatorAppConfig operatorAppConfig) {
+            super(operatorAppConfig);
+        }
+
+        @Override
+        protected void activateAreaActuators(String areaId, long sampleTimeMillis) {
+            triggers++;
+        }
+    }
+
+    //configurazione del controller con inventory e policy del building sintetico
+    static class FixtureConfig extends OperatorAppConfig {
+
+        private final BuildingFixture fixture;
+
+        FixtureConfig(BuildingFixture fixture) {
+            this.fixture = fixture;
+        }
+
+        @Override
+        public IInventoryDataManager getInventoryDataManager() {
+            return fixture.getInventoryDataManager();
+        }
+
+        @Override
+        public PolicyEngine getPolicyEngine() {
+            return fixture.getPolicyEngine();
+        }
+    }
+}
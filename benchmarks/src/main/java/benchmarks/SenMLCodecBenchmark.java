@@ -0,0 +1,66 @@
+package benchmarks;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import utils.SenMLCbor;
+import utils.SenMLPack;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/*codifica e decodifica dei pack SenML: JSON con l'ObjectMapper (come le POST verso il cloud e la lettura
+dello store) e CBOR (payload coap). records = 1 e' una notifica, gli altri sono batch*/
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SenMLCodecBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int records;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+    private SenMLPack pack;
+    private byte[] json;
+    private String jsonString;
+    private byte[] cbor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        pack = BuildingFixture.batchPack("0001:presencemonitoring", records);
+        json = objectMapper.writeValueAsBytes(pack);
+        jsonString = new String(json, "UTF-8");
+        cbor = SenMLCbor.encode(pack);
+    }
+
+    @Benchmark
+    public SenMLPack readJsonBytes() throws IOException {
+        return objectMapper.readValue(json, SenMLPack.class);
+    }
+
+    //come DefaultInventoryDataCollector.scanPacks, che legge una riga alla volta
+    @Benchmark
+    public SenMLPack readJsonString() throws IOException {
+        return objectMapper.readValue(jsonString, SenMLPack.class);
+    }
+
+    @Benchmark
+    public byte[] writeJson() throws IOException {
+        return objectMapper.writeValueAsBytes(pack);
+    }
+
+    @Benchmark
+    public SenMLPack decodeCbor() throws IOException {
+        return SenMLCbor.decode(cbor);
+    }
+
+    @Benchmark
+    public byte[] encodeCbor() {
+        return SenMLCbor.encode(pack);
+    }
+}
@@ -15,13 +15,16 @@
  ******************************************************************************/
 package org.eclipse.californium.tools;
 
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.nio.file.Paths;
 
 import org.eclipse.californium.core.CoapServer;
 import org.eclipse.californium.core.coap.CoAP;
 import org.eclipse.californium.core.network.CoapEndpoint;
 import org.eclipse.californium.elements.util.NetworkInterfacesUtil;
+import org.eclipse.californium.tools.resources.RDJournal;
 import org.eclipse.californium.tools.resources.RDLookUpTopResource;
 import org.eclipse.californium.tools.resources.RDResource;
 import org.eclipse.californium.tools.resources.RDTagTopResource;
@@ -35,10 +38,42 @@ public class ResourceDirectory extends CoapServer {
 	// exit codes for runtime errors
 	public static final int ERR_INIT_FAILED = 1;
 
+	/*
+	 * File of the registration journal, an empty value keeps the
+	 * registrations in memory only.
+	 */
+	public static final String JOURNAL_PROPERTY = "rd.journal";
+	public static final String DEFAULT_JOURNAL = "rd-data/journal.log";
+
+	private final RDResource rdResource;
+
 	public static void main(String[] args) {
 
 		// create server
-		CoapServer server = new ResourceDirectory();
+		ResourceDirectory server = new ResourceDirectory();
+
+		// restore the registrations before binding, so the first lookups already see them
+		String journalFile = System.getProperty(JOURNAL_PROPERTY, DEFAULT_JOURNAL);
+		if (!journalFile.isEmpty()) {
+			final RDJournal journal = new RDJournal(Paths.get(journalFile), server.getRDResource());
+			try {
+				journal.replay();
+			} catch (IOException | RuntimeException e) {
+				// the journal is not open for appending: running on would silently drop every registration
+				System.err.printf("Failed to replay journal %s, registrations would not be persisted: %s\n", journalFile, e);
+				journal.close();
+				System.exit(ERR_INIT_FAILED);
+				return;
+			}
+			// only a replayed journal is open for appending
+			server.getRDResource().setJournal(journal);
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					journal.close();
+				}
+			}, "RDJournalClose"));
+		}
 
 		// explicitly bind to each address to avoid the wildcard address reply problem
 		// (default interface address instead of original destination)
@@ -57,11 +92,15 @@ public class ResourceDirectory extends CoapServer {
 
 	public ResourceDirectory() {
 
-		RDResource rdResource = new RDResource();
+		rdResource = new RDResource();
 
 		// add resources to the server
 		add(rdResource);
 		add(new RDLookUpTopResource(rdResource));
 		add(new RDTagTopResource(rdResource));
 	}
+
+	public RDResource getRDResource() {
+		return rdResource;
+	}
 }
@@ -70,5 +70,9 @@ public class KeyValuePair {
 	public int getIntValue() {
 		return Integer.parseInt(value);
 	}
+	
+	public long getLongValue() {
+		return Long.parseLong(value);
+	}
 
 }
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.tools.resources;
+
+import java.io.ByteArrayOutputStream;
+
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+
+/**
+ * Response body of the lookup resources, assembled from the cached link
+ * fragments of the nodes. Fragments are separated by ',' and only those
+ * within the requested page (count, page) are copied.
+ */
+class LinkFormatBuffer {
+
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+	private final long from;
+	private final long to;
+	private long offered = 0;
+
+	/**
+	 * Buffer for all offered links.
+	 */
+	LinkFormatBuffer() {
+		this(0, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Buffer for the links with index from (inclusive) to to (exclusive).
+	 */
+	LinkFormatBuffer(long from, long to) {
+		this.from = from;
+		this.to = to;
+	}
+
+	void offer(byte[] link) {
+		if (offered >= from && offered < to) {
+			if (buffer.size() > 0) {
+				buffer.write(',');
+			}
+			buffer.write(link, 0, link.length);
+		}
+		offered++;
+	}
+
+	/**
+	 * True once the page is complete, the remaining candidates can be skipped.
+	 */
+	boolean isFull() {
+		return offered >= to;
+	}
+
+	boolean isEmpty() {
+		return buffer.size() == 0;
+	}
+
+	byte[] toByteArray() {
+		return buffer.toByteArray();
+	}
+
+	/**
+	 * Responds with the collected links, tagged with the registry version
+	 * they were collected at. Bodies above the block size are sent with
+	 * Block2 by the stack, the ETag lets clients detect a change between
+	 * blocks.
+	 */
+	void respond(CoapExchange exchange, byte[] etag) {
+		exchange.setETag(etag);
+		if (isEmpty()) {
+			// empty document with explicit format, so observers can tell "no links" from an error
+			exchange.respond(ResponseCode.CONTENT, "", MediaTypeRegistry.APPLICATION_LINK_FORMAT);
+		} else {
+			exchange.respond(ResponseCode.CONTENT, toByteArray(), MediaTypeRegistry.APPLICATION_LINK_FORMAT);
+		}
+	}
+}
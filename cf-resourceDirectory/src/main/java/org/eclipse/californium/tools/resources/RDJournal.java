@@ -0,0 +1,496 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.tools.resources;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.elements.util.DaemonThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of the registrations of an RD, so that a restarted RD
+ * answers lookups right away instead of waiting for every endpoint to
+ * register again.
+ * <p>
+ * Each registration or update appends the full state of the endpoint (links,
+ * et, extra attributes, tags and the absolute expiry time), a lifetime
+ * refresh only the new expiry time and a removal only the key. Records are
+ * framed as {@code [int length][int crc32][payload]}. On replay a torn record
+ * at the end of the file is cut off, a corrupt record in the middle is skipped
+ * up to the next valid one; in both cases the original file is kept as
+ * {@code .corrupt} before it is compacted.
+ * <p>
+ * Records are written in order by a single thread, without fsync: a crash
+ * loses at most the last registrations, which the endpoints repeat within
+ * their lifetime anyway. Once the file holds more than twice as many records
+ * as registered endpoints, it is rewritten with the last registration and
+ * refresh record of each endpoint (compaction) and atomically replaced.
+ * Compaction copies the records kept from the appends instead of reading the
+ * live nodes, which CoAP handler threads change without any lock.
+ */
+public class RDJournal {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RDJournal.class);
+
+	private static final byte OP_PUT = 1;
+	private static final byte OP_REFRESH = 2;
+	private static final byte OP_REMOVE = 3;
+
+	private static final int RECORD_HEADER_BYTES = 8;
+	private static final int MAX_RECORD_BYTES = 16 * 1024 * 1024;
+
+	/* no compaction below this many records, however few endpoints are registered */
+	private static final int MIN_COMPACTION_RECORDS = 1024;
+
+	private final Path file;
+	private final RDResource rdResource;
+	private final ExecutorService writer = Executors.newSingleThreadExecutor(new DaemonThreadFactory("RDJournal#"));
+
+	/* guarded by this, written by the writer thread once replay has opened the file */
+	private FileChannel channel;
+	private long records;
+
+	/* guarded by this, last put and refresh record of each journaled endpoint, in registration order */
+	private final Map<String, byte[]> putRecords = new LinkedHashMap<>();
+	private final Map<String, byte[]> refreshRecords = new HashMap<>();
+
+	/**
+	 * Creates the journal of the given RD, stored in the given file.
+	 * {@link #replay()} must be called before any registration is recorded.
+	 */
+	public RDJournal(Path file, RDResource rdResource) {
+		this.file = file;
+		this.rdResource = rdResource;
+	}
+
+	/**
+	 * Restores the journaled registrations that have not expired yet into the
+	 * RD, then compacts the journal and opens it for appending.
+	 *
+	 * @return the number of restored registrations
+	 */
+	public synchronized int replay() throws IOException {
+
+		long start = System.nanoTime();
+		Map<String, Registration> registrations = new LinkedHashMap<>();
+		long read = 0;
+
+		if (Files.exists(file)) {
+			long skipped = 0;
+			boolean tornTail = false;
+			// read whole, a corrupt record is skipped by scanning for the next valid header; compaction keeps the file small
+			ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+			int position = 0;
+			while (position < buffer.limit()) {
+				int length = recordLength(buffer, position);
+				if (length < 0) {
+					// resync on the next valid record, if there is none the tail was torn by a crash
+					int next = position + 1;
+					while (next < buffer.limit() && recordLength(buffer, next) < 0) {
+						next++;
+					}
+					if (next == buffer.limit()) {
+						tornTail = true;
+						skipped += buffer.limit() - position;
+						break;
+					}
+					LOGGER.warn("Journal {}: skipping {} corrupt bytes after {} records", file, next - position, read);
+					skipped += next - position;
+					position = next;
+					continue;
+				}
+				byte[] payload = new byte[length];
+				buffer.position(position + RECORD_HEADER_BYTES);
+				buffer.get(payload);
+				try {
+					apply(payload, registrations);
+					track(payload);
+				} catch (IOException e) {
+					LOGGER.warn("Skipping unreadable journal record {}: {}", read, e.getMessage());
+				}
+				position += RECORD_HEADER_BYTES + length;
+				read++;
+			}
+			if (skipped > 0) {
+				if (tornTail) {
+					LOGGER.warn("Journal {} truncated after {} records", file, read);
+				}
+				// compaction rewrites the file, the original is kept for inspection
+				Path corruptFile = file.resolveSibling(file.getFileName() + ".corrupt");
+				Files.copy(file, corruptFile, StandardCopyOption.REPLACE_EXISTING);
+				LOGGER.warn("Journal {}: {} bytes dropped, original kept as {}", file, skipped, corruptFile);
+			}
+		}
+
+		long now = System.currentTimeMillis();
+		int restored = 0;
+		for (Map.Entry<String, Registration> entry : registrations.entrySet()) {
+			Registration registration = entry.getValue();
+			if (rdResource.restore(registration.endpointName, registration.sector, registration.base, registration.lifeTime,
+					registration.endpointTypes, registration.extraAttrs, registration.links, registration.tags,
+					registration.expiresAt - now) != null) {
+				restored++;
+			} else {
+				// expired, not carried over by the compaction
+				putRecords.remove(entry.getKey());
+				refreshRecords.remove(entry.getKey());
+			}
+		}
+
+		// the replayed records are replaced by the last records of each restored endpoint
+		compact();
+
+		LOGGER.info("Restored {} of {} journaled endpoints from {} records in {} ms", restored, registrations.size(), read,
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		return restored;
+	}
+
+	/**
+	 * Records the full state of a registered endpoint.
+	 */
+	public void put(RDNodeResource node) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+			DataOutputStream out = new DataOutputStream(bytes);
+			writePut(node, out);
+			append(bytes.toByteArray());
+		} catch (IOException e) {
+			// ByteArrayOutputStream does not throw
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Records the new expiry time of an endpoint after a lifetime refresh.
+	 */
+	public void refresh(RDNodeResource node) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(OP_REFRESH);
+			writeString(out, node.getSector());
+			writeString(out, node.getEndpointName());
+			out.writeLong(System.currentTimeMillis() + node.getRemainingLifetime());
+			append(bytes.toByteArray());
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Records the removal of an endpoint.
+	 */
+	public void remove(RDNodeResource node) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(OP_REMOVE);
+			writeString(out, node.getSector());
+			writeString(out, node.getEndpointName());
+			append(bytes.toByteArray());
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Writes the pending records and closes the journal.
+	 */
+	public void close() {
+		writer.shutdown();
+		try {
+			if (!writer.awaitTermination(10, TimeUnit.SECONDS)) {
+				LOGGER.warn("Journal {} not flushed in time", file);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			if (channel != null) {
+				try {
+					channel.force(true);
+					channel.close();
+				} catch (IOException e) {
+					LOGGER.error("Closing journal {} failed: {}", file, e.getMessage());
+				}
+				channel = null;
+			}
+		}
+	}
+
+	/*
+	 * The state is serialized by the caller, so the record reflects the
+	 * endpoint at the time of the change. Writes, and compaction, happen in
+	 * submission order on the writer thread, which also keeps the written
+	 * record for the next compaction.
+	 */
+	private void append(final byte[] payload) {
+		writer.execute(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (RDJournal.this) {
+					if (channel == null) {
+						LOGGER.warn("Journal {} is not open, record dropped", file);
+						return;
+					}
+					try {
+						writeRecord(channel, payload);
+						records++;
+						track(payload);
+						if (records > Math.max(MIN_COMPACTION_RECORDS, 2L * putRecords.size())) {
+							compact();
+						}
+					} catch (IOException e) {
+						LOGGER.error("Writing journal {} failed: {}", file, e.getMessage());
+					}
+				}
+			}
+		});
+	}
+
+	/*
+	 * Rewrites the journal with the kept records: the last registration of
+	 * each endpoint, followed by its last refresh if any. They are immutable
+	 * byte arrays serialized by the threads that made the changes, so the
+	 * nodes are not read here.
+	 */
+	private void compact() throws IOException {
+		Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+		if (file.getParent() != null) {
+			Files.createDirectories(file.getParent());
+		}
+
+		long written = 0;
+		try (FileChannel tmp = FileChannel.open(tmpFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			for (Map.Entry<String, byte[]> entry : putRecords.entrySet()) {
+				writeRecord(tmp, entry.getValue());
+				written++;
+				byte[] refresh = refreshRecords.get(entry.getKey());
+				if (refresh != null) {
+					writeRecord(tmp, refresh);
+					written++;
+				}
+			}
+			tmp.force(true);
+		}
+
+		if (channel != null) {
+			channel.close();
+		}
+		Files.move(tmpFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+		LOGGER.debug("Journal {} compacted from {} to {} records", file, records, written);
+		records = written;
+	}
+
+	private static void writePut(RDNodeResource node, DataOutputStream out) throws IOException {
+		out.writeByte(OP_PUT);
+		writeString(out, node.getSector());
+		writeString(out, node.getEndpointName());
+		writeString(out, node.getBase());
+		out.writeInt(node.getLifeTime());
+		out.writeLong(System.currentTimeMillis() + node.getRemainingLifetime());
+		out.writeInt(node.getEndpointTypes().size());
+		for (String endpointType : node.getEndpointTypes()) {
+			writeString(out, endpointType);
+		}
+		writeMap(out, node.getExtraAttrs());
+		writeString(out, node.getRegisteredLinks());
+		Map<String, Map<String, String>> tags = node.getResourceTags();
+		out.writeInt(tags.size());
+		for (Map.Entry<String, Map<String, String>> entry : tags.entrySet()) {
+			writeString(out, entry.getKey());
+			writeMap(out, entry.getValue());
+		}
+	}
+
+	/*
+	 * Keeps the record for the next compaction, replacing the older records of
+	 * the same endpoint. Called with the lock held.
+	 */
+	private void track(byte[] payload) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		byte op = in.readByte();
+		String sector = readString(in);
+		String endpointName = readString(in);
+		String key = sector + '\0' + endpointName;
+
+		switch (op) {
+		case OP_PUT:
+			// re-insert, so that the compacted order follows the last registration
+			putRecords.remove(key);
+			putRecords.put(key, payload);
+			refreshRecords.remove(key);
+			break;
+		case OP_REFRESH:
+			if (putRecords.containsKey(key)) {
+				refreshRecords.put(key, payload);
+			}
+			break;
+		case OP_REMOVE:
+			putRecords.remove(key);
+			refreshRecords.remove(key);
+			break;
+		default:
+			break;
+		}
+	}
+
+	private static void apply(byte[] payload, Map<String, Registration> registrations) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		byte op = in.readByte();
+		String sector = readString(in);
+		String endpointName = readString(in);
+		String key = sector + '\0' + endpointName;
+
+		switch (op) {
+		case OP_PUT:
+			Registration registration = new Registration();
+			registration.sector = sector;
+			registration.endpointName = endpointName;
+			registration.base = readString(in);
+			registration.lifeTime = in.readInt();
+			registration.expiresAt = in.readLong();
+			int endpointTypes = in.readInt();
+			for (int i = 0; i < endpointTypes; i++) {
+				registration.endpointTypes.add(readString(in));
+			}
+			registration.extraAttrs = readMap(in);
+			registration.links = readString(in);
+			int tags = in.readInt();
+			for (int i = 0; i < tags; i++) {
+				registration.tags.put(readString(in), readMap(in));
+			}
+			// re-insert, so that the restore order follows the last registration
+			registrations.remove(key);
+			registrations.put(key, registration);
+			break;
+		case OP_REFRESH:
+			Registration refreshed = registrations.get(key);
+			if (refreshed != null) {
+				refreshed.expiresAt = in.readLong();
+			}
+			break;
+		case OP_REMOVE:
+			registrations.remove(key);
+			break;
+		default:
+			LOGGER.warn("Skipping journal record with unknown operation {}", op);
+		}
+	}
+
+	/*
+	 * Length of the payload of the record starting at the given position, or
+	 * -1 if there is no complete record with a matching checksum.
+	 */
+	private static int recordLength(ByteBuffer buffer, int position) {
+		if (buffer.limit() - position < RECORD_HEADER_BYTES) {
+			return -1;
+		}
+		int length = buffer.getInt(position);
+		if (length <= 0 || length > MAX_RECORD_BYTES || length > buffer.limit() - position - RECORD_HEADER_BYTES) {
+			return -1;
+		}
+		CRC32 crc = new CRC32();
+		ByteBuffer payload = buffer.duplicate();
+		payload.limit(position + RECORD_HEADER_BYTES + length).position(position + RECORD_HEADER_BYTES);
+		crc.update(payload);
+		return (int) crc.getValue() == buffer.getInt(position + 4) ? length : -1;
+	}
+
+	private static void writeRecord(FileChannel channel, byte[] payload) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_BYTES + payload.length);
+		buffer.putInt(payload.length).putInt(crc32(payload)).put(payload);
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/* strings with int length, DataOutput.writeUTF is limited to 64 KiB */
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = (value == null ? "" : value).getBytes(CoAP.UTF8_CHARSET);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > MAX_RECORD_BYTES) {
+			throw new IOException("invalid string length " + length);
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, CoAP.UTF8_CHARSET);
+	}
+
+	private static void writeMap(DataOutputStream out, Map<String, String> map) throws IOException {
+		out.writeInt(map.size());
+		for (Map.Entry<String, String> entry : map.entrySet()) {
+			writeString(out, entry.getKey());
+			writeString(out, entry.getValue());
+		}
+	}
+
+	private static Map<String, String> readMap(DataInputStream in) throws IOException {
+		int size = in.readInt();
+		// keeps the written order, so the restored attributes serialize as before
+		Map<String, String> map = new LinkedHashMap<>();
+		for (int i = 0; i < size; i++) {
+			map.put(readString(in), readString(in));
+		}
+		return map;
+	}
+
+	private static int crc32(byte[] payload) {
+		CRC32 crc = new CRC32();
+		crc.update(payload, 0, payload.length);
+		return (int) crc.getValue();
+	}
+
+	private static final class Registration {
+
+		private String sector;
+		private String endpointName;
+		private String base;
+		private int lifeTime;
+		private long expiresAt;
+		private final List<String> endpointTypes = new ArrayList<>();
+		private Map<String, String> extraAttrs;
+		private String links;
+		private final Map<String, Map<String, String>> tags = new HashMap<>();
+	}
+}
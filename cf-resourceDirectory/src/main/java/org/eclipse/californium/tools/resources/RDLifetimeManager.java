@@ -0,0 +1,267 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.tools.resources;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.californium.elements.util.DaemonThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Expires the registrations of the RD with a hashed timing wheel.
+ * <p>
+ * The wheel has {@link #WHEEL_SIZE} buckets of one tick each. A registration
+ * is placed in the bucket of its deadline; a refresh only moves the deadline
+ * forward, without touching the wheel. When the bucket comes round, entries
+ * whose deadline has been moved are put into the bucket of the new deadline,
+ * the others expire. So the periodic lifetime refresh of an endpoint is O(1)
+ * and leaves no cancelled tasks behind, unlike a ScheduledFuture per
+ * registration.
+ * <p>
+ * All endpoints expiring in the same tick are removed as one batch. The
+ * number of active registrations, of expirations and of refreshes is kept for
+ * monitoring and logged every {@link #STATS_INTERVAL_MILLIS} when it changed.
+ */
+public class RDLifetimeManager {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RDLifetimeManager.class);
+
+	private static final long TICK_MILLIS = 1000;
+	private static final int WHEEL_SIZE = 512;
+	private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+	private static final long STATS_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+	private static ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(//
+			new DaemonThreadFactory("RDLifeTime#"));
+
+	private final List<List<Lifetime>> wheel = new ArrayList<>(WHEEL_SIZE);
+	private final long startNanos = System.nanoTime();
+	private long processedTick = 0;
+
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicLong expired = new AtomicLong();
+	private final AtomicLong refreshed = new AtomicLong();
+	private volatile int lastBatchSize = 0;
+
+	/* counters of the last stats line, only touched by the scheduler thread */
+	private long loggedExpired = -1;
+	private long loggedRefreshed = -1;
+	private int loggedActive = -1;
+
+	public RDLifetimeManager() {
+		for (int i = 0; i < WHEEL_SIZE; i++) {
+			wheel.add(new ArrayList<Lifetime>());
+		}
+		scheduler.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					advance();
+				} catch (RuntimeException e) {
+					// an exception would stop the periodic task and with it all expiries
+					LOGGER.error("Lifetime expiry failed", e);
+				}
+			}
+		}, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+		scheduler.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				logStats();
+			}
+		}, STATS_INTERVAL_MILLIS, STATS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Starts the lifetime of a registration. The node is deleted once the
+	 * lifetime elapses without a refresh.
+	 */
+	public Lifetime register(RDNodeResource node, int seconds) {
+		Lifetime lifetime = new Lifetime(node);
+		lifetime.deadline = deadline(seconds);
+		active.incrementAndGet();
+		synchronized (this) {
+			schedule(lifetime, lifetime.deadline);
+		}
+		return lifetime;
+	}
+
+	/**
+	 * Returns the number of registrations currently waiting for expiry.
+	 */
+	public int getActiveCount() {
+		return active.get();
+	}
+
+	/**
+	 * Returns the number of registrations expired since the start.
+	 */
+	public long getExpiredCount() {
+		return expired.get();
+	}
+
+	/**
+	 * Returns the number of lifetime refreshes since the start.
+	 */
+	public long getRefreshedCount() {
+		return refreshed.get();
+	}
+
+	/**
+	 * Returns the number of registrations expired in the last non-empty batch.
+	 */
+	public int getLastBatchSize() {
+		return lastBatchSize;
+	}
+
+	/*
+	 * One line per interval, skipped while nothing registers, refreshes or
+	 * expires.
+	 */
+	private void logStats() {
+		int activeCount = getActiveCount();
+		long expiredCount = getExpiredCount();
+		long refreshedCount = getRefreshedCount();
+		if (activeCount == loggedActive && expiredCount == loggedExpired && refreshedCount == loggedRefreshed) {
+			return;
+		}
+		LOGGER.info("Lifetimes: {} active, {} refreshed and {} expired since the start, last expiry batch {}",
+				activeCount, refreshedCount, expiredCount, getLastBatchSize());
+		loggedActive = activeCount;
+		loggedExpired = expiredCount;
+		loggedRefreshed = refreshedCount;
+	}
+
+	private long currentTick() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) / TICK_MILLIS;
+	}
+
+	private long deadline(int seconds) {
+		// round up, a lifetime never ends early
+		return currentTick() + (TimeUnit.SECONDS.toMillis(seconds) + TICK_MILLIS - 1) / TICK_MILLIS + 1;
+	}
+
+	private void schedule(Lifetime lifetime, long tick) {
+		lifetime.scheduled = tick;
+		wheel.get((int) (tick & WHEEL_MASK)).add(lifetime);
+	}
+
+	/*
+	 * Processes all ticks up to now, catching up if the scheduler was late.
+	 */
+	private void advance() {
+		List<Lifetime> batch = new ArrayList<>();
+		synchronized (this) {
+			long now = currentTick();
+			while (processedTick < now) {
+				processedTick++;
+				expire(processedTick, batch);
+			}
+		}
+		if (batch.isEmpty()) {
+			return;
+		}
+
+		// delete outside the lock, a delete may end up in cancel()
+		for (Lifetime lifetime : batch) {
+			lifetime.node.delete();
+		}
+		expired.addAndGet(batch.size());
+		lastBatchSize = batch.size();
+		LOGGER.info("Expired {} endpoints, {} registrations active", batch.size(), active.get());
+	}
+
+	private void expire(long tick, List<Lifetime> batch) {
+		List<Lifetime> bucket = wheel.get((int) (tick & WHEEL_MASK));
+		if (bucket.isEmpty()) {
+			return;
+		}
+		List<Lifetime> entries = new ArrayList<>(bucket);
+		bucket.clear();
+		for (Lifetime lifetime : entries) {
+			if (lifetime.done || (lifetime.scheduled & WHEEL_MASK) != (tick & WHEEL_MASK)) {
+				// cancelled, expired, or moved to an earlier bucket by a shorter lifetime
+				continue;
+			}
+			if (lifetime.scheduled > tick) {
+				// deadline in a later round of the wheel
+				bucket.add(lifetime);
+			} else if (lifetime.deadline > tick) {
+				// refreshed since it was scheduled
+				schedule(lifetime, lifetime.deadline);
+			} else {
+				lifetime.done = true;
+				active.decrementAndGet();
+				batch.add(lifetime);
+			}
+		}
+	}
+
+	/**
+	 * Lifetime of one registration.
+	 */
+	public class Lifetime {
+
+		private final RDNodeResource node;
+		private volatile long deadline;
+		private volatile long scheduled;
+		private volatile boolean done;
+
+		private Lifetime(RDNodeResource node) {
+			this.node = node;
+		}
+
+		/**
+		 * Restarts the lifetime with the given duration. Only a shorter
+		 * lifetime than the scheduled one needs to touch the wheel.
+		 */
+		public void refresh(int seconds) {
+			long newDeadline = deadline(seconds);
+			deadline = newDeadline;
+			refreshed.incrementAndGet();
+			if (newDeadline < scheduled) {
+				synchronized (RDLifetimeManager.this) {
+					if (!done && newDeadline < scheduled) {
+						schedule(this, newDeadline);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Returns the time left until expiry, in milliseconds.
+		 */
+		public long getRemainingMillis() {
+			return Math.max(0, (deadline - currentTick()) * TICK_MILLIS);
+		}
+
+		/**
+		 * Stops the lifetime, e.g. when the endpoint is deleted explicitly.
+		 */
+		public void cancel() {
+			synchronized (RDLifetimeManager.this) {
+				if (done) {
+					return;
+				}
+				done = true;
+			}
+			active.decrementAndGet();
+		}
+	}
+}
@@ -15,10 +15,7 @@
  ******************************************************************************/
 package org.eclipse.californium.tools.resources;
 
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.TreeSet;
 
@@ -27,7 +24,6 @@ import org.eclipse.californium.core.coap.LinkFormat;
 import org.eclipse.californium.core.coap.MediaTypeRegistry;
 import org.eclipse.californium.core.coap.CoAP.ResponseCode;
 import org.eclipse.californium.core.server.resources.CoapExchange;
-import org.eclipse.californium.core.server.resources.Resource;
 
 
 public class RDLookUpEPResource extends CoapResource {
@@ -37,6 +33,11 @@ public class RDLookUpEPResource extends CoapResource {
 	public RDLookUpEPResource(String resourceIdentifier, RDResource rd) {
 		super(resourceIdentifier);
 		this.rdResource = rd;
+		
+		// clients observe the lookup to learn about (de-)registrations without polling
+		setObservable(true);
+		getAttributes().setObservable();
+		rd.addLookupResource(this);
 		getAttributes().addResourceType("core.rd-lookup-ep");
 		getAttributes().addContentType(MediaTypeRegistry.APPLICATION_LINK_FORMAT);
 	}
@@ -44,14 +45,13 @@ public class RDLookUpEPResource extends CoapResource {
 
 	@Override
 	public void handleGET(CoapExchange exchange) {
-		Collection<Resource> resources = rdResource.getChildren();
-		List<String> candidates = new ArrayList<>();
 		String sectorQuery = "";
 		String endpointQuery = "";
 		TreeSet<String> endpointTypeQuery = new TreeSet<String>();
 		boolean countPresent = false;
 		int count = 0;
 		int page = 0;
+		long since = Long.MIN_VALUE;
 		HashMap<String, String> extraAttrsQuery = new HashMap<>();
 
 		List<String> query = exchange.getRequestOptions().getUriQuery();
@@ -75,63 +75,64 @@ public class RDLookUpEPResource extends CoapResource {
 			case LinkFormat.PAGE:
 					page = kvp.getIntValue();
 				break;
+			case RDRegistry.SINCE:
+				try {
+					since = kvp.getLongValue();
+				} catch (NumberFormatException e) {
+					exchange.respond(ResponseCode.BAD_REQUEST, "Invalid since query");
+					return;
+				}
+				break;
 			default:
 				extraAttrsQuery.put(kvp.getName(), kvp.getValue());
 			}
 		}
 		
-		Iterator<Resource>  resIt = resources.iterator();
+		if ((count < 0) || (page < 0)) {
+			exchange.respond(ResponseCode.BAD_REQUEST);
+			return;
+		}
 		
-		while (resIt.hasNext()) {
-			Resource res = resIt.next();
-			if (res instanceof RDNodeResource) {
-				RDNodeResource node = (RDNodeResource) res;
-				if ( (sectorQuery.isEmpty() || sectorQuery.equals(node.getSector()))
-				     && (endpointQuery.isEmpty() || endpointQuery.equals(node.getEndpointName()))
-					 && (endpointTypeQuery.isEmpty() || node.getEndpointTypes().containsAll(endpointTypeQuery))
-					 && (extraAttrsQuery.isEmpty() || matchExtraAttrsQuery(extraAttrsQuery, node.getExtraAttrs()))) {
-				
-					String result = "";
-					result += "<"+node.getBase()+">;"+LinkFormat.END_POINT+"=\""+node.getEndpointName()+"\"";
-					result += ";"+LinkFormat.SECTOR+"=\""+node.getSector()+"\"";
-					if(!node.getEndpointTypes().isEmpty()){
-						for (String et : node.getEndpointTypes()) {
-							result += ";"+LinkFormat.END_POINT_TYPE+"=\""+et+"\"";
-						}
-					}
-					if (!node.getExtraAttrs().isEmpty()){
-						for (String key : node.getExtraAttrs().keySet()){
-							result += ";"+key+"=\""+node.getExtraAttrs().get(key)+"\"";
-						}
-					}
-					
-					candidates.add(result);
-				}
-			}
+		RDRegistry registry = rdResource.getRegistry();
+		
+		// read before collecting, a concurrent change then only makes the result newer than its ETag
+		long version = registry.getVersion();
+		byte[] etag = RDRegistry.toETag(version);
+		if (exchange.getRequestOptions().containsETag(etag)) {
+			exchange.setETag(etag);
+			exchange.respond(ResponseCode.VALID);
+			return;
 		}
 		
-		if ((count < 0) || (page < 0)) {
-			exchange.respond(ResponseCode.BAD_REQUEST);
+		boolean delta = since != Long.MIN_VALUE;
+		if (delta && !registry.isDeltaAvailable(since)) {
+			exchange.respond(ResponseCode.PRECONDITION_FAILED, "Changes since " + since + " not available, repeat the lookup without since");
+			return;
 		}
-		else if (candidates.isEmpty() || ((count * page) >= candidates.size()) || (count == 0 && countPresent)) {
-			exchange.respond(ResponseCode.CONTENT);
-		} else {
-			int from, to;
-			if (countPresent) {
-				from = count * page;
-				to = (from + count > candidates.size()) ? candidates.size() : from + count;
+		
+		LinkFormatBuffer result = countPresent ? new LinkFormatBuffer((long) count * page, (long) count * page + count) : new LinkFormatBuffer();
+		
+		// a delta starts with the removed endpoints, then lists the links of the changed ones
+		if (delta) {
+			for (byte[] link : registry.findRemoved(sectorQuery, endpointQuery, endpointTypeQuery, null, since)) {
+				if (result.isFull()) {
+					break;
+				}
+				result.offer(link);
 			}
-			else {
-				from = 0;
-				to = candidates.size();
+		}
+		
+		// sector, ep and et are resolved by the registry indexes, the entries are cached by each node
+		for (RDNodeResource node : registry.find(sectorQuery, endpointQuery, endpointTypeQuery, null, since)) {
+			if (result.isFull()) {
+				break;
 			}
-			String result = "";
-			for (String s : candidates.subList(from, to)) {
-				result += s + ",";
+			if (extraAttrsQuery.isEmpty() || matchExtraAttrsQuery(extraAttrsQuery, node.getExtraAttrs())) {
+				result.offer(node.getEndpointLink());
 			}
-			// also remove trailing comma
-			exchange.respond(ResponseCode.CONTENT, result.substring(0, result.length()-1), MediaTypeRegistry.APPLICATION_LINK_FORMAT);
 		}
+		
+		result.respond(exchange, etag);
 	}
 
 	private boolean matchExtraAttrsQuery(HashMap<String, String> queries, HashMap<String, String> nodeExtraAttrs) {
@@ -16,8 +16,6 @@
 package org.eclipse.californium.tools.resources;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Iterator;
 import java.util.List;
 
 import org.eclipse.californium.core.CoapResource;
@@ -25,7 +23,6 @@ import org.eclipse.californium.core.coap.LinkFormat;
 import org.eclipse.californium.core.coap.MediaTypeRegistry;
 import org.eclipse.californium.core.coap.CoAP.ResponseCode;
 import org.eclipse.californium.core.server.resources.CoapExchange;
-import org.eclipse.californium.core.server.resources.Resource;
 
 
 public class RDLookUpResResource extends CoapResource {
@@ -35,6 +32,11 @@ public class RDLookUpResResource extends CoapResource {
 	public RDLookUpResResource(String resourceIdentifier, RDResource rd) {
 		super(resourceIdentifier);
 		this.rdResource = rd;
+		
+		// clients observe the lookup to learn about (de-)registrations without polling
+		setObservable(true);
+		getAttributes().setObservable();
+		rd.addLookupResource(this);
 		getAttributes().addResourceType("core.rd-lookup-res");
 		getAttributes().addContentType(MediaTypeRegistry.APPLICATION_LINK_FORMAT);
 	}
@@ -42,13 +44,13 @@ public class RDLookUpResResource extends CoapResource {
 
 	@Override
 	public void handleGET(CoapExchange exchange) {
-		Collection<Resource> resources = rdResource.getChildren();
-		List<String> candidates = new ArrayList<>();
 		String sectorQuery = "";
 		String endpointQuery = "";
+		String resourceTypeQuery = null;
 		boolean countPresent = false;
 		int count = 0;
 		int page = 0;
+		long since = Long.MIN_VALUE;
 		List<String> toRemove = new ArrayList<String>(); 
 		
 		List<String> query = exchange.getRequestOptions().getUriQuery();
@@ -83,45 +85,75 @@ public class RDLookUpResResource extends CoapResource {
 				page = kvp.getIntValue();
 				toRemove.add(q);
 				break;
+			case RDRegistry.SINCE:
+				try {
+					since = kvp.getLongValue();
+				} catch (NumberFormatException e) {
+					exchange.respond(ResponseCode.BAD_REQUEST, "Invalid since query");
+					return;
+				}
+				toRemove.add(q);
+				break;
+			case LinkFormat.RESOURCE_TYPE:
+				// stays in the query for LinkFormat.matches, the index only narrows the endpoints
+				if (!kvp.isFlag() && resourceTypeQuery == null) {
+					resourceTypeQuery = kvp.getValue();
+				}
+				break;
 			}
 		}
 		
 		// clear handled queries from list
 		query.removeAll(toRemove);
 		
-		// check registered resources
-		Iterator<Resource>  resIt = resources.iterator();
+		if ((count < 0) || (page < 0)) {
+			exchange.respond(ResponseCode.BAD_REQUEST);
+			return;
+		}
+		
+		RDRegistry registry = rdResource.getRegistry();
 		
-		while (resIt.hasNext()) {
-			Resource res = resIt.next();
-			if (res instanceof RDNodeResource) {
-				RDNodeResource node = (RDNodeResource) res;
-				if ( (sectorQuery.isEmpty() || sectorQuery.equals(node.getSector()))
-					 && (endpointQuery.isEmpty() || endpointQuery.equals(node.getEndpointName())) ) {
-					candidates.addAll(node.toLinkFormat(query));
+		// read before collecting, a concurrent change then only makes the result newer than its ETag
+		long version = registry.getVersion();
+		byte[] etag = RDRegistry.toETag(version);
+		if (exchange.getRequestOptions().containsETag(etag)) {
+			exchange.setETag(etag);
+			exchange.respond(ResponseCode.VALID);
+			return;
+		}
+		
+		boolean delta = since != Long.MIN_VALUE;
+		if (delta && !registry.isDeltaAvailable(since)) {
+			exchange.respond(ResponseCode.PRECONDITION_FAILED, "Changes since " + since + " not available, repeat the lookup without since");
+			return;
+		}
+		
+		LinkFormatBuffer result = countPresent ? new LinkFormatBuffer((long) count * page, (long) count * page + count) : new LinkFormatBuffer();
+		
+		// a delta starts with the removed endpoints, then lists the links of the changed ones
+		if (delta) {
+			for (byte[] link : registry.findRemoved(sectorQuery, endpointQuery, null, resourceTypeQuery, since)) {
+				if (result.isFull()) {
+					break;
 				}
+				result.offer(link);
 			}
 		}
 		
-		if ((count < 0) || (page < 0)) {
-			exchange.respond(ResponseCode.BAD_REQUEST);
-		} else if (candidates.isEmpty() || ((count * page) >= candidates.size()) || (count == 0 && countPresent)) {
-			exchange.respond(ResponseCode.CONTENT);
-		} else {
-			int from, to;
-			if (countPresent) {
-				from = count * page;
-				to = (from + count > candidates.size()) ? candidates.size() : from + count;
-			} else {
-				from = 0;
-				to = candidates.size();
+		// check registered resources, only of the endpoints with a matching rt;
+		// links are copied from the serialized fragments cached by each node
+		for (RDNodeResource node : registry.find(sectorQuery, endpointQuery, null, resourceTypeQuery, since)) {
+			RDNodeResource.LinkCache links = node.getLinkCache();
+			for (int i = 0; i < links.size() && !result.isFull(); i++) {
+				if (query.isEmpty() || LinkFormat.matches(links.getResource(i), query)) {
+					result.offer(links.getLink(i));
+				}
 			}
-			String result = "";
-			for (String s : candidates.subList(from, to)) {
-				result += s;
+			if (result.isFull()) {
+				break;
 			}
-			// also remove trailing comma
-			exchange.respond(ResponseCode.CONTENT, result.substring(0, result.length()-1), MediaTypeRegistry.APPLICATION_LINK_FORMAT);
 		}
+		
+		result.respond(exchange, etag);
 	}
 }
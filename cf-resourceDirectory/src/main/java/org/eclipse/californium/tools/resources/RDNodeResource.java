@@ -19,16 +19,17 @@ package org.eclipse.californium.tools.resources;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
 import java.util.TimerTask;
 import java.util.TreeSet;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,21 +41,12 @@ import org.eclipse.californium.core.coap.LinkFormat;
 import org.eclipse.californium.core.coap.Request;
 import org.eclipse.californium.core.server.resources.CoapExchange;
 import org.eclipse.californium.core.server.resources.Resource;
-import org.eclipse.californium.elements.util.DaemonThreadFactory;
 
 
 public class RDNodeResource extends CoapResource {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(RDNodeResource.class.getCanonicalName());
 	
-	/*
-	 * After the lifetime expires, the endpoint has RD_VALIDATION_TIMEOUT seconds
-	 * to update its entry before the RD enforces validation and removes the endpoint
-	 * if it does not respond.
-	 */
-	private static ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(//
-			new DaemonThreadFactory("RDLifeTime#"));
-	
 	private int lifeTime = 90000;
 	
 	private String endpointName;
@@ -62,7 +54,16 @@ public class RDNodeResource extends CoapResource {
 	private String base;
 	private TreeSet<String> endpointType = new TreeSet<>();
 	private HashMap<String, String> extraAttrs = new HashMap<>();
-	private ScheduledFuture<?> ltExpiryFuture;
+	private RDLifetimeManager.Lifetime ltExpiry;
+
+	/*
+	 * Serialized links, built on the first lookup after a change and then
+	 * copied as is into every lookup response. A change bumps linkVersion so a
+	 * build racing with it is not cached.
+	 */
+	private final AtomicInteger linkVersion = new AtomicInteger();
+	private volatile byte[] endpointLink;
+	private volatile LinkCache linkCache;
 	
 	public RDNodeResource(String ep, String sector) {
 		super(ep);
@@ -87,6 +88,8 @@ public class RDNodeResource extends CoapResource {
 	 */
 	public boolean setParameters(Request request) {
 
+		invalidateLinks();
+
 		boolean baseUpdated = false;
 		String newBase = "";
 
@@ -112,7 +115,7 @@ public class RDNodeResource extends CoapResource {
 			case LinkFormat.LIFE_TIME:
 				lifeTime = kvp.getIntValue();
 				if (lifeTime < 60) {
-					LOGGER.info("Enforcing minimal RD lifetime of 60 seconds (was " + lifeTime + ")");
+					LOGGER.info("Enforcing minimal RD lifetime of 60 seconds (was {})", lifeTime);
 					lifeTime = 60;
 				}
 				break;
@@ -140,15 +143,22 @@ public class RDNodeResource extends CoapResource {
 		}
 
 		// set lifetime on first call
-		if (ltExpiryFuture==null) {
+		if (ltExpiry==null) {
 			setLifeTime(lifeTime);
 		}
 		
-		return updateEndpointResources(request.getPayloadString());
+		boolean updated = updateEndpointResources(request.getPayloadString());
+		invalidateLinks();
+		return updated;
 	}
 
 	private void setBaseFromRequest(Request request, String newBase) 
 			throws URISyntaxException {
+		this.base = baseFromRequest(request, newBase);
+	}
+
+	private static String baseFromRequest(Request request, String newBase) 
+			throws URISyntaxException {
 		URI check;
 		String scheme, host = null;
 		int port = -1;
@@ -188,7 +198,54 @@ public class RDNodeResource extends CoapResource {
 		// set base from gathered values
 		check = new URI(scheme, null, host, port, null, null, null); // required to set port
 		// CoAP base template: coap[s?]://<host>:<port>
-		this.base = check.toString();
+		return check.toString();
+	}
+
+	/**
+	 * Checks whether a new registration of this endpoint carries the same
+	 * base, endpoint types and resource paths. Such a periodic re-registration
+	 * updates the node in place instead of replacing it.
+	 */
+	boolean isSameRegistration(Request request) {
+		String newBase = "";
+		Set<String> newTypes = new TreeSet<>();
+		for (String q : request.getOptions().getUriQuery()) {
+			KeyValuePair kvp = KeyValuePair.parse(q);
+			if (kvp.isFlag()) {
+				continue;
+			}
+			if (LinkFormat.BASE.equals(kvp.getName())) {
+				newBase = kvp.getValue();
+			} else if (LinkFormat.END_POINT_TYPE.equals(kvp.getName())) {
+				newTypes.add(kvp.getValue());
+			}
+		}
+		try {
+			if (!baseFromRequest(request, newBase).equals(base)) {
+				return false;
+			}
+		} catch (URISyntaxException e) {
+			return false;
+		}
+		if (!newTypes.equals(endpointType)) {
+			return false;
+		}
+		Set<String> newPaths = new HashSet<>();
+		for (WebLink l : LinkFormat.parse(request.getPayloadString())) {
+			newPaths.add(l.getURI().substring(l.getURI().indexOf("/")));
+		}
+		Set<String> paths = new HashSet<>();
+		collectRegisteredPaths(this, paths);
+		return newPaths.equals(paths);
+	}
+
+	private void collectRegisteredPaths(Resource resource, Set<String> paths) {
+		for (Resource res : resource.getChildren()) {
+			if (res.getAttributes().containsAttribute(LinkFormat.END_POINT)) {
+				paths.add(res.getURI().substring(getURI().length()));
+			}
+			collectRegisteredPaths(res, paths);
+		}
 	}
 
 	/*
@@ -228,14 +285,23 @@ public class RDNodeResource extends CoapResource {
 	@Override
 	public void delete() {
 
-		LOGGER.info("Removing endpoint: "+getBase());
+		LOGGER.info("Removing endpoint: {}", getBase());
 		
-		if (ltExpiryFuture!=null) {
-			// delete may be called from within the future
-			ltExpiryFuture.cancel(false);
+		if (ltExpiry!=null) {
+			// delete may be called by the expiry itself
+			ltExpiry.cancel();
 		}
 		
+		Resource parent = getParent();
 		super.delete();
+		invalidateLinks();
+		
+		if (parent instanceof RDResource) {
+			if (((RDResource) parent).getRegistry().remove(this)) {
+				((RDResource) parent).journalRemove(this);
+			}
+			((RDResource) parent).registrationChanged();
+		}
 	}
 
 	/*
@@ -253,11 +319,8 @@ public class RDNodeResource extends CoapResource {
 	@Override
 	public void handlePOST(CoapExchange exchange) {
 		
-		if (ltExpiryFuture != null) {
-			ltExpiryFuture.cancel(true); // try to cancel before delete is called
-		}
-		
-		LOGGER.info("Updating endpoint: "+getBase());
+		// periodic lifetime refresh from every node, only logged at debug
+		LOGGER.debug("Updating endpoint: {}", getBase());
 		
 		setParameters(exchange.advanced().getRequest());
 		
@@ -267,6 +330,9 @@ public class RDNodeResource extends CoapResource {
 		// complete the request
 		exchange.respond(ResponseCode.CHANGED);
 		
+		if (getParent() instanceof RDResource) {
+			((RDResource) getParent()).registrationUpdated(this);
+		}
 	}
 	
 	/*
@@ -278,6 +344,95 @@ public class RDNodeResource extends CoapResource {
 		exchange.respond(ResponseCode.DELETED);
 	}
 
+	/**
+	 * Restores a registration from the journal, with the remaining lifetime
+	 * it had when it was journaled. The node must already be a child of the
+	 * RD.
+	 */
+	void restore(String base, int lifeTime, Collection<String> endpointTypes, Map<String, String> extraAttrs,
+			String links, Map<String, Map<String, String>> tags, long remainingMillis) {
+		this.base = base;
+		this.lifeTime = lifeTime;
+		this.endpointType.addAll(endpointTypes);
+		// one by one, putAll would presize the map and change its iteration order
+		for (Map.Entry<String, String> entry : extraAttrs.entrySet()) {
+			this.extraAttrs.put(entry.getKey(), entry.getValue());
+		}
+		updateEndpointResources(links);
+		for (Map.Entry<String, Map<String, String>> entry : tags.entrySet()) {
+			Resource resource = getChild(this, entry.getKey());
+			if (resource instanceof RDTagResource) {
+				((RDTagResource) resource).addMultipleTags(new HashMap<>(entry.getValue()));
+			}
+		}
+		invalidateLinks();
+		if (getParent() instanceof RDResource) {
+			ltExpiry = ((RDResource) getParent()).getLifetimeManager().register(this,
+					(int) TimeUnit.MILLISECONDS.toSeconds(remainingMillis + 999));
+		}
+	}
+
+	private static Resource getChild(Resource resource, String path) {
+		for (String name : path.split("/")) {
+			if (!name.isEmpty() && resource != null) {
+				resource = resource.getChild(name);
+			}
+		}
+		return resource;
+	}
+
+	/**
+	 * Returns the links of this node as registered, i.e. with paths relative
+	 * to the base, for the journal.
+	 */
+	public String getRegisteredLinks() {
+		StringBuilder links = new StringBuilder();
+		appendRegisteredLinks(this, links);
+		return links.toString();
+	}
+
+	private void appendRegisteredLinks(Resource resource, StringBuilder links) {
+		for (Resource res : resource.getChildren()) {
+			// only registered links carry ep, the others are intermediate path segments
+			if (res.getAttributes().containsAttribute(LinkFormat.END_POINT)) {
+				String serialized = LinkFormat.serializeResource(res).toString();
+				links.append('<').append(res.getURI(), getURI().length(), res.getURI().length()).append('>');
+				links.append(serialized, serialized.indexOf('>') + 1, serialized.length());
+			}
+			appendRegisteredLinks(res, links);
+		}
+	}
+
+	/**
+	 * Returns the tags of the resources of this node by path relative to the
+	 * node, resources without tags are left out.
+	 */
+	public Map<String, Map<String, String>> getResourceTags() {
+		Map<String, Map<String, String>> tags = new HashMap<>();
+		collectTags(this, tags);
+		return tags;
+	}
+
+	private void collectTags(Resource resource, Map<String, Map<String, String>> tags) {
+		for (Resource res : resource.getChildren()) {
+			if (res instanceof RDTagResource && !((RDTagResource) res).getTags().isEmpty()) {
+				tags.put(res.getURI().substring(getURI().length()), new HashMap<>(((RDTagResource) res).getTags()));
+			}
+			collectTags(res, tags);
+		}
+	}
+
+	/**
+	 * Returns the time left until the registration expires, in milliseconds.
+	 */
+	public long getRemainingLifetime() {
+		return ltExpiry != null ? ltExpiry.getRemainingMillis() : TimeUnit.SECONDS.toMillis(lifeTime);
+	}
+
+	public int getLifeTime() {
+		return lifeTime;
+	}
+
 	/*
 	 * set either a new lifetime (for new resources, POST request) or update
 	 * the lifetime (for PUT request)
@@ -286,18 +441,13 @@ public class RDNodeResource extends CoapResource {
 		
 		lifeTime = newLifeTime;
 		
-		if (ltExpiryFuture != null) {
-			ltExpiryFuture.cancel(true);
+		if (ltExpiry != null) {
+			ltExpiry.refresh(lifeTime + 2); // contingency time
+		} else if (getParent() instanceof RDResource) {
+			ltExpiry = ((RDResource) getParent()).getLifetimeManager().register(this, lifeTime + 2);
+		} else {
+			LOGGER.warn("Endpoint {} is not registered in a resource directory, lifetime ignored", getEndpointName());
 		}
-		
-		ltExpiryFuture = scheduler.schedule(new Runnable() {
-			@Override
-			public void run() {
-				delete();
-			}			
-		}, lifeTime + 2, // contingency time
-				TimeUnit.SECONDS);
-	
 	}
 		
 	/**
@@ -332,37 +482,97 @@ public class RDNodeResource extends CoapResource {
 		return true;
 	}
 
-	/*
-	 * the following two methods put the resources of this node
-	 * in a list of strings in link format. Each string ends with ','.
+	/**
+	 * Returns the serialized links of all resources of this node, in
+	 * depth-first order, without separators.
+	 */
+	public LinkCache getLinkCache() {
+		LinkCache cache = linkCache;
+		if (cache == null) {
+			int version = linkVersion.get();
+			cache = new LinkCache();
+			buildLinkFormat(this, cache);
+			if (version == linkVersion.get()) {
+				linkCache = cache;
+			}
+		}
+		return cache;
+	}
+
+	/**
+	 * Returns the entry of this node for the endpoint lookup, without
+	 * separator.
 	 */
-	public List<String> toLinkFormat(List<String> query) {
-		// Build the link format recursively
-		return buildLinkFormat(this, query);
+	public byte[] getEndpointLink() {
+		byte[] link = endpointLink;
+		if (link == null) {
+			int version = linkVersion.get();
+			StringBuilder sb = new StringBuilder();
+			sb.append('<').append(getBase()).append(">;").append(LinkFormat.END_POINT).append("=\"").append(getEndpointName()).append('"');
+			sb.append(';').append(LinkFormat.SECTOR).append("=\"").append(getSector()).append('"');
+			for (String et : getEndpointTypes()) {
+				sb.append(';').append(LinkFormat.END_POINT_TYPE).append("=\"").append(et).append('"');
+			}
+			for (String key : getExtraAttrs().keySet()) {
+				sb.append(';').append(key).append("=\"").append(getExtraAttrs().get(key)).append('"');
+			}
+			link = sb.toString().getBytes(CoAP.UTF8_CHARSET);
+			if (version == linkVersion.get()) {
+				endpointLink = link;
+			}
+		}
+		return link;
 	}
 
-	private List<String> buildLinkFormat(Resource resource, List<String> query) {
-		List<String> resources = new ArrayList<>();
-		if (resource.getChildren().size() > 0) {
+	private void invalidateLinks() {
+		linkVersion.incrementAndGet();
+		endpointLink = null;
+		linkCache = null;
+	}
 
-			// Loop over all sub-resources
-			for (Resource res : resource.getChildren()) {
-				StringBuilder sb = new StringBuilder();
-				if (LinkFormat.matches(res, query)) {
-					// Convert Resource to string representation
-					sb.append("<"+getBase());
-					sb.append(res.getURI().substring(this.getURI().length()));
-					sb.append(">");
-					sb.append(LinkFormat.serializeResource(res).toString().replaceFirst("<.+>", ""));
-				}
-				if (sb.length() != 0) {
-					resources.add(sb.toString());
-				}
-				// Recurse
-				resources.addAll(buildLinkFormat(res, query));
-			}
+	private void buildLinkFormat(Resource resource, LinkCache cache) {
+		// Loop over all sub-resources
+		for (Resource res : resource.getChildren()) {
+			// Convert Resource to string representation, replacing its path with base and path
+			String serialized = LinkFormat.serializeResource(res).toString();
+			int attributes = serialized.indexOf('>') + 1;
+			int end = serialized.endsWith(",") ? serialized.length() - 1 : serialized.length();
+			StringBuilder sb = new StringBuilder(getBase().length() + serialized.length());
+			sb.append('<').append(getBase());
+			sb.append(res.getURI(), this.getURI().length(), res.getURI().length());
+			sb.append('>');
+			sb.append(serialized, attributes, end);
+			cache.add(res, sb.toString().getBytes(CoAP.UTF8_CHARSET));
+			// Recurse
+			buildLinkFormat(res, cache);
+		}
+	}
+
+	/**
+	 * Serialized links of a node with the resources they describe, so that
+	 * lookups can still filter them with {@link LinkFormat#matches}.
+	 */
+	public static final class LinkCache {
+
+		private final List<Resource> resources = new ArrayList<>();
+		private final List<byte[]> links = new ArrayList<>();
+
+		private void add(Resource resource, byte[] link) {
+			resources.add(resource);
+			links.add(link);
+		}
+
+		public int size() {
+			return links.size();
+		}
+
+		public Resource getResource(int index) {
+			return resources.get(index);
+		}
+
+		public byte[] getLink(int index) {
+			return links.get(index);
 		}
-		return resources;
 	}
 	
 	
@@ -385,6 +595,7 @@ public class RDNodeResource extends CoapResource {
 
 	public void addEndpointType(String endpointType) {
 		this.endpointType.add(endpointType);
+		invalidateLinks();
 	}
 
 	public String getBase() {
@@ -393,6 +604,7 @@ public class RDNodeResource extends CoapResource {
 
 	public void setBase(String base) {
 		this.base = base;
+		invalidateLinks();
 	}
 
 	public HashMap<String, String> getExtraAttrs() {
@@ -401,6 +613,7 @@ public class RDNodeResource extends CoapResource {
 
 	public void addExtraAttrs(String name, String value) {
 			this.extraAttrs.put(name, value);
+			invalidateLinks();
 	}
 	
 	class ExpiryTask extends TimerTask {
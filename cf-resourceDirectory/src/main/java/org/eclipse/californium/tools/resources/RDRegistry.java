@@ -0,0 +1,453 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.tools.resources;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.LinkFormat;
+import org.eclipse.californium.core.server.resources.Resource;
+
+/**
+ * Index of the registered endpoints, so that registrations and filtered
+ * lookups do not scan every child of the RD.
+ * <p>
+ * The primary index is keyed by (sector, ep) and kept sorted, which gives the
+ * lookups a stable order for paging. Secondary indexes map each endpoint type
+ * (et) and each resource type (rt) of the endpoint's links to the keys of the
+ * endpoints carrying it. All indexes are updated on registration, update and
+ * removal (explicit or by lifetime expiry).
+ * <p>
+ * Writers are serialized on the registry, readers never block. The secondary
+ * indexes only narrow down the candidates: callers still apply the full query
+ * to each returned node.
+ * <p>
+ * Every change of the registered links increases the registry version, which
+ * the lookups expose as ETag. Each entry remembers the version it was last
+ * changed in and removed endpoints leave a marker, so that a lookup with
+ * {@code since=<version>} can return only what changed after that version.
+ * Lifetime refreshes that do not change any link keep the version.
+ */
+public class RDRegistry {
+
+	/** Query parameter of the lookups to request the changes after a version. */
+	public static final String SINCE = "since";
+
+	/** Flag added to the endpoint link of removed endpoints in delta lookups. */
+	public static final String REMOVED = "removed";
+
+	/*
+	 * Removal markers kept for delta lookups. Beyond this, the oldest half is
+	 * dropped and deltas from before them are no longer available.
+	 */
+	private static final int MAX_REMOVED = 4096;
+
+	private final ConcurrentSkipListMap<Key, Entry> endpoints = new ConcurrentSkipListMap<>();
+	private final ConcurrentSkipListMap<Key, Removal> removed = new ConcurrentSkipListMap<>();
+	private final Map<String, Set<Key>> byEndpointType = new ConcurrentHashMap<>();
+	private final Map<String, Set<Key>> byResourceType = new ConcurrentHashMap<>();
+
+	/*
+	 * Starts from the clock, so a version handed out before a restart is
+	 * older than the oldest available delta and is not mistaken for a
+	 * current one.
+	 */
+	private volatile long version = System.currentTimeMillis();
+	private volatile long oldestDelta = version;
+
+	/**
+	 * Returns the endpoint registered with the given sector and name, or null.
+	 */
+	public RDNodeResource get(String sector, String endpointName) {
+		Entry entry = endpoints.get(new Key(sector, endpointName));
+		return entry != null ? entry.node : null;
+	}
+
+	/**
+	 * Adds the endpoint, replacing any previous registration with the same
+	 * sector and name, and indexes its current et and rt values.
+	 */
+	public synchronized void put(RDNodeResource node) {
+		Key key = new Key(node.getSector(), node.getEndpointName());
+		Entry previous = endpoints.get(key);
+		if (previous != null) {
+			unindex(key, previous);
+			addRemoval(key, previous);
+		}
+		store(key, node);
+	}
+
+	/**
+	 * Re-indexes an endpoint after an update changed its et or links. Ignored
+	 * if the node has been replaced or removed in the meantime, or if none of
+	 * its links changed (e.g. a plain lifetime refresh).
+	 * 
+	 * @return true if the endpoint changed
+	 */
+	public synchronized boolean update(RDNodeResource node) {
+		Key key = new Key(node.getSector(), node.getEndpointName());
+		Entry previous = endpoints.get(key);
+		if (previous == null || previous.node != node) {
+			return false;
+		}
+		if (Arrays.equals(previous.endpointLink, node.getEndpointLink())
+				&& sameLinks(previous.links, node.getLinkCache())) {
+			return false;
+		}
+		unindex(key, previous);
+		store(key, node);
+		return true;
+	}
+
+	/**
+	 * Removes the endpoint. A stale node (e.g. the expiry of a registration
+	 * that was already replaced) does not remove its successor.
+	 * 
+	 * @return true if the endpoint was removed
+	 */
+	public synchronized boolean remove(RDNodeResource node) {
+		Key key = new Key(node.getSector(), node.getEndpointName());
+		Entry entry = endpoints.get(key);
+		if (entry == null || entry.node != node) {
+			return false;
+		}
+		endpoints.remove(key);
+		unindex(key, entry);
+		addRemoval(key, entry);
+		return true;
+	}
+
+	/**
+	 * Returns the current version. Read it before collecting a lookup result:
+	 * a change racing with the lookup then only makes the result newer than
+	 * its version, never older.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns true if the changes after the given version can still be
+	 * returned as delta, false if the version is unknown to this registry
+	 * (from before a restart or older than the kept removal markers).
+	 */
+	public boolean isDeltaAvailable(long since) {
+		return since >= oldestDelta && since <= version;
+	}
+
+	/**
+	 * Encodes a version as ETag.
+	 */
+	public static byte[] toETag(long version) {
+		return ByteBuffer.allocate(Long.BYTES).putLong(version).array();
+	}
+
+	public int size() {
+		return endpoints.size();
+	}
+
+	/**
+	 * Returns all registered endpoints, in (sector, ep) order.
+	 */
+	public List<RDNodeResource> getEndpoints() {
+		List<RDNodeResource> result = new ArrayList<>(endpoints.size());
+		for (Entry entry : endpoints.values()) {
+			result.add(entry.node);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the candidate endpoints for a lookup, in (sector, ep) order.
+	 * Empty or null arguments do not filter. Wildcard rt values
+	 * (ending with '*') are not indexed and do not narrow the result.
+	 */
+	public List<RDNodeResource> find(String sector, String endpointName, Collection<String> endpointTypes, String resourceType) {
+		return find(sector, endpointName, endpointTypes, resourceType, Long.MIN_VALUE);
+	}
+
+	/**
+	 * Same as {@link #find(String, String, Collection, String)}, restricted to
+	 * the endpoints registered or changed after the given version.
+	 */
+	public List<RDNodeResource> find(String sector, String endpointName, Collection<String> endpointTypes, String resourceType, long since) {
+
+		boolean hasSector = sector != null && !sector.isEmpty();
+		boolean hasEndpoint = endpointName != null && !endpointName.isEmpty();
+
+		if (hasSector && hasEndpoint) {
+			Entry entry = endpoints.get(new Key(sector, endpointName));
+			return entry != null && entry.version > since ? Collections.singletonList(entry.node) : Collections.<RDNodeResource>emptyList();
+		}
+
+		// smallest secondary index, if any applies
+		Set<Key> smallest = null;
+		if (endpointTypes != null) {
+			for (String et : endpointTypes) {
+				Set<Key> keys = byEndpointType.get(et);
+				if (keys == null) {
+					return Collections.emptyList();
+				}
+				if (smallest == null || keys.size() < smallest.size()) {
+					smallest = keys;
+				}
+			}
+		}
+		if (resourceType != null && !resourceType.isEmpty() && !resourceType.endsWith("*")) {
+			Set<Key> keys = byResourceType.get(resourceType);
+			if (keys == null) {
+				return Collections.emptyList();
+			}
+			if (smallest == null || keys.size() < smallest.size()) {
+				smallest = keys;
+			}
+		}
+
+		Collection<Entry> scan;
+		if (smallest != null) {
+			List<Entry> entries = new ArrayList<>(smallest.size());
+			for (Key key : smallest) {
+				Entry entry = endpoints.get(key);
+				if (entry != null) {
+					entries.add(entry);
+				}
+			}
+			scan = entries;
+		} else if (hasSector) {
+			scan = sectorRange(endpoints, sector).values();
+		} else {
+			scan = endpoints.values();
+		}
+
+		List<RDNodeResource> result = new ArrayList<>();
+		for (Entry entry : scan) {
+			if (entry.version > since
+					&& (!hasSector || sector.equals(entry.node.getSector()))
+					&& (!hasEndpoint || endpointName.equals(entry.node.getEndpointName()))
+					&& (endpointTypes == null || entry.endpointTypes.containsAll(endpointTypes))) {
+				result.add(entry.node);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the endpoint links, flagged with {@link #REMOVED}, of the
+	 * endpoints removed or replaced after the given version, in (sector, ep)
+	 * order. The et and rt filters apply to the values the endpoint had when
+	 * it was removed. Empty or null arguments do not filter.
+	 */
+	public List<byte[]> findRemoved(String sector, String endpointName, Collection<String> endpointTypes, String resourceType, long since) {
+
+		boolean hasSector = sector != null && !sector.isEmpty();
+		boolean hasEndpoint = endpointName != null && !endpointName.isEmpty();
+		boolean hasEndpointTypes = endpointTypes != null && !endpointTypes.isEmpty();
+		boolean hasResourceType = resourceType != null && !resourceType.isEmpty();
+
+		Collection<Removal> scan = hasSector ? sectorRange(removed, sector).values() : removed.values();
+		List<byte[]> result = new ArrayList<>();
+		for (Removal removal : scan) {
+			if (removal.version > since
+					&& (!hasEndpoint || endpointName.equals(removal.endpointName))
+					&& (!hasEndpointTypes || removal.endpointTypes.containsAll(endpointTypes))
+					&& (!hasResourceType || removal.resourceTypes.contains(resourceType))) {
+				result.add(removal.endpointLink);
+			}
+		}
+		return result;
+	}
+
+	private void store(Key key, RDNodeResource node) {
+		Entry entry = new Entry(node, new HashSet<>(node.getEndpointTypes()), collectResourceTypes(node),
+				++version, node.getEndpointLink(), node.getLinkCache());
+		endpoints.put(key, entry);
+		index(key, entry);
+	}
+
+	private void addRemoval(Key key, Entry entry) {
+		byte[] link = entry.endpointLink;
+		byte[] flagged = Arrays.copyOf(link, link.length + 1 + REMOVED.length());
+		flagged[link.length] = ';';
+		System.arraycopy(REMOVED.getBytes(CoAP.UTF8_CHARSET), 0, flagged, link.length + 1, REMOVED.length());
+		removed.put(key, new Removal(key.endpointName, entry.endpointTypes, entry.resourceTypes, ++version, flagged));
+
+		if (removed.size() > MAX_REMOVED) {
+			// drop the oldest half, deltas must then start after the newest dropped one
+			long[] versions = new long[removed.size()];
+			int count = 0;
+			for (Removal removal : removed.values()) {
+				if (count < versions.length) {
+					versions[count++] = removal.version;
+				}
+			}
+			Arrays.sort(versions, 0, count);
+			long limit = versions[count / 2 - 1];
+			for (Iterator<Removal> iterator = removed.values().iterator(); iterator.hasNext();) {
+				if (iterator.next().version <= limit) {
+					iterator.remove();
+				}
+			}
+			oldestDelta = limit;
+		}
+	}
+
+	private static boolean sameLinks(RDNodeResource.LinkCache previous, RDNodeResource.LinkCache current) {
+		if (previous.size() != current.size()) {
+			return false;
+		}
+		for (int i = 0; i < previous.size(); i++) {
+			if (!Arrays.equals(previous.getLink(i), current.getLink(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static <V> NavigableMap<Key, V> sectorRange(NavigableMap<Key, V> map, String sector) {
+		return map.subMap(new Key(sector, ""), true, new Key(sector + '\0', ""), false);
+	}
+
+	private void index(Key key, Entry entry) {
+		for (String et : entry.endpointTypes) {
+			byEndpointType.computeIfAbsent(et, k -> new ConcurrentSkipListSet<>()).add(key);
+		}
+		for (String rt : entry.resourceTypes) {
+			byResourceType.computeIfAbsent(rt, k -> new ConcurrentSkipListSet<>()).add(key);
+		}
+	}
+
+	private void unindex(Key key, Entry entry) {
+		unindex(byEndpointType, entry.endpointTypes, key);
+		unindex(byResourceType, entry.resourceTypes, key);
+	}
+
+	private static void unindex(Map<String, Set<Key>> index, Set<String> values, Key key) {
+		for (String value : values) {
+			Set<Key> keys = index.get(value);
+			if (keys != null) {
+				keys.remove(key);
+				if (keys.isEmpty()) {
+					index.remove(value);
+				}
+			}
+		}
+	}
+
+	/*
+	 * rt values of all links of the endpoint; space separated values are
+	 * indexed both whole and per token, as LinkFormat.matches accepts either.
+	 */
+	private static Set<String> collectResourceTypes(Resource resource) {
+		Set<String> resourceTypes = new HashSet<>();
+		collectResourceTypes(resource, resourceTypes);
+		return resourceTypes;
+	}
+
+	private static void collectResourceTypes(Resource resource, Set<String> resourceTypes) {
+		for (Resource child : resource.getChildren()) {
+			for (String rt : child.getAttributes().getAttributeValues(LinkFormat.RESOURCE_TYPE)) {
+				resourceTypes.add(rt);
+				if (rt.indexOf(' ') >= 0) {
+					for (String token : rt.split(" +")) {
+						if (!token.isEmpty()) {
+							resourceTypes.add(token);
+						}
+					}
+				}
+			}
+			collectResourceTypes(child, resourceTypes);
+		}
+	}
+
+	private static final class Entry {
+
+		private final RDNodeResource node;
+		private final Set<String> endpointTypes;
+		private final Set<String> resourceTypes;
+		private final long version;
+		private final byte[] endpointLink;
+		private final RDNodeResource.LinkCache links;
+
+		private Entry(RDNodeResource node, Set<String> endpointTypes, Set<String> resourceTypes, long version,
+				byte[] endpointLink, RDNodeResource.LinkCache links) {
+			this.node = node;
+			this.endpointTypes = endpointTypes;
+			this.resourceTypes = resourceTypes;
+			this.version = version;
+			this.endpointLink = endpointLink;
+			this.links = links;
+		}
+	}
+
+	private static final class Removal {
+
+		private final String endpointName;
+		private final Set<String> endpointTypes;
+		private final Set<String> resourceTypes;
+		private final long version;
+		private final byte[] endpointLink;
+
+		private Removal(String endpointName, Set<String> endpointTypes, Set<String> resourceTypes, long version,
+				byte[] endpointLink) {
+			this.endpointName = endpointName;
+			this.endpointTypes = endpointTypes;
+			this.resourceTypes = resourceTypes;
+			this.version = version;
+			this.endpointLink = endpointLink;
+		}
+	}
+
+	private static final class Key implements Comparable<Key> {
+
+		private final String sector;
+		private final String endpointName;
+
+		private Key(String sector, String endpointName) {
+			this.sector = sector;
+			this.endpointName = endpointName;
+		}
+
+		@Override
+		public int compareTo(Key other) {
+			int result = sector.compareTo(other.sector);
+			return result != 0 ? result : endpointName.compareTo(other.endpointName);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return sector.equals(other.sector) && endpointName.equals(other.endpointName);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * sector.hashCode() + endpointName.hashCode();
+		}
+	}
+}
@@ -15,18 +15,41 @@
  ******************************************************************************/
 package org.eclipse.californium.tools.resources;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.eclipse.californium.core.CoapResource;
 import org.eclipse.californium.core.coap.LinkFormat;
 import org.eclipse.californium.core.coap.MediaTypeRegistry;
 import org.eclipse.californium.core.coap.CoAP.ResponseCode;
 import org.eclipse.californium.core.server.resources.CoapExchange;
-import org.eclipse.californium.core.server.resources.Resource;
+import org.eclipse.californium.elements.util.DaemonThreadFactory;
 
 
 public class RDResource extends CoapResource {
 
+	/*
+	 * Registrations, updates and removals are coalesced for this many
+	 * milliseconds before the lookup resources notify their observers, so a
+	 * burst of (re-)registrations results in a single notification.
+	 */
+	private static final long CHANGE_NOTIFICATION_DELAY = 200;
+
+	private static ScheduledExecutorService notifier = Executors.newSingleThreadScheduledExecutor(//
+			new DaemonThreadFactory("RDNotify#"));
+
+	private final RDRegistry registry = new RDRegistry();
+	private final RDLifetimeManager lifetimeManager = new RDLifetimeManager();
+	private final List<CoapResource> lookupResources = new CopyOnWriteArrayList<>();
+	private final AtomicBoolean changePending = new AtomicBoolean(false);
+	private volatile RDJournal journal;
+
 	public RDResource() {
 		this("rd");
 	}
@@ -51,7 +74,8 @@ public class RDResource extends CoapResource {
 		
 		ResponseCode responseCode;
 
-		LOGGER.info("Registration request from "+exchange.getSourceAddress().getHostName()+":"+exchange.getSourcePort());
+		// getHostAddress() avoids a reverse DNS lookup per registration
+		LOGGER.debug("Registration request from {}:{}", exchange.getSourceAddress().getHostAddress(), exchange.getSourcePort());
 		
 		List<String> query = exchange.getRequestOptions().getUriQuery();
 		for (String q : query) {
@@ -69,16 +93,24 @@ public class RDResource extends CoapResource {
 
 		// mandatory variables
 		if (endpointName.isEmpty()) {
-			LOGGER.info("Missing Endpoint Name for "+exchange.getSourceAddress().getHostName()+":"+exchange.getSourcePort());
+			LOGGER.info("Missing Endpoint Name for {}:{}", exchange.getSourceAddress().getHostAddress(), exchange.getSourcePort());
 			exchange.respond(ResponseCode.BAD_REQUEST, "Missing Endpoint Name (?ep)");
 			return;
 		}
 		
 		// find already registered EP
-		for (Resource node : getChildren()) {
-			if (((RDNodeResource) node).getEndpointName().equals(endpointName) && ((RDNodeResource) node).getSector().equals(sector)) {
-				resource = (RDNodeResource) node;
-			}
+		resource = registry.get(sector, endpointName);
+
+		// periodic re-registration of an unchanged endpoint: only the lifetime is refreshed
+		if (resource != null && resource.isSameRegistration(exchange.advanced().getRequest())) {
+			LOGGER.debug("Re-registration of endpoint: {}", resource.getBase());
+			resource.setParameters(exchange.advanced().getRequest());
+			resource.setLifeTime(resource.getLifeTime());
+			// same answer as a new registration, the location is unchanged
+			exchange.setLocationPath(resource.getURI());
+			exchange.respond(ResponseCode.CREATED);
+			registrationUpdated(resource);
+			return;
 		}
 
 		//Endpoint unaware of its previous entry in RD: deleting it to put the latest entry.
@@ -106,13 +138,120 @@ public class RDResource extends CoapResource {
 			return;
 		}
 		
-		LOGGER.info("Adding new endpoint: "+resource.getBase());
+		// index only once the links are known, so rt lookups see them
+		registry.put(resource);
+		journalPut(resource);
+
+		LOGGER.info("Adding new endpoint: {}", resource.getBase());
 
 		// inform client about the location of the new resource
 		exchange.setLocationPath(resource.getURI());
 
 		// complete the request
 		exchange.respond(responseCode);
+
+		registrationChanged();
+	}
+
+	/**
+	 * Returns the index of the registered endpoints.
+	 */
+	public RDRegistry getRegistry() {
+		return registry;
+	}
+
+	/**
+	 * Returns the manager expiring the registrations of this RD.
+	 */
+	public RDLifetimeManager getLifetimeManager() {
+		return lifetimeManager;
+	}
+
+	/**
+	 * Sets the journal recording the registrations, or null to keep them
+	 * in memory only.
+	 */
+	public void setJournal(RDJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * Restores a registration read from the journal. Registrations whose
+	 * lifetime has already expired are skipped.
+	 * 
+	 * @return the restored node, or null if skipped
+	 */
+	RDNodeResource restore(String endpointName, String sector, String base, int lifeTime, Collection<String> endpointTypes,
+			Map<String, String> extraAttrs, String links, Map<String, Map<String, String>> tags, long remainingMillis) {
+		if (remainingMillis <= 0 || registry.get(sector, endpointName) != null) {
+			return null;
+		}
+		RDNodeResource resource = new RDNodeResource(endpointName, sector);
+		add(resource);
+		resource.restore(base, lifeTime, endpointTypes, extraAttrs, links, tags, remainingMillis);
+		registry.put(resource);
+		return resource;
+	}
+
+	/**
+	 * Re-indexes an endpoint updated in place. Only a change of its et or
+	 * links is journaled as a new registration and notified to observers,
+	 * otherwise just the lifetime refresh is journaled.
+	 */
+	void registrationUpdated(RDNodeResource resource) {
+		if (registry.update(resource)) {
+			journalPut(resource);
+			registrationChanged();
+		} else {
+			journalRefresh(resource);
+		}
+	}
+
+	void journalPut(RDNodeResource resource) {
+		RDJournal current = journal;
+		if (current != null) {
+			current.put(resource);
+		}
+	}
+
+	void journalRefresh(RDNodeResource resource) {
+		RDJournal current = journal;
+		if (current != null) {
+			current.refresh(resource);
+		}
+	}
+
+	void journalRemove(RDNodeResource resource) {
+		RDJournal current = journal;
+		if (current != null) {
+			current.remove(resource);
+		}
+	}
+
+	/**
+	 * Registers an observable lookup resource to be notified whenever the set
+	 * of registered endpoints or their links changes.
+	 */
+	public void addLookupResource(CoapResource lookupResource) {
+		lookupResources.add(lookupResource);
+	}
+
+	/**
+	 * Schedules a change notification on all lookup resources. Calls within
+	 * {@link #CHANGE_NOTIFICATION_DELAY} ms are merged into one notification.
+	 */
+	public void registrationChanged() {
+		if (changePending.compareAndSet(false, true)) {
+			notifier.schedule(new Runnable() {
+				@Override
+				public void run() {
+					changePending.set(false);
+					for (CoapResource lookupResource : lookupResources) {
+						lookupResource.changed();
+					}
+				}
+			}, CHANGE_NOTIFICATION_DELAY, TimeUnit.MILLISECONDS);
+		}
 	}
 
 }
@@ -204,6 +204,7 @@ public class RDTagTopResource extends CoapResource {
 			return;
 		}
 
+		Set<RDNodeResource> tagged = new HashSet<RDNodeResource>();
 		for (Resource target : targets) {
 			if (target.getClass() != RDTagResource.class) {
 				continue;
@@ -232,6 +233,11 @@ public class RDTagTopResource extends CoapResource {
 				}
 				((RDTagResource) target).addMultipleTags(tags);
 			}
+			tagged.add(((RDTagResource) target).getParentNode());
+		}
+		// tags are part of the journaled state of the endpoint
+		for (RDNodeResource node : tagged) {
+			rdResource.journalPut(node);
 		}
 		exchange.respond(ResponseCode.CHANGED);
 
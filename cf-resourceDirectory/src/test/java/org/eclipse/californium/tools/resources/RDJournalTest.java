@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (c) 2015 Institute for Pervasive Computing, ETH Zurich and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v2.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v20.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ ******************************************************************************/
+package org.eclipse.californium.tools.resources;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Round trip of the registrations through the journal file, including a torn
+ * tail and a corrupt record in the middle of the file.
+ */
+public class RDJournalTest {
+
+	private static final long LIFETIME_MILLIS = 600000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path file;
+	private Path corruptFile;
+
+	@Before
+	public void setUp() {
+		file = folder.getRoot().toPath().resolve("journal.log");
+		corruptFile = file.resolveSibling("journal.log.corrupt");
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		RDResource rd = new RDResource();
+		RDJournal journal = open(rd);
+		journal.replay();
+		for (int i = 0; i < 3; i++) {
+			register(rd, journal, i);
+		}
+		journal.remove(rd.getRegistry().get("local", "ep1"));
+		journal.close();
+		String links = rd.getRegistry().get("local", "ep2").getRegisteredLinks();
+
+		RDResource restored = new RDResource();
+		assertEquals(2, open(restored).replay());
+
+		RDNodeResource node = restored.getRegistry().get("local", "ep2");
+		assertNotNull(node);
+		assertNull(restored.getRegistry().get("local", "ep1"));
+		assertEquals("coap://10.0.0.1:10002", node.getBase());
+		assertEquals(Collections.singleton("dev"), node.getEndpointTypes());
+		assertEquals(links, node.getRegisteredLinks());
+		assertFalse(Files.exists(corruptFile));
+	}
+
+	@Test
+	public void testReplayKeepsRemainingLifetime() throws IOException {
+		RDResource rd = new RDResource();
+		RDJournal journal = open(rd);
+		journal.replay();
+		register(rd, journal, 0);
+		journal.close();
+
+		RDResource restored = new RDResource();
+		open(restored).replay();
+
+		// restored with the lifetime left when journaled, not a new full lifetime
+		long remaining = restored.getRegistry().get("local", "ep0").getRemainingLifetime();
+		assertTrue("remaining " + remaining, remaining > LIFETIME_MILLIS - 10000);
+		assertTrue("remaining " + remaining, remaining <= LIFETIME_MILLIS + 5000);
+	}
+
+	@Test
+	public void testTornTailIsCutOff() throws IOException {
+		RDResource rd = new RDResource();
+		RDJournal journal = open(rd);
+		journal.replay();
+		for (int i = 0; i < 3; i++) {
+			register(rd, journal, i);
+		}
+		journal.close();
+
+		// header of a record whose payload was never written
+		byte[] torn = ByteBuffer.allocate(10).putInt(100).putInt(0).array();
+		Files.write(file, torn, StandardOpenOption.APPEND);
+		byte[] original = Files.readAllBytes(file);
+
+		RDResource restored = new RDResource();
+		assertEquals(3, open(restored).replay());
+		assertArrayEquals(original, Files.readAllBytes(corruptFile));
+	}
+
+	@Test
+	public void testCorruptRecordIsSkipped() throws IOException {
+		RDResource rd = new RDResource();
+		RDJournal journal = open(rd);
+		journal.replay();
+		for (int i = 0; i < 3; i++) {
+			register(rd, journal, i);
+		}
+		journal.close();
+
+		// flip a byte in the payload of the second record
+		byte[] bytes = Files.readAllBytes(file);
+		int second = 8 + ByteBuffer.wrap(bytes).getInt(0);
+		bytes[second + 8 + 5] ^= 0x55;
+		Files.write(file, bytes);
+
+		RDResource restored = new RDResource();
+		assertEquals(2, open(restored).replay());
+		assertNotNull(restored.getRegistry().get("local", "ep0"));
+		assertNull(restored.getRegistry().get("local", "ep1"));
+		assertNotNull(restored.getRegistry().get("local", "ep2"));
+		assertArrayEquals(bytes, Files.readAllBytes(corruptFile));
+	}
+
+	private RDJournal open(RDResource rd) throws IOException {
+		RDJournal journal = new RDJournal(file, rd);
+		rd.setJournal(journal);
+		return journal;
+	}
+
+	private static void register(RDResource rd, RDJournal journal, int index) {
+		Map<String, String> none = Collections.emptyMap();
+		Map<String, Map<String, String>> noTags = Collections.emptyMap();
+		RDNodeResource node = rd.restore("ep" + index, "local", "coap://10.0.0.1:" + (10000 + index), 300,
+				Collections.singleton("dev"), none, "</x>;rt=\"iot.sensor.pir\"", noTags, LIFETIME_MILLIS);
+		journal.put(node);
+	}
+}